@@ -470,7 +470,9 @@ public class APIController extends BaseController implements ServletContextAware
         // workaround for http://jetbrains.net/tracker/issue2/TW-7656
         doUnderContextClassLoader(getClass().getClassLoader(), new FuncThrow<Void, Throwable>() {
           public Void apply() throws Throwable {
-            return new RestContext(name -> request.getAttribute(CONTEXT_REQUEST_ARGUMENTS_PREFIX + name))
+            //memoization is safe only for the requests which do not modify anything
+            final boolean memoizationEnabled = "GET".equalsIgnoreCase(request.getMethod()) || "HEAD".equalsIgnoreCase(request.getMethod());
+            return new RestContext(name -> request.getAttribute(CONTEXT_REQUEST_ARGUMENTS_PREFIX + name), mySecurityContext, memoizationEnabled)
               .run(() -> {
               // patching request
               final HttpServletRequest actualRequest =
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.function.Supplier;
+import jetbrains.buildServer.server.rest.model.agent.Compatibility;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Caches the results of agent - build configuration compatibility calculation which are used by the agents, build configurations and builds filtering and beans.
+ * The results are stored per agent and agent pool and are dropped on the agent's registration and description changes,
+ * all the results are dropped on any build configuration, template or project settings change. The least recently used results are dropped when the number of the results exceeds the limit.
+ * The agents which can run a queued build are cached per queued build the same way as the queued build's compatibility can differ from the build configuration's one.
+ * Some changes can affect the compatibility without a dedicated event (e.g. parameters of the agent type): these are reflected only after the cached result expires
+ * (see {@link #MAX_AGE_PROPERTY}), so till then the cached compatibility can be stale.
+ */
+public class AgentCompatibilityCache extends BuildServerAdapter {
+  static final String ENABLED_PROPERTY = "rest.agentCompatibilityCache.enabled";
+  static final String MAX_ENTRIES_PROPERTY = "rest.agentCompatibilityCache.maxEntries";
+  static final String MAX_AGE_PROPERTY = "rest.agentCompatibilityCache.maxAgeSeconds";
+
+  //the map is replaced instead of clearing so that a value calculated concurrently with the invalidation is not stored into the new map
+  @NotNull private volatile Map<Key, Entry<Compatibility.AgentCompatibilityData>> myEntries = createLruMap();
+  @NotNull private volatile Map<String, Entry<List<SBuildAgent>>> myQueuedBuildAgents = createLruMap();
+
+  public AgentCompatibilityCache(@NotNull final SBuildServer server) {
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @param calculator calculates the compatibility if there is no actual cached result
+   */
+  @NotNull
+  public Compatibility.AgentCompatibilityData get(@NotNull final SBuildAgent agent,
+                                                  @NotNull final SBuildType buildType,
+                                                  @NotNull final Supplier<Compatibility.AgentCompatibilityData> calculator) {
+    return get(myEntries, new Key(agent.getId(), agent.getAgentPoolId(), buildType.getInternalId()), calculator);
+  }
+
+  /**
+   * @param calculator calculates the agents which can run the queued build if there is no actual cached result, usually {@link SQueuedBuild#getCanRunOnAgents()}
+   */
+  @NotNull
+  public List<SBuildAgent> getCanRunOnAgents(@NotNull final SQueuedBuild queuedBuild, @NotNull final Supplier<List<SBuildAgent>> calculator) {
+    return get(myQueuedBuildAgents, queuedBuild.getItemId(), () -> Collections.unmodifiableList(new ArrayList<>(calculator.get())));
+  }
+
+  @NotNull
+  private static <K, V> V get(@NotNull final Map<K, Entry<V>> entries, @NotNull final K key, @NotNull final Supplier<V> calculator) {
+    final long now = System.currentTimeMillis();
+    final Entry<V> entry = entries.get(key);
+    if (entry != null && now - entry.myTimestamp <= TeamCityProperties.getInteger(MAX_AGE_PROPERTY, 60) * 1000L) {
+      return entry.myData;
+    }
+
+    final V result = calculator.get();
+    entries.put(key, new Entry<>(result, now));
+    return result;
+  }
+
+  private static <K, V> Map<K, V> createLruMap() {
+    return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+        return size() > TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 200000);
+      }
+    });
+  }
+
+  int getSize() {
+    return myEntries.size();
+  }
+
+  int getQueuedBuildsSize() {
+    return myQueuedBuildAgents.size();
+  }
+
+  private void reset() {
+    myEntries = createLruMap();
+    myQueuedBuildAgents = createLruMap();
+  }
+
+  private void resetAgent(@NotNull final SBuildAgent agent) {
+    final int agentId = agent.getId();
+    final Map<Key, Entry<Compatibility.AgentCompatibilityData>> entries = myEntries;
+    synchronized (entries) {
+      entries.keySet().removeIf(key -> key.myAgentId == agentId);
+    }
+    myQueuedBuildAgents = createLruMap(); //the lists are not per agent
+  }
+
+  @Override
+  public void agentRegistered(@NotNull final SBuildAgent agent, final long currentlyRunningBuildId) {
+    resetAgent(agent);
+  }
+
+  @Override
+  public void agentDescriptionUpdated(@NotNull final SBuildAgent agent) {
+    resetAgent(agent);
+  }
+
+  @Override
+  public void agentUnregistered(@NotNull final SBuildAgent agent) {
+    resetAgent(agent);
+  }
+
+  @Override
+  public void agentRemoved(@NotNull final SBuildAgent agent) {
+    resetAgent(agent);
+  }
+
+  @Override
+  public void buildRemovedFromQueue(@NotNull final SQueuedBuild queued, final User user, final String comment) {
+    myQueuedBuildAgents.remove(queued.getItemId());
+  }
+
+  @Override
+  public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+    reset();
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    reset();
+  }
+
+  @Override
+  public void buildTypePersisted(@NotNull final SBuildType buildType) {
+    reset();
+  }
+
+  @Override
+  public void buildTypeTemplatePersisted(@NotNull final BuildTypeTemplate buildTemplate) {
+    reset();
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    reset();
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    reset();
+  }
+
+  private static class Key {
+    private final int myAgentId;
+    private final int myAgentPoolId;
+    @NotNull private final String myBuildTypeId;
+
+    Key(final int agentId, final int agentPoolId, @NotNull final String buildTypeId) {
+      myAgentId = agentId;
+      myAgentPoolId = agentPoolId;
+      myBuildTypeId = buildTypeId;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key)o;
+      return myAgentId == key.myAgentId && myAgentPoolId == key.myAgentPoolId && myBuildTypeId.equals(key.myBuildTypeId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myAgentId, myAgentPoolId, myBuildTypeId);
+    }
+  }
+
+  private static class Entry<V> {
+    @NotNull private final V myData;
+    private final long myTimestamp;
+
+    Entry(@NotNull final V data, final long timestamp) {
+      myData = data;
+      myTimestamp = timestamp;
+    }
+  }
+}
@@ -285,10 +285,11 @@ public class AgentFinder extends AbstractFinder<SBuildAgent> {
     List<BuildPromotion> builds = finder.getItems(buildDimension).myEntries;
     //agents with the same id can be returned (not existing agents)
     TreeSet<SBuildAgent> result = createContainerSet();
+    final AgentCompatibilityCache compatibilityCache = getCompatibilityCache(myServiceLocator);
     for (BuildPromotion build : builds) {
       SQueuedBuild queuedBuild = build.getQueuedBuild();
       if (queuedBuild != null && !build.isCompositeBuild()) { //isAgentLessBuild should be used here, but queued build does not have that so far
-        result.addAll(queuedBuild.getCanRunOnAgents());
+        result.addAll(getCanRunOnAgents(queuedBuild, compatibilityCache));
       } else {
         SBuild associatedBuild = build.getAssociatedBuild();
         if (associatedBuild != null && !associatedBuild.isAgentLessBuild()) {
@@ -381,8 +382,8 @@ public class AgentFinder extends AbstractFinder<SBuildAgent> {
     return true;
   }
 
-  public static boolean canActuallyRun(@NotNull final SBuildAgent agent, @NotNull final SBuildType buildType) {
-    return getCompatibilityData(agent, buildType).isCompatible();
+  public boolean canActuallyRun(@NotNull final SBuildAgent agent, @NotNull final SBuildType buildType) {
+    return getCompatibilityData(agent, buildType, getCompatibilityCache(myServiceLocator)).isCompatible();
   }
 
   @NotNull
@@ -391,8 +392,9 @@ public class AgentFinder extends AbstractFinder<SBuildAgent> {
                                                                            final @NotNull ServiceLocator serviceLocator) {
     ArrayList<Compatibility.AgentCompatibilityData> result = new ArrayList<>();
     List<SBuildType> buildTypesToProcess = buildTypes != null ? buildTypes : serviceLocator.getSingletonService(ProjectManager.class).getAllBuildTypes();
+    final AgentCompatibilityCache compatibilityCache = getCompatibilityCache(serviceLocator);
     for (final SBuildType buildType : buildTypesToProcess) {
-      Compatibility.AgentCompatibilityData compatibilityData = getCompatibilityData(agent, buildType);
+      Compatibility.AgentCompatibilityData compatibilityData = getCompatibilityData(agent, buildType, compatibilityCache);
       if (!compatibilityData.isCompatible()) {
         result.add(compatibilityData);
       }
@@ -400,13 +402,39 @@ public class AgentFinder extends AbstractFinder<SBuildAgent> {
     return result;
   }
 
-  private static Compatibility.AgentCompatibilityData getCompatibilityData(final @NotNull SBuildAgent agent, final @NotNull SBuildType buildType) {
+  @Nullable
+  private static AgentCompatibilityCache getCompatibilityCache(final @NotNull ServiceLocator serviceLocator) {
+    if (!AgentCompatibilityCache.isEnabled()) return null;
+    return serviceLocator.findSingletonService(AgentCompatibilityCache.class);
+  }
+
+  @NotNull
+  private static List<SBuildAgent> getCanRunOnAgents(final @NotNull SQueuedBuild queuedBuild, final @Nullable AgentCompatibilityCache compatibilityCache) {
+    if (compatibilityCache != null) {
+      return compatibilityCache.getCanRunOnAgents(queuedBuild, queuedBuild::getCanRunOnAgents);
+    }
+    return queuedBuild.getCanRunOnAgents();
+  }
+
+  @NotNull
+  private static Compatibility.AgentCompatibilityData getCompatibilityData(final @NotNull SBuildAgent agent,
+                                                                           final @NotNull SBuildType buildType,
+                                                                           final @Nullable AgentCompatibilityCache compatibilityCache) {
+    //policy and pool checks are cheap and are not cached so that pool changes are applied at once
     if (!getAgentType(agent).getPolicy().isBuildTypeAllowed(buildType.getBuildTypeId())) {
       return new Compatibility.BasicAgentCompatibilityData(agent, buildType, false, "Restricted by agent policy");
     }
     if (!agent.getAgentPool().containsProjectId(buildType.getProjectId())) {
       return new Compatibility.BasicAgentCompatibilityData(agent, buildType, false, "Agent belongs to the pool not associated with the project");
     }
+    if (compatibilityCache != null) {
+      return compatibilityCache.get(agent, buildType, () -> calculateCompatibilityData(agent, buildType));
+    }
+    return calculateCompatibilityData(agent, buildType);
+  }
+
+  @NotNull
+  private static Compatibility.AgentCompatibilityData calculateCompatibilityData(final @NotNull SBuildAgent agent, final @NotNull SBuildType buildType) {
 
     //if (!agent.isEnabled()) //considered compatible
     //if (!agent.isRegistered()) //considered compatible
@@ -428,18 +456,19 @@ public class AgentFinder extends AbstractFinder<SBuildAgent> {
   public boolean canActuallyRun(@NotNull final SBuildAgent agent, @NotNull final BuildPromotion build) {
     //consider passing checkEnabled flag from outside (from agent locator), so that one can find disabled agents compatible with a build
     if (!agent.isRegistered() || !agent.isAuthorized()) return false; //is this separate check necessary?
-    if (build.getCanRunOnAgents(Collections.singletonList(agent)).isEmpty()) {
-      return false;
-    }
-    SQueuedBuild queuedBuild = build.getQueuedBuild(); // doing this after  build.getCanRunOnAgents as this does not take agent as argument
+    SQueuedBuild queuedBuild = build.getQueuedBuild();
     if (queuedBuild != null) {
       if (!isAgentRestrictorAllowed(agent, queuedBuild)) return false;
-      return queuedBuild.getCanRunOnAgents().stream().filter(a -> AGENT_COMPARATOR.compare(a, agent) == 0).findAny().isPresent();
+      //the agents list of the queued build is cached, so it is not calculated for each agent
+      return getCanRunOnAgents(queuedBuild, getCompatibilityCache(myServiceLocator)).stream().filter(a -> AGENT_COMPARATOR.compare(a, agent) == 0).findAny().isPresent();
+    }
+    if (build.getCanRunOnAgents(Collections.singletonList(agent)).isEmpty()) {
+      return false;
     }
 
     SBuildType buildType = build.getBuildType();
-    if (buildType != null && !getCompatibilityData(agent, buildType).isCompatible()) {
-      return false;  //todo: optimize, as this calculates compatibility second time
+    if (buildType != null && !getCompatibilityData(agent, buildType, getCompatibilityCache(myServiceLocator)).isCompatible()) {
+      return false;  //the compatibility is calculated second time here, but the result is usually cached
     }
     return true;
   }
@@ -459,16 +488,17 @@ public class AgentFinder extends AbstractFinder<SBuildAgent> {
 
   private Iterable<SBuildAgent> calculateCanActuallyRunAgents(@NotNull final List<BuildPromotion> builds, final @NotNull ServiceLocator serviceLocator) {
     TreeSet<SBuildAgent> result = createContainerSet();
+    final AgentCompatibilityCache compatibilityCache = getCompatibilityCache(serviceLocator);
     for (BuildPromotion build : builds) {
       SQueuedBuild queuedBuild = build.getQueuedBuild();
       if (queuedBuild != null) {
-        result.addAll(queuedBuild.getCanRunOnAgents().stream().filter(a -> a.isAuthorized() && a.isRegistered() && isAgentRestrictorAllowed(a, queuedBuild)).collect(Collectors.toList()));
+        result.addAll(getCanRunOnAgents(queuedBuild, compatibilityCache).stream().filter(a -> a.isAuthorized() && a.isRegistered() && isAgentRestrictorAllowed(a, queuedBuild)).collect(Collectors.toList()));
       } else {
         SBuildType buildType = build.getBuildType();
         if (buildType != null) {
           final List<BuildAgentEx> agents = serviceLocator.getSingletonService(BuildAgentManagerEx.class).getAllAgents();
           result.addAll(
-            agents.stream().filter(a -> a.isAuthorized() && a.isRegistered() && getCompatibilityData(a, buildType).isCompatible()).collect(Collectors.toList()));
+            agents.stream().filter(a -> a.isAuthorized() && a.isRegistered() && getCompatibilityData(a, buildType, compatibilityCache).isCompatible()).collect(Collectors.toList()));
         }
       }
     }
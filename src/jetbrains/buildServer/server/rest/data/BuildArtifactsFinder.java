@@ -561,6 +561,14 @@ public class BuildArtifactsFinder extends AbstractFinder<ArtifactTreeElement> {
       return null;
     }
 
+    /**
+     * @return the file if the element is a file system one, null otherwise
+     */
+    @Nullable
+    public File getFile() {
+      return myFile;
+    }
+
     @Override
     public String toString() {
       return myElement.toString() + " unified";
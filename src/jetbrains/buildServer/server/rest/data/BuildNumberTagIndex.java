@@ -0,0 +1,333 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Maps build numbers and public tags to the ids of the build promotions to avoid scanning the builds history when searching by them without build configuration.
+ * The index is populated from the server events. Before it is used for the first time, it is bootstrapped in background either from the file saved on the previous server shutdown
+ * or (if there is no file, e.g. after a crash) by a single scan of all the finished builds. The lookups return null until the bootstrap is complete.
+ * The index can contain promotions which are removed or have other number/tags by now, so the result should always be filtered by the actual data.
+ * Deleted builds are removed from the index on the deletion event and the ids found missing on lookup can be removed via {@link #removeMissing(String, String, long)}.
+ * To keep the index compact for large histories, only the hash codes of the numbers and tags are stored as the keys and the postings are sorted arrays of the ids:
+ * the ids of the builds with another number/tag of the same hash code are filtered out together with the outdated ones.
+ */
+public class BuildNumberTagIndex extends BuildServerAdapter {
+  private static final Logger LOG = Logger.getInstance(BuildNumberTagIndex.class.getName());
+
+  static final String ENABLED_PROPERTY = "rest.buildNumberTagIndex.enabled";
+  private static final String FILE_NAME = "rest-api" + File.separator + "buildNumberTagIndex.bin";
+  private static final int FILE_FORMAT_MAGIC = 0x52424E54;
+  private static final int FILE_FORMAT_VERSION = 2;
+
+  @NotNull private final BuildsManager myBuildsManager;
+  @NotNull private final ServerPaths myServerPaths;
+  @NotNull private final Map<Integer, long[]> myByNumber = new HashMap<>();
+  @NotNull private final Map<Integer, long[]> myByTag = new HashMap<>();
+  @NotNull private final AtomicBoolean myBootstrapStarted = new AtomicBoolean();
+  private volatile boolean myComplete = false;
+
+  public BuildNumberTagIndex(@NotNull final SBuildServer server, @NotNull final BuildsManager buildsManager, @NotNull final ServerPaths serverPaths) {
+    myBuildsManager = buildsManager;
+    myServerPaths = serverPaths;
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @return sorted ids of the promotions of the finished builds which had the build number (or a number with the same hash code), null if the index is not yet ready
+   */
+  @Nullable
+  public long[] getPromotionIdsByNumber(@NotNull final String buildNumber) {
+    return lookup(myByNumber, buildNumber);
+  }
+
+  /**
+   * @return sorted ids of the promotions of the builds which had the public tag (case-sensitive, or a tag with the same hash code), null if the index is not yet ready
+   */
+  @Nullable
+  public long[] getPromotionIdsByTag(@NotNull final String tag) {
+    return lookup(myByTag, tag);
+  }
+
+  /**
+   * Removes the promotion which is found to be deleted while processing the lookup result
+   * @param buildNumber the number the promotion was found by, null if found by a tag
+   * @param tag the tag the promotion was found by, null if found by the number
+   */
+  public synchronized void removeMissing(@Nullable final String buildNumber, @Nullable final String tag, final long promotionId) {
+    if (buildNumber != null) remove(myByNumber, buildNumber, promotionId);
+    if (tag != null) remove(myByTag, tag, promotionId);
+  }
+
+  @Nullable
+  private long[] lookup(@NotNull final Map<Integer, long[]> map, @NotNull final String key) {
+    if (!myComplete) {
+      startBootstrap();
+      return null;
+    }
+    synchronized (this) {
+      final long[] result = map.get(key.hashCode());
+      return result == null ? new long[0] : result.clone();
+    }
+  }
+
+  private void startBootstrap() {
+    if (!myBootstrapStarted.compareAndSet(false, true)) return;
+    final Thread thread = new Thread(() -> {
+      try {
+        bootstrap();
+      } catch (Throwable e) {
+        LOG.warnAndDebugDetails("Error building the index of builds by number and tag, the builds will be searched without the index", e);
+      }
+    }, "REST API builds index bootstrap");
+    thread.setDaemon(true);
+    thread.setContextClassLoader(BuildNumberTagIndex.class.getClassLoader());
+    thread.start();
+  }
+
+  void bootstrap() {
+    if (!load()) {
+      final long start = System.currentTimeMillis();
+      final BuildQueryOptions options = new BuildQueryOptions();
+      options.setIncludePersonal(true, null);
+      options.setIncludeCanceled(true);
+      options.setIncludeRunning(false);
+      options.setMatchAllBranches(true);
+      options.setOrderByChanges(false);
+      final int[] count = new int[1];
+      myBuildsManager.processBuilds(options, build -> {
+        add(build);
+        count[0]++;
+        return true;
+      });
+      LOG.info("Indexed numbers and tags of " + count[0] + " finished builds in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    myComplete = true;
+  }
+
+  @Override
+  public void serverStartup() {
+    if (isEnabled() && getFile().isFile()) {
+      startBootstrap(); //the file should be loaded and removed on the first start as it does not contain the builds finished later
+    }
+  }
+
+  @Override
+  public void serverShutdown() {
+    if (myComplete) save();
+  }
+
+  @Override
+  public void entryDeleted(@NotNull final SFinishedBuild build) {
+    final long promotionId = build.getBuildPromotion().getId();
+    synchronized (this) {
+      remove(myByNumber, build.getBuildNumber(), promotionId);
+      for (String tag : build.getTags()) {
+        remove(myByTag, tag, promotionId);
+      }
+    }
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    add(build);
+  }
+
+  @Override
+  public void buildTagsChanged(@NotNull final SBuild build, final User user, @NotNull final List<String> oldTags, @NotNull final List<String> newTags) {
+    final long promotionId = build.getBuildPromotion().getId();
+    synchronized (this) {
+      for (String tag : oldTags) {
+        if (!newTags.contains(tag)) remove(myByTag, tag, promotionId);
+      }
+      for (String tag : newTags) {
+        add(myByTag, tag, promotionId);
+      }
+    }
+  }
+
+  private synchronized void add(@NotNull final SBuild build) {
+    final long promotionId = build.getBuildPromotion().getId();
+    add(myByNumber, build.getBuildNumber(), promotionId);
+    for (String tag : build.getTags()) {
+      add(myByTag, tag, promotionId);
+    }
+  }
+
+  private static void add(@NotNull final Map<Integer, long[]> map, @NotNull final String key, final long id) {
+    add(map, key.hashCode(), id);
+  }
+
+  /**
+   * Keeps the ids sorted and unique
+   */
+  private static void add(@NotNull final Map<Integer, long[]> map, final int key, final long id) {
+    final long[] ids = map.get(key);
+    if (ids == null) {
+      map.put(key, new long[]{id});
+      return;
+    }
+    final int index = Arrays.binarySearch(ids, id);
+    if (index >= 0) return;
+    final int insertAt = -index - 1;
+    final long[] result = new long[ids.length + 1];
+    System.arraycopy(ids, 0, result, 0, insertAt);
+    result[insertAt] = id;
+    System.arraycopy(ids, insertAt, result, insertAt + 1, ids.length - insertAt);
+    map.put(key, result);
+  }
+
+  private static void remove(@NotNull final Map<Integer, long[]> map, @NotNull final String key, final long id) {
+    final long[] ids = map.get(key.hashCode());
+    if (ids == null) return;
+    final int index = Arrays.binarySearch(ids, id);
+    if (index < 0) return;
+    if (ids.length == 1) {
+      map.remove(key.hashCode());
+      return;
+    }
+    final long[] result = new long[ids.length - 1];
+    System.arraycopy(ids, 0, result, 0, index);
+    System.arraycopy(ids, index + 1, result, index, ids.length - index - 1);
+    map.put(key.hashCode(), result);
+  }
+
+  @NotNull
+  private File getFile() {
+    return new File(myServerPaths.getPluginDataDirectory(), FILE_NAME);
+  }
+
+  /**
+   * Saves the index in the compact form: for each key, the sorted ids are written as variable-length deltas
+   */
+  synchronized void save() {
+    final File file = getFile();
+    final File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      final File dir = tempFile.getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create directory \"" + dir.getAbsolutePath() + "\"");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(FILE_FORMAT_MAGIC);
+        out.writeInt(FILE_FORMAT_VERSION);
+        write(out, myByNumber);
+        write(out, myByTag);
+      }
+      FileUtil.delete(file);
+      if (!tempFile.renameTo(file)) {
+        LOG.warn("Could not rename \"" + tempFile.getAbsolutePath() + "\" to \"" + file.getAbsolutePath() + "\", the builds index will be rebuilt after the server start");
+        FileUtil.delete(tempFile);
+      }
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Error saving the builds index to \"" + file.getAbsolutePath() + "\", the index will be rebuilt after the server start", e);
+      FileUtil.delete(tempFile);
+    }
+  }
+
+  /**
+   * Loads the index saved on the previous shutdown and removes the file, so that the index is rebuilt from scratch if the server is not stopped normally this time
+   * @return true if the index was loaded
+   */
+  boolean load() {
+    final File file = getFile();
+    if (!file.isFile()) return false;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FILE_FORMAT_MAGIC || in.readInt() != FILE_FORMAT_VERSION) {
+        LOG.info("Unsupported format of the builds index file \"" + file.getAbsolutePath() + "\", the index will be rebuilt");
+        return false;
+      }
+      final Map<Integer, long[]> byNumber = read(in);
+      final Map<Integer, long[]> byTag = read(in);
+      synchronized (this) {
+        //the events processed so far are already in the index
+        byNumber.forEach((key, ids) -> {
+          for (long id : ids) add(myByNumber, key, id);
+        });
+        byTag.forEach((key, ids) -> {
+          for (long id : ids) add(myByTag, key, id);
+        });
+      }
+      return true;
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Error loading the builds index from \"" + file.getAbsolutePath() + "\", the index will be rebuilt", e);
+      return false;
+    } finally {
+      FileUtil.delete(file);
+    }
+  }
+
+  private static void write(@NotNull final DataOutputStream out, @NotNull final Map<Integer, long[]> map) throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<Integer, long[]> entry : map.entrySet()) {
+      out.writeInt(entry.getKey());
+      final long[] ids = entry.getValue();
+      writeVarLong(out, ids.length);
+      long previous = 0;
+      for (long id : ids) {
+        writeVarLong(out, id - previous);
+        previous = id;
+      }
+    }
+  }
+
+  @NotNull
+  private static Map<Integer, long[]> read(@NotNull final DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    final Map<Integer, long[]> result = new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+    for (int i = 0; i < size; i++) {
+      final int key = in.readInt();
+      final long[] ids = new long[(int)readVarLong(in)];
+      long previous = 0;
+      for (int j = 0; j < ids.length; j++) {
+        previous += readVarLong(in);
+        ids[j] = previous;
+      }
+      result.put(key, ids);
+    }
+    return result;
+  }
+
+  private static void writeVarLong(@NotNull final DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int)value);
+  }
+
+  private static long readVarLong(@NotNull final DataInputStream in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.readUnsignedByte();
+      result |= (long)(b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return result;
+    }
+    throw new IOException("Malformed variable-length number");
+  }
+}
@@ -18,14 +18,19 @@ package jetbrains.buildServer.server.rest.data;
 
 import com.google.common.collect.ComparisonChain;
 import com.intellij.openapi.diagnostic.Logger;
+import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.parameters.ParametersProvider;
-import jetbrains.buildServer.parameters.impl.AbstractMapParametersProvider;
+import jetbrains.buildServer.server.rest.data.MultiCheckerFilter.Cost;
 import jetbrains.buildServer.server.rest.data.build.TagFinder;
 import jetbrains.buildServer.server.rest.data.problem.TestFinder;
 import jetbrains.buildServer.server.rest.data.problem.TestOccurrenceFinder;
@@ -41,7 +46,6 @@ import jetbrains.buildServer.server.rest.util.StreamUtil;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
 import jetbrains.buildServer.serverSide.auth.Permission;
-import jetbrains.buildServer.serverSide.dependency.BuildDependency;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.impl.MetadataStorageEx;
 import jetbrains.buildServer.users.SUser;
@@ -121,8 +125,8 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
 
   public static final String REVISION = "revision"; /*experimental*/
   public static final BuildPromotionComparator BUILD_PROMOTIONS_COMPARATOR = new BuildPromotionComparator();
-  public static final SnapshotDepsTraverser SNAPSHOT_DEPENDENCIES_TRAVERSER = new SnapshotDepsTraverser();
-  public static final ArtifactDepsTraverser ARTIFACT_DEPENDENCIES_TRAVERSER = new ArtifactDepsTraverser();
+  public static final GraphFinder.Traverser<BuildPromotion> SNAPSHOT_DEPENDENCIES_TRAVERSER = DependencyGraphIndex.getSnapshotDependenciesTraverser(null);
+  public static final GraphFinder.Traverser<BuildPromotion> ARTIFACT_DEPENDENCIES_TRAVERSER = DependencyGraphIndex.getArtifactDependenciesTraverser(null);
   protected static final String STROB_BUILD_LOCATOR = "locator";
 
   private final BuildPromotionManager myBuildPromotionManager;
@@ -150,6 +154,12 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     return BuildPromotionFinder.getLocator(buildPromotion);
   }
 
+  @Nullable
+  @Override
+  public String getItemCursorKey(@NotNull final BuildPromotion buildPromotion) {
+    return String.valueOf(buildPromotion.getId());
+  }
+
   public BuildPromotionFinder(final BuildPromotionManager buildPromotionManager,
                               final BuildQueue buildQueue,
                               final BuildsManager buildsManager,
@@ -274,10 +284,10 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
   @Override
   public ItemFilter<BuildPromotion> getFilter(@NotNull final Locator locator) {
 
-    final MultiCheckerFilter<BuildPromotion> result = new MultiCheckerFilter<BuildPromotion>();
+    final MultiCheckerFilter<BuildPromotion> result = MultiCheckerFilter.withReordering();
 
     //checking permissions to view - workaround for TW-45544
-    result.add(item -> {
+    result.addGuard(item -> {
       try {
         ensureCanView(item);
         return true;
@@ -289,9 +299,9 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     if (locator.isSingleValue()) {
       try {
         long foundPromotionId = getBuildPromotionById(locator.getSingleValueAsLong(), myBuildPromotionManager, myBuildsManager).getId();
-        result.add(item -> foundPromotionId == item.getId());
+        result.add(item -> foundPromotionId == item.getId(), Cost.CHEAP);
       } catch (NotFoundException e) {
-        result.add(item -> false);
+        result.add(item -> false, Cost.CHEAP);
       }
     }
 
@@ -307,32 +317,32 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     if (id != null) {
       try {
         long foundPromotionId = getBuildPromotionById(id, myBuildPromotionManager, myBuildsManager).getId();
-        result.add(item -> foundPromotionId == item.getId());
+        result.add(item -> foundPromotionId == item.getId(), Cost.CHEAP);
       } catch (NotFoundException e) {
-        result.add(item -> false);
+        result.add(item -> false, Cost.CHEAP);
       }
     }
     final Long promotionId = locator.getSingleDimensionValueAsLong(PROMOTION_ID);
     if (promotionId != null) {
       try {
         long foundPromotionId = BuildFinder.getBuildPromotion(promotionId, myBuildPromotionManager).getId();
-        result.add(item -> foundPromotionId == item.getId());
+        result.add(item -> foundPromotionId == item.getId(), Cost.CHEAP);
       } catch (NotFoundException e) {
-        result.add(item -> false);
+        result.add(item -> false, Cost.CHEAP);
       }
     }
     final Long promotionIdAlias = locator.getSingleDimensionValueAsLong(PROMOTION_ID_ALIAS);
     if (promotionIdAlias != null) {
       try {
         long foundPromotionId = BuildFinder.getBuildPromotion(promotionIdAlias, myBuildPromotionManager).getId();
-        result.add(item -> foundPromotionId == item.getId());
+        result.add(item -> foundPromotionId == item.getId(), Cost.CHEAP);
       } catch (NotFoundException e) {
-        result.add(item -> false);
+        result.add(item -> false, Cost.CHEAP);
       }
     }
     final Long buildId = locator.getSingleDimensionValueAsLong(BUILD_ID);
     if (buildId != null) {
-      result.add(item -> buildId.equals(item.getAssociatedBuildId()));
+      result.add(item -> buildId.equals(item.getAssociatedBuildId()), Cost.CHEAP);
     }
 
     Locator stateLocator = getStateLocator(locator);
@@ -342,7 +352,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final BuildPromotion item) {
           return item.getQueuedBuild() == null;
         }
-      });
+      }, Cost.CHEAP);
     }
 
     if (!isStateIncluded(stateLocator, STATE_RUNNING)) {
@@ -351,7 +361,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           final SBuild associatedBuild = item.getAssociatedBuild();
           return associatedBuild == null || associatedBuild.isFinished();
         }
-      });
+      }, Cost.CHEAP);
     }
 
     if (!isStateIncluded(stateLocator, STATE_FINISHED)) {
@@ -360,12 +370,12 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           final SBuild associatedBuild = item.getAssociatedBuild();
           return associatedBuild == null || !associatedBuild.isFinished();
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final Boolean composite = locator.getSingleDimensionValueAsBoolean(COMPOSITE);
     if (composite != null) {
-      result.add(item -> FilterUtil.isIncludedByBooleanFilter(composite, item.isCompositeBuild()));
+      result.add(item -> FilterUtil.isIncludedByBooleanFilter(composite, item.isCompositeBuild()), Cost.CHEAP);
     }
 
     if (locator.isUnused(PROJECT)) {
@@ -374,7 +384,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         result.add(item -> {
           final SBuildType buildType = item.getBuildType();
           return buildType != null && project.equals(buildType.getProject());
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -383,8 +393,8 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
       if (affectedProject != null && !affectedProject.isRootProject()) {
         result.add(item -> {
           final SBuildType buildType = item.getBuildType();
-          return buildType != null && ProjectFinder.isSameOrParent(affectedProject, buildType.getProject());
-        });
+          return buildType != null && myProjectFinder.isSameOrParent(affectedProject, buildType.getProject());
+        }, Cost.NORMAL);
       }
     }
 
@@ -399,7 +409,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return buildTypes.contains(item.getParentBuildType());
           }  //todo: use build types Filter instead
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -423,7 +433,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             final Branch buildBranch = BranchData.fromBuild(item);
             return (defaultBranchIncluded && buildBranch.isDefaultBranch()) || branchNames.contains(buildBranch.getName()) || branchDisplayNames.contains(buildBranch.getDisplayName());
           }
-        });
+        }, Cost.NORMAL);
       } else {
         //branches not found by locator - try to use filter
         BranchFinder.BranchFilterDetails branchFilterDetails;
@@ -439,14 +449,14 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             public boolean isIncluded(@NotNull final BuildPromotion item) {
               return branchFilterDetails.isIncluded(item);
             }
-          });
+          }, Cost.NORMAL);
         }
       }
     }
 
     final Boolean branched = locator.getSingleDimensionValueAsBoolean(BRANCHED);
     if (branched != null) {
-      result.add(item -> FilterUtil.isIncludedByBooleanFilter(branched, item.getBranch() != null));
+      result.add(item -> FilterUtil.isIncludedByBooleanFilter(branched, item.getBranch() != null), Cost.CHEAP);
     }
 
     if (locator.isUnused(AGENT)) {
@@ -464,7 +474,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             return agentIds.contains(build.getAgent().getId());
           }
           return false;
-        });
+        }, Cost.EXPENSIVE);
       }
     }
 
@@ -477,7 +487,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return item.getTags().containsAll(tagsList);
           }
-        });
+        }, Cost.NORMAL);
       }
     }
 
@@ -485,22 +495,24 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     if (!tag.isEmpty()) {
       if (tag.size() == 1 && tag.get(0).startsWith("format:extended")) { //pre-9.1 compatibility
         //todo: log this?
+        final Predicate<List<String>> tagsMatcher;
+        try {
+          tagsMatcher = getTagsMatcher(new Locator(tag.get(0)));
+        } catch (LocatorProcessException e) {
+          throw new BadRequestException("Invalid locator 'tag' (legacy format is used): " + e.getMessage(), e);
+        }
         result.add(new FilterConditionChecker<BuildPromotion>() {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
-            try {
-              return isTagsMatchLocator(item.getTags(), new Locator(tag.get(0)));
-            } catch (LocatorProcessException e) {
-              throw new BadRequestException("Invalid locator 'tag' (legacy format is used): " + e.getMessage(), e);
-            }
+            return tagsMatcher.test(item.getTags());
           }
-        });
+        }, Cost.NORMAL);
       } else {
         for (String singleTag : tag) {
           result.add(new FilterConditionChecker<BuildPromotion>() {
             public boolean isIncluded(@NotNull final BuildPromotion item) {
               return TagFinder.isIncluded(item, singleTag, myUserFinder);
             }
-          });
+          }, Cost.EXPENSIVE);
         }
       }
     }
@@ -512,7 +524,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final BuildPromotion item) {
           return myAgentFinder.canActuallyRun(agent, item);
         }
-      });
+      }, Cost.EXPENSIVE);
     }
 
     final Long compatibleAgentsCount = locator.getSingleDimensionValueAsLong(COMPATIBLE_AGENTS_COUNT); //experimental, only for queued builds
@@ -526,7 +538,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           }
           return count == compatibleAgentsCount;
         }
-      });
+      }, Cost.EXPENSIVE);
     }
 
     final Boolean personal = locator.getSingleDimensionValueAsBoolean(PERSONAL);
@@ -535,7 +547,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final BuildPromotion item) {
           return FilterUtil.isIncludedByBooleanFilter(personal, item.isPersonal());
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final Boolean history = locator.getSingleDimensionValueAsBoolean(HISTORY);
@@ -544,7 +556,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final BuildPromotion item) {
           return FilterUtil.isIncludedByBooleanFilter(history, item.isOutOfChangesSequence());
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final String userDimension = locator.getSingleDimensionValue(USER);
@@ -563,19 +575,21 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           }
           return actualUser != null && user.getId() == actualUser.getId();
         }
-      });
+      }, Cost.NORMAL);
     }
 
     final List<String> properties = locator.getDimensionValue(PROPERTY);
     if (!properties.isEmpty()) {
       final Matcher<ParametersProvider> parameterCondition = ParameterCondition.create(properties);
+      final BuildResultingParametersCache parametersCache = getBuildResultingParametersCache();
       result.add(new FilterConditionChecker<BuildPromotion>() {
         public boolean isIncluded(@NotNull final BuildPromotion item) {
           if (!Build.canViewRuntimeData(myPermissionChecker, item)) return false;
           //does not correspond to Build.getProperties() which includes less parameters
+          if (parametersCache != null) return parameterCondition.matches(parametersCache.getResultingParameters(item));
           return parameterCondition.matches(Build.getBuildResultingParameters(item)); //TeamCity open API issue
         }
-      });
+      }, Cost.EXPENSIVE);
     }
 
     if (locator.getUnusedDimensions().contains(SNAPSHOT_DEP)) { //performance optimization: do not filter if already processed
@@ -586,7 +600,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return snapshotRelatedBuilds.contains(item);
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -598,7 +612,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return artifactRelatedBuilds.contains(item);
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -610,7 +624,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return filter.contains(item);
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -628,7 +642,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             if (!Build.canViewRuntimeData(myPermissionChecker, item)) return false;
             return buildIds.contains(item.getAssociatedBuildId());
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -641,7 +655,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return filter.contains(item);
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -659,7 +673,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             public boolean isIncluded(@NotNull final BuildPromotion item) {
               return buildPromotionId < getBuildId(item);
             }
-          });
+          }, Cost.CHEAP);
         } else {
           // for started build, compare by start time
           final SBuild limitingBuild = sinceBuildPromotion.getAssociatedBuild();
@@ -672,7 +686,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
                 if (startDate.equals(build.getStartDate()) && limitingBuild.getBuildId() != build.getBuildId()) return true;
                 return startDate.before(build.getStartDate());
               }
-            });
+            }, Cost.CHEAP);
           }
         }
       } catch (NotFoundException e) {
@@ -683,7 +697,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return sinceBuildIdFinal < getBuildId(item);
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -699,7 +713,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             public boolean isIncluded(@NotNull final BuildPromotion item) {
               return !(buildPromotionId < getBuildId(item));
             }
-          });
+          }, Cost.CHEAP);
         } else {
           // for started build, compare by start time
           final SBuild limitingBuild = untilBuildPromotion.getAssociatedBuild();
@@ -710,7 +724,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
                 final SBuild build = item.getAssociatedBuild();
                 return build == null || !startDate.before(build.getStartDate());
               }
-            });
+            }, Cost.CHEAP);
           }
         }
       } catch (NotFoundException e) {
@@ -720,26 +734,26 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final BuildPromotion item) {
             return !(untilBuildId < getBuildId(item));
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
     TimeCondition.FilterAndLimitingDate<BuildPromotion> queuedFiltering =
       myTimeCondition.processTimeConditions(QUEUED_TIME, locator, TimeCondition.QUEUED_BUILD_TIME, TimeCondition.QUEUED_BUILD_TIME);
-    if (queuedFiltering != null) result.add(queuedFiltering.getFilter());
+    if (queuedFiltering != null) result.add(queuedFiltering.getFilter(), Cost.CHEAP);
 
     TimeCondition.FilterAndLimitingDate<BuildPromotion> startedFiltering =
       myTimeCondition.processTimeConditions(STARTED_TIME, locator, TimeCondition.STARTED_BUILD_TIME, TimeCondition.STARTED_BUILD_TIME);
     @Nullable Date sinceStartDate = null;
     if (startedFiltering != null) {
-      result.add(startedFiltering.getFilter());
+      result.add(startedFiltering.getFilter(), Cost.CHEAP);
       sinceStartDate = startedFiltering.getLimitingDate();
     }
 
     //todo: add processing cut of based on assumption of max build time (say, a week); for other times as well
     TimeCondition.FilterAndLimitingDate<BuildPromotion> finishFiltering =
       myTimeCondition.processTimeConditions(FINISHED_TIME, locator, TimeCondition.FINISHED_BUILD_TIME, TimeCondition.FINISHED_BUILD_TIME);
-    if (finishFiltering != null) result.add(finishFiltering.getFilter());
+    if (finishFiltering != null) result.add(finishFiltering.getFilter(), Cost.CHEAP);
 
     final String revisionLocatorText = locator.getSingleDimensionValue(REVISION);
     if (revisionLocatorText != null) {
@@ -756,7 +770,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
             }
             return false;
           }
-        });
+        }, Cost.EXPENSIVE);
       } else {
         final String vcsRootLocator = revisionLocator.getSingleDimensionValue("vcsRoot");
         final SVcsRoot vcsRoot = vcsRootLocator == null ? null : myVcsRootFinder.getItem(vcsRootLocator);
@@ -776,7 +790,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
               }
               return false;
             }
-          });
+          }, Cost.EXPENSIVE);
         }
       }
     }
@@ -791,7 +805,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           }
           return buildFilter.isIncluded(build);
         }
-      });
+      }, Cost.EXPENSIVE);
     }
 
     sinceStartDate = TimeCondition.maxDate(sinceStartDate, DataProvider.parseDate(locator.getSingleDimensionValue(SINCE_DATE))); //see also filtering in getBuildFilter
@@ -803,7 +817,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           final SBuild build = item.getAssociatedBuild();
           return FilterUtil.isIncludedByBooleanFilter(canceled, build != null && build.getCanceledInfo() != null);
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final Boolean failedToStart = locator.getSingleDimensionValueAsBoolean(FAILED_TO_START);
@@ -813,7 +827,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           final SBuild build = item.getAssociatedBuild();
           return FilterUtil.isIncludedByBooleanFilter(failedToStart, build != null && build.isInternalError());
         }
-      });
+      }, Cost.CHEAP);
     }
 
     return getFilterWithProcessingCutOff(result, locator.getSingleDimensionValueAsLong(SINCE_BUILD_ID_LOOK_AHEAD_COUNT), sinceBuildPromotion, sinceBuildId, sinceStartDate);
@@ -916,7 +930,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
 
   @NotNull
   private MultiCheckerFilter<SBuild> getBuildFilter(@NotNull final Locator locator) {
-    final MultiCheckerFilter<SBuild> result = new MultiCheckerFilter<SBuild>();
+    final MultiCheckerFilter<SBuild> result = MultiCheckerFilter.withReordering();
 
     final String buildNumber = locator.getSingleDimensionValue(NUMBER);
     if (buildNumber != null) {
@@ -924,7 +938,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final SBuild item) {
           return buildNumber.equals(item.getBuildNumber());
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final String status = locator.getSingleDimensionValue(STATUS);
@@ -933,7 +947,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final SBuild item) {
           return status.equalsIgnoreCase(item.getStatusDescriptor().getStatus().getText());
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final Boolean pinned = locator.getSingleDimensionValueAsBoolean(PINNED);
@@ -942,7 +956,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final SBuild item) {
           return FilterUtil.isIncludedByBooleanFilter(pinned, item.isPinned());
         }
-      });
+      }, Cost.NORMAL);
     }
 
     final Boolean hanging = locator.getSingleDimensionValueAsBoolean(HANGING);
@@ -952,21 +966,21 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           if (item.isFinished()) return !hanging;
           return FilterUtil.isIncludedByBooleanFilter(hanging, ((SRunningBuild)item).isProbablyHanging());
         }
-      });
+      }, Cost.NORMAL);
     }
 
     if (locator.isUnused(AGENT_NAME)) {
       final String agentName = locator.getSingleDimensionValue(AGENT_NAME);
       if (agentName != null) {
         final ValueCondition agentNameCondition = ParameterCondition.createValueCondition(agentName);
-        result.add(item -> agentNameCondition.matches(item.getAgentName()));
+        result.add(item -> agentNameCondition.matches(item.getAgentName()), Cost.CHEAP);
       }
     }
 
     if (locator.isUnused(AGENT_TYPE_ID)) {
       final Long agentTypeId = locator.getSingleDimensionValueAsLong(AGENT_TYPE_ID);
       if (agentTypeId != null) {
-        result.add(item -> agentTypeId.intValue() == item.getAgent().getAgentTypeId());
+        result.add(item -> agentTypeId.intValue() == item.getAgent().getAgentTypeId(), Cost.CHEAP);
       }
     }
 
@@ -976,7 +990,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final SBuild item) {
           return sinceDate.before(item.getStartDate());
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final Date untilDate = DataProvider.parseDate(locator.getSingleDimensionValue(UNTIL_DATE));
@@ -985,17 +999,17 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         public boolean isIncluded(@NotNull final SBuild item) {
           return !(untilDate.before(item.getStartDate()));
         }
-      });
+      }, Cost.CHEAP);
     }
 
     final List<String> statisticValues = locator.getDimensionValue(STATISTIC_VALUE);
     if (!statisticValues.isEmpty()) {
-      final Matcher<ParametersProvider> parameterCondition = ParameterCondition.create(statisticValues);
+      final Matcher<Map<String, BigDecimal>> statisticValuesCondition = ParameterCondition.createForNumbers(statisticValues);
       result.add(new FilterConditionChecker<SBuild>() {
         public boolean isIncluded(@NotNull final SBuild item) {
-          return parameterCondition.matches(new AbstractMapParametersProvider(Build.getBuildStatisticsValues(item)));
+          return statisticValuesCondition.matches(item.getStatisticValues());
         }
-      });
+      }, Cost.EXPENSIVE);
     }
 
     if (locator.isUnused(TEST_OCCURRENCE)) {
@@ -1008,7 +1022,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           public boolean isIncluded(@NotNull final SBuild item) {
             return buildPromotionIds.contains(item.getBuildPromotion().getId());
           }
-        });
+        }, Cost.CHEAP);
       }
     }
 
@@ -1020,7 +1034,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
           String locator = new Locator(test).setDimension(TestFinder.BUILD, getLocator(item.getBuildPromotion())).setDimension(PagerData.COUNT, "1").getStringRepresentation();
           return !testFinder.getItems(locator).myEntries.isEmpty();
         }
-      });
+      }, Cost.EXPENSIVE);
     }
 
     return result;
@@ -1077,51 +1091,43 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     return buildId != null ? buildId : buildPromotion.getId(); // there should be no queued builds with old ids (TW-38777)
   }
 
-  private boolean isTagsMatchLocator(final List<String> buildTags, final Locator tagsLocator) {
+  /**
+   * @return matcher of the build tags parsed once from the legacy "extended" format tag locator
+   */
+  @NotNull
+  private static Predicate<List<String>> getTagsMatcher(@NotNull final Locator tagsLocator) {
     if (!"extended".equals(tagsLocator.getSingleDimensionValue("format"))) {
       throw new BadRequestException("Only 'extended' value is supported for 'format' dimension of 'tag' dimension");
     }
     final Boolean present = tagsLocator.getSingleDimensionValueAsBoolean("present", true);
     final String patternString = tagsLocator.getSingleDimensionValue("regexp");
     if (present == null) {
-      return true;
-    }
-    Boolean tagsMatchPattern = null;
-    if (patternString != null) {
-      if (StringUtil.isEmpty(patternString)) {
-        throw new BadRequestException("'regexp' sub-dimension should not be empty for 'tag' dimension");
-      }
-      try {
-        tagsMatchPattern = tagsMatchPattern(buildTags, patternString);
-      } catch (PatternSyntaxException e) {
-        throw new BadRequestException(
-          "Bad syntax for Java regular expression in 'regexp' sub-dimension of 'tag' dimension: " + e.getMessage(), e);
-      }
+      return tags -> true;
     }
-    if (tagsMatchPattern == null) {
-      if ((present && buildTags.size() != 0) || (!present && (buildTags.size() == 0))) {
-        return true;
-      }
-    } else {
-      if (present && tagsMatchPattern) {
-        return true;
-      } else if (!present && !tagsMatchPattern) {
-        return true;
-      }
+    if (patternString == null) {
+      return tags -> present == !tags.isEmpty();
     }
-    return false;
-  }
-
-  private Boolean tagsMatchPattern(@NotNull final List<String> tags, @NotNull final String patternString) throws PatternSyntaxException {
-    final Pattern pattern = Pattern.compile(patternString);
-    boolean atLestOneMatches = false;
-    for (String tag : tags) {
-      atLestOneMatches = atLestOneMatches || pattern.matcher(tag).matches();
+    if (StringUtil.isEmpty(patternString)) {
+      throw new BadRequestException("'regexp' sub-dimension should not be empty for 'tag' dimension");
     }
-    return atLestOneMatches;
+    final Pattern pattern;
+    try {
+      pattern = Pattern.compile(patternString);
+    } catch (PatternSyntaxException e) {
+      throw new BadRequestException("Bad syntax for Java regular expression in 'regexp' sub-dimension of 'tag' dimension: " + e.getMessage(), e);
+    }
+    return tags -> {
+      boolean atLeastOneMatches = false;
+      for (String tag : tags) {
+        if (pattern.matcher(tag).matches()) {
+          atLeastOneMatches = true;
+          break;
+        }
+      }
+      return present == atLeastOneMatches;
+    };
   }
 
-
   @NotNull
   @Override
   public ItemHolder<BuildPromotion> getPrefilteredItems(@NotNull Locator locator) {
@@ -1149,7 +1155,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
       for (Locator partialLocator : partialLocators) {
         partialLocator.setDimensionIfNotPresent(PagerData.COUNT, "1");  //limit to single item per strob item by default
         final String finalBuildLocator = Locator.createLocator(strobBuildLocator, partialLocator, new String[]{}).getStringRepresentation();
-        strobResult.add(getItemHolder(getItems(finalBuildLocator).myEntries));
+        strobResult.add(processor -> getItemHolder(getItems(finalBuildLocator).myEntries).process(processor)); //lazy to allow processing in parallel and to stop on reaching count
       }
       strobLocator.checkLocatorFullyProcessed();
       return strobResult;
@@ -1213,32 +1219,19 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
         }
         return getItemHolder(builds);
       } else{
-        // if build type is not specified, search by scanning (performance impact)
+        final ItemHolder<BuildPromotion> indexedBuilds = getPrefilteredByIndex(locator, index -> index.getPromotionIdsByNumber(number),
+                                                                               (index, promotionId) -> index.removeMissing(number, null, promotionId));
+        if (indexedBuilds != null) {
+          return indexedBuilds;
+        }
+        // if build type is not specified and the index is not available, search by scanning (performance impact)
         locator.markUnused(NUMBER, BUILD_TYPE);
       }
     }
 
-    if (TeamCityProperties.getBoolean("rest.request.builds.prefilterByTag")) { //this is temporary logic, can be dropped
-      Locator stateLocator = getStateLocator(new Locator(locator)); //using locator copy so that no dimensions are marked as used
-      if (isStateIncluded(stateLocator, STATE_FINISHED)) {//no sense in going further here if no finished builds are requested
-        final List<String> tagLocators = locator.lookupDimensionValue(TAG); //not marking as used to enforce filter processing
-        Stream<BuildPromotion> finishedBuilds = TagFinder.getPrefilteredFinishedBuildPromotions(tagLocators, myServiceLocator);
-        if (finishedBuilds != null) {
-          // all queued - to be filtered by the filter
-          Stream<BuildPromotion> queuedBuilds =
-            isStateIncluded(stateLocator, STATE_QUEUED) ? myBuildQueue.getItems().stream().map(sQueuedBuild -> sQueuedBuild.getBuildPromotion()) : null;
-
-          // all running - to be filtered by the filter
-          Stream<BuildPromotion> runningBuilds =
-            isStateIncluded(stateLocator, STATE_RUNNING) ? myBuildsManager.getRunningBuilds().stream().map(sQueuedBuild -> sQueuedBuild.getBuildPromotion()) : null;
-
-          return processor -> {
-            if (queuedBuilds != null) queuedBuilds.forEach(buildPromotion -> processor.processItem(buildPromotion));
-            if (runningBuilds != null) runningBuilds.forEach(buildPromotion -> processor.processItem(buildPromotion));
-            finishedBuilds.forEach(buildPromotion -> processor.processItem(buildPromotion));
-          };
-        }
-      }
+    final ItemHolder<BuildPromotion> buildsByTag = getPrefilteredByTag(locator);
+    if (buildsByTag != null) {
+      return buildsByTag;
     }
 
     final String testOccurrence = locator.getSingleDimensionValue(TEST_OCCURRENCE);
@@ -1277,8 +1270,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
 
         if (isStateIncluded(stateLocator, STATE_FINISHED)) {
           //todo: optimize for user and canceled
-          Stream<BuildPromotion> finishedBuilds = StreamUtil.merge(
-            agents.stream().map(a -> a.getBuildHistory(null, true).stream().map(b -> b.getBuildPromotion())), BUILD_PROMOTIONS_COMPARATOR);
+          Stream<BuildPromotion> finishedBuilds = StreamUtil.merge(agents.stream().map(a -> getAgentFinishedBuilds(a)), BUILD_PROMOTIONS_COMPARATOR);
           result = Stream.concat(result, finishedBuilds);
         }
         return FinderDataBinding.getItemHolder(result);
@@ -1436,6 +1428,117 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     };
   }
 
+  @Nullable
+  private ItemHolder<BuildPromotion> getPrefilteredByTag(@NotNull final Locator locator) {
+    final List<String> tagLocators = locator.lookupDimensionValue(TAG); //not marking as used to enforce filter processing
+    if (tagLocators.isEmpty()) return null;
+    if (getBuildNumberTagIndex() != null) {
+      final TagFinder.FilterOptions tagFilterOptions = TagFinder.getFilterOptions(tagLocators, myServiceLocator);
+      if (tagFilterOptions != null && tagFilterOptions.getTagOwner() == null) { //private tags are not indexed
+        final ItemHolder<BuildPromotion> indexedBuilds = getPrefilteredByIndex(locator, index -> index.getPromotionIdsByTag(tagFilterOptions.getTagName()),
+                                                                               (index, promotionId) -> index.removeMissing(null, tagFilterOptions.getTagName(), promotionId));
+        if (indexedBuilds != null) return indexedBuilds;
+      }
+    }
+
+    if (TeamCityProperties.getBoolean("rest.request.builds.prefilterByTag")) { //this is temporary logic, can be dropped
+      Locator stateLocator = getStateLocator(new Locator(locator)); //using locator copy so that no dimensions are marked as used
+      if (isStateIncluded(stateLocator, STATE_FINISHED)) {//no sense in going further here if no finished builds are requested
+        Stream<BuildPromotion> finishedBuilds = TagFinder.getPrefilteredFinishedBuildPromotions(tagLocators, myServiceLocator);
+        if (finishedBuilds != null) {
+          return getWithQueuedAndRunning(stateLocator, finishedBuilds);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return builds with finished ones taken from the {@link BuildNumberTagIndex} and all queued and running builds (to be filtered by the filter),
+   * null if the index is not available or no finished builds are requested.
+   * The finished builds come in the descending order of the promotion ids and are resolved lazily, so only the processed ones are retrieved.
+   */
+  @Nullable
+  private ItemHolder<BuildPromotion> getPrefilteredByIndex(@NotNull final Locator locator, @NotNull final Function<BuildNumberTagIndex, long[]> lookup,
+                                                          @NotNull final BiConsumer<BuildNumberTagIndex, Long> removeMissing) {
+    final BuildNumberTagIndex index = getBuildNumberTagIndex();
+    if (index == null) return null;
+    Locator stateLocator = getStateLocator(new Locator(locator)); //using locator copy so that no dimensions are marked as used
+    if (!isStateIncluded(stateLocator, STATE_FINISHED)) return null;
+    final long[] promotionIds = lookup.apply(index);
+    if (promotionIds == null) return null;
+
+    //the ids are sorted ascending, the most recent builds go first
+    final Stream<BuildPromotion> finishedBuilds = IntStream.range(0, promotionIds.length).mapToObj(i -> {
+      final long promotionId = promotionIds[promotionIds.length - 1 - i];
+      final BuildPromotion promotion = myBuildPromotionManager.findPromotionById(promotionId);
+      if (promotion == null) { //removed
+        removeMissing.accept(index, promotionId);
+        return null;
+      }
+      final SBuild build = promotion.getAssociatedBuild();
+      return build != null && build.isFinished() ? promotion : null;
+    }).filter(Objects::nonNull);
+    return getWithQueuedAndRunning(stateLocator, finishedBuilds);
+  }
+
+  @Nullable
+  private BuildResultingParametersCache getBuildResultingParametersCache() {
+    if (!BuildResultingParametersCache.isEnabled()) return null;
+    return myServiceLocator.findSingletonService(BuildResultingParametersCache.class);
+  }
+
+  @Nullable
+  private BuildNumberTagIndex getBuildNumberTagIndex() {
+    if (!BuildNumberTagIndex.isEnabled()) return null;
+    return myServiceLocator.findSingletonService(BuildNumberTagIndex.class);
+  }
+
+  @NotNull
+  private ItemHolder<BuildPromotion> getWithQueuedAndRunning(@NotNull final Locator stateLocator, @NotNull final Stream<BuildPromotion> finishedBuilds) {
+    // all queued - to be filtered by the filter
+    Stream<BuildPromotion> queuedBuilds =
+      isStateIncluded(stateLocator, STATE_QUEUED) ? myBuildQueue.getItems().stream().map(sQueuedBuild -> sQueuedBuild.getBuildPromotion()) : null;
+
+    // all running - to be filtered by the filter
+    Stream<BuildPromotion> runningBuilds =
+      isStateIncluded(stateLocator, STATE_RUNNING) ? myBuildsManager.getRunningBuilds().stream().map(sQueuedBuild -> sQueuedBuild.getBuildPromotion()) : null;
+
+    Stream<BuildPromotion> result = finishedBuilds;
+    if (runningBuilds != null) result = Stream.concat(runningBuilds, result);
+    if (queuedBuilds != null) result = Stream.concat(queuedBuilds, result);
+    return FinderDataBinding.getItemHolder(result); //stops as soon as the processor returns false
+  }
+
+  /**
+   * @return finished builds of the agent (including canceled, but not personal ones) retrieved lazily in portions.
+   * The builds are ordered by {@link #BUILD_PROMOTIONS_COMPARATOR} as long as the history order is the same (builds on an agent usually do not overlap),
+   * otherwise a build can come later than it should, but is not lost, see {@link StreamUtil#fromPrefixes(java.util.function.IntFunction, int, Comparator)}
+   */
+  @NotNull
+  private Stream<BuildPromotion> getAgentFinishedBuilds(@NotNull final SBuildAgent agent) {
+    if (!TeamCityProperties.getBooleanOrTrue("rest.buildPromotionFinder.agentHistory.lazy")) {
+      return agent.getBuildHistory(null, true).stream().map(b -> b.getBuildPromotion());
+    }
+    final BuildQueryOptions options = new BuildQueryOptions();
+    options.setAgent(agent);
+    options.setIncludePersonal(false, null);
+    options.setIncludeCanceled(true);
+    options.setIncludeRunning(false);
+    options.setMatchAllBranches(true);
+    options.setOrderByChanges(false);
+    return StreamUtil.fromPrefixes(count -> {
+      final List<BuildPromotion> result = new ArrayList<>(Math.min(count, 1000));
+      myBuildsManager.processBuilds(options, new ItemProcessor<SBuild>() {
+        public boolean processItem(SBuild item) {
+          result.add(item.getBuildPromotion());
+          return result.size() < count;
+        }
+      });
+      return result;
+    }, TeamCityProperties.getInteger("rest.buildPromotionFinder.agentHistory.firstPortionSize", 20), BUILD_PROMOTIONS_COMPARATOR);
+  }
+
   private HashSet<SBuildType> getBuildTypes(final @NotNull Locator locator) {
     SProject project = getProjectFromDimension(locator, PROJECT);
 
@@ -1601,9 +1704,19 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     return locator.getStringRepresentation();
   }
 
+  @NotNull
+  private GraphFinder.Traverser<BuildPromotion> getSnapshotDependenciesTraverser() {
+    return DependencyGraphIndex.getSnapshotDependenciesTraverser(myServiceLocator.findSingletonService(DependencyGraphIndex.class));
+  }
+
+  @NotNull
+  private GraphFinder.Traverser<BuildPromotion> getArtifactDependenciesTraverser() {
+    return DependencyGraphIndex.getArtifactDependenciesTraverser(myServiceLocator.findSingletonService(DependencyGraphIndex.class));
+  }
+
   @NotNull
   private List<BuildPromotion> getSnapshotRelatedBuilds(@NotNull final String snapshotDepDimension) {
-    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, SNAPSHOT_DEPENDENCIES_TRAVERSER);
+    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, getSnapshotDependenciesTraverser());
     final List<BuildPromotion> result = graphFinder.getItems(snapshotDepDimension).myEntries;
     Collections.sort(result, BUILD_PROMOTIONS_COMPARATOR);
     return result; //todo: patch branch locator, personal, etc.???
@@ -1611,7 +1724,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
 
   @NotNull
   private List<BuildPromotion> getArtifactRelatedBuilds(@NotNull final String depDimension) {
-    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, ARTIFACT_DEPENDENCIES_TRAVERSER);
+    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, getArtifactDependenciesTraverser());
     final List<BuildPromotion> result = graphFinder.getItems(depDimension).myEntries;
     Collections.sort(result, BUILD_PROMOTIONS_COMPARATOR);
     return result; //todo: patch branch locator, personal, etc.???
@@ -1689,72 +1802,16 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     }
   }
 
-  private static class SnapshotDepsTraverser implements GraphFinder.Traverser<BuildPromotion> {
-    @NotNull
-    public GraphFinder.LinkRetriever<BuildPromotion> getChildren() {
-      return new GraphFinder.LinkRetriever<BuildPromotion>() {
-        @NotNull
-        public List<BuildPromotion> getLinked(@NotNull final BuildPromotion item) {
-          return CollectionsUtil.convertCollection(item.getDependencies(), new Converter<BuildPromotion, BuildDependency>() {
-                      public BuildPromotion createFrom(@NotNull final BuildDependency source) {
-                        return source.getDependOn();
-                      }
-                    });
-        }
-      };
-    }
-
-    @NotNull
-    public GraphFinder.LinkRetriever<BuildPromotion> getParents() {
-      return new GraphFinder.LinkRetriever<BuildPromotion>() {
-        @NotNull
-        public List<BuildPromotion> getLinked(@NotNull final BuildPromotion item) {
-          return CollectionsUtil.convertCollection(item.getDependedOnMe(), new Converter<BuildPromotion, BuildDependency>() {
-                public BuildPromotion createFrom(@NotNull final BuildDependency source) {
-                  return source.getDependent();
-                }
-              });
-        }
-      };
-    }
-  }
-
-  private static class ArtifactDepsTraverser implements GraphFinder.Traverser<BuildPromotion> {
-    @NotNull
-    public GraphFinder.LinkRetriever<BuildPromotion> getChildren() {
-      return new GraphFinder.LinkRetriever<BuildPromotion>() {
-        @NotNull
-        public List<BuildPromotion> getLinked(@NotNull final BuildPromotion item) {
-          //see also jetbrains.buildServer.server.rest.model.build.Build.getBuildArtifactDependencies
-          SBuild build = item.getAssociatedBuild();
-          if (build == null)
-            return Collections.emptyList();
-          return build.getDownloadedArtifacts().getArtifacts().keySet().stream().map(v -> ((SBuild)v).getBuildPromotion())
-                      .sorted(new Build.BuildPromotionDependenciesComparator()).collect(Collectors.toList());
-        }
-      };
-    }
-
-    @NotNull
-    public GraphFinder.LinkRetriever<BuildPromotion> getParents() {
-      return new GraphFinder.LinkRetriever<BuildPromotion>() {
-        @NotNull
-        public List<BuildPromotion> getLinked(@NotNull final BuildPromotion item) {
-          SBuild build = item.getAssociatedBuild();
-          if (build == null)
-            return Collections.emptyList();
-          return build.getProvidedArtifacts().getArtifacts().keySet().stream().map(v -> ((SBuild)v).getBuildPromotion())
-                      .sorted(new Build.BuildPromotionDependenciesComparator()).collect(Collectors.toList());
-        }
-      };
-    }
-  }
-
   private class BuildPromotionOrderedFinder extends GraphFinder<BuildPromotion> {
     public BuildPromotionOrderedFinder(@NotNull final BuildPromotionFinder finder) {
       super(finder, new BuildPromotionOrderSupportTraverser());
     }
 
+    @Override
+    protected boolean isStreamingTraversalSupported() {
+      return false; //the traversal is not breadth-first, see collectLinked
+    }
+
     @Override
     protected void collectLinked(@NotNull final Set<BuildPromotion> result,
                                  @NotNull final Collection<BuildPromotion> toProcess,
@@ -1934,7 +1991,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
 
   @Nullable
   private Integer getSnapshotRelatedBuildsCheapCount(@NotNull final String snapshotDepDimension, @Nullable final Integer limitingCount) {
-    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, SNAPSHOT_DEPENDENCIES_TRAVERSER);
+    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, getSnapshotDependenciesTraverser());
     GraphFinder.ParsedLocator<BuildPromotion> parsedLocator = graphFinder.getParsedLocator(snapshotDepDimension);
 
     Integer count = parsedLocator.getCount();
@@ -1963,7 +2020,7 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
 
   @Nullable
   private Integer getArtifactRelatedBuildsCheapCount(@NotNull final String artifactDepDimension, @Nullable final Integer limitingCount) {
-    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, ARTIFACT_DEPENDENCIES_TRAVERSER);
+    final GraphFinder<BuildPromotion> graphFinder = new GraphFinder<BuildPromotion>(this, getArtifactDependenciesTraverser());
     GraphFinder.ParsedLocator<BuildPromotion> parsedLocator = graphFinder.getParsedLocator(artifactDepDimension);
 
     Integer count = parsedLocator.getCount();
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import jetbrains.buildServer.parameters.ParametersProvider;
+import jetbrains.buildServer.parameters.impl.MapParametersProviderImpl;
+import jetbrains.buildServer.server.rest.model.build.Build;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.impl.FinishedBuildEx;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps projections of the finished builds' resulting parameters onto the parameter names which are used for the builds filtering,
+ * so that filtering by a parameter with the specific name does not need to load all the build's parameters.
+ * The names are learned from the parameters requested by name (e.g. by "property:(name:release.version,value:...)" condition) and can also be configured via internal property.
+ * A learned name is forgotten when it is not requested for a while or when a more recently requested name does not fit into the names limit.
+ * <p/>
+ * A projection is stored when the build's parameters are loaded for filtering, so nothing is read on the build finish.
+ * The projections are held in the segments limited by the estimated memory size, each segment evicts its least recently used projections.
+ * The resulting parameters of a finished build do not change, so the projections are never invalidated: a projection is only replaced when a not yet projected name is requested.
+ */
+public class BuildResultingParametersCache {
+  static final String ENABLED_PROPERTY = "rest.buildResultingParametersCache.enabled";
+  static final String MAX_SIZE_KB_PROPERTY = "rest.buildResultingParametersCache.maxSizeKb";
+  static final String MAX_NAMES_PROPERTY = "rest.buildResultingParametersCache.maxNames";
+  static final String NAME_EXPIRY_SECONDS_PROPERTY = "rest.buildResultingParametersCache.nameExpirySeconds";
+  static final String NAMES_PROPERTY = "rest.buildResultingParametersCache.names";
+
+  private static final int SEGMENTS_COUNT = 16;
+  private static final long NAME_USAGE_UPDATE_INTERVAL_MS = 60 * 1000; //do not update the name usage time on each request
+
+  @NotNull private final LongSupplier myClock;
+  @NotNull private final Map<String, Long> myLearnedNames = new ConcurrentHashMap<>(); //name -> last usage time
+  @NotNull private final Segment[] mySegments = new Segment[SEGMENTS_COUNT];
+
+  public BuildResultingParametersCache() {
+    this(System::currentTimeMillis);
+  }
+
+  BuildResultingParametersCache(@NotNull final LongSupplier clock) {
+    myClock = clock;
+    for (int i = 0; i < mySegments.length; i++) {
+      mySegments[i] = new Segment();
+    }
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @return the same parameters as {@link Build#getBuildResultingParameters(BuildPromotion)}, but the values requested by name are served from the projection when possible
+   */
+  @NotNull
+  public ParametersProvider getResultingParameters(@NotNull final BuildPromotion buildPromotion) {
+    final SBuild build = buildPromotion.getAssociatedBuild();
+    if (!(build instanceof FinishedBuildEx) || !build.isFinished()) {
+      return Build.getBuildResultingParameters(buildPromotion);
+    }
+    return new ProjectedParametersProvider((FinishedBuildEx)build, buildPromotion);
+  }
+
+  /**
+   * @return currently used names learned from the requests
+   */
+  @NotNull
+  Set<String> getLearnedNames() {
+    return new HashSet<>(myLearnedNames.keySet());
+  }
+
+  int getProjectionsCount() {
+    int result = 0;
+    for (Segment segment : mySegments) {
+      result += segment.size();
+    }
+    return result;
+  }
+
+  @NotNull
+  private Segment getSegment(final long promotionId) {
+    return mySegments[(int)((promotionId ^ (promotionId >>> 32)) & (SEGMENTS_COUNT - 1))];
+  }
+
+  private void storeProjection(final long promotionId, @NotNull final Map<String, String> parameters) {
+    final Projection projection = new Projection(getNames(), parameters);
+    final long maxSegmentWeight = TeamCityProperties.getInteger(MAX_SIZE_KB_PROPERTY, 64 * 1024) * 1024L / SEGMENTS_COUNT;
+    getSegment(promotionId).put(promotionId, projection, maxSegmentWeight);
+  }
+
+  @NotNull
+  private Set<String> getNames() {
+    final long now = myClock.getAsLong();
+    final long expiryMs = TimeUnit.SECONDS.toMillis(TeamCityProperties.getInteger(NAME_EXPIRY_SECONDS_PROPERTY, 24 * 60 * 60));
+    final Set<String> result = new HashSet<>();
+    for (Map.Entry<String, Long> entry : myLearnedNames.entrySet()) {
+      if (now - entry.getValue() > expiryMs) {
+        myLearnedNames.remove(entry.getKey(), entry.getValue());
+      } else {
+        result.add(entry.getKey());
+      }
+    }
+    final String configuredNames = TeamCityProperties.getPropertyOrNull(NAMES_PROPERTY);
+    if (configuredNames != null) {
+      for (String name : StringUtil.split(configuredNames, ",")) {
+        if (!name.trim().isEmpty()) result.add(name.trim());
+      }
+    }
+    return result;
+  }
+
+  private void learn(@NotNull final String name) {
+    final long now = myClock.getAsLong();
+    final Long lastUsage = myLearnedNames.get(name);
+    if (lastUsage != null) {
+      if (now - lastUsage > NAME_USAGE_UPDATE_INTERVAL_MS) myLearnedNames.put(name, now);
+      return;
+    }
+    if (myLearnedNames.size() >= TeamCityProperties.getInteger(MAX_NAMES_PROPERTY, 50)) {
+      //forget the least recently used name to make room for the new one
+      myLearnedNames.entrySet().stream().min(Map.Entry.comparingByValue()).ifPresent(entry -> myLearnedNames.remove(entry.getKey(), entry.getValue()));
+    }
+    myLearnedNames.put(name, now);
+  }
+
+  /**
+   * Values of the parameters with the projected names, the value is null when the build does not have the parameter
+   */
+  private static class Projection {
+    private static final int ENTRY_OVERHEAD = 96; //map entry, key, the projection object and array headers
+    private static final int STRING_OVERHEAD = 40;
+
+    @NotNull private final String[] myNamesAndValues; //the names are the shared instances, so only the values are counted in the weight
+    private final long myWeight;
+
+    Projection(@NotNull final Set<String> names, @NotNull final Map<String, String> parameters) {
+      myNamesAndValues = new String[names.size() * 2];
+      long weight = ENTRY_OVERHEAD + 8L * myNamesAndValues.length;
+      int i = 0;
+      for (String name : names) {
+        final String value = parameters.get(name);
+        myNamesAndValues[i++] = name;
+        myNamesAndValues[i++] = value;
+        if (value != null) weight += STRING_OVERHEAD + 2L * value.length();
+      }
+      myWeight = weight;
+    }
+
+    boolean contains(@NotNull final String name) {
+      for (int i = 0; i < myNamesAndValues.length; i += 2) {
+        if (name.equals(myNamesAndValues[i])) return true;
+      }
+      return false;
+    }
+
+    @Nullable
+    String get(@NotNull final String name) {
+      for (int i = 0; i < myNamesAndValues.length; i += 2) {
+        if (name.equals(myNamesAndValues[i])) return myNamesAndValues[i + 1];
+      }
+      return null;
+    }
+  }
+
+  private static class Segment {
+    @NotNull private final LinkedHashMap<Long, Projection> myProjections = new LinkedHashMap<>(16, 0.75f, true);
+    private long myWeight = 0;
+
+    @Nullable
+    synchronized Projection get(final long promotionId) {
+      return myProjections.get(promotionId);
+    }
+
+    synchronized void put(final long promotionId, @NotNull final Projection projection, final long maxWeight) {
+      final Projection previous = myProjections.put(promotionId, projection);
+      if (previous != null) myWeight -= previous.myWeight;
+      myWeight += projection.myWeight;
+      final Iterator<Projection> it = myProjections.values().iterator();
+      while (myWeight > maxWeight && it.hasNext()) {
+        myWeight -= it.next().myWeight;
+        it.remove();
+      }
+    }
+
+    synchronized int size() {
+      return myProjections.size();
+    }
+  }
+
+  private class ProjectedParametersProvider implements ParametersProvider {
+    @NotNull private final FinishedBuildEx myBuild;
+    @NotNull private final BuildPromotion myBuildPromotion;
+    @Nullable private ParametersProvider myParameters;
+
+    ProjectedParametersProvider(@NotNull final FinishedBuildEx build, @NotNull final BuildPromotion buildPromotion) {
+      myBuild = build;
+      myBuildPromotion = buildPromotion;
+    }
+
+    @Nullable
+    @Override
+    public String get(@NotNull final String key) {
+      if (myParameters == null) {
+        learn(key);
+        final Projection projection = getSegment(myBuildPromotion.getId()).get(myBuildPromotion.getId());
+        if (projection != null && projection.contains(key)) {
+          return projection.get(key);
+        }
+        final Map<String, String> finishParameters = myBuild.getBuildFinishParameters();
+        if (finishParameters != null) {
+          storeProjection(myBuildPromotion.getId(), finishParameters);
+          myParameters = new MapParametersProviderImpl(finishParameters);
+        } else {
+          myParameters = Build.getBuildResultingParameters(myBuildPromotion);
+        }
+      }
+      return myParameters.get(key);
+    }
+
+    @Override
+    public int size() {
+      return getAll().size();
+    }
+
+    @Override
+    public Map<String, String> getAll() {
+      if (myParameters == null) {
+        myParameters = Build.getBuildResultingParameters(myBuildPromotion);
+      }
+      return myParameters.getAll();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the data served to the frequently polled build status widgets: the calculated statuses per locator and the status icon files content.
+ * A status is reused only while the data version supplied by the caller is the same as at the moment of the calculation.
+ * The version should be as narrow as possible (e.g. the builds version of the build configurations the status is calculated for, see {@link ServerDataVersions})
+ * so that unrelated builds activity does not invalidate the status. As some changes do not have a dedicated event (e.g. permissions),
+ * the statuses also expire after a timeout.
+ * The key of a status should include everything the status depends on besides the versioned data, e.g. the user or the permissions.
+ */
+public class BuildStatusCache {
+  static final String ENABLED_PROPERTY = "rest.buildStatusCache.enabled";
+  static final String MAX_ENTRIES_PROPERTY = "rest.buildStatusCache.maxEntries";
+  static final String MAX_AGE_PROPERTY = "rest.buildStatusCache.maxAgeSeconds";
+  static final String MAX_FILE_SIZE_PROPERTY = "rest.buildStatusCache.maxFileSize";
+
+  //the map is replaced instead of clearing so that a value calculated concurrently with the reset is not stored into the new map
+  @NotNull private volatile Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+  @NotNull private final Map<String, FileContent> myFiles = new ConcurrentHashMap<>();
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @param version    version of the data the status is calculated from, should be retrieved before the calculation
+   *                   so that the result is not reused if the data changes during the calculation
+   * @param calculator calculates the status if there is no actual cached result
+   */
+  @NotNull
+  public <T> T getStatus(@NotNull final String key, @NotNull final String version, @NotNull final Supplier<T> calculator) {
+    if (!isEnabled()) return calculator.get();
+
+    final long now = System.currentTimeMillis();
+    final Map<String, Entry> entries = myEntries;
+    final Entry entry = entries.get(key);
+    if (entry != null && entry.myVersion.equals(version) && now - entry.myTimestamp <= TeamCityProperties.getInteger(MAX_AGE_PROPERTY, 30) * 1000L) {
+      @SuppressWarnings("unchecked") final T result = (T)entry.myStatus;
+      return result;
+    }
+
+    final T result = calculator.get();
+    if (entry == null && entries.size() >= TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 10000)) {
+      reset();
+      return result;
+    }
+    entries.put(key, new Entry(result, version, now));
+    return result;
+  }
+
+  /**
+   * Returns the content of a small static file, reading it from disk only when the file was modified since the last read.
+   * Is intended for a limited set of files, e.g. the status icons.
+   *
+   * @return null if the file is too large to be cached or caching is disabled
+   */
+  @Nullable
+  public byte[] getFileContent(@NotNull final File file) throws IOException {
+    if (!isEnabled()) return null;
+    final long length = file.length();
+    if (length > TeamCityProperties.getInteger(MAX_FILE_SIZE_PROPERTY, 64 * 1024)) return null;
+
+    final String key = file.getAbsolutePath();
+    final long lastModified = file.lastModified();
+    final FileContent cached = myFiles.get(key);
+    if (cached != null && cached.myLastModified == lastModified && cached.myContent.length == length) {
+      return cached.myContent;
+    }
+    final byte[] content = Files.readAllBytes(file.toPath());
+    myFiles.put(key, new FileContent(content, lastModified));
+    return content;
+  }
+
+  private void reset() {
+    myEntries = new ConcurrentHashMap<>();
+  }
+
+  private static class Entry {
+    @NotNull private final Object myStatus;
+    @NotNull private final String myVersion;
+    private final long myTimestamp;
+
+    Entry(@NotNull final Object status, @NotNull final String version, final long timestamp) {
+      myStatus = status;
+      myVersion = version;
+      myTimestamp = timestamp;
+    }
+  }
+
+  private static class FileContent {
+    @NotNull private final byte[] myContent;
+    private final long myLastModified;
+
+    FileContent(@NotNull final byte[] content, final long lastModified) {
+      myContent = content;
+      myLastModified = lastModified;
+    }
+  }
+}
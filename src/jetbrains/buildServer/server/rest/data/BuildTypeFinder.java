@@ -283,7 +283,7 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
       @NotNull final SProject parentProject = myProjectFinder.getItem(affectedProjectDimension);
       result.add(new FilterConditionChecker<BuildTypeOrTemplate>() {
         public boolean isIncluded(@NotNull final BuildTypeOrTemplate item) {
-          return ProjectFinder.isSameOrParent(parentProject, item.getProject());
+          return myProjectFinder.isSameOrParent(parentProject, item.getProject());
         }
       });
     }
@@ -314,7 +314,7 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
         public boolean isIncluded(@NotNull final BuildTypeOrTemplate item) {
           if (item.getBuildType() == null) return false;
           for (SBuildAgent agent : agents) {
-            if (AgentFinder.canActuallyRun(agent, item.getBuildType())) return true;
+            if (myAgentFinder.canActuallyRun(agent, item.getBuildType())) return true;
           }
           return false;
         }
@@ -328,7 +328,7 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
           if (item.getBuildType() == null) return false;
           long count = 0;
           for (SBuildAgent agent : myAgentFinder.getItems(null).myEntries) { //or should process unauthorized as well?
-            if (AgentFinder.canActuallyRun(agent, item.getBuildType()) && agent.isRegistered() && agent.isAuthorized() && agent.isEnabled()) count++;
+            if (myAgentFinder.canActuallyRun(agent, item.getBuildType()) && agent.isRegistered() && agent.isAuthorized() && agent.isEnabled()) count++;
             if (count > compatibleAgentsCount) return false;
           }
           return count == compatibleAgentsCount;
@@ -527,6 +527,10 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
     final String vcsRoot = locator.getSingleDimensionValue(VCS_ROOT_DIMENSION);
     if (vcsRoot != null) {
       final Set<SVcsRoot> vcsRoots = new HashSet<SVcsRoot>(myServiceLocator.getSingletonService(VcsRootFinder.class).getItems(vcsRoot).myEntries);
+      final VcsRootUsageIndex index = getVcsRootUsageIndex();
+      if (index != null) {
+        return getItemHolder(index.getUsages(vcsRoots));
+      }
       final VcsManager vcsManager = myServiceLocator.getSingletonService(VcsManager.class);
       final LinkedHashSet<BuildTypeOrTemplate> result = new LinkedHashSet<BuildTypeOrTemplate>();
       for (SVcsRoot root : vcsRoots) {
@@ -542,6 +546,10 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
     if (vcsRootInstance != null) {
       final Set<jetbrains.buildServer.vcs.VcsRootInstance> vcsRootInstances =
         new HashSet<jetbrains.buildServer.vcs.VcsRootInstance>(myServiceLocator.getSingletonService(VcsRootInstanceFinder.class).getItems(vcsRootInstance).myEntries);
+      final VcsRootUsageIndex index = getVcsRootUsageIndex();
+      if (index != null) {
+        return getItemHolder(index.getInstanceUsages(vcsRootInstances));
+      }
       final List<SBuildType> result = new ArrayList<SBuildType>();
       for (jetbrains.buildServer.vcs.VcsRootInstance root : vcsRootInstances) {
         result.addAll(root.getUsages().keySet());
@@ -866,6 +874,18 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
     return result;
   }
 
+  @Nullable
+  private VcsRootUsageIndex getVcsRootUsageIndex() {
+    if (!VcsRootUsageIndex.isEnabled()) return null;
+    return myServiceLocator.findSingletonService(VcsRootUsageIndex.class);
+  }
+
+  @Nullable
+  private DependencyGraphIndex getDependencyGraphIndex() {
+    if (!DependencyGraphIndex.isEnabled()) return null;
+    return myServiceLocator.findSingletonService(DependencyGraphIndex.class);
+  }
+
   private class SnapshotDepsTraverser implements GraphFinder.Traverser<BuildTypeOrTemplate> {
     @NotNull private final PermissionChecker myPermissionChecker;
 
@@ -881,6 +901,10 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
           if (BuildType.shouldRestrictSettingsViewing(item.get(), myPermissionChecker)){
             return new ArrayList<BuildTypeOrTemplate>(); //conceal dependencies
           }
+          final DependencyGraphIndex index = getDependencyGraphIndex();
+          if (index != null) {
+            return index.getBuildTypeSnapshotDependencies(item).stream().map(v -> new BuildTypeOrTemplate(v)).collect(Collectors.toList());
+          }
           return item.get().getDependencies().stream().map(Dependency::getDependOn).filter(Objects::nonNull).map(v -> new BuildTypeOrTemplate(v)).collect(Collectors.toList());
         }
       };
@@ -916,6 +940,10 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
           if (BuildType.shouldRestrictSettingsViewing(item.get(), myPermissionChecker)) {
             return new ArrayList<BuildTypeOrTemplate>(); //conceal dependencies
           }
+          final DependencyGraphIndex index = getDependencyGraphIndex();
+          if (index != null) {
+            return index.getBuildTypeArtifactDependencies(item).stream().map(v -> new BuildTypeOrTemplate(v)).collect(Collectors.toList());
+          }
           return item.get().getArtifactDependencies().stream().map(SArtifactDependency::getSourceBuildType).filter(Objects::nonNull).map(v -> new BuildTypeOrTemplate(v))
                      .collect(Collectors.toList());
         }
@@ -931,7 +959,8 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
           if (buildType == null) {
             return new ArrayList<BuildTypeOrTemplate>(); //template should have no dependencies on it
           }
-          return buildType.getArtifactsReferences().stream().filter(Objects::nonNull).filter(v -> !BuildType.shouldRestrictSettingsViewing(v, myPermissionChecker))
+          final DependencyGraphIndex index = getDependencyGraphIndex();
+          return (index != null ? index.getBuildTypeArtifactDependents(buildType) : buildType.getArtifactsReferences()).stream().filter(Objects::nonNull).filter(v -> !BuildType.shouldRestrictSettingsViewing(v, myPermissionChecker))
                           .map(v -> new BuildTypeOrTemplate(v)).collect(Collectors.toList());
         }
       };
@@ -941,7 +970,8 @@ public class BuildTypeFinder extends AbstractFinder<BuildTypeOrTemplate> {
   @NotNull
   private List<BuildTypeOrTemplate> getDependingOn(@NotNull final SBuildType buildType, @NotNull final PermissionChecker permissionChecker) {
     final ArrayList<BuildTypeOrTemplate> result = new ArrayList<BuildTypeOrTemplate>();
-    for (SBuildType ref: buildType.getDependencyReferences()) {
+    final DependencyGraphIndex index = getDependencyGraphIndex();
+    for (SBuildType ref: index != null ? index.getBuildTypeSnapshotDependents(buildType) : buildType.getDependencyReferences()) {
       if (!BuildType.shouldRestrictSettingsViewing(ref, permissionChecker)){ //conceal dependencies
         result.add(new BuildTypeOrTemplate(ref));
       }
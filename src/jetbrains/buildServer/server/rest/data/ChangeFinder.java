@@ -124,6 +124,33 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     return ChangeFinder.getLocator(vcsModification);
   }
 
+  @Nullable
+  @Override
+  public String getItemCursorKey(@NotNull final SVcsModification vcsModification) {
+    return (vcsModification.isPersonal() ? "p" : "") + vcsModification.getId(); //personal changes have separate ids sequence
+  }
+
+  @Override
+  public boolean isCursorUsedInPrefiltering() {
+    return true;
+  }
+
+  /**
+   * @return id of the (non-personal) change of the locator's paging cursor: as the changes scan goes in the ids order, the next page can be retrieved
+   * by scanning from the change instead of skipping all the changes before it. null if there is no cursor.
+   */
+  @Nullable
+  private static Long getCursorChangeId(@NotNull final Locator locator) {
+    final String cursorText = locator.lookupSingleDimensionValue(PagerData.CURSOR);
+    if (cursorText == null) return null;
+    final String itemKey = PagingCursor.parse(cursorText).getItemKey();
+    try {
+      return Long.parseLong(itemKey);
+    } catch (NumberFormatException e) {
+      return null; //personal change
+    }
+  }
+
   @NotNull
   public static String getLocator(@NotNull final SVcsModification vcsModification) {
     if (vcsModification.isPersonal()){
@@ -506,14 +533,15 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
       sinceChangeId = getChangeIdBySinceChangeLocator(sinceChangeLocator);
     }
 
+    final Long cursorChangeId = getCursorChangeId(locator);
+
     final String vcsRootInstanceLocator = locator.getSingleDimensionValue(VCS_ROOT_INSTANCE);
     if (vcsRootInstanceLocator != null) {
       final VcsRootInstance vcsRootInstance = myVcsRootInstanceFinder.getItem(vcsRootInstanceLocator);
-      if (sinceChangeId != null) {
-        return getItemHolder(myVcsModificationHistory.getModificationsInRange(vcsRootInstance, sinceChangeId, null)); //todo: use lookupLimit here or otherwise limit processing
+      if (sinceChangeId != null || cursorChangeId != null) {
+        return FinderDataBinding.getItemHolder(ChangesRangeScan.getChanges(myVcsModificationHistory, vcsRootInstance, sinceChangeId != null ? sinceChangeId : 0, cursorChangeId));
       } else {
-        //todo: highly inefficient!
-        return getItemHolder(myVcsModificationHistory.getAllModifications(vcsRootInstance));
+        return FinderDataBinding.getItemHolder(ChangesRangeScan.getAllChanges(myVcsModificationHistory, vcsRootInstance));
       }
     }
 
@@ -542,11 +570,11 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
 
     final String projectLocator = locator.getSingleDimensionValue(PROJECT);
     if (projectLocator != null) {
-      return getItemHolder(getProjectChanges(myVcsModificationHistory, myProjectFinder.getItem(projectLocator), sinceChangeId));
+      return FinderDataBinding.getItemHolder(getProjectChanges(myVcsModificationHistory, myProjectFinder.getItem(projectLocator), sinceChangeId, cursorChangeId));
     }
 
-    if (sinceChangeId != null) {
-      return getItemHolder(myVcsModificationHistory.getModificationsInRange(null, sinceChangeId, null));  //todo: use lookupLimit here or otherwise limit processing
+    if (sinceChangeId != null || cursorChangeId != null) {
+      return FinderDataBinding.getItemHolder(ChangesRangeScan.getChanges(myVcsModificationHistory, null, sinceChangeId != null ? sinceChangeId : 0, cursorChangeId));
     }
 
     return new ItemHolder<SVcsModification>() {
@@ -728,20 +756,15 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     }
   }
 
-  static private List<SVcsModification> getProjectChanges(@NotNull final VcsModificationHistory vcsHistory,
-                                                          @NotNull final SProject project,
-                                                          @Nullable final Long sinceChangeId) {
-    final List<VcsRootInstance> vcsRoots = project.getVcsRootInstances();
-    final List<SVcsModification> result = new ArrayList<SVcsModification>();
-    for (VcsRootInstance root : vcsRoots) {
-      if (sinceChangeId != null) {
-        result.addAll(vcsHistory.getModificationsInRange(root, sinceChangeId, null));
-      } else {
-        //todo: highly inefficient!
-        result.addAll(vcsHistory.getAllModifications(root));
-      }
-    }
-    Collections.sort(result);
-    return result;
+  /**
+   * @param toChangeId the id of the newest change to return, null means no limit
+   * @return changes of all the VCS roots of the project in the natural changes order
+   */
+  @NotNull
+  static private Stream<SVcsModification> getProjectChanges(@NotNull final VcsModificationHistory vcsHistory,
+                                                            @NotNull final SProject project,
+                                                            @Nullable final Long sinceChangeId,
+                                                            @Nullable final Long toChangeId) {
+    return ChangesRangeScan.getChanges(vcsHistory, project.getVcsRootInstances(), sinceChangeId != null ? sinceChangeId : 0, toChangeId);
   }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import jetbrains.buildServer.server.rest.util.StreamUtil;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.VcsModificationHistory;
+import jetbrains.buildServer.vcs.VcsModificationHistoryEx;
+import jetbrains.buildServer.vcs.VcsRootInstance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Retrieves the changes with ids in the range (fromId; toId] lazily: the range is scanned from the newest to the oldest changes
+ * in id windows of a limited size, so that only the windows needed to fill the requested page are loaded.
+ * As the ids are global for all the VCS roots, the window grows (up to {@link #MAX_WINDOW_SIZE_PROPERTY}) when it contains too few changes of the requested root.
+ * When several roots are requested, the window grows only when there are too few changes of any root in it, so that a window never loads more than its size of changes.
+ * The changes of several roots are retrieved with a single request per window for all the roots, so the number of requests does not depend on the number of roots.
+ * The windows are consecutive in the ids order which is assumed to be consistent with the natural changes order (the newest changes first).
+ */
+public class ChangesRangeScan {
+  static final String ENABLED_PROPERTY = "rest.changeFinder.rangeScan.enabled";
+  static final String WINDOW_SIZE_PROPERTY = "rest.changeFinder.rangeScan.windowSize";
+  static final String MAX_WINDOW_SIZE_PROPERTY = "rest.changeFinder.rangeScan.maxWindowSize";
+  private static final int MIN_WINDOW_SIZE = 1;
+
+  /** natural changes order with the id as tie-breaker so that the changes from different roots are never considered equal */
+  static final Comparator<SVcsModification> CHANGES_ORDER = Comparator.<SVcsModification>naturalOrder().thenComparingLong(SVcsModification::getId);
+
+  /**
+   * @param root null to get the changes of all the roots
+   * @param fromId the id of the change after which the changes should be returned, exclusive
+   * @param toId the id of the newest change to return, inclusive. null means no limit.
+   * @return changes in {@link #CHANGES_ORDER}
+   */
+  @NotNull
+  public static Stream<SVcsModification> getChanges(@NotNull final VcsModificationHistory history,
+                                                    @Nullable final VcsRootInstance root,
+                                                    final long fromId,
+                                                    @Nullable final Long toId) {
+    return scan(history, root, null, fromId, toId, () -> getSorted(history.getModificationsInRange(root, fromId, toId)).stream());
+  }
+
+  /**
+   * @return all the changes of the root in {@link #CHANGES_ORDER}
+   */
+  @NotNull
+  public static Stream<SVcsModification> getAllChanges(@NotNull final VcsModificationHistory history, @NotNull final VcsRootInstance root) {
+    return scan(history, root, null, 0, null, () -> getSorted(history.getAllModifications(root)).stream());
+  }
+
+  /**
+   * @param fromId the id of the change after which the changes should be returned, exclusive. 0 to get all the changes.
+   * @return the changes of all the roots in {@link #CHANGES_ORDER}
+   */
+  @NotNull
+  public static Stream<SVcsModification> getChanges(@NotNull final VcsModificationHistory history, @NotNull final Collection<VcsRootInstance> roots, final long fromId) {
+    return getChanges(history, roots, fromId, null);
+  }
+
+  /**
+   * @param fromId the id of the change after which the changes should be returned, exclusive. 0 to get all the changes.
+   * @param toId the id of the newest change to return, inclusive. null means no limit.
+   * @return the changes of all the roots in {@link #CHANGES_ORDER}
+   */
+  @NotNull
+  public static Stream<SVcsModification> getChanges(@NotNull final VcsModificationHistory history,
+                                                    @NotNull final Collection<VcsRootInstance> roots,
+                                                    final long fromId,
+                                                    @Nullable final Long toId) {
+    if (roots.isEmpty()) return Stream.empty();
+    if (roots.size() == 1) {
+      final VcsRootInstance root = roots.iterator().next();
+      return fromId > 0 || toId != null ? getChanges(history, root, fromId, toId) : getAllChanges(history, root);
+    }
+    final Set<Long> rootIds = roots.stream().map(VcsRootInstance::getId).collect(Collectors.toSet());
+    return scan(history, null, rootIds, fromId, toId, () -> StreamUtil.merge(roots.stream().map(root -> {
+      //the core history API returns the whole list for a root, so the heads of all the roots are retrieved when merging starts
+      final List<SVcsModification> rootChanges = fromId > 0 || toId != null ? history.getModificationsInRange(root, fromId, toId) : history.getAllModifications(root);
+      return getSorted(rootChanges).stream();
+    }), CHANGES_ORDER));
+  }
+
+  /**
+   * @param rootIds if not null, only the changes of these roots are returned
+   */
+  @NotNull
+  private static Stream<SVcsModification> scan(@NotNull final VcsModificationHistory history,
+                                               @Nullable final VcsRootInstance root,
+                                               @Nullable final Set<Long> rootIds,
+                                               final long fromId,
+                                               @Nullable final Long toId,
+                                               @NotNull final Supplier<Stream<SVcsModification>> unboundedRetriever) {
+    if (!TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY)) {
+      return unboundedRetriever.get();
+    }
+    final Long upperId = toId != null ? toId : getNewestChangeId(history);
+    if (upperId == null) {
+      return unboundedRetriever.get();
+    }
+    final long windowSize = Math.max(MIN_WINDOW_SIZE, TeamCityProperties.getInteger(WINDOW_SIZE_PROPERTY, 1000));
+    final long maxWindowSize = Math.max(windowSize, TeamCityProperties.getInteger(MAX_WINDOW_SIZE_PROPERTY, 100000));
+    return StreamSupport.stream(new WindowsSpliterator(history, root, rootIds, fromId, upperId, windowSize, maxWindowSize), false);
+  }
+
+  /**
+   * @return id of the newest change on the server (0 if there are no changes) or null if it cannot be determined cheaply
+   */
+  @Nullable
+  private static Long getNewestChangeId(@NotNull final VcsModificationHistory history) {
+    if (!(history instanceof VcsModificationHistoryEx)) return null;
+    final long[] result = {0};
+    ((VcsModificationHistoryEx)history).processModifications(item -> {
+      result[0] = item.getId();
+      return false;
+    });
+    return result[0];
+  }
+
+  /**
+   * @return the same list if it is already sorted (the usual case), sorted copy otherwise
+   */
+  @NotNull
+  private static List<SVcsModification> getSorted(@NotNull final List<SVcsModification> modifications) {
+    for (int i = 1; i < modifications.size(); i++) {
+      if (CHANGES_ORDER.compare(modifications.get(i - 1), modifications.get(i)) > 0) {
+        final List<SVcsModification> result = new ArrayList<>(modifications);
+        result.sort(CHANGES_ORDER);
+        return result;
+      }
+    }
+    return modifications;
+  }
+
+  private static class WindowsSpliterator extends Spliterators.AbstractSpliterator<SVcsModification> {
+    @NotNull private final VcsModificationHistory myHistory;
+    @Nullable private final VcsRootInstance myRoot;
+    @Nullable private final Set<Long> myRootIds;
+    private final long myFromId;
+    private final long myMinWindowItems;
+    private final long myMaxWindowSize;
+    private long myUpperId;
+    private long myWindowSize;
+    @NotNull private Iterator<SVcsModification> myCurrentWindow = Collections.emptyIterator();
+
+    WindowsSpliterator(@NotNull final VcsModificationHistory history,
+                       @Nullable final VcsRootInstance root,
+                       @Nullable final Set<Long> rootIds,
+                       final long fromId,
+                       final long upperId,
+                       final long windowSize,
+                       final long maxWindowSize) {
+      super(Long.MAX_VALUE, ORDERED | NONNULL | DISTINCT);
+      myHistory = history;
+      myRoot = root;
+      myRootIds = rootIds;
+      myFromId = fromId;
+      myUpperId = upperId;
+      myWindowSize = windowSize;
+      myMaxWindowSize = maxWindowSize;
+      myMinWindowItems = windowSize / 4;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super SVcsModification> action) {
+      while (!myCurrentWindow.hasNext()) {
+        if (myUpperId <= myFromId) return false;
+        final long lowerId = Math.max(myFromId, myUpperId - myWindowSize);
+        List<SVcsModification> window = myHistory.getModificationsInRange(myRoot, lowerId, myUpperId);
+        myUpperId = lowerId;
+        //deciding on the loaded (not filtered) changes: for several roots the window contains the changes of all the roots and should not grow in a dense history
+        if (window.size() < myMinWindowItems && myWindowSize < myMaxWindowSize) {
+          myWindowSize = Math.min(myWindowSize * 2, myMaxWindowSize); //sparse history: reach the older changes with less requests
+        }
+        if (myRootIds != null) {
+          window = window.stream().filter(item -> myRootIds.contains(item.getVcsRoot().getId())).collect(Collectors.toList());
+        }
+        myCurrentWindow = getSorted(window).iterator();
+      }
+      action.accept(myCurrentWindow.next());
+      return true;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import jetbrains.buildServer.server.rest.model.build.Build;
+import jetbrains.buildServer.server.rest.util.BuildTypeOrTemplate;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.artifacts.SArtifactDependency;
+import jetbrains.buildServer.serverSide.dependency.BuildDependency;
+import jetbrains.buildServer.serverSide.dependency.Dependency;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In-memory adjacency lists of the builds and build configurations dependency graphs used by the dependency traversals.
+ * The lists are filled on first access, hold the most recently used entries only and are updated on the server events which can change them:
+ * <ul>
+ *   <li>snapshot dependencies of a build are stored only once the build is started (they are fixed since then),</li>
+ *   <li>snapshot dependents of a build are dropped when a build depending on it is added to or removed from the queue or is started,</li>
+ *   <li>artifact dependencies of a build are stored only once the build is finished,</li>
+ *   <li>the lists of a deleted build are dropped, in the lists of other builds it is skipped as it is no longer found by id,</li>
+ *   <li>build configurations dependencies are dropped on any configuration change.</li>
+ * </ul>
+ * Artifact dependents of the builds (builds which downloaded artifacts) change while the dependent builds run and are not stored.
+ * The builds and build configurations are stored as ids (promotion ids and internal ids) and are resolved on each access.
+ * Permissions are not considered here: the callers should filter the items.
+ */
+public class DependencyGraphIndex extends BuildServerAdapter {
+  static final String ENABLED_PROPERTY = "rest.dependencyGraphIndex.enabled";
+  static final String MAX_ENTRIES_PROPERTY = "rest.dependencyGraphIndex.maxEntries";
+
+  private static final long[] NO_BUILDS = new long[0];
+  private static final String[] NO_INTERNAL_IDS = new String[0];
+
+  @NotNull private final ProjectManager myProjectManager;
+  @NotNull private final BuildPromotionManager myBuildPromotionManager;
+
+  @NotNull private final Map<Long, long[]> mySnapshotDependencies = createLruMap();
+  @NotNull private final Map<Long, long[]> mySnapshotDependents = createLruMap();
+  @NotNull private final Map<Long, long[]> myArtifactDependencies = createLruMap();
+  //the map is replaced instead of clearing so that a value calculated concurrently with the invalidation is not stored into the new map
+  @NotNull private volatile Map<String, String[]> myBuildTypeLinks = createLruMap();
+  //a builds list is not stored if an invalidation happened while it was calculated, the check is done under the lock of the map
+  @NotNull private final AtomicLong myBuildsInvalidationsCount = new AtomicLong();
+
+  public DependencyGraphIndex(@NotNull final SBuildServer server, @NotNull final ProjectManager projectManager, @NotNull final BuildPromotionManager buildPromotionManager) {
+    myProjectManager = projectManager;
+    myBuildPromotionManager = buildPromotionManager;
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @return builds the build depends on via snapshot dependencies
+   */
+  @NotNull
+  public List<BuildPromotion> getSnapshotDependencies(@NotNull final BuildPromotion build) {
+    if (build.getAssociatedBuild() == null) { //dependencies of a queued build can be replaced by the queue optimization
+      return getSnapshotDependenciesInternal(build);
+    }
+    return getBuilds(mySnapshotDependencies, build.getId(), () -> getSnapshotDependenciesInternal(build));
+  }
+
+  /**
+   * @return builds which depend on the build via snapshot dependencies
+   */
+  @NotNull
+  public List<BuildPromotion> getSnapshotDependents(@NotNull final BuildPromotion build) {
+    return getBuilds(mySnapshotDependents, build.getId(), () -> getSnapshotDependentsInternal(build));
+  }
+
+  /**
+   * @return builds which artifacts were downloaded by the build, in the {@link Build.BuildPromotionDependenciesComparator} order
+   */
+  @NotNull
+  public List<BuildPromotion> getArtifactDependencies(@NotNull final BuildPromotion build) {
+    final SBuild associatedBuild = build.getAssociatedBuild();
+    if (associatedBuild == null) return new ArrayList<>();
+    if (!associatedBuild.isFinished()) return getArtifactDependenciesInternal(associatedBuild);
+    return getBuilds(myArtifactDependencies, build.getId(), () -> getArtifactDependenciesInternal(associatedBuild));
+  }
+
+  @NotNull
+  public List<SBuildType> getBuildTypeSnapshotDependencies(@NotNull final BuildTypeOrTemplate buildType) {
+    return getBuildTypes("snapshotDependencies:" + getKey(buildType), () -> buildType.get().getDependencies().stream()
+                                                                                       .map(Dependency::getDependOn));
+  }
+
+  @NotNull
+  public List<SBuildType> getBuildTypeSnapshotDependents(@NotNull final SBuildType buildType) {
+    return getBuildTypes("snapshotDependents:" + buildType.getInternalId(), () -> buildType.getDependencyReferences().stream());
+  }
+
+  @NotNull
+  public List<SBuildType> getBuildTypeArtifactDependencies(@NotNull final BuildTypeOrTemplate buildType) {
+    return getBuildTypes("artifactDependencies:" + getKey(buildType), () -> buildType.get().getArtifactDependencies().stream()
+                                                                                     .map(SArtifactDependency::getSourceBuildType));
+  }
+
+  @NotNull
+  public List<SBuildType> getBuildTypeArtifactDependents(@NotNull final SBuildType buildType) {
+    return getBuildTypes("artifactDependents:" + buildType.getInternalId(), () -> buildType.getArtifactsReferences().stream());
+  }
+
+  @NotNull
+  static List<BuildPromotion> getSnapshotDependenciesInternal(@NotNull final BuildPromotion build) {
+    final List<BuildPromotion> result = new ArrayList<>();
+    for (BuildDependency dependency : build.getDependencies()) {
+      result.add(dependency.getDependOn());
+    }
+    return result;
+  }
+
+  @NotNull
+  static List<BuildPromotion> getSnapshotDependentsInternal(@NotNull final BuildPromotion build) {
+    final List<BuildPromotion> result = new ArrayList<>();
+    for (BuildDependency dependency : build.getDependedOnMe()) {
+      result.add(dependency.getDependent());
+    }
+    return result;
+  }
+
+  @NotNull
+  static List<BuildPromotion> getArtifactDependenciesInternal(@NotNull final SBuild build) {
+    final List<BuildPromotion> result = new ArrayList<>();
+    for (Object sourceBuild : build.getDownloadedArtifacts().getArtifacts().keySet()) {
+      result.add(((SBuild)sourceBuild).getBuildPromotion());
+    }
+    result.sort(new Build.BuildPromotionDependenciesComparator());
+    return result;
+  }
+
+  @NotNull
+  private static String getKey(@NotNull final BuildTypeOrTemplate buildType) {
+    return (buildType.isBuildType() ? "" : "template:") + buildType.getInternalId();
+  }
+
+  @NotNull
+  private List<BuildPromotion> getBuilds(@NotNull final Map<Long, long[]> map, final long key, @NotNull final Supplier<List<BuildPromotion>> calculator) {
+    final long[] promotionIds = map.get(key);
+    if (promotionIds == null) {
+      final long invalidationsCount = myBuildsInvalidationsCount.get();
+      final List<BuildPromotion> calculated = calculator.get();
+      final long[] calculatedIds = calculated.isEmpty() ? NO_BUILDS : calculated.stream().mapToLong(BuildPromotion::getId).toArray();
+      synchronized (map) {
+        if (invalidationsCount == myBuildsInvalidationsCount.get()) map.put(key, calculatedIds);
+      }
+      return calculated;
+    }
+    final List<BuildPromotion> result = new ArrayList<>(promotionIds.length);
+    for (long promotionId : promotionIds) {
+      final BuildPromotion build = myBuildPromotionManager.findPromotionById(promotionId);
+      if (build != null) result.add(build); //null for the deleted builds
+    }
+    return result;
+  }
+
+  /**
+   * @return true if snapshot dependents of the build are stored in the index
+   */
+  boolean isSnapshotDependentsStored(final long promotionId) {
+    return mySnapshotDependents.containsKey(promotionId);
+  }
+
+  @NotNull
+  private static <K, V> Map<K, V> createLruMap() {
+    return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+        return size() > getMaxEntries();
+      }
+    });
+  }
+
+  @NotNull
+  private List<SBuildType> getBuildTypes(@NotNull final String key, @NotNull final Supplier<Stream<SBuildType>> calculator) {
+    final Map<String, String[]> map = myBuildTypeLinks;
+    String[] internalIds = map.get(key);
+    if (internalIds == null) {
+      internalIds = calculator.get().filter(v -> v != null).map(SBuildType::getInternalId).toArray(String[]::new);
+      if (internalIds.length == 0) internalIds = NO_INTERNAL_IDS;
+      map.put(key, internalIds);
+    }
+    final List<SBuildType> result = new ArrayList<>(internalIds.length);
+    for (String internalId : internalIds) {
+      final SBuildType buildType = myProjectManager.findBuildTypeById(internalId);
+      if (buildType != null) result.add(buildType);
+    }
+    return result;
+  }
+
+  private static int getMaxEntries() {
+    return TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 100000);
+  }
+
+  /**
+   * @return traverser which uses the index when enabled
+   */
+  @NotNull
+  public static GraphFinder.Traverser<BuildPromotion> getSnapshotDependenciesTraverser(@Nullable final DependencyGraphIndex index) {
+    return new BuildsTraverser(index, DependencyGraphIndex::getSnapshotDependencies, DependencyGraphIndex::getSnapshotDependents,
+                               DependencyGraphIndex::getSnapshotDependenciesInternal, DependencyGraphIndex::getSnapshotDependentsInternal);
+  }
+
+  /**
+   * @return traverser which uses the index when enabled
+   */
+  @NotNull
+  public static GraphFinder.Traverser<BuildPromotion> getArtifactDependenciesTraverser(@Nullable final DependencyGraphIndex index) {
+    return new BuildsTraverser(index, DependencyGraphIndex::getArtifactDependencies, null,
+                               build -> {
+                                 final SBuild associatedBuild = build.getAssociatedBuild();
+                                 return associatedBuild == null ? new ArrayList<>() : getArtifactDependenciesInternal(associatedBuild);
+                               },
+                               build -> {
+                                 final SBuild associatedBuild = build.getAssociatedBuild();
+                                 if (associatedBuild == null) return new ArrayList<>();
+                                 final List<BuildPromotion> result = new ArrayList<>();
+                                 for (Object dependentBuild : associatedBuild.getProvidedArtifacts().getArtifacts().keySet()) {
+                                   result.add(((SBuild)dependentBuild).getBuildPromotion());
+                                 }
+                                 result.sort(new Build.BuildPromotionDependenciesComparator());
+                                 return result;
+                               });
+  }
+
+  private static class BuildsTraverser implements GraphFinder.Traverser<BuildPromotion> {
+    @Nullable private final DependencyGraphIndex myIndex;
+    @NotNull private final GraphFinder.LinkRetriever<BuildPromotion> myChildren;
+    @NotNull private final GraphFinder.LinkRetriever<BuildPromotion> myParents;
+
+    BuildsTraverser(@Nullable final DependencyGraphIndex index,
+                    @NotNull final IndexedLinks indexedChildren,
+                    @Nullable final IndexedLinks indexedParents,
+                    @NotNull final Function<BuildPromotion, List<BuildPromotion>> children,
+                    @NotNull final Function<BuildPromotion, List<BuildPromotion>> parents) {
+      myIndex = index;
+      myChildren = item -> myIndex != null && isEnabled() ? indexedChildren.get(myIndex, item) : children.apply(item);
+      myParents = item -> myIndex != null && indexedParents != null && isEnabled() ? indexedParents.get(myIndex, item) : parents.apply(item);
+    }
+
+    @NotNull
+    @Override
+    public GraphFinder.LinkRetriever<BuildPromotion> getChildren() {
+      return myChildren;
+    }
+
+    @NotNull
+    @Override
+    public GraphFinder.LinkRetriever<BuildPromotion> getParents() {
+      return myParents;
+    }
+
+    @NotNull
+    @Override
+    public Object getKey(@NotNull final BuildPromotion item) {
+      return item.getId();
+    }
+  }
+
+  private interface IndexedLinks {
+    @NotNull
+    List<BuildPromotion> get(@NotNull DependencyGraphIndex index, @NotNull BuildPromotion build);
+  }
+
+  private void invalidate(@NotNull final Map<Long, long[]> map, final long promotionId) {
+    synchronized (map) {
+      myBuildsInvalidationsCount.incrementAndGet();
+      map.remove(promotionId);
+    }
+  }
+
+  /**
+   * Drops stored snapshot dependents of the builds the build depends on
+   */
+  private void invalidateDependentsOfDependencies(@NotNull final BuildPromotion build) {
+    for (BuildDependency dependency : build.getDependencies()) {
+      invalidate(mySnapshotDependents, dependency.getDependOn().getId());
+    }
+  }
+
+  private void invalidateBuildTypes() {
+    myBuildTypeLinks = createLruMap();
+  }
+
+  @Override
+  public void buildTypeAddedToQueue(@NotNull final SQueuedBuild queuedBuild) {
+    invalidateDependentsOfDependencies(queuedBuild.getBuildPromotion());
+  }
+
+  @Override
+  public void buildRemovedFromQueue(@NotNull final SQueuedBuild queued, final User user, final String comment) {
+    final BuildPromotion build = queued.getBuildPromotion();
+    invalidate(mySnapshotDependents, build.getId());
+    invalidateDependentsOfDependencies(build);
+    //the queue optimization can replace the removed build with another one in the dependencies of its dependents
+    for (BuildDependency dependency : build.getDependedOnMe()) {
+      invalidateDependentsOfDependencies(dependency.getDependent());
+    }
+  }
+
+  @Override
+  public void buildStarted(@NotNull final SRunningBuild build) {
+    //the dependencies of the build can be replaced by the queue optimization until it starts
+    invalidateDependentsOfDependencies(build.getBuildPromotion());
+  }
+
+  @Override
+  public void entryDeleted(@NotNull final SFinishedBuild build) {
+    final long promotionId = build.getBuildPromotion().getId();
+    invalidate(mySnapshotDependencies, promotionId);
+    invalidate(mySnapshotDependents, promotionId);
+    invalidate(myArtifactDependencies, promotionId);
+  }
+
+  @Override
+  public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+    invalidateBuildTypes();
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    invalidateBuildTypes();
+  }
+
+  @Override
+  public void buildTypePersisted(@NotNull final SBuildType buildType) {
+    invalidateBuildTypes();
+  }
+
+  @Override
+  public void buildTypeTemplatePersisted(@NotNull final BuildTypeTemplate buildTemplate) {
+    invalidateBuildTypes();
+  }
+
+  @Override
+  public void projectCreated(@NotNull final String projectId, final SUser user) {
+    invalidateBuildTypes();
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    invalidateBuildTypes();
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    invalidateBuildTypes();
+  }
+}
@@ -17,6 +17,7 @@
 package jetbrains.buildServer.server.rest.data;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -73,6 +74,33 @@ public interface FinderDataBinding<ITEM> {
   @NotNull
   String getItemLocator(@NotNull final ITEM item);
 
+  /**
+   * Returns key identifying the item in the prefiltered items sequence, used to continue the scan from the item on the next page (see {@link PagingCursor})
+   * Should contain only alpha-numeric characters, "_" and "-".
+   * @return null if continuation of the scan is not supported
+   */
+  @Nullable
+  default String getItemCursorKey(@NotNull final ITEM item) {
+    return null;
+  }
+
+  /**
+   * @return true if the prefiltered items can start from the item of the locator's paging cursor instead of the first item (e.g. to avoid scanning the preceding items).
+   * If the cursor item is not found then, the items are retrieved anew with a locator without the cursor.
+   */
+  default boolean isCursorUsedInPrefiltering() {
+    return false;
+  }
+
+  /**
+   * @param locator the locator the filter is created for, as some of the conditions might not be safe
+   * @return true if the filters provided by the data binding can be invoked from several threads concurrently:
+   * this is required for processing the items in parallel, see {@link ParallelItemsPrefiltering}
+   */
+  default boolean isFilterThreadSafe(@NotNull final Locator locator) {
+    return false;
+  }
+
   /**
    * Returns new empty set which ensures proper items matching
    * Is used for "unique" dimension processing
@@ -85,9 +113,17 @@ public interface FinderDataBinding<ITEM> {
     void process(@NotNull final ItemProcessor<P> processor);
   }
 
+  /**
+   * The stream is consumed only until the processor returns false, so lazy streams are not evaluated beyond the needed items
+   */
   @NotNull
   static <P> ItemHolder<P> getItemHolder(@NotNull Stream<? extends P> items) {
-    return processor -> items.forEach(item -> processor.processItem(item));
+    return processor -> {
+      final Iterator<? extends P> iterator = items.iterator();
+      while (iterator.hasNext()) {
+        if (!processor.processItem(iterator.next())) return;
+      }
+    };
   }
 
   @NotNull
@@ -116,6 +152,11 @@ public interface FinderDataBinding<ITEM> {
       myItemHolders.add(holder);
     }
 
+    @NotNull
+    public List<ItemHolder<P>> getItemHolders() {
+      return myItemHolders;
+    }
+
     public void process(@NotNull final ItemProcessor<P> processor) {
       for (ItemHolder<P> itemHolder : myItemHolders) {
         itemHolder.process(processor);
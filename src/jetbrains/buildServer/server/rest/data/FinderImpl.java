@@ -19,6 +19,8 @@ package jetbrains.buildServer.server.rest.data;
 import com.intellij.openapi.diagnostic.Logger;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
@@ -50,6 +52,8 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
   public static final String DIMENSION_ITEM = "item";
   public static final String DIMENSION_UNIQUE = "unique";
   protected static final String OPTIONS_REPORT_ERROR_ON_NOTHING_FOUND = "$reportErrorOnNothingFound";
+  protected static final String OPTIONS_PARALLEL = "$parallel";
+  static final String CURSOR_FALLBACK_BUFFER_PROPERTY = "rest.finder.cursor.fallbackBufferSize";
 
   protected static final String CONTEXT_ITEM_DIMENSION_NAME = "$contextItem";
 
@@ -92,7 +96,7 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
   @NotNull
   public ITEM getItem(@Nullable final String locatorText) {
     return NamedThreadFactory.executeWithNewThreadNameFuncThrow("Using " + getName() + " to get single item for locator \"" + locatorText + "\"",
-                                                         () -> getItem(locatorText, null));
+                                                         () -> memoize("item", locatorText, () -> getItem(locatorText, null), Function.identity()));
   }
 
   /**
@@ -103,7 +107,27 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
   @NotNull
   public PagedSearchResult<ITEM> getItems(@Nullable final String locatorText) {
     return NamedThreadFactory.executeWithNewThreadNameFuncThrow("Using " + getName() + " to get items for locator \"" + locatorText + "\"",
-                                                                () -> getItemsByLocator(getLocatorOrNull(locatorText), true));
+                                                                () -> memoize("items", locatorText, () -> getItemsByLocator(getLocatorOrNull(locatorText), true),
+                                                                              FinderImpl::toUnmodifiable));
+  }
+
+  /**
+   * Reuses the result of the same call performed earlier in the same request, see {@link RestContext#memoize(Object, Supplier, Function)}
+   */
+  private <T> T memoize(@NotNull final String operation, @Nullable final String locatorText, @NotNull final Supplier<T> supplier, @NotNull final Function<T, T> toShared) {
+    if (locatorText != null && locatorText.contains(CONTEXT_ITEM_DIMENSION_NAME)) {
+      return supplier.get(); //context items can differ between the calls
+    }
+    return RestContext.memoize(Arrays.asList(this, operation, locatorText), supplier, toShared);
+  }
+
+  /**
+   * The memoized result is returned to all the callers within the request, so none of them should be able to modify it
+   */
+  @NotNull
+  private static <ITEM> PagedSearchResult<ITEM> toUnmodifiable(@NotNull final PagedSearchResult<ITEM> result) {
+    return new PagedSearchResult<ITEM>(Collections.unmodifiableList(new ArrayList<ITEM>(result.myEntries)), result.myStart, result.myCount, result.myActuallyProcessedCount,
+                                       result.myLookupLimit, result.myLookupLimitReached, result.getLastProcessedItem(), result.getNextPageCursor());
   }
 
   @NotNull
@@ -140,9 +164,12 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
     final Locator result = Locator.createLocator(locatorText, locatorDefaults, getSupportedDimensions());
     result.addIgnoreUnusedDimensions(PagerData.COUNT);
     result.addIgnoreUnusedDimensions(OPTIONS_REPORT_ERROR_ON_NOTHING_FOUND);
+    result.addIgnoreUnusedDimensions(OPTIONS_PARALLEL);
     result.addHiddenDimensions(LOGIC_OP_OR, LOGIC_OP_AND, LOGIC_OP_NOT, AbstractFinder.DIMENSION_ITEM);  //experimental
     result.addHiddenDimensions(AbstractFinder.DIMENSION_UNIQUE);  //experimental, should actually depend on FinderDataBinding.getContainerSet returning not null
     result.addHiddenDimensions(OPTIONS_REPORT_ERROR_ON_NOTHING_FOUND); //experimental
+    result.addHiddenDimensions(OPTIONS_PARALLEL); //experimental
+    result.addHiddenDimensions(PagerData.CURSOR); //set in the "nextHref" only
     result.addHiddenDimensions(CONTEXT_ITEM_DIMENSION_NAME); //experimental, internal
     for (String hiddenDimension : myDataBinding.getHiddenDimensions()) {
       result.addHiddenDimensions(hiddenDimension);
@@ -160,7 +187,9 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
     knownDimensions.add(PagerData.START);
     knownDimensions.add(PagerData.COUNT);
     knownDimensions.add(DIMENSION_LOOKUP_LIMIT);
+    knownDimensions.add(PagerData.CURSOR);
     knownDimensions.add(OPTIONS_REPORT_ERROR_ON_NOTHING_FOUND);
+    knownDimensions.add(OPTIONS_PARALLEL);
     knownDimensions.add(CONTEXT_ITEM_DIMENSION_NAME); //experimental, internal
     return knownDimensions.toArray(new String[knownDimensions.size()]);
   }
@@ -206,6 +235,19 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
 
   @NotNull
   private PagedSearchResult<ITEM> getItemsByLocator(@Nullable final Locator originalLocator, final boolean multipleItemsQuery) {
+    final FinderMetrics.Measurement measurement = FinderMetrics.start(getName(), originalLocator);
+    PagedSearchResult<ITEM> result = null;
+    try {
+      result = getItemsByLocator(originalLocator, multipleItemsQuery, measurement);
+      return result;
+    } finally {
+      measurement.finish(result);
+    }
+  }
+
+  @NotNull
+  private PagedSearchResult<ITEM> getItemsByLocator(@Nullable final Locator originalLocator, final boolean multipleItemsQuery,
+                                                    @NotNull final FinderMetrics.Measurement measurement) {
     Locator locator;
     if (originalLocator == null) {
       //go on with empty locator
@@ -224,6 +266,7 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
 
       //so far do not support additional filtering or other dimensions if context item is used
       locator.checkLocatorFullyProcessed();
+      measurement.setBranch(FinderMetrics.BRANCH_CONTEXT_ITEM);
       return new PagedSearchResult<ITEM>(contextObjects, null, null);
     }
 
@@ -240,6 +283,7 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
         throw e;
       }
       if (singleItem != null) {
+        measurement.setBranch(FinderMetrics.BRANCH_SINGLE_ITEM);
         final Set<String> singleItemUsedDimensions = locator.getUsedDimensions();
         // ignore start:0 dimension
         final Long startDimension = locator.getSingleDimensionValueAsLong(PagerData.START);
@@ -276,23 +320,37 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
     }
     FinderDataBinding.ItemHolder<ITEM> unfilteredItems;
     PagingItemFilter<ITEM> pagingFilter;
+    final PagingCursor cursor;
+    final boolean deduplicate;
     try {
+      cursor = getCursor(locator);
       FinderDataBinding.LocatorDataBinding<ITEM> locatorDataBinding = getDataBindingWithLogicOpsSupport(locator, myDataBinding);
       unfilteredItems = locatorDataBinding.getPrefilteredItems();
-      Set<ITEM> containerSet = myDataBinding.createContainerSet();
-      if (containerSet != null) {
-        boolean deduplicate = locator.getSingleDimensionValueAsStrictBoolean(DIMENSION_UNIQUE, locator.isAnyPresent(DIMENSION_ITEM));
-        if (deduplicate) {
-          unfilteredItems = new FinderDataBinding.DeduplicatingItemHolder<>(unfilteredItems, containerSet);
-        }
+      ItemFilter<ITEM> filter = locatorDataBinding.getFilter();
+      if (cursor == null && //items before the cursor are not filtered
+          unfilteredItems instanceof FinderDataBinding.AggregatingItemHolder &&
+          myDataBinding.isFilterThreadSafe(locator) &&
+          ParallelItemsPrefiltering.isEnabled(locator.getSingleDimensionValueAsStrictBoolean(OPTIONS_PARALLEL, null))) {
+        ParallelItemsPrefiltering<ITEM> parallelPrefiltering =
+          new ParallelItemsPrefiltering<>(((FinderDataBinding.AggregatingItemHolder<ITEM>)unfilteredItems).getItemHolders(), filter, getLookupLimit(locator));
+        unfilteredItems = parallelPrefiltering.getItemHolder();
+        filter = parallelPrefiltering.getFilter();
+        measurement.setBranch(FinderMetrics.BRANCH_PARALLEL_SCAN);
+      } else {
+        measurement.setBranch(cursor == null ? FinderMetrics.BRANCH_SCAN : FinderMetrics.BRANCH_CURSOR_SCAN);
       }
+      Set<ITEM> containerSet = myDataBinding.createContainerSet();
+      deduplicate = containerSet != null && locator.getSingleDimensionValueAsStrictBoolean(DIMENSION_UNIQUE, locator.isAnyPresent(DIMENSION_ITEM));
 
       final Long start = locator.getSingleDimensionValueAsLong(PagerData.START);
+      if (start != null && cursor != null) {
+        throw new BadRequestException("Dimensions '" + PagerData.START + "' and '" + PagerData.CURSOR + "' cannot be used together.");
+      }
       final Long count = getCountNotMarkingAsUsed(locator);
       locator.markUsed(Collections.singleton(PagerData.COUNT));
       final Long lookupLimit = getLookupLimit(locator);
 
-      pagingFilter = new PagingItemFilter<ITEM>(locatorDataBinding.getFilter(), start, count == null ? null : count.intValue(), lookupLimit);
+      pagingFilter = new PagingItemFilter<ITEM>(filter, start, count == null ? null : count.intValue(), lookupLimit);
     } catch (LocatorProcessException | BadRequestException | IllegalArgumentException e) {
       if (!locator.isHelpRequested()) {
         throw e;
@@ -302,7 +360,125 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
     }
     locator.checkLocatorFullyProcessed();
     final FinderDataBinding.ItemHolder<ITEM> finalUnfilteredItems = unfilteredItems;
-    return NamedThreadFactory.executeWithNewThreadNameFuncThrow("Filtering items", () -> getItems(pagingFilter, finalUnfilteredItems, locator));
+    return NamedThreadFactory.executeWithNewThreadNameFuncThrow("Filtering items", () -> {
+      if (cursor == null) {
+        return getItems(pagingFilter, getDeduplicatedItems(finalUnfilteredItems, deduplicate), locator, 0);
+      }
+      //the items skipped while looking for the cursor item are not the first items if the prefiltering started from the cursor
+      final boolean prefilteredFromCursor = myDataBinding.isCursorUsedInPrefiltering();
+      //when processing from the start, the lookup limit applied to the items after the cursor is expanded by the items skipped to reach the offset
+      final Long startLookupLimit = pagingFilter.getLookupLimit() == null ? null : pagingFilter.getLookupLimit() + cursor.getOffset();
+      final CursorItemHolder<ITEM> itemsAfterCursor = new CursorItemHolder<>(getDeduplicatedItems(finalUnfilteredItems, deduplicate), cursor.getItemKey(), myDataBinding,
+                                                                             startLookupLimit,
+                                                                             prefilteredFromCursor ? 0 : TeamCityProperties.getInteger(CURSOR_FALLBACK_BUFFER_PROPERTY, 10000));
+      final PagedSearchResult<ITEM> result = getItems(pagingFilter, itemsAfterCursor, locator, cursor.getOffset());
+      if (itemsAfterCursor.isCursorItemFound()) {
+        return result;
+      }
+      LOG.debug("Item with key '" + cursor.getItemKey() + "' is not found while processing locator '" + locator + "' by finder " + getName() +
+                ", processing from the start " + cursor.getOffset() + " instead");
+      final PagingItemFilter<ITEM> startPagingFilter = new PagingItemFilter<>(pagingFilter.getFilter(), cursor.getOffset(), pagingFilter.getCount(), startLookupLimit);
+      final List<ITEM> skippedItems = prefilteredFromCursor ? null : itemsAfterCursor.getSkippedItems();
+      if (skippedItems != null) {
+        return getItems(startPagingFilter, FinderDataBinding.getItemHolder(skippedItems), locator, 0); //the items are already deduplicated
+      }
+      //too many items were skipped to keep them, getting the items anew as the item holder can be backed by a stream and cannot be processed twice
+      final Locator locatorWithoutCursor = new Locator(locator);
+      locatorWithoutCursor.removeDimension(PagerData.CURSOR);
+      final FinderDataBinding.ItemHolder<ITEM> freshItems = getDataBindingWithLogicOpsSupport(locatorWithoutCursor, myDataBinding).getPrefilteredItems();
+      return getItems(startPagingFilter, getDeduplicatedItems(freshItems, deduplicate), locator, 0);
+    });
+  }
+
+  @NotNull
+  private FinderDataBinding.ItemHolder<ITEM> getDeduplicatedItems(@NotNull final FinderDataBinding.ItemHolder<ITEM> items, final boolean deduplicate) {
+    if (!deduplicate) return items;
+    //noinspection ConstantConditions
+    return new FinderDataBinding.DeduplicatingItemHolder<>(items, myDataBinding.createContainerSet()); //new set is necessary for each processing
+  }
+
+  @Nullable
+  private static PagingCursor getCursor(@NotNull final Locator locator) {
+    final String cursorText = locator.getSingleDimensionValue(PagerData.CURSOR);
+    if (cursorText == null) return null;
+    final PagingCursor result = PagingCursor.parse(cursorText);
+    if (!result.isApplicable(locator)) {
+      throw new BadRequestException("The value of '" + PagerData.CURSOR + "' dimension was created for another locator. Use the value from the 'nextHref' of the previous page.");
+    }
+    return result;
+  }
+
+  @Nullable
+  private PagingCursor getNextPageCursor(@NotNull final Locator locator, @NotNull final PagingItemFilter<ITEM> filter, final long nextPageOffset, final int currentPageCount) {
+    if (!filter.isLookupLimitReached() && (filter.getCount() == null || currentPageCount < filter.getCount())) return null; //no next page
+    final ITEM lastProcessedItem = filter.getLastProcessedItem();
+    if (lastProcessedItem == null || locator.isAnyPresent(DIMENSION_ITEM, LOGIC_OP_OR)) return null; //items can be repeated in the sequence
+    final String itemKey = myDataBinding.getItemCursorKey(lastProcessedItem);
+    if (itemKey == null) return null;
+    return new PagingCursor(PagingCursor.getLocatorHash(locator), nextPageOffset, itemKey);
+  }
+
+  /**
+   * Skips the items up to and including the item with the key passed, the skipped items are not passed to the filter.
+   * While the item is not found, the skipped items are kept (up to the limit) so that if the item is missing,
+   * the page can be retrieved by offset without processing the source items again.
+   */
+  private static class CursorItemHolder<ITEM> implements FinderDataBinding.ItemHolder<ITEM> {
+    @NotNull private final FinderDataBinding.ItemHolder<ITEM> myItems;
+    @NotNull private final String myItemKey;
+    @NotNull private final FinderDataBinding<ITEM> myDataBinding;
+    @Nullable private final Long myLookupLimit;
+    private final int myMaxSkippedItems;
+    @Nullable private List<ITEM> mySkippedItems = new ArrayList<>();
+    private boolean myCursorItemFound = false;
+
+    /**
+     * @param lookupLimit      the number of items processed from the start when the cursor item is not found, no more skipped items are necessary then
+     * @param maxSkippedItems  the number of the skipped items to keep
+     */
+    CursorItemHolder(@NotNull final FinderDataBinding.ItemHolder<ITEM> items,
+                     @NotNull final String itemKey,
+                     @NotNull final FinderDataBinding<ITEM> dataBinding,
+                     @Nullable final Long lookupLimit,
+                     final int maxSkippedItems) {
+      myItems = items;
+      myItemKey = itemKey;
+      myDataBinding = dataBinding;
+      myLookupLimit = lookupLimit;
+      myMaxSkippedItems = maxSkippedItems;
+    }
+
+    @Override
+    public void process(@NotNull final ItemProcessor<ITEM> processor) {
+      myItems.process(item -> {
+        if (myCursorItemFound) return processor.processItem(item);
+        if (myItemKey.equals(myDataBinding.getItemCursorKey(item))) {
+          myCursorItemFound = true;
+          mySkippedItems = null;
+          return true;
+        }
+        if (mySkippedItems != null && (myLookupLimit == null || mySkippedItems.size() < myLookupLimit)) {
+          if (mySkippedItems.size() < myMaxSkippedItems) {
+            mySkippedItems.add(item);
+          } else {
+            mySkippedItems = null;
+          }
+        }
+        return true;
+      });
+    }
+
+    boolean isCursorItemFound() {
+      return myCursorItemFound;
+    }
+
+    /**
+     * @return all the processed items (or the first lookup limit of them) when the cursor item is not found, null if there were too many items to keep
+     */
+    @Nullable
+    List<ITEM> getSkippedItems() {
+      return mySkippedItems;
+    }
   }
 
   @Nullable
@@ -344,7 +520,8 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
   @NotNull
   private PagedSearchResult<ITEM> getItems(final @NotNull PagingItemFilter<ITEM> filter,
                                            final @NotNull FinderDataBinding.ItemHolder<ITEM> unfilteredItems,
-                                           @NotNull final Locator locator) {
+                                           @NotNull final Locator locator,
+                                           final long cursorOffset) {
     final long startTime = System.nanoTime();
     final FilterItemProcessor<ITEM> filterItemProcessor = new FilterItemProcessor<ITEM>(filter);
     unfilteredItems.process(filterItemProcessor);
@@ -368,8 +545,10 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
     if (result.isEmpty() && isReportErrorOnNothingFound(locator)){
       throw new NotFoundException("Nothing is found by " + getLocatorDetailsForMessage(locator) + ".");
     }
-    return new PagedSearchResult<ITEM>(result, filter.getStart(), filter.getCount(), totalItemsProcessed,
-                                       filter.getLookupLimit(), filter.isLookupLimitReached(), filter.getLastProcessedItem());
+    final Long start = filter.getStart() == null && cursorOffset > 0 ? Long.valueOf(cursorOffset) : filter.getStart();
+    return new PagedSearchResult<ITEM>(result, start, filter.getCount(), totalItemsProcessed,
+                                       filter.getLookupLimit(), filter.isLookupLimitReached(), filter.getLastProcessedItem(),
+                                       getNextPageCursor(locator, filter, cursorOffset + filterItemProcessor.getProcessedItemsCount(), result.size()));
   }
 
   @NotNull
@@ -580,14 +759,11 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
 
   @NotNull
   private FinderDataBinding.ItemHolder<ITEM> getItemsOr(@NotNull final List<String> itemsDimension) {
-    return new FinderDataBinding.ItemHolder<ITEM>() {
-      @Override
-      public void process(@NotNull final ItemProcessor<ITEM> processor) {
-        for (String itemLocator : itemsDimension) {
-          FinderDataBinding.getItemHolder(getItems(itemLocator).myEntries).process(processor);  //todo: rework APIs to add itemHolders instead of serialized collection
-        }
-      }
-    };
+    FinderDataBinding.AggregatingItemHolder<ITEM> result = new FinderDataBinding.AggregatingItemHolder<>();
+    for (String itemLocator : itemsDimension) {
+      result.add(processor -> FinderDataBinding.getItemHolder(getItems(itemLocator).myEntries).process(processor));  //todo: rework APIs to add itemHolders instead of serialized collection
+    }
+    return result;
   }
 
   /*
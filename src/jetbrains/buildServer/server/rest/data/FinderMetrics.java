@@ -0,0 +1,205 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Statistics of the finders usage grouped by the finder and the locator shape (sorted names of the locator dimensions without the values).
+ * Used to find the request patterns which load the server most. Recording does not take locks.
+ * Latencies are recorded into log-linear histogram buckets (4 buckets per power of two microseconds), so the percentiles are accurate within ~20%.
+ */
+public class FinderMetrics {
+  static final String ENABLED_PROPERTY = "rest.finder.metrics.enabled";
+  static final String MAX_ENTRIES_PROPERTY = "rest.finder.metrics.maxEntries";
+
+  public static final String BRANCH_SINGLE_ITEM = "singleItem";
+  public static final String BRANCH_CONTEXT_ITEM = "contextItem";
+  public static final String BRANCH_SCAN = "scan";
+  public static final String BRANCH_PARALLEL_SCAN = "parallelScan";
+  public static final String BRANCH_CURSOR_SCAN = "cursorScan";
+
+  private static final String OTHER_SHAPES = "<other>";
+  private static final Measurement NO_MEASUREMENT = new Measurement(null);
+
+  @NotNull private static final ConcurrentHashMap<String, Entry> ourEntries = new ConcurrentHashMap<>();
+
+  /**
+   * @return measurement to be finished when the locator processing is complete
+   */
+  @NotNull
+  public static Measurement start(@NotNull final String finderName, @Nullable final Locator locator) {
+    if (!TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY)) return NO_MEASUREMENT;
+    return new Measurement(getEntry(finderName, getLocatorShape(locator)));
+  }
+
+  @NotNull
+  static String getLocatorShape(@Nullable final Locator locator) {
+    if (locator == null || locator.isEmpty()) return "<empty>";
+    if (locator.isSingleValue()) return "<single value>";
+    final TreeSet<String> dimensions = new TreeSet<>(locator.getDefinedDimensions());
+    return String.join(",", dimensions);
+  }
+
+  @NotNull
+  private static Entry getEntry(@NotNull final String finderName, @NotNull final String locatorShape) {
+    final String key = finderName + " " + locatorShape;
+    final Entry result = ourEntries.get(key);
+    if (result != null) return result;
+    if (ourEntries.size() >= TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 1000)) {
+      //do not let arbitrary client locators flood the memory
+      return ourEntries.computeIfAbsent(finderName + " " + OTHER_SHAPES, k -> new Entry());
+    }
+    return ourEntries.computeIfAbsent(key, k -> new Entry());
+  }
+
+  /**
+   * @return statistics to be used for diagnostics, the locator shapes which took the most time go first
+   */
+  @NotNull
+  public static Map<String, String> getStats() {
+    final List<Map.Entry<String, Entry>> entries = new ArrayList<>(ourEntries.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().myTotalNanos.sum()).reversed());
+    final Map<String, String> result = new LinkedHashMap<>();
+    for (Map.Entry<String, Entry> entry : entries) {
+      entry.getValue().addStats(entry.getKey(), result);
+    }
+    return result;
+  }
+
+  public static void reset() {
+    ourEntries.clear();
+  }
+
+  public static class Measurement {
+    @Nullable private final Entry myEntry;
+    private final long myStartNanos;
+    @Nullable private volatile String myBranch;
+
+    private Measurement(@Nullable final Entry entry) {
+      myEntry = entry;
+      myStartNanos = entry == null ? 0 : System.nanoTime();
+    }
+
+    public void setBranch(@NotNull final String branch) {
+      myBranch = branch;
+    }
+
+    /**
+     * @param result null if the processing finished with an error
+     */
+    public void finish(@Nullable final PagedSearchResult<?> result) {
+      if (myEntry == null) return;
+      myEntry.record(System.nanoTime() - myStartNanos, myBranch, result);
+    }
+  }
+
+  private static class Entry {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int BUCKETS = (Long.SIZE << SUB_BUCKET_BITS);
+
+    @NotNull private final LongAdder myRequests = new LongAdder();
+    @NotNull private final LongAdder myErrors = new LongAdder();
+    @NotNull private final LongAdder myTotalNanos = new LongAdder();
+    @NotNull private final LongAccumulator myMaxNanos = new LongAccumulator(Math::max, 0);
+    @NotNull private final LongAdder myItemsProcessed = new LongAdder();
+    @NotNull private final LongAdder myItemsReturned = new LongAdder();
+    @NotNull private final LongAdder myLookupLimitReached = new LongAdder();
+    @NotNull private final ConcurrentHashMap<String, LongAdder> myBranches = new ConcurrentHashMap<>();
+    @NotNull private final AtomicLongArray myLatencyBuckets = new AtomicLongArray(BUCKETS);
+
+    void record(final long nanos, @Nullable final String branch, @Nullable final PagedSearchResult<?> result) {
+      myRequests.increment();
+      myTotalNanos.add(nanos);
+      myMaxNanos.accumulate(nanos);
+      myLatencyBuckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+      if (branch != null) {
+        myBranches.computeIfAbsent(branch, k -> new LongAdder()).increment();
+      }
+      if (result == null) {
+        myErrors.increment();
+        return;
+      }
+      myItemsReturned.add(result.myActualCount);
+      if (result.myActuallyProcessedCount != null) myItemsProcessed.add(result.myActuallyProcessedCount);
+      if (result.myLookupLimitReached) myLookupLimitReached.increment();
+    }
+
+    static int getBucket(final long value) {
+      if (value < (1 << SUB_BUCKET_BITS)) return (int)Math.max(0, value);
+      final int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int)(value >>> (highestBit - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+      return ((highestBit - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @return the upper bound of the values in the bucket
+     */
+    static long getBucketUpperBound(final int bucket) {
+      if (bucket < (1 << SUB_BUCKET_BITS)) return bucket;
+      final int highestBit = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+      final long subBucket = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+      return ((((1L << SUB_BUCKET_BITS) + subBucket + 1) << (highestBit - SUB_BUCKET_BITS))) - 1;
+    }
+
+    private long getPercentileMicros(final double percentile, final long[] buckets, final long total) {
+      final long threshold = (long)Math.ceil(total * percentile);
+      long counted = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        counted += buckets[i];
+        if (counted >= threshold && counted > 0) return getBucketUpperBound(i);
+      }
+      return 0;
+    }
+
+    void addStats(@NotNull final String prefix, @NotNull final Map<String, String> result) {
+      final long[] buckets = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = myLatencyBuckets.get(i);
+        total += buckets[i];
+      }
+      final long requests = myRequests.sum();
+      result.put(prefix + ".requests", String.valueOf(requests));
+      result.put(prefix + ".errors", String.valueOf(myErrors.sum()));
+      result.put(prefix + ".totalTimeMs", String.valueOf(TimeUnit.NANOSECONDS.toMillis(myTotalNanos.sum())));
+      result.put(prefix + ".maxTimeMs", String.valueOf(TimeUnit.NANOSECONDS.toMillis(myMaxNanos.get())));
+      result.put(prefix + ".p50TimeMs", formatMillis(getPercentileMicros(0.5, buckets, total)));
+      result.put(prefix + ".p90TimeMs", formatMillis(getPercentileMicros(0.9, buckets, total)));
+      result.put(prefix + ".p99TimeMs", formatMillis(getPercentileMicros(0.99, buckets, total)));
+      result.put(prefix + ".itemsProcessed", String.valueOf(myItemsProcessed.sum()));
+      result.put(prefix + ".itemsReturned", String.valueOf(myItemsReturned.sum()));
+      result.put(prefix + ".lookupLimitReached", String.valueOf(myLookupLimitReached.sum()));
+      for (Map.Entry<String, LongAdder> branch : new TreeMap<>(myBranches).entrySet()) {
+        result.put(prefix + ".branch." + branch.getKey(), String.valueOf(branch.getValue().sum()));
+      }
+    }
+
+    @NotNull
+    private static String formatMillis(final long micros) {
+      return String.format(Locale.ENGLISH, "%.3f", micros / 1000.0);
+    }
+  }
+}
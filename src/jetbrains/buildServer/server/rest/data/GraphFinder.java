@@ -20,7 +20,9 @@ import com.intellij.openapi.diagnostic.Logger;
 import java.util.*;
 import jetbrains.buildServer.server.rest.errors.OperationException;
 import jetbrains.buildServer.server.rest.model.PagerData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.ItemProcessor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -30,6 +32,7 @@ import org.jetbrains.annotations.Nullable;
  */
 public class GraphFinder<T> extends AbstractFinder<T> {
   private static final Logger LOG = Logger.getInstance(GraphFinder.class.getName());
+  static final String STREAMING_PROPERTY = "rest.finder.graph.streaming";
 
   protected static final String DIMENSION_FROM = "from";
   protected static final String DIMENSION_TO = "to";
@@ -80,6 +83,15 @@ public class GraphFinder<T> extends AbstractFinder<T> {
     final List<T> stopItems = getItemsFromDimension(locator, DIMENSION_STOP);
     Long lookupLimit = locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT, getDefaultLookupLimit());
 
+    if (toItems.isEmpty() != fromItems.isEmpty() && isStreamingTraversalSupported()) {
+      //single direction: traverse while the items are processed, lookupLimit and paging are applied to the items stream
+      final boolean parallel = ParallelItemsPrefiltering.isEnabled(locator.getSingleDimensionValueAsStrictBoolean(OPTIONS_PARALLEL, null));
+      if (!toItems.isEmpty()) {
+        return new TraversingItemHolder(toItems, CollectionsUtil.join(fromItems, stopItems), myTraverser.getChildren(), recursive, includeOriginal, parallel);
+      }
+      return new TraversingItemHolder(fromItems, CollectionsUtil.join(toItems, stopItems), myTraverser.getParents(), recursive, includeOriginal, parallel);
+    }
+
     Set<T> resultTo = new LinkedHashSet<T>();
     if (!toItems.isEmpty()) {
       if (includeOriginal) {
@@ -118,6 +130,91 @@ public class GraphFinder<T> extends AbstractFinder<T> {
     return Collections.emptyList();
   }
 
+  /**
+   * @return true if the items can be provided while traversing the graph (see {@link TraversingItemHolder}), false if {@link #collectLinked} should be used
+   */
+  protected boolean isStreamingTraversalSupported() {
+    return TeamCityProperties.getBooleanOrTrue(STREAMING_PROPERTY);
+  }
+
+  /**
+   * Traverses the graph breadth-first level by level and provides the items as soon as they are found, so the traversal stops as soon as the processor does not need more items.
+   * Provides the same items in the same order as {@link #collectLinked} without lookupLimit.
+   * The links of the items of a level can be retrieved in parallel, in chunks of the shared pool size.
+   */
+  private class TraversingItemHolder implements ItemHolder<T> {
+    @NotNull private final List<T> myInitialItems;
+    @NotNull private final Set<Object> myStopItemKeys = new HashSet<>();
+    @NotNull private final LinkRetriever<T> myLinkRetriever;
+    private final boolean myRecursive;
+    private final boolean myIncludeInitial;
+    private final boolean myParallel;
+
+    TraversingItemHolder(@NotNull final List<T> initialItems,
+                         @NotNull final Collection<T> stopItems,
+                         @NotNull final LinkRetriever<T> linkRetriever,
+                         final boolean recursive,
+                         final boolean includeInitial,
+                         final boolean parallel) {
+      myInitialItems = initialItems;
+      for (T stopItem : stopItems) {
+        myStopItemKeys.add(myTraverser.getKey(stopItem));
+      }
+      myLinkRetriever = linkRetriever;
+      myRecursive = recursive;
+      myIncludeInitial = includeInitial;
+      myParallel = parallel;
+    }
+
+    @Override
+    public void process(@NotNull final ItemProcessor<T> processor) {
+      final Set<Object> provided = new HashSet<>(); //keys of the items passed to the processor
+      final Set<Object> expanded = new HashSet<>(); //keys of the items which links are already retrieved or scheduled to be retrieved
+      if (myIncludeInitial) {
+        for (T item : myInitialItems) {
+          if (provided.add(myTraverser.getKey(item)) && !processor.processItem(item)) return;
+        }
+      }
+      List<T> level = new ArrayList<>();
+      for (T item : myInitialItems) {
+        if (expanded.add(myTraverser.getKey(item))) level.add(item);
+      }
+      final int chunkSize = myParallel ? ParallelItemsPrefiltering.getParallelism() : 1;
+      while (!level.isEmpty()) {
+        final List<T> nextLevel = new ArrayList<>();
+        for (int chunkStart = 0; chunkStart < level.size(); chunkStart += chunkSize) {
+          final List<T> chunk = level.subList(chunkStart, Math.min(chunkStart + chunkSize, level.size()));
+          final List<Optional<List<T>>> linkedItems = chunk.size() == 1 ? Collections.singletonList(getLinked(chunk.get(0)))
+                                                                        : ParallelItemsPrefiltering.map(chunk, this::getLinked);
+          for (int i = 0; i < chunk.size(); i++) {
+            final T item = chunk.get(i);
+            final Optional<List<T>> linked = linkedItems.get(i);
+            if (!linked.isPresent()) {
+              if (provided.add(myTraverser.getKey(item)) && !processor.processItem(item)) return;
+              continue;
+            }
+            for (T linkedItem : linked.get()) {
+              final Object key = myTraverser.getKey(linkedItem);
+              if (provided.add(key) && !processor.processItem(linkedItem)) return;
+              if (expanded.add(key)) nextLevel.add(linkedItem);
+            }
+          }
+        }
+        if (!myRecursive) break;
+        level = nextLevel;
+      }
+    }
+
+    /**
+     * @return empty for the stop items (not null as the results of the parallel retrieval cannot be null)
+     */
+    @NotNull
+    private Optional<List<T>> getLinked(@NotNull final T item) {
+      if (myStopItemKeys.contains(myTraverser.getKey(item))) return Optional.empty();
+      return Optional.of(myLinkRetriever.getLinked(item));
+    }
+  }
+
   protected void collectLinked(@NotNull final Set<T> result,
                              @NotNull Collection<T> toProcess,
                              @NotNull Collection<T> stopItems,
@@ -157,6 +254,14 @@ public class GraphFinder<T> extends AbstractFinder<T> {
      */
     @NotNull
     LinkRetriever<S> getParents();
+
+    /**
+     * @return compact key identifying the item, used to track the visited items. Should have proper equals/hashCode
+     */
+    @NotNull
+    default Object getKey(@NotNull S item) {
+      return item;
+    }
   }
 
   public interface LinkRetriever<S> {
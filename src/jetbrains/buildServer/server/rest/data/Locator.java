@@ -59,11 +59,13 @@ public class Locator {
   private static final String ANY_LITERAL = "$any";
   private static final String BASE64_ESCAPE_FAKE_DIMENSION = "$base64";
   public static final String HELP_DIMENSION = "$help";
+  static final String ALLOW_BASE64_PROPERTY = "rest.locator.allowBase64";
 
   private final String myRawValue;
   private final boolean myExtendedMode;
   private boolean modified = false;
-  private final LinkedHashMap<String, List<String>> myDimensions;
+  private Map<String, List<String>> myDimensions;
+  private boolean myDimensionsShared = false; //true when myDimensions is the immutable instance shared with other locators
   private final String mySingleValue;
 
   @NotNull private final Set<String> myUsedDimensions;
@@ -84,9 +86,14 @@ public class Locator {
   public Locator(@NotNull final Locator locator) {
     myRawValue = locator.myRawValue;
     modified = locator.modified;
-    myDimensions = new LinkedHashMap<String, List<String>>();
-    for (Map.Entry<String, List<String>> entry : locator.myDimensions.entrySet()) {
-      myDimensions.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+    if (locator.myDimensionsShared) {
+      myDimensions = locator.myDimensions;
+      myDimensionsShared = true;
+    } else {
+      myDimensions = new LinkedHashMap<String, List<String>>();
+      for (Map.Entry<String, List<String>> entry : locator.myDimensions.entrySet()) {
+        myDimensions.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+      }
     }
 
     mySingleValue = locator.mySingleValue;
@@ -123,21 +130,29 @@ public class Locator {
     }
     mySupportedDimensions = supportedDimensions;
     myUsedDimensions = new HashSet<String>(mySupportedDimensions == null ? 10 : Math.max(mySupportedDimensions.length, 10));
-    String escapedValue = getUnescapedSingleValue(locator);
-    if (escapedValue != null) {
-      mySingleValue = escapedValue;
-      myDimensions = new LinkedHashMap<String, List<String>>();
-    } else if (!extendedMode && !hasDimensions(locator)) {
-      mySingleValue = locator;
-      myDimensions = new LinkedHashMap<String, List<String>>();
-    } else {
-      mySingleValue = null;
+    final LocatorParseCache.ParsedLocator parsed = LocatorParseCache.getParsed(locator, extendedMode, supportedDimensions,
+                                                                               () -> parseLocator(locator, extendedMode, supportedDimensions));
+    mySingleValue = parsed.mySingleValue;
+    myDimensions = parsed.myDimensions;
+    myDimensionsShared = true;
+    if (mySingleValue == null) {
       myHiddenSupportedDimensions.add(HELP_DIMENSION);
       myIgnoreUnusedDimensions.add(HELP_DIMENSION);
-      myDimensions = parse(locator, mySupportedDimensions, myHiddenSupportedDimensions, myExtendedMode);
     }
   }
 
+  @NotNull
+  private static LocatorParseCache.ParsedLocator parseLocator(@NotNull final String locator, final boolean extendedMode, @Nullable final String[] supportedDimensions) {
+    String escapedValue = getUnescapedSingleValue(locator, extendedMode);
+    if (escapedValue != null) {
+      return new LocatorParseCache.ParsedLocator(escapedValue, new LinkedHashMap<String, List<String>>());
+    }
+    if (!extendedMode && !hasDimensions(locator)) {
+      return new LocatorParseCache.ParsedLocator(locator, new LinkedHashMap<String, List<String>>());
+    }
+    return new LocatorParseCache.ParsedLocator(null, parse(locator, supportedDimensions, Collections.singleton(HELP_DIMENSION), extendedMode));
+  }
+
   /**
    * Creates an empty locator with dimensions.
    */
@@ -157,17 +172,17 @@ public class Locator {
   }
 
   @Nullable
-  private String getUnescapedSingleValue(@NotNull final String text) {
+  private static String getUnescapedSingleValue(@NotNull final String text, final boolean extendedMode) {
     if (text.length() > (DIMENSION_COMPLEX_VALUE_START_DELIMITER.length() + DIMENSION_COMPLEX_VALUE_END_DELIMITER.length()) &&
         text.startsWith(DIMENSION_COMPLEX_VALUE_START_DELIMITER) && text.endsWith(DIMENSION_COMPLEX_VALUE_END_DELIMITER)) {
       return text.substring(DIMENSION_COMPLEX_VALUE_START_DELIMITER.length(), text.length() - DIMENSION_COMPLEX_VALUE_END_DELIMITER.length());
     }
-    return getBase64UnescapedSingleValue(text, myExtendedMode);
+    return getBase64UnescapedSingleValue(text, extendedMode);
   }
 
   @Nullable
   private static String getBase64UnescapedSingleValue(final @NotNull String text, final boolean extendedMode) {
-    if (!TeamCityProperties.getBooleanOrTrue("rest.locator.allowBase64")) return null;
+    if (!TeamCityProperties.getBooleanOrTrue(ALLOW_BASE64_PROPERTY)) return null;
     if (!text.startsWith(BASE64_ESCAPE_FAKE_DIMENSION + DIMENSION_NAME_VALUE_DELIMITER)) {
       //optimization until more then one dimension is supported
       return null;
@@ -213,7 +228,7 @@ public class Locator {
                                                   DIMENSION_NAME_VALUE_DELIMITER +
                                                   DIMENSIONS_DELIMITER + "$";
 
-  private boolean hasDimensions(final @NotNull String locatorText) {
+  private static boolean hasDimensions(final @NotNull String locatorText) {
     if (locatorText.contains(DIMENSION_NAME_VALUE_DELIMITER)) {
       return true;
     }
@@ -817,7 +832,7 @@ public class Locator {
     if (isSingleValue()) {
       throw new IllegalArgumentException("Attempt to set dimension '" + name + "' for single value locator.");
     }
-    myDimensions.put(name, new ArrayList<>(values));
+    getModifiableDimensions().put(name, new ArrayList<>(values));
     markUnused(name);
     modified = true; // todo: use setDimension to replace the dimension in myRawValue
     return this;
@@ -857,11 +872,27 @@ public class Locator {
       throw new LocatorProcessException("Attempt to remove dimension '" + name + "' for single value locator.");
     }
     boolean result = myDimensions.get(name) != null;
-    myDimensions.remove(name);
+    getModifiableDimensions().remove(name);
     modified = true; // todo: use setDimension to replace the dimension in myRawValue
     return result;
   }
 
+  /**
+   * Copy-on-write for the dimensions shared with the parsed locators cache and other locator copies
+   */
+  @NotNull
+  private Map<String, List<String>> getModifiableDimensions() {
+    if (myDimensionsShared) {
+      LinkedHashMap<String, List<String>> dimensions = new LinkedHashMap<String, List<String>>();
+      for (Map.Entry<String, List<String>> entry : myDimensions.entrySet()) {
+        dimensions.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+      }
+      myDimensions = dimensions;
+      myDimensionsShared = false;
+    }
+    return myDimensions;
+  }
+
   /**
    * Provides the names of dimensions whose values were never retrieved and those not marked via addIgnoreUnusedDimensions
    *
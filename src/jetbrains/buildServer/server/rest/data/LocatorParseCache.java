@@ -0,0 +1,152 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.*;
+import java.util.function.Supplier;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded cache of parsed locator texts shared by all requests.
+ * Stores immutable parsed form only: each {@link Locator} created from the cached form keeps its own used/ignored/hidden dimensions state
+ * and copies the dimensions map on the first modification.
+ */
+public class LocatorParseCache {
+  static final String CACHE_SIZE_PROPERTY = "rest.locator.parseCache.size";
+  static final String MAX_LOCATOR_LENGTH_PROPERTY = "rest.locator.parseCache.maxLocatorLength";
+
+  private static volatile Cache<Key, ParsedLocator> ourCache;
+
+  @NotNull
+  static ParsedLocator getParsed(@NotNull final String locatorText,
+                                 final boolean extendedMode,
+                                 @Nullable final String[] supportedDimensions,
+                                 @NotNull final Supplier<ParsedLocator> parser) {
+    Cache<Key, ParsedLocator> cache = getCache();
+    if (cache == null || locatorText.length() > TeamCityProperties.getInteger(MAX_LOCATOR_LENGTH_PROPERTY, 2000)) {
+      return parser.get();
+    }
+    Key key = new Key(locatorText, extendedMode, supportedDimensions, TeamCityProperties.getBooleanOrTrue(Locator.ALLOW_BASE64_PROPERTY));
+    ParsedLocator result = cache.getIfPresent(key);
+    if (result == null) {
+      result = parser.get(); //parsing errors are not cached
+      cache.put(key, result);
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Cache<Key, ParsedLocator> getCache() {
+    Cache<Key, ParsedLocator> result = ourCache;
+    if (result == null) {
+      int size = TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 1000);
+      if (size <= 0) return null;
+      synchronized (LocatorParseCache.class) {
+        result = ourCache;
+        if (result == null) {
+          result = CacheBuilder.newBuilder().maximumSize(size).recordStats().build();
+          ourCache = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return statistics of the cache usage to be used for diagnostics
+   */
+  @NotNull
+  public static Map<String, String> getStats() {
+    Map<String, String> result = new LinkedHashMap<>();
+    Cache<Key, ParsedLocator> cache = ourCache;
+    if (cache == null) {
+      result.put("enabled", String.valueOf(TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 1000) > 0));
+      return result;
+    }
+    CacheStats stats = cache.stats();
+    result.put("enabled", "true");
+    result.put("size", String.valueOf(cache.size()));
+    result.put("hitCount", String.valueOf(stats.hitCount()));
+    result.put("missCount", String.valueOf(stats.missCount()));
+    result.put("hitRate", String.valueOf(stats.hitRate()));
+    result.put("evictionCount", String.valueOf(stats.evictionCount()));
+    return result;
+  }
+
+  /**
+   * Drops all the cached entries and statistics, the cache size is re-read from the internal property on next use.
+   */
+  public static void reset() {
+    synchronized (LocatorParseCache.class) {
+      ourCache = null;
+    }
+  }
+
+  /**
+   * Immutable result of locator text parsing.
+   */
+  static final class ParsedLocator {
+    @Nullable final String mySingleValue;
+    @NotNull final Map<String, List<String>> myDimensions;
+
+    ParsedLocator(@Nullable final String singleValue, @NotNull final LinkedHashMap<String, List<String>> dimensions) {
+      mySingleValue = singleValue;
+      LinkedHashMap<String, List<String>> dimensionsCopy = new LinkedHashMap<>(dimensions.size());
+      for (Map.Entry<String, List<String>> entry : dimensions.entrySet()) {
+        dimensionsCopy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+      }
+      myDimensions = Collections.unmodifiableMap(dimensionsCopy);
+    }
+  }
+
+  private static final class Key {
+    @NotNull private final String myText;
+    private final boolean myExtendedMode;
+    @Nullable private final List<String> mySupportedDimensions;
+    private final boolean myBase64Allowed;
+    private final int myHashCode;
+
+    Key(@NotNull final String text, final boolean extendedMode, @Nullable final String[] supportedDimensions, final boolean base64Allowed) {
+      myText = text;
+      myExtendedMode = extendedMode;
+      mySupportedDimensions = supportedDimensions == null ? null : Arrays.asList(supportedDimensions.clone());
+      myBase64Allowed = base64Allowed;
+      myHashCode = Objects.hash(myText, myExtendedMode, mySupportedDimensions, myBase64Allowed);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key)o;
+      return myExtendedMode == key.myExtendedMode &&
+             myBase64Allowed == key.myBase64Allowed &&
+             myText.equals(key.myText) &&
+             Objects.equals(mySupportedDimensions, key.mySupportedDimensions);
+    }
+
+    @Override
+    public int hashCode() {
+      return myHashCode;
+    }
+  }
+}
@@ -17,32 +17,117 @@
 package jetbrains.buildServer.server.rest.data;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.NotNull;
 
 /**
+ * Filter which includes an item only if all the checkers include it.
+ * By default, the checkers are evaluated in the order they were added.
+ * If created with reordering enabled (see {@link #withReordering()}), the checkers are evaluated starting from the cheapest and the most selective ones:
+ * initially based on the declared cost and then based on the time and rejections statistics collected while processing the items.
+ * Checkers added via {@link #addGuard(FilterConditionChecker)} are always evaluated first and in the order they were added (e.g. permission checks).
+ * The filter can be used from several threads (e.g. see {@link ParallelItemsPrefiltering}): the statistics are collected with thread-safe counters
+ * and the order is calculated from a snapshot of the statistics.
+ *
  * @author Yegor.Yarko
  *         Date: 09.09.2009
  */
 public class MultiCheckerFilter<T> implements ItemFilter<T> {
-  @NotNull private final List<FilterConditionChecker<T>> myCheckers;
+  static final String REORDER_PROPERTY = "rest.finder.filters.reorder";
+
+  private static final int FIRST_REORDER_AT = 64;
+  private static final int REORDER_EVERY = 256;
+  private static final int TIME_SAMPLING_MASK = 0xF; //measure time of every 16th item
+  private static final int MIN_TIME_SAMPLES = 4;
+
+  /**
+   * Approximate cost class of a single checker invocation
+   */
+  public enum Cost {
+    /** comparison of fields already in memory, set lookups */
+    CHEAP(100),
+    NORMAL(1000),
+    /** pattern matching over collections, parameters/statistics retrieval, other finders invocation, etc. */
+    EXPENSIVE(100000);
+
+    private final long myEstimatedNanos;
+
+    Cost(final long estimatedNanos) {
+      myEstimatedNanos = estimatedNanos;
+    }
+  }
+
+  @NotNull private final List<CheckerData<T>> myGuards = new ArrayList<>();
+  @NotNull private final List<CheckerData<T>> myCheckers = new ArrayList<>();
+  private final boolean myReordering;
+  private volatile CheckerData<T>[] myOrder = null;
+  @NotNull private final AtomicLong myProcessedItemsCount = new AtomicLong();
 
   public MultiCheckerFilter() {
-    myCheckers = new ArrayList<FilterConditionChecker<T>>();
+    this(false);
+  }
+
+  private MultiCheckerFilter(final boolean reordering) {
+    myReordering = reordering && TeamCityProperties.getBooleanOrTrue(REORDER_PROPERTY);
+  }
+
+  /**
+   * Creates filter which reorders the checkers according to their cost and selectivity. Can be used only if the checkers are independent from each other.
+   */
+  @NotNull
+  public static <T> MultiCheckerFilter<T> withReordering() {
+    return new MultiCheckerFilter<>(true);
   }
 
   public MultiCheckerFilter<T> add(FilterConditionChecker<T> checker) {
-    myCheckers.add(checker);
+    return add(checker, Cost.NORMAL);
+  }
+
+  public MultiCheckerFilter<T> add(@NotNull FilterConditionChecker<T> checker, @NotNull Cost cost) {
+    myCheckers.add(new CheckerData<>(checker, cost, myCheckers.size()));
+    myOrder = null;
+    return this;
+  }
+
+  /**
+   * Adds checker which should be evaluated before all other checkers regardless of the reordering
+   */
+  public MultiCheckerFilter<T> addGuard(@NotNull FilterConditionChecker<T> checker) {
+    myGuards.add(new CheckerData<>(checker, Cost.CHEAP, myGuards.size()));
     return this;
   }
 
   public int getSubFiltersCount(){
-    return myCheckers.size();
+    return myGuards.size() + myCheckers.size();
   }
 
   public boolean isIncluded(@NotNull T item) {
-    for (FilterConditionChecker<T> checker : myCheckers) {
-      if (!checker.isIncluded(item)) {
+    for (CheckerData<T> guard : myGuards) {
+      if (!guard.myChecker.isIncluded(item)) {
+        return false;
+      }
+    }
+    if (!myReordering) {
+      for (CheckerData<T> checker : myCheckers) {
+        if (!checker.myChecker.isIncluded(item)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    final long itemNumber = myProcessedItemsCount.getAndIncrement();
+    CheckerData<T>[] order = myOrder;
+    if (order == null || itemNumber == FIRST_REORDER_AT || (itemNumber > FIRST_REORDER_AT && itemNumber % REORDER_EVERY == 0)) {
+      order = reorder();
+    }
+    final boolean measureTime = (itemNumber & TIME_SAMPLING_MASK) == 0;
+    for (CheckerData<T> checker : order) {
+      if (!checker.isIncluded(item, measureTime)) {
         return false;
       }
     }
@@ -52,4 +137,60 @@ public class MultiCheckerFilter<T> implements ItemFilter<T> {
   public boolean shouldStop(@NotNull final T item) {
     return false;
   }
+
+  @NotNull
+  private CheckerData<T>[] reorder() {
+    final List<CheckerData<T>> checkers = new ArrayList<>(myCheckers);
+    //the statistics can be updated concurrently, so the scores are fixed before sorting to keep the comparison consistent
+    final double[] scores = new double[checkers.size()];
+    for (CheckerData<T> checker : checkers) {
+      scores[checker.myIndex] = checker.getScore();
+    }
+    checkers.sort(Comparator.comparingDouble((CheckerData<T> c) -> scores[c.myIndex]).thenComparingInt(c -> c.myIndex));
+    @SuppressWarnings("unchecked") final CheckerData<T>[] result = checkers.toArray(new CheckerData[checkers.size()]);
+    myOrder = result;
+    return result;
+  }
+
+  private static class CheckerData<T> {
+    @NotNull private final FilterConditionChecker<T> myChecker;
+    @NotNull private final Cost myCost;
+    private final int myIndex;
+    @NotNull private final LongAdder myEvaluations = new LongAdder();
+    @NotNull private final LongAdder myRejections = new LongAdder();
+    @NotNull private final LongAdder myTimeSamples = new LongAdder();
+    @NotNull private final LongAdder myTimeSampledNanos = new LongAdder();
+
+    CheckerData(@NotNull final FilterConditionChecker<T> checker, @NotNull final Cost cost, final int index) {
+      myChecker = checker;
+      myCost = cost;
+      myIndex = index;
+    }
+
+    boolean isIncluded(@NotNull final T item, final boolean measureTime) {
+      final boolean result;
+      if (measureTime) {
+        final long start = System.nanoTime();
+        result = myChecker.isIncluded(item);
+        myTimeSampledNanos.add(System.nanoTime() - start);
+        myTimeSamples.increment();
+      } else {
+        result = myChecker.isIncluded(item);
+      }
+      myEvaluations.increment();
+      if (!result) myRejections.increment();
+      return result;
+    }
+
+    /**
+     * @return expected cost of the checker per rejected item: the less the value, the earlier the checker should be evaluated
+     */
+    double getScore() {
+      final long timeSamples = myTimeSamples.sum();
+      final double cost = timeSamples >= MIN_TIME_SAMPLES ? (double)myTimeSampledNanos.sum() / timeSamples : myCost.myEstimatedNanos;
+      final long evaluations = myEvaluations.sum();
+      final double rejectionRate = (Math.min(myRejections.sum(), evaluations) + 1.0) / (evaluations + 2.0); //with prior of 1/2 for not yet evaluated checkers
+      return cost / rejectionRate;
+    }
+  }
 }
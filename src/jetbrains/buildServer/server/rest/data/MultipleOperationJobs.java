@@ -0,0 +1,284 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import jetbrains.buildServer.server.rest.errors.*;
+import jetbrains.buildServer.server.rest.model.MultipleOperationResult;
+import jetbrains.buildServer.server.rest.model.OperationResult;
+import jetbrains.buildServer.server.rest.model.RelatedEntity;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Runs operations over multiple items (e.g. pinning, tagging or deleting a set of builds) in background on a bounded pool.
+ * The items of a job are processed concurrently. For idempotent operations, failed items are retried unless the error is caused by the request itself (bad request, missing permissions, etc.).
+ * Each item of a job gets a result even if the processing fails unexpectedly, so a job always finishes.
+ * The job results are available to the user who submitted the job while the job runs and for some time after it is finished.
+ */
+public class MultipleOperationJobs {
+  private static final Logger LOG = Logger.getInstance(MultipleOperationJobs.class.getName());
+
+  static final String THREADS_PROPERTY = "rest.multipleOperations.async.threads";
+  static final String RETRIES_PROPERTY = "rest.multipleOperations.async.retries";
+  static final String MAX_RUNNING_JOBS_PROPERTY = "rest.multipleOperations.async.maxRunningJobs";
+  static final String RETENTION_PROPERTY = "rest.multipleOperations.async.retentionSeconds";
+
+  @NotNull private final Map<String, Job> myJobs = new ConcurrentHashMap<>();
+  @NotNull private final AtomicLong myJobsCounter = new AtomicLong();
+  @NotNull private final String myIdPrefix = Long.toHexString(System.currentTimeMillis()); //job ids are not reused after the server restart
+  @NotNull private final AtomicInteger myRunningJobsCount = new AtomicInteger();
+  @Nullable private volatile ExecutorService myExecutor;
+  private volatile boolean myDisposed = false;
+
+  /**
+   * Starts processing of the items in background. Should be called in the thread with the request context set, the items are processed under the same permissions.
+   * @param idempotent true if the action can be safely retried for an item after an error
+   */
+  @NotNull
+  public <T> Job submit(@NotNull final List<T> items, @NotNull final Consumer<T> action, final boolean idempotent, @Nullable final SUser user) {
+    final RestContext context = RestContext.getThreadLocal();
+    if (context == null) {
+      throw new OperationException("Cannot start background operation outside of a request");
+    }
+    removeExpiredJobs();
+    if (items.isEmpty()) {
+      final Job job = new Job(myIdPrefix + "-" + myJobsCounter.incrementAndGet(), user == null ? null : user.getId(), 0, () -> {});
+      job.myFinishTime = System.currentTimeMillis();
+      myJobs.put(job.getId(), job);
+      return job;
+    }
+    reserveRunningJob();
+
+    final Job job = new Job(myIdPrefix + "-" + myJobsCounter.incrementAndGet(), user == null ? null : user.getId(), items.size(), myRunningJobsCount::decrementAndGet);
+    myJobs.put(job.getId(), job);
+    final int retries = idempotent ? Math.max(0, TeamCityProperties.getInteger(RETRIES_PROPERTY, 2)) : 0;
+    final int workers = Math.min(items.size(), getThreadsCount());
+    int submittedWorkers = 0;
+    try {
+      final ExecutorService executor = getExecutor();
+      for (; submittedWorkers < workers; submittedWorkers++) {
+        executor.submit(context.bindToCurrentContext(() -> {
+          processItems(job, items, action, retries);
+          return null;
+        }));
+      }
+    } catch (RejectedExecutionException e) {
+      if (submittedWorkers == 0) {
+        job.setRemainingResults(items, "Operation is not started: " + e.getMessage());
+        throw new InvalidStateException("Cannot start the operation: " + e.getMessage(), e);
+      }
+      //the already submitted workers process all the items
+    }
+    return job;
+  }
+
+  /**
+   * Stops the processing of all the jobs, is called on the server shutdown
+   */
+  public void dispose() {
+    myDisposed = true;
+    final ExecutorService executor = myExecutor;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void reserveRunningJob() {
+    final int maxRunningJobs = TeamCityProperties.getInteger(MAX_RUNNING_JOBS_PROPERTY, 10);
+    while (true) {
+      final int current = myRunningJobsCount.get();
+      if (current >= maxRunningJobs) {
+        throw new InvalidStateException("There are already " + maxRunningJobs + " operations running, cannot start one more.");
+      }
+      if (myRunningJobsCount.compareAndSet(current, current + 1)) return;
+    }
+  }
+
+  private static <T> void processItems(@NotNull final Job job, @NotNull final List<T> items, @NotNull final Consumer<T> action, final int retries) {
+    int index = -1;
+    try {
+      while ((index = job.myNextIndex.getAndIncrement()) < items.size()) {
+        job.setResult(index, process(items.get(index), action, retries));
+      }
+    } catch (Throwable e) {
+      //unexpected error (e.g. Error): the job should still finish
+      LOG.warnAndDebugDetails("Error while processing multiple items operation " + job.getId(), e);
+      if (index >= 0 && index < items.size()) {
+        job.setResult(index, OperationResult.Data.createError(e.toString(), new RelatedEntity.Entity(items.get(index))));
+      }
+      job.setRemainingResults(items, "Not processed due to an error: " + e.toString());
+      if (e instanceof Error) throw (Error)e;
+    }
+  }
+
+  /**
+   * @throws NotFoundException if there is no such job or it was submitted by another user
+   */
+  @NotNull
+  public Job getJob(@NotNull final String id, @Nullable final SUser user) {
+    removeExpiredJobs();
+    final Job job = myJobs.get(id);
+    if (job == null || !(user == null ? job.myUserId == null : Long.valueOf(user.getId()).equals(job.myUserId))) {
+      throw new NotFoundException("No operation with id '" + id + "' is found. Operation results are available for " + getRetentionSeconds() + " seconds after it is finished.");
+    }
+    return job;
+  }
+
+  @NotNull
+  private static <T> OperationResult.Data process(@NotNull final T item, @NotNull final Consumer<T> action, final int retries) {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        action.accept(item);
+        return OperationResult.Data.createSuccess(new RelatedEntity.Entity(item));
+      } catch (Exception e) {
+        if (attempt >= retries || !isRetriable(e)) {
+          return OperationResult.Data.createError(e.getMessage() != null ? e.getMessage() : e.toString(), new RelatedEntity.Entity(item));
+        }
+        LOG.debug("Retrying operation for " + item + " after error: " + e.toString());
+        try {
+          Thread.sleep(100L * (attempt + 1));
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return OperationResult.Data.createError("Interrupted", new RelatedEntity.Entity(item));
+        }
+      }
+    }
+  }
+
+  private static boolean isRetriable(@NotNull final Exception e) {
+    return !(e instanceof BadRequestException || e instanceof NotFoundException || e instanceof AuthorizationFailedException || e instanceof AccessDeniedException);
+  }
+
+  private void removeExpiredJobs() {
+    final long expirationTime = System.currentTimeMillis() - getRetentionSeconds() * 1000L;
+    myJobs.values().removeIf(job -> job.isFinished() && job.myFinishTime < expirationTime);
+  }
+
+  private static int getRetentionSeconds() {
+    return TeamCityProperties.getInteger(RETENTION_PROPERTY, 3600);
+  }
+
+  private static int getThreadsCount() {
+    return Math.max(1, TeamCityProperties.getInteger(THREADS_PROPERTY, 4));
+  }
+
+  @NotNull
+  private ExecutorService getExecutor() {
+    ExecutorService result = myExecutor;
+    if (result == null) {
+      synchronized (this) {
+        if (myDisposed) throw new RejectedExecutionException("The server is shutting down");
+        result = myExecutor;
+        if (result == null) {
+          final int threads = getThreadsCount();
+          final AtomicInteger threadNumber = new AtomicInteger();
+          final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "REST API multiple operations " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(MultipleOperationJobs.class.getClassLoader());
+            return thread;
+          });
+          executor.allowCoreThreadTimeOut(true);
+          result = executor;
+          myExecutor = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  public static class Job {
+    @NotNull private final String myId;
+    @Nullable private final Long myUserId;
+    @NotNull private final AtomicReferenceArray<OperationResult.Data> myResults;
+    @NotNull private final AtomicInteger myNextIndex = new AtomicInteger();
+    @NotNull private final AtomicInteger myProcessedCount = new AtomicInteger();
+    @NotNull private final Runnable myOnFinish;
+    private volatile long myFinishTime = -1;
+
+    private Job(@NotNull final String id, @Nullable final Long userId, final int count, @NotNull final Runnable onFinish) {
+      myId = id;
+      myUserId = userId;
+      myResults = new AtomicReferenceArray<>(count);
+      myOnFinish = onFinish;
+    }
+
+    private void setResult(final int index, @NotNull final OperationResult.Data result) {
+      if (!myResults.compareAndSet(index, null, result)) return;
+      if (myProcessedCount.incrementAndGet() == myResults.length()) {
+        myOnFinish.run(); //before the job is reported as finished so that the next job can be started once this one is seen finished
+        myFinishTime = System.currentTimeMillis();
+      }
+    }
+
+    /**
+     * Sets error result for all the items not yet taken for processing
+     */
+    private <T> void setRemainingResults(@NotNull final List<T> items, @NotNull final String error) {
+      int index;
+      while ((index = myNextIndex.getAndIncrement()) < items.size()) {
+        setResult(index, OperationResult.Data.createError(error, new RelatedEntity.Entity(items.get(index))));
+      }
+    }
+
+    @NotNull
+    public String getId() {
+      return myId;
+    }
+
+    public int getCount() {
+      return myResults.length();
+    }
+
+    public int getProcessedCount() {
+      return myProcessedCount.get();
+    }
+
+    public boolean isFinished() {
+      return myFinishTime >= 0;
+    }
+
+    /**
+     * @return results of the items processed so far, in the order of the items
+     */
+    @NotNull
+    public MultipleOperationResult.Data getResultData() {
+      final List<OperationResult.Data> result = new ArrayList<>(getProcessedCount());
+      int errorCount = 0;
+      for (int i = 0; i < myResults.length(); i++) {
+        final OperationResult.Data itemResult = myResults.get(i);
+        if (itemResult != null) {
+          result.add(itemResult);
+          if (itemResult.isError()) errorCount++;
+        }
+      }
+      return new MultipleOperationResult.Data(result, errorCount);
+    }
+  }
+}
@@ -33,6 +33,7 @@ public class PagedSearchResult<T> {
   public final boolean myLookupLimitReached;
   @Nullable public final Long myLookupLimit;
   @Nullable private T myLastProcessedItem;
+  @Nullable private PagingCursor myNextPageCursor;
 
   public PagedSearchResult(@NotNull final List<T> entries, @Nullable final Long requestedStart, @Nullable final Integer requestedCount) {
     myEntries = entries;
@@ -56,11 +57,26 @@ public class PagedSearchResult<T> {
     myLastProcessedItem = lastProcessedItem;
   }
 
+  public PagedSearchResult(@NotNull final List<T> entries, @Nullable final Long requestedStart, @Nullable final Integer requestedCount,
+                           @Nullable final Long actuallyProcessedCount, @Nullable final Long lookupLimit, final boolean lookupLimitReached, @Nullable final T lastProcessedItem,
+                           @Nullable final PagingCursor nextPageCursor) {
+    this(entries, requestedStart, requestedCount, actuallyProcessedCount, lookupLimit, lookupLimitReached, lastProcessedItem);
+    myNextPageCursor = nextPageCursor;
+  }
+
   @Nullable
   public T getLastProcessedItem() {
     return myLastProcessedItem;
   }
 
+  /**
+   * @return cursor to continue the items scan from for the next page, null if not supported
+   */
+  @Nullable
+  public PagingCursor getNextPageCursor() {
+    return myNextPageCursor;
+  }
+
   public boolean isNextPageAvailable(){
     return myCount != null && myActualCount >= myCount || myLookupLimit != null && myLookupLimitReached;
   }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import jetbrains.buildServer.server.rest.errors.BadRequestException;
+import jetbrains.buildServer.server.rest.model.PagerData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Continuation point of the items scan used for the next page retrieval instead of "start".
+ * Holds the key of the last processed item (see {@link FinderDataBinding#getItemCursorKey(Object)}),
+ * the number of the items matched before the next page (used as "start" if the item is no longer found)
+ * and the hash of the locator to make sure the cursor is used with the same locator only.
+ * The text representation is opaque for the clients.
+ */
+public class PagingCursor {
+  private static final String SEPARATOR = "-";
+
+  @NotNull private final String myLocatorHash;
+  private final long myOffset;
+  @NotNull private final String myItemKey;
+
+  public PagingCursor(@NotNull final String locatorHash, final long offset, @NotNull final String itemKey) {
+    myLocatorHash = locatorHash;
+    myOffset = offset;
+    myItemKey = itemKey;
+  }
+
+  @NotNull
+  public static PagingCursor parse(@NotNull final String text) {
+    final String[] parts = text.split(SEPARATOR, 3);
+    if (parts.length == 3 && !parts[0].isEmpty() && !parts[2].isEmpty()) {
+      try {
+        return new PagingCursor(parts[0], Long.parseLong(parts[1]), parts[2]);
+      } catch (NumberFormatException e) {
+        //report below
+      }
+    }
+    throw new BadRequestException("Invalid value of '" + PagerData.CURSOR + "' dimension: '" + text + "'. Use the value from the 'nextHref' of the previous page.");
+  }
+
+  /**
+   * @return hash of the locator ignoring the paging dimensions
+   */
+  @NotNull
+  public static String getLocatorHash(@NotNull final Locator locator) {
+    if (locator.isSingleValue()) {
+      return Integer.toHexString(locator.getStringRepresentation().hashCode());
+    }
+    final Locator locatorCopy = new Locator(locator);
+    locatorCopy.removeDimension(PagerData.START);
+    locatorCopy.removeDimension(PagerData.COUNT);
+    locatorCopy.removeDimension(PagerData.CURSOR);
+    locatorCopy.removeDimension(FinderImpl.DIMENSION_LOOKUP_LIMIT);
+    return Integer.toHexString(locatorCopy.getStringRepresentation().hashCode());
+  }
+
+  /**
+   * @return true if the cursor was created for the same locator
+   */
+  public boolean isApplicable(@Nullable final Locator locator) {
+    return locator != null && myLocatorHash.equals(getLocatorHash(locator));
+  }
+
+  public long getOffset() {
+    return myOffset;
+  }
+
+  @NotNull
+  public String getItemKey() {
+    return myItemKey;
+  }
+
+  @Override
+  public String toString() {
+    return myLocatorHash + SEPARATOR + myOffset + SEPARATOR + myItemKey;
+  }
+}
@@ -65,6 +65,11 @@ public class PagingItemFilter<T> implements ItemFilter<T> {
   }
 
 
+  @NotNull
+  public ItemFilter<T> getFilter() {
+    return myFilter;
+  }
+
   @Nullable
   public Long getStart() {
     return myStart;
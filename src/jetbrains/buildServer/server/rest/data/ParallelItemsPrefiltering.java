@@ -0,0 +1,240 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import jetbrains.buildServer.server.rest.errors.OperationException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.ItemProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Retrieves items of independent item holders (parts of {@link FinderDataBinding.AggregatingItemHolder}) and evaluates the filter on them in a bounded shared pool.
+ * The items are still passed to the processor one by one in the same order as in sequential processing,
+ * so start/count/lookupLimit of {@link PagingItemFilter} and "shouldStop" work exactly the same way.
+ * Only a window of holders (pool parallelism) ahead of the currently processed one is evaluated speculatively.
+ *
+ * The filter passed should be safe to be invoked from several threads, see {@link FinderDataBinding#isFilterThreadSafe(Locator)}.
+ */
+public class ParallelItemsPrefiltering<T> {
+  static final String ENABLED_PROPERTY = "rest.finder.parallel.enabled";
+  static final String THREADS_PROPERTY = "rest.finder.parallel.threads";
+
+  private static volatile ForkJoinPool ourPool;
+
+  @NotNull private final List<FinderDataBinding.ItemHolder<T>> myItemHolders;
+  @NotNull private final ItemFilter<T> myFilter;
+  @Nullable private final Long myItemsLimit;
+  //used only in the thread which processes items, cleared when the processing ends as not all the items reach the filter (e.g. duplicates)
+  @NotNull private final Map<T, Boolean> myPrecomputedResults = new IdentityHashMap<>();
+
+  /**
+   * @param itemsLimit max number of items to retrieve from a single holder, typically lookupLimit
+   */
+  public ParallelItemsPrefiltering(@NotNull final List<FinderDataBinding.ItemHolder<T>> itemHolders, @NotNull final ItemFilter<T> filter, @Nullable final Long itemsLimit) {
+    myItemHolders = itemHolders;
+    myFilter = filter;
+    myItemsLimit = itemsLimit;
+  }
+
+  /**
+   * @param locatorOption value of the locator option, null if not specified
+   */
+  public static boolean isEnabled(@Nullable final Boolean locatorOption) {
+    if (locatorOption != null) return locatorOption;
+    return TeamCityProperties.getBoolean(ENABLED_PROPERTY);
+  }
+
+  @NotNull
+  public FinderDataBinding.ItemHolder<T> getItemHolder() {
+    return processor -> {
+      final ForkJoinPool pool = getPool();
+      if (isPoolThread(pool)) {
+        //nested processing: do not wait for the pool from within the pool
+        for (FinderDataBinding.ItemHolder<T> itemHolder : myItemHolders) {
+          itemHolder.process(processor);
+        }
+        return;
+      }
+      final RestContext context = RestContext.getThreadLocal();
+      final ArrayDeque<Future<EvaluatedItems>> inProgress = new ArrayDeque<>();
+      final Iterator<FinderDataBinding.ItemHolder<T>> holdersIterator = myItemHolders.iterator();
+      try {
+        while (true) {
+          while (inProgress.size() < pool.getParallelism() && holdersIterator.hasNext()) {
+            Callable<EvaluatedItems> task = getEvaluationTask(holdersIterator.next());
+            inProgress.add(pool.submit(context != null ? context.bindToCurrentContext(task) : task));
+          }
+          Future<EvaluatedItems> next = inProgress.poll();
+          if (next == null) return;
+          if (!getResult(next).process(processor)) return;
+        }
+      } finally {
+        for (Future<EvaluatedItems> future : inProgress) {
+          future.cancel(true);
+        }
+        myPrecomputedResults.clear();
+      }
+    };
+  }
+
+  int getPrecomputedResultsCount() {
+    return myPrecomputedResults.size();
+  }
+
+  /**
+   * @return filter to be used for the items provided by {@link #getItemHolder()}: it uses results already calculated in parallel when available
+   */
+  @NotNull
+  public ItemFilter<T> getFilter() {
+    return new ItemFilter<T>() {
+      @Override
+      public boolean shouldStop(@NotNull final T item) {
+        return myFilter.shouldStop(item);
+      }
+
+      @Override
+      public boolean isIncluded(@NotNull final T item) {
+        final Boolean result = myPrecomputedResults.remove(item);
+        if (result != null) return result;
+        return myFilter.isIncluded(item);
+      }
+    };
+  }
+
+  @NotNull
+  private Callable<EvaluatedItems> getEvaluationTask(@NotNull final FinderDataBinding.ItemHolder<T> itemHolder) {
+    return () -> {
+      final ArrayList<T> items = new ArrayList<>();
+      itemHolder.process(item -> {
+        if (myItemsLimit != null && items.size() >= myItemsLimit) return false;
+        items.add(item);
+        return true;
+      });
+      final boolean[] included = new boolean[items.size()];
+      for (int i = 0; i < included.length; i++) {
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+        included[i] = myFilter.isIncluded(items.get(i));
+      }
+      return new EvaluatedItems(items, included);
+    };
+  }
+
+  /**
+   * Applies the function to each of the items using the shared pool and returns the results in the order of the items.
+   * Falls back to sequential processing when invoked without the request context or from the pool thread.
+   */
+  @NotNull
+  public static <S, R> List<R> map(@NotNull final List<S> items, @NotNull final Function<S, R> function) {
+    final ForkJoinPool pool = getPool();
+    final RestContext context = RestContext.getThreadLocal();
+    final ArrayList<R> result = new ArrayList<>(items.size());
+    if (items.size() <= 1 || context == null || isPoolThread(pool)) {
+      for (S item : items) {
+        result.add(function.apply(item));
+      }
+      return result;
+    }
+    final List<Future<R>> futures = new ArrayList<>(items.size());
+    try {
+      for (S item : items) {
+        futures.add(pool.submit(context.bindToCurrentContext(() -> function.apply(item))));
+      }
+      for (Future<R> future : futures) {
+        result.add(getResult(future));
+      }
+    } finally {
+      for (Future<R> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return number of threads in the shared pool
+   */
+  public static int getParallelism() {
+    return getPool().getParallelism();
+  }
+
+  @NotNull
+  private static <R> R getResult(@NotNull final Future<R> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OperationException("Interrupted while waiting for items processing", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      throw new OperationException("Error while processing items: " + cause, e);
+    }
+  }
+
+  private static boolean isPoolThread(@NotNull final ForkJoinPool pool) {
+    final Thread thread = Thread.currentThread();
+    return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)thread).getPool() == pool;
+  }
+
+  @NotNull
+  private static ForkJoinPool getPool() {
+    ForkJoinPool result = ourPool;
+    if (result == null) {
+      synchronized (ParallelItemsPrefiltering.class) {
+        result = ourPool;
+        if (result == null) {
+          final int threads = TeamCityProperties.getInteger(THREADS_PROPERTY, Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+          result = new ForkJoinPool(Math.max(1, threads), pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("REST API parallel items processing " + thread.getPoolIndex());
+            thread.setContextClassLoader(ParallelItemsPrefiltering.class.getClassLoader());
+            return thread;
+          }, null, false);
+          ourPool = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private class EvaluatedItems {
+    @NotNull private final List<T> myItems;
+    @NotNull private final boolean[] myIncluded;
+
+    EvaluatedItems(@NotNull final List<T> items, @NotNull final boolean[] included) {
+      myItems = items;
+      myIncluded = included;
+    }
+
+    /**
+     * @return false if the processing should be stopped
+     */
+    boolean process(@NotNull final ItemProcessor<T> processor) {
+      for (int i = 0; i < myItems.size(); i++) {
+        final T item = myItems.get(i);
+        myPrecomputedResults.put(item, myIncluded[i]);
+        if (!processor.processItem(item)) return false;
+      }
+      return true;
+    }
+  }
+}
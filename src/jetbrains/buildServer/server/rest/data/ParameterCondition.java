@@ -17,10 +17,14 @@
 package jetbrains.buildServer.server.rest.data;
 
 import com.intellij.openapi.diagnostic.Logger;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import jetbrains.buildServer.parameters.ParametersProvider;
 import jetbrains.buildServer.parameters.impl.MapParametersProviderImpl;
 import jetbrains.buildServer.requirements.RequirementType;
@@ -190,11 +194,7 @@ public class ParameterCondition {
       };
     }
 
-    final List<ParameterCondition> list = new ArrayList<ParameterCondition>(propertyConditionLocators.size());
-    for (String propertyConditionLocator : propertyConditionLocators) {
-      final ParameterCondition condition = create(propertyConditionLocator);
-      if (condition != null) list.add(condition);
-    }
+    final List<ParameterCondition> list = createAll(propertyConditionLocators);
     return new Matcher<ParametersProvider>() {
       public boolean matches(@NotNull final ParametersProvider parametersProvider) {
         for (ParameterCondition condition : list) {
@@ -205,6 +205,40 @@ public class ParameterCondition {
     };
   }
 
+  /**
+   * The same as {@link #create(List)}, but for the parameters with number values, see {@link #matches(Map)}
+   */
+  @NotNull
+  public static Matcher<Map<String, BigDecimal>> createForNumbers(@Nullable final List<String> propertyConditionLocators) {
+    if (propertyConditionLocators == null || propertyConditionLocators.isEmpty()) {
+      return new Matcher<Map<String, BigDecimal>>() {
+        public boolean matches(@NotNull final Map<String, BigDecimal> values) {
+          return true;
+        }
+      };
+    }
+
+    final List<ParameterCondition> list = createAll(propertyConditionLocators);
+    return new Matcher<Map<String, BigDecimal>>() {
+      public boolean matches(@NotNull final Map<String, BigDecimal> values) {
+        for (ParameterCondition condition : list) {
+          if (!condition.matches(values)) return false;
+        }
+        return true;
+      }
+    };
+  }
+
+  @NotNull
+  private static List<ParameterCondition> createAll(@NotNull final List<String> propertyConditionLocators) {
+    final List<ParameterCondition> result = new ArrayList<ParameterCondition>(propertyConditionLocators.size());
+    for (String propertyConditionLocator : propertyConditionLocators) {
+      final ParameterCondition condition = create(propertyConditionLocator);
+      if (condition != null) result.add(condition);
+    }
+    return result;
+  }
+
   private static List<String> getAllRequirementTypes() {
     return CollectionsUtil.convertCollection(RequirementType.ALL_REQUIREMENT_TYPES, new Converter<String, RequirementType>() {
       public String createFrom(@NotNull final RequirementType source) {
@@ -224,27 +258,46 @@ public class ParameterCondition {
   }
 
   private boolean matchesInternal(final @NotNull ParametersProvider parametersProvider) {
+    return matchesInternal(parametersProvider::get, () -> parametersProvider.getAll(), myValueCondition::matches);
+  }
+
+  /**
+   * @param valueGetter   gets the value by the parameter name, used when the name condition matches a single name
+   * @param allValues     provides all the parameters otherwise, null values are considered absent
+   * @param valueMatcher  matches the parameter value with the value condition
+   */
+  private <V> boolean matchesInternal(@NotNull final Function<String, V> valueGetter,
+                                      @NotNull final Supplier<Map<String, V>> allValues,
+                                      @NotNull final Predicate<V> valueMatcher) {
     String constantValueIfSimpleEqualsCondition = myNameCondition.getConstantValueIfSimpleEqualsCondition();
     if (!StringUtil.isEmpty(constantValueIfSimpleEqualsCondition)) {
-      final String value = parametersProvider.get(constantValueIfSimpleEqualsCondition);
-      return myValueCondition.matches(value);
+      return valueMatcher.test(valueGetter.apply(constantValueIfSimpleEqualsCondition));
     }
     boolean matched = false;
-    for (Map.Entry<String, String> parameter : parametersProvider.getAll().entrySet()) {
-      if (!myNameCondition.matches(parameter.getKey())) continue;
+    for (Map.Entry<String, V> parameter : allValues.get().entrySet()) {
+      if (parameter.getValue() == null || !myNameCondition.matches(parameter.getKey())) continue;
       if (myNameCheckShouldMatchAll) {
-        if (myValueCondition.matches(parameter.getValue())) {
+        if (valueMatcher.test(parameter.getValue())) {
           matched = true;
         } else {
           return false;
         }
       } else {
-        if (myValueCondition.matches(parameter.getValue())) return true;
+        if (valueMatcher.test(parameter.getValue())) return true;
       }
     }
     return matched;
   }
 
+  /**
+   * Matches the parameters with number values (e.g. build statistic values, null values are considered absent).
+   * The numeric comparisons are performed on the numbers, only the values matched by other conditions are converted to strings (see {@link ValueCondition#matches(BigDecimal)}).
+   */
+  public boolean matches(@NotNull final Map<String, BigDecimal> values) {
+    if (myInheritedCondition != null) throw new OperationException("Cannot filter by " + INHERITED + " dimension for the entity");
+    return matchesInternal(values::get, () -> values, myValueCondition::matches);
+  }
+
   public boolean matches(@NotNull final InheritableUserParametersHolder parametersHolder) {
     return matches(new MapParametersProviderImpl(parametersHolder.getParameters()), new MapParametersProviderImpl(parametersHolder.getOwnParameters()));
   }
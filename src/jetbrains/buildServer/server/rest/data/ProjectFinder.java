@@ -415,6 +415,20 @@ public class ProjectFinder extends AbstractFinder<SProject> {
    */
   @NotNull
   private List<SProject> findProjectsByName(@Nullable SProject parentProject, @NotNull final String name, final boolean recursive) {
+    final ProjectTreeIndex index = getProjectTreeIndex();
+    if (index != null) {
+      final List<SProject> projects = index.getProjectsByName(name);
+      if (parentProject == null) return projects;
+      final ArrayList<SProject> result = new ArrayList<SProject>();
+      for (SProject project : projects) {
+        if (recursive ? !parentProject.getProjectId().equals(project.getProjectId()) && isSameOrParent(parentProject, project)
+                      : parentProject.getProjectId().equals(project.getParentProjectId())) {
+          result.add(project);
+        }
+      }
+      return result;
+    }
+
     final ArrayList<SProject> result = new ArrayList<SProject>();
     if (parentProject == null) {
       parentProject = getRootProject();
@@ -445,14 +459,32 @@ public class ProjectFinder extends AbstractFinder<SProject> {
     return project;
   }
 
-  public static boolean isSameOrParent(@NotNull final BuildProject parent, @NotNull final BuildProject project) {
-    return isSameOrParent(Collections.singleton(parent), project);
+  public boolean isSameOrParent(@NotNull final BuildProject parent, @NotNull final BuildProject project) {
+    final ProjectTreeIndex index = getProjectTreeIndex();
+    if (index != null) {
+      final Boolean result = index.isSameOrParent(parent, project);
+      if (result != null) return result;
+    }
+    return isSameOrParentByHierarchy(Collections.singleton(parent), project);
   }
 
   /**
    * Calculates if the project is one of or an (indirect) child of the parent candidates passed
    */
-  public static boolean isSameOrParent(@NotNull final Collection<? extends BuildProject> parents, @NotNull final BuildProject project) {
+  public boolean isSameOrParent(@NotNull final Collection<? extends BuildProject> parents, @NotNull final BuildProject project) {
+    if (parents.size() == 1) {
+      return isSameOrParent(parents.iterator().next(), project);
+    }
+    return isSameOrParentByHierarchy(parents, project);
+  }
+
+  @Nullable
+  private ProjectTreeIndex getProjectTreeIndex() {
+    if (!ProjectTreeIndex.isEnabled()) return null;
+    return myServiceLocator.findSingletonService(ProjectTreeIndex.class);
+  }
+
+  private static boolean isSameOrParentByHierarchy(@NotNull final Collection<? extends BuildProject> parents, @NotNull final BuildProject project) {
     Set<String> projectIds = parents.stream().map(p -> p.getProjectId()).collect(Collectors.toSet());
     BuildProject currentProject = project;
     while(currentProject != null) {
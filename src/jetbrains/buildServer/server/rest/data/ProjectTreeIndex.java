@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Snapshot of the projects hierarchy used for the frequent "affected project" checks and lookups by name.
+ * Each project is assigned the interval of its subtree in the depth-first traversal order, so checking if a project is within another project's subtree is
+ * a comparison of two intervals. The snapshot is built on first access and is rebuilt after any project creation, removal, move or settings change.
+ * Permissions are not considered here: the callers should filter the items.
+ */
+public class ProjectTreeIndex extends BuildServerAdapter {
+  static final String ENABLED_PROPERTY = "rest.projectTreeIndex.enabled";
+
+  @NotNull private final ProjectManager myProjectManager;
+  @NotNull private final AtomicLong myVersion = new AtomicLong();
+  @Nullable private volatile Tree myTree;
+
+  public ProjectTreeIndex(@NotNull final SBuildServer server, @NotNull final ProjectManager projectManager) {
+    myProjectManager = projectManager;
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @return whether the project is the same as the parent or is its (indirect) subproject, null if any of the projects is not known to the index (e.g. just created)
+   */
+  @Nullable
+  public Boolean isSameOrParent(@NotNull final BuildProject parent, @NotNull final BuildProject project) {
+    final Tree tree = getTree();
+    final int[] parentInterval = tree.myIntervals.get(parent.getProjectId());
+    final int[] projectInterval = tree.myIntervals.get(project.getProjectId());
+    if (parentInterval == null || projectInterval == null) return null;
+    return parentInterval[0] <= projectInterval[0] && projectInterval[1] <= parentInterval[1];
+  }
+
+  /**
+   * @return all the projects with the name in the hierarchy order (the same as in {@link SProject#getProjects()}) starting with the root project
+   */
+  @NotNull
+  public List<SProject> getProjectsByName(@NotNull final String name) {
+    final List<SProject> result = getTree().myProjectsByName.get(name);
+    return result == null ? Collections.emptyList() : Collections.unmodifiableList(result);
+  }
+
+  /**
+   * @return current snapshot of the hierarchy, a new instance is created after the hierarchy changes
+   */
+  @NotNull
+  public Tree getTree() {
+    final long version = myVersion.get();
+    Tree result = myTree;
+    if (result == null || result.myVersion != version) {
+      result = new Tree(myProjectManager.getRootProject(), version);
+      myTree = result; //can be overridden by a concurrent build of an older version, the version is checked on each access then
+    }
+    return result;
+  }
+
+  private void invalidate() {
+    myVersion.incrementAndGet();
+  }
+
+  @Override
+  public void projectCreated(@NotNull final String projectId, final SUser user) {
+    invalidate();
+  }
+
+  @Override
+  public void projectRemoved(@NotNull final String projectId) {
+    invalidate();
+  }
+
+  @Override
+  public void projectMoved(@NotNull final SProject project, @NotNull final SProject originalParentProject) {
+    invalidate();
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    invalidate();
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    invalidate();
+  }
+
+  public static class Tree {
+    private final long myVersion;
+    @NotNull private final Map<String, int[]> myIntervals = new HashMap<>(); //internal id -> {enter index, last subproject index}
+    @NotNull private final Map<String, List<SProject>> myProjectsByName = new HashMap<>();
+    private int myCounter = 0;
+
+    Tree(@NotNull final SProject rootProject, final long version) {
+      myVersion = version;
+      add(rootProject);
+    }
+
+    private void add(@NotNull final SProject rootProject) {
+      //iterative depth-first traversal as the hierarchy can be deep
+      final Deque<Iterator<SProject>> stack = new ArrayDeque<>();
+      final Deque<int[]> intervals = new ArrayDeque<>();
+      intervals.push(enter(rootProject));
+      stack.push(rootProject.getOwnProjects().iterator());
+      while (!stack.isEmpty()) {
+        final Iterator<SProject> children = stack.peek();
+        if (children.hasNext()) {
+          final SProject child = children.next();
+          intervals.push(enter(child));
+          stack.push(child.getOwnProjects().iterator());
+        } else {
+          stack.pop();
+          intervals.pop()[1] = myCounter - 1;
+        }
+      }
+    }
+
+    /**
+     * @return {first, last} positions of the project's subtree in the depth-first order, null if the project is not known to the snapshot
+     */
+    @Nullable
+    public int[] getSubtreeInterval(@NotNull final String projectInternalId) {
+      final int[] interval = myIntervals.get(projectInternalId);
+      return interval == null ? null : interval.clone();
+    }
+
+    @NotNull
+    private int[] enter(@NotNull final SProject project) {
+      final int[] interval = {myCounter++, -1};
+      myIntervals.put(project.getProjectId(), interval);
+      myProjectsByName.computeIfAbsent(project.getName(), name -> new ArrayList<>(1)).add(project);
+      return interval;
+    }
+  }
+}
@@ -16,8 +16,17 @@
 
 package jetbrains.buildServer.server.rest.data;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import jetbrains.buildServer.server.rest.errors.OperationException;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
 import jetbrains.buildServer.util.FuncThrow;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -28,11 +37,30 @@ import org.jetbrains.annotations.Nullable;
  */
 public class RestContext {
   private final static ThreadLocal<RestContext> ourThreadLocalInstance = new ThreadLocal<>();
+  static final String MEMOIZATION_ENABLED_PROPERTY = "rest.request.memoization.enabled";
+  static final String MEMOIZATION_MAX_ENTRIES_PROPERTY = "rest.request.memoization.maxEntries";
+  private static final Object NO_AUTHORITY = new Object();
 
   private final Function<String, Object> myFunction;
+  @Nullable private final SecurityContextEx mySecurityContext;
+  private final boolean myMemoizationEnabled;
+  @NotNull private final Map<Object, Map<Object, Object>> myMemoizedValues = Collections.synchronizedMap(new IdentityHashMap<>()); //authority holder -> key -> value
 
   public RestContext(Function<String, Object> function) {
+    this(function, null, false);
+  }
+
+  public RestContext(Function<String, Object> function, @Nullable SecurityContextEx securityContext) {
+    this(function, securityContext, false);
+  }
+
+  /**
+   * @param memoizationEnabled whether values can be memoized for the time of the context (see {@link #memoize(Object, Supplier)}), should be true only for non-modifying requests
+   */
+  public RestContext(Function<String, Object> function, @Nullable SecurityContextEx securityContext, boolean memoizationEnabled) {
     myFunction = function;
+    mySecurityContext = securityContext;
+    myMemoizationEnabled = memoizationEnabled && TeamCityProperties.getBooleanOrTrue(MEMOIZATION_ENABLED_PROPERTY);
   }
 
 
@@ -61,6 +89,73 @@ public class RestContext {
     }
   }
 
+  /**
+   * Wraps the action so that it can be executed in another thread with the same context and under the same security level as the current thread has.
+   * Should be called in the thread with the context set.
+   */
+  @NotNull
+  public <T> Callable<T> bindToCurrentContext(@NotNull final Callable<T> action) {
+    final AuthorityHolder authorityHolder = mySecurityContext == null ? null : mySecurityContext.getAuthorityHolder();
+    return () -> {
+      try {
+        return run(() -> {
+          if (mySecurityContext == null || authorityHolder == null) {
+            return action.call();
+          }
+          final Object[] result = new Object[1];
+          mySecurityContext.runAs(authorityHolder, new SecurityContextEx.RunAsAction() {
+            public void run() throws Throwable {
+              result[0] = action.call();
+            }
+          });
+          //noinspection unchecked
+          return (T)result[0];
+        });
+      } catch (Exception | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new OperationException("Error while executing action in the context: " + e.toString(), e);
+      }
+    };
+  }
+
+  /**
+   * Returns the value calculated earlier with the same key in the current context (typically, the same request) under the same authority, calculates the value otherwise.
+   * Should be used only for the values which are not expected to change while the context is active. Exceptions are not memoized.
+   * Calculates the value each time if there is no context or memoization is disabled for the context.
+   * @param key should have proper equals/hashCode
+   */
+  public static <T> T memoize(@NotNull final Object key, @NotNull final Supplier<T> supplier) {
+    return memoize(key, supplier, Function.identity());
+  }
+
+  /**
+   * Same as {@link #memoize(Object, Supplier)}, but converts the calculated value before memoizing it.
+   * @param toShared converts the value to be shared between the callers, e.g. makes an immutable copy of it. Applied only when memoization is enabled.
+   */
+  public static <T> T memoize(@NotNull final Object key, @NotNull final Supplier<T> supplier, @NotNull final Function<T, T> toShared) {
+    final RestContext context = getThreadLocal();
+    if (context == null || !context.myMemoizationEnabled) {
+      return supplier.get();
+    }
+    return context.getMemoized(key, () -> toShared.apply(supplier.get()));
+  }
+
+  private <T> T getMemoized(@NotNull final Object key, @NotNull final Supplier<T> supplier) {
+    final AuthorityHolder authorityHolder = mySecurityContext == null ? null : mySecurityContext.getAuthorityHolder();
+    final Map<Object, Object> values = myMemoizedValues.computeIfAbsent(authorityHolder == null ? NO_AUTHORITY : authorityHolder, a -> new ConcurrentHashMap<>());
+    //noinspection unchecked
+    T result = (T)values.get(key);
+    if (result != null) {
+      return result;
+    }
+    result = supplier.get(); //not using computeIfAbsent as the calculation can memoize other values
+    if (result != null && values.size() < TeamCityProperties.getInteger(MEMOIZATION_MAX_ENTRIES_PROPERTY, 1000)) {
+      values.put(key, result);
+    }
+    return result;
+  }
+
   @Nullable
   public Object getVar(@NotNull final String name) {
     if (!isValidName(name)) {
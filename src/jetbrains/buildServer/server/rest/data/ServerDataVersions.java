@@ -0,0 +1,344 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
+import jetbrains.buildServer.server.rest.util.BuildTypeOrTemplate;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.mute.MuteInfo;
+import jetbrains.buildServer.serverSide.problems.BuildProblemInfo;
+import jetbrains.buildServer.tests.TestName;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.users.UserModel;
+import jetbrains.buildServer.users.UserModelListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Maintains versions which change on the server events changing the builds and the configuration data.
+ * The versions are used to cheaply detect that the data might have changed, e.g. for ETag calculation.
+ * The versions are conservative: any change of a kind changes the version, so the versions are only usable to detect "not changed" state.
+ * <p/>
+ * Besides the global versions, there are versions of the individual builds and of the builds of a build configuration,
+ * so that a change of one build does not invalidate the data of all the others.
+ * The data which is presented as a part of the builds and build configurations (agents, users, investigations, mutes) is covered by a separate "related data" version.
+ * VCS roots are a part of the project settings and are covered by the configuration version.
+ */
+public class ServerDataVersions extends BuildServerAdapter {
+  static final String MAX_BUILDS_PROPERTY = "rest.serverDataVersions.maxBuilds";
+
+  @NotNull private final String myEpoch = Long.toHexString(System.currentTimeMillis()); //versions start anew on each server start
+  @NotNull private final AtomicLong mySequence = new AtomicLong(); //source of the unique values for the versions
+  @NotNull private final AtomicLong myBuildsVersion = new AtomicLong();
+  @NotNull private final AtomicLong myConfigurationVersion = new AtomicLong();
+  @NotNull private final AtomicLong myRelatedDataVersion = new AtomicLong();
+  @NotNull private final Map<String, Long> myBuildTypeBuildsVersions = new ConcurrentHashMap<>(); //build type internal id -> version
+  @NotNull private final Map<Long, Long> myBuildVersions; //build promotion id -> version, only for the recently changed builds
+  private volatile long myForgottenBuildVersion = 0; //the version of the builds which are not in myBuildVersions
+
+  public ServerDataVersions(@NotNull final SBuildServer server, @NotNull final UserModel userModel) {
+    myBuildVersions = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Long, Long> eldest) {
+        if (size() <= TeamCityProperties.getInteger(MAX_BUILDS_PROPERTY, 10000)) return false;
+        //the forgotten build gets the version greater or equal to its last one, so it is never considered not changed by mistake
+        myForgottenBuildVersion = Math.max(myForgottenBuildVersion, eldest.getValue());
+        return true;
+      }
+    };
+    server.addListener(this);
+    userModel.addListener(new UserModelListener() {
+      public void userAccountCreated(@NotNull final User user) {
+      }
+
+      public void userAccountChanged(@NotNull final User user) {
+        relatedDataChanged();
+      }
+
+      public void userAccountRemoved(@NotNull final User user) {
+        relatedDataChanged();
+      }
+    });
+  }
+
+  /**
+   * @return version which changes on any change of builds and build queue
+   */
+  @NotNull
+  public String getBuildsVersion() {
+    return myEpoch + "." + myBuildsVersion.get();
+  }
+
+  /**
+   * @return version which changes on any change of the builds (including queued ones) of the build configuration
+   */
+  @NotNull
+  public String getBuildsVersion(@NotNull final String buildTypeInternalId) {
+    return myEpoch + "." + myBuildTypeBuildsVersions.getOrDefault(buildTypeInternalId, 0L);
+  }
+
+  /**
+   * @return version which changes on any change of projects, build configurations, templates and VCS roots settings
+   */
+  @NotNull
+  public String getConfigurationVersion() {
+    return myEpoch + "." + myConfigurationVersion.get();
+  }
+
+  /**
+   * @return version which changes on any change of the agents, users, investigations and mutes
+   */
+  @NotNull
+  public String getRelatedDataVersion() {
+    return myEpoch + "." + myRelatedDataVersion.get();
+  }
+
+  /**
+   * @return text which changes whenever the build data might change, null if there is no cheap way to detect that
+   */
+  @Nullable
+  public String getVersion(@NotNull final BuildPromotion build, @Nullable final String fields) {
+    final SBuild associatedBuild = build.getAssociatedBuild();
+    if (associatedBuild == null || !associatedBuild.isFinished()) return null; //queued and running builds change all the time
+    return "build:" + build.getId() + ":" + getBuildVersion(build.getId()) + ":" + getConfigurationVersion() + ":" + getRelatedDataVersion() + ":" +
+           getBuildsVersionIfCustomFields(fields) + ":" + fields; //custom fields can include other builds
+  }
+
+  @NotNull
+  public String getVersion(@NotNull final BuildTypeOrTemplate buildType, @Nullable final String fields) {
+    final String buildsVersion = fields == null ? "" : getBuildsVersion(buildType.getInternalId()) + ":" + getRelatedDataVersion();
+    return "buildType:" + buildType.getInternalId() + ":" + getConfigurationVersion() + ":" + buildsVersion + ":" + fields;
+  }
+
+  @NotNull
+  public String getVersion(@NotNull final SProject project, @Nullable final String fields) {
+    final String buildsVersion = fields == null ? "" : getBuildsVersion() + ":" + getRelatedDataVersion();
+    return "project:" + project.getProjectId() + ":" + getConfigurationVersion() + ":" + buildsVersion + ":" + fields;
+  }
+
+  /**
+   * Default presentation of the entities does not include other builds data, custom fields can include it
+   */
+  @NotNull
+  private String getBuildsVersionIfCustomFields(@Nullable final String fields) {
+    return fields == null ? "" : getBuildsVersion();
+  }
+
+  @NotNull
+  private String getBuildVersion(final long promotionId) {
+    final Long result;
+    synchronized (myBuildVersions) {
+      result = myBuildVersions.get(promotionId);
+    }
+    return myEpoch + "." + (result != null ? result : myForgottenBuildVersion);
+  }
+
+  private void buildChanged(@NotNull final String buildTypeInternalId, @Nullable final Long promotionId) {
+    final long version = mySequence.incrementAndGet();
+    myBuildsVersion.incrementAndGet();
+    myBuildTypeBuildsVersions.put(buildTypeInternalId, version);
+    if (promotionId != null) {
+      synchronized (myBuildVersions) {
+        myBuildVersions.put(promotionId, version);
+      }
+    }
+  }
+
+  private void buildChanged(@NotNull final SBuild build) {
+    buildChanged(build.getBuildTypeId(), build.getBuildPromotion().getId());
+  }
+
+  private void configurationChanged() {
+    myConfigurationVersion.incrementAndGet();
+  }
+
+  private void relatedDataChanged() {
+    myRelatedDataVersion.incrementAndGet();
+  }
+
+  @Override
+  public void buildTypeAddedToQueue(@NotNull final SQueuedBuild queuedBuild) {
+    buildChanged(queuedBuild.getBuildTypeId(), null);
+  }
+
+  @Override
+  public void buildRemovedFromQueue(@NotNull final SQueuedBuild queued, final User user, final String comment) {
+    buildChanged(queued.getBuildTypeId(), null);
+  }
+
+  @Override
+  public void buildStarted(@NotNull final SRunningBuild build) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildChangedStatus(@NotNull final SRunningBuild build, final Status oldStatus, final Status newStatus) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildInterrupted(@NotNull final SRunningBuild build) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildPinned(@NotNull final SBuild build, @Nullable final User user, @Nullable final String comment) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildUnpinned(@NotNull final SBuild build, @Nullable final User user, @Nullable final String comment) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildCommented(@NotNull final SBuild build, @Nullable final User user, @Nullable final String comment) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildTagsChanged(@NotNull final SBuild build, final User user, @NotNull final List<String> oldTags, @NotNull final List<String> newTags) {
+    buildChanged(build);
+  }
+
+  @Override
+  public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+    configurationChanged();
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    configurationChanged();
+  }
+
+  @Override
+  public void buildTypePersisted(@NotNull final SBuildType buildType) {
+    configurationChanged();
+  }
+
+  @Override
+  public void buildTypeTemplatePersisted(@NotNull final BuildTypeTemplate buildTemplate) {
+    configurationChanged();
+  }
+
+  @Override
+  public void projectCreated(@NotNull final String projectId, final SUser user) {
+    configurationChanged();
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    configurationChanged(); //also covers VCS roots as they are stored in the project settings
+  }
+
+  @Override
+  public void projectRemoved(@NotNull final String projectId) {
+    configurationChanged();
+  }
+
+  @Override
+  public void projectMoved(@NotNull final SProject project, @NotNull final SProject originalParentProject) {
+    configurationChanged();
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    configurationChanged();
+  }
+
+  @Override
+  public void agentRegistered(@NotNull final SBuildAgent agent, final long currentlyRunningBuildId) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void agentDescriptionUpdated(@NotNull final SBuildAgent agent) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void agentUnregistered(@NotNull final SBuildAgent agent) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void agentRemoved(@NotNull final SBuildAgent agent) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SBuildType bt, @NotNull final ResponsibilityEntry oldValue, @NotNull final ResponsibilityEntry newValue) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SProject project,
+                                 @Nullable final TestNameResponsibilityEntry oldValue,
+                                 @NotNull final TestNameResponsibilityEntry newValue,
+                                 final boolean isUserAction) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SProject project,
+                                 @NotNull final Collection<TestName> testNames,
+                                 @NotNull final ResponsibilityEntry entry,
+                                 final boolean isUserAction) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SProject project, @NotNull final Collection<BuildProblemInfo> buildProblems, @Nullable final ResponsibilityEntry entry) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void responsibleRemoved(@NotNull final SProject project, @NotNull final TestNameResponsibilityEntry entry) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void testsMuted(@NotNull final MuteInfo muteInfo) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void testsUnmuted(@Nullable final SUser user, @NotNull final Map<MuteInfo, Collection<STest>> unmutedGroups) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void buildProblemsMuted(@NotNull final MuteInfo muteInfo) {
+    relatedDataChanged();
+  }
+
+  @Override
+  public void buildProblemsUnmuted(@Nullable final SUser user, @NotNull final Map<MuteInfo, Collection<BuildProblemInfo>> unmutedGroups) {
+    relatedDataChanged();
+  }
+}
@@ -16,20 +16,32 @@
 
 package jetbrains.buildServer.server.rest.data;
 
+import java.math.BigDecimal;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import jetbrains.buildServer.requirements.RequirementType;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
+ * The condition is compiled on the first match into a specialized matcher (precompiled regexp, lowercased or parsed constant value),
+ * which is then used for matching of the non-null values. Requirement types without a specialized matcher are matched via {@link RequirementType#matchValues(String, String)}.
+ *
  * @author Yegor.Yarko
  *         Date: 17.01.12
  */
 public class ValueCondition {
+  static final String COMPILE_PROPERTY = "rest.valueCondition.compile";
+
   @Nullable private final String myParameterValue;
   @NotNull private final RequirementType myRequirementType;
   @Nullable private Boolean myIgnoreCase;
+  @Nullable private volatile Predicate<String> myCompiledMatcher; //null if not yet compiled
+  @Nullable private volatile Predicate<BigDecimal> myCompiledNumberMatcher; //compiled together with myCompiledMatcher, null if there is no specialized matcher
 
   public ValueCondition(@NotNull final RequirementType requirementType, @Nullable final String value, @Nullable final Boolean ignoreCase) {
     myParameterValue = value;
@@ -51,6 +63,8 @@ public class ValueCondition {
 
   public void setIgnoreCase(final boolean ignoreCase) {
     myIgnoreCase = ignoreCase;
+    myCompiledMatcher = null;
+    myCompiledNumberMatcher = null;
   }
 
   public boolean matches(@Nullable final String value) {
@@ -63,6 +77,31 @@ public class ValueCondition {
     if (!myRequirementType.isActualValueCanBeEmpty() && (value == null || value.length() == 0)) {
       return false;
     }
+    if (value != null) {
+      final Predicate<String> compiledMatcher = getCompiledMatcher();
+      if (compiledMatcher != NOT_COMPILED) {
+        return compiledMatcher.test(value);
+      }
+    }
+    return matchValues(value);
+  }
+
+  /**
+   * Matches number value: numeric comparisons are performed on the number itself,
+   * other conditions are matched against the plain string presentation of the number without trailing zeros (the same as used for build statistic values)
+   */
+  public boolean matches(@Nullable final BigDecimal value) {
+    if (value != null) {
+      getCompiledMatcher();
+      final Predicate<BigDecimal> numberMatcher = myCompiledNumberMatcher;
+      if (numberMatcher != null) {
+        return numberMatcher.test(value);
+      }
+    }
+    return matches(value == null ? null : value.stripTrailingZeros().toPlainString());
+  }
+
+  private boolean matchValues(@Nullable final String value) {
     try {
       if (getActualIgnoreCase()) {
         if (myRequirementType.equals(RequirementType.MATCHES) || myRequirementType.equals(RequirementType.DOES_NOT_MATCH)) {
@@ -79,6 +118,121 @@ public class ValueCondition {
     }
   }
 
+  private static final Predicate<String> NOT_COMPILED = value -> {
+    throw new IllegalStateException();
+  };
+
+  @NotNull
+  private Predicate<String> getCompiledMatcher() {
+    Predicate<String> result = myCompiledMatcher;
+    if (result == null) {
+      final boolean compile = TeamCityProperties.getBooleanOrTrue(COMPILE_PROPERTY);
+      myCompiledNumberMatcher = compile ? compileNumberMatcher() : null;
+      result = compile ? compile() : NOT_COMPILED;
+      myCompiledMatcher = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return matcher for non-null values with the same result as {@link #matchValues(String)}, or NOT_COMPILED if there is no specialized matcher for the requirement type
+   */
+  @NotNull
+  private Predicate<String> compile() {
+    if (myParameterValue == null) return NOT_COMPILED;
+    final boolean ignoreCase = getActualIgnoreCase();
+
+    if (myRequirementType.equals(RequirementType.MATCHES) || myRequirementType.equals(RequirementType.DOES_NOT_MATCH)) {
+      final boolean expected = myRequirementType.equals(RequirementType.MATCHES);
+      final Predicate<String> matcher;
+      if (isLiteral(myParameterValue)) {
+        final String literal = myParameterValue;
+        matcher = ignoreCase ? value -> value.toLowerCase().equals(literal) : value -> value.equals(literal);
+      } else {
+        final Pattern pattern;
+        try {
+          pattern = Pattern.compile(myParameterValue);
+        } catch (PatternSyntaxException e) {
+          return value -> false; //the same as in matchValues
+        }
+        matcher = ignoreCase ? value -> pattern.matcher(value.toLowerCase()).matches() : value -> pattern.matcher(value).matches();
+      }
+      return value -> matcher.test(value) == expected;
+    }
+
+    final String constant = ignoreCase ? toLower(myParameterValue) : myParameterValue;
+    final Predicate<String> stringMatcher = getStringMatcher(myRequirementType, constant);
+    if (stringMatcher != null) {
+      return ignoreCase ? value -> stringMatcher.test(value.toLowerCase()) : stringMatcher;
+    }
+
+    final Predicate<BigDecimal> numberMatcher = compileNumberMatcher();
+    if (numberMatcher != null) {
+      return value -> {
+        final BigDecimal number = parseNumber(ignoreCase ? value.toLowerCase() : value);
+        if (number == null) return matchValues(value); //let the requirement type decide on non-numbers
+        return numberMatcher.test(number);
+      };
+    }
+    return NOT_COMPILED;
+  }
+
+  /**
+   * @return matcher for numeric comparisons with a numeric constant value, null otherwise
+   */
+  @Nullable
+  private Predicate<BigDecimal> compileNumberMatcher() {
+    final Integer expectedSign = getExpectedComparisonSign(myRequirementType);
+    if (expectedSign == null || myParameterValue == null) return null;
+    final BigDecimal threshold = parseNumber(getActualIgnoreCase() ? toLower(myParameterValue) : myParameterValue);
+    if (threshold == null) return null;
+    final boolean orEqual = myRequirementType.equals(RequirementType.NO_LESS_THAN) || myRequirementType.equals(RequirementType.NO_MORE_THAN);
+    return number -> {
+      final int sign = number.compareTo(threshold);
+      return sign == expectedSign || (orEqual && sign == 0);
+    };
+  }
+
+  @Nullable
+  private static Predicate<String> getStringMatcher(@NotNull final RequirementType requirementType, @NotNull final String constant) {
+    if (requirementType.equals(RequirementType.EQUALS)) return constant::equals;
+    if (requirementType.equals(RequirementType.DOES_NOT_EQUAL)) return value -> !constant.equals(value);
+    if (requirementType.equals(RequirementType.STARTS_WITH)) return value -> value.startsWith(constant);
+    if (requirementType.equals(RequirementType.ENDS_WITH)) return value -> value.endsWith(constant);
+    if (requirementType.equals(RequirementType.CONTAINS)) return value -> value.contains(constant);
+    if (requirementType.equals(RequirementType.DOES_NOT_CONTAIN)) return value -> !value.contains(constant);
+    return null;
+  }
+
+  /**
+   * @return sign of "value.compareTo(constant)" which satisfies the numeric requirement type, null if the type is not a numeric comparison
+   */
+  @Nullable
+  private static Integer getExpectedComparisonSign(@NotNull final RequirementType requirementType) {
+    if (requirementType.equals(RequirementType.MORE_THAN) || requirementType.equals(RequirementType.NO_LESS_THAN)) return 1;
+    if (requirementType.equals(RequirementType.LESS_THAN) || requirementType.equals(RequirementType.NO_MORE_THAN)) return -1;
+    return null;
+  }
+
+  @Nullable
+  private static BigDecimal parseNumber(@NotNull final String value) {
+    if (value.isEmpty() || value.length() > 100) return null;
+    final char first = value.charAt(0);
+    if (!(Character.isDigit(first) || first == '-' || first == '+' || first == '.')) return null; //fast check to avoid exceptions for usual strings
+    try {
+      return new BigDecimal(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static boolean isLiteral(@NotNull final String regexp) {
+    for (int i = 0; i < regexp.length(); i++) {
+      if ("\\[](){}.*+?^$|".indexOf(regexp.charAt(i)) >= 0) return false;
+    }
+    return true;
+  }
+
   @Nullable
   @Contract("!null -> !null; null -> null")
   private String toLower(@Nullable final String value) {
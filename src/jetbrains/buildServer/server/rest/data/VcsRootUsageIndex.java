@@ -0,0 +1,325 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import jetbrains.buildServer.server.rest.model.buildType.BuildTypes;
+import jetbrains.buildServer.server.rest.util.BuildTypeOrTemplate;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.vcs.SVcsRoot;
+import jetbrains.buildServer.vcs.VcsRootInstance;
+import jetbrains.buildServer.vcs.VcsRootInstanceEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Inverted index from VCS roots and VCS root instances to the build configurations and templates using them.
+ * The usages are returned in the natural order of the build configurations finder: all the build configurations first and then all the templates, each in the
+ * project manager order.
+ * The index is built on first access and is rebuilt after the set or the order of build configurations and templates changes (registration, removal, project move).
+ * When a build configuration, template or project is persisted, only the usages of the affected build configurations and templates are recalculated on the next access.
+ * The index is built and updated by one thread at a time.
+ * Permissions are not considered here: the callers should filter the items.
+ */
+public class VcsRootUsageIndex extends BuildServerAdapter {
+  static final String ENABLED_PROPERTY = "rest.vcsRootUsageIndex.enabled";
+
+  private static final String BUILD_TYPE_PREFIX = "buildType:";
+  private static final String TEMPLATE_PREFIX = "template:";
+  private static final String PROJECT_PREFIX = "project:";
+
+  @NotNull private final ProjectManager myProjectManager;
+  @NotNull private final AtomicLong myVersion = new AtomicLong();
+  @NotNull private final Set<String> myChanged = ConcurrentHashMap.newKeySet(); //keys of the persisted items, applied on the next access
+  @NotNull private final Object myLock = new Object();
+  @Nullable private Usages myUsages; //guarded by myLock
+  private int myRebuildsCount; //guarded by myLock
+
+  public VcsRootUsageIndex(@NotNull final SBuildServer server, @NotNull final ProjectManager projectManager) {
+    myProjectManager = projectManager;
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @return build configurations and templates which use any of the VCS roots (directly or via templates)
+   */
+  @NotNull
+  public List<BuildTypeOrTemplate> getUsages(@NotNull final Collection<SVcsRoot> vcsRoots) {
+    return getUsages(vcsRoots, usages -> usages.myByRoot, SVcsRoot::getId);
+  }
+
+  /**
+   * @return build configurations which use any of the VCS root instances. Templates are not included as they do not have VCS root instances.
+   */
+  @NotNull
+  public List<BuildTypeOrTemplate> getInstanceUsages(@NotNull final Collection<VcsRootInstance> vcsRootInstances) {
+    return getUsages(vcsRootInstances, usages -> usages.myByInstance, VcsRootInstance::getId);
+  }
+
+  @NotNull
+  private <T> List<BuildTypeOrTemplate> getUsages(@NotNull final Collection<T> roots,
+                                                  @NotNull final Function<Usages, Map<Long, int[]>> mapGetter,
+                                                  @NotNull final Function<T, Long> idGetter) {
+    synchronized (myLock) {
+      final Usages usages = getUsages();
+      final Map<Long, int[]> map = mapGetter.apply(usages);
+      final BitSet positions = new BitSet(usages.myItems.size());
+      for (T root : roots) {
+        final int[] rootPositions = map.get(idGetter.apply(root));
+        if (rootPositions != null) {
+          for (int position : rootPositions) {
+            positions.set(position);
+          }
+        }
+      }
+      final List<BuildTypeOrTemplate> result = new ArrayList<>(positions.cardinality());
+      for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+        result.add(usages.myItems.get(i));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Should be called under myLock
+   */
+  @NotNull
+  private Usages getUsages() {
+    final long version = myVersion.get();
+    final Usages usages = myUsages;
+    if (usages != null && usages.myVersion == version && applyChanges(usages)) {
+      return usages;
+    }
+    myChanged.clear(); //all the items are read anew
+    final List<BuildTypeOrTemplate> items = new ArrayList<>(BuildTypes.fromBuildTypes(myProjectManager.getAllBuildTypes()));
+    items.addAll(BuildTypes.fromTemplates(myProjectManager.getAllTemplates()));
+    final Usages result = new Usages(items, version);
+    myUsages = result;
+    myRebuildsCount++;
+    return result;
+  }
+
+  /**
+   * @return false if the changes cannot be applied incrementally (e.g. a template was added or removed) and the usages should be rebuilt
+   */
+  private boolean applyChanges(@NotNull final Usages usages) {
+    for (Iterator<String> it = myChanged.iterator(); it.hasNext(); ) {
+      final String key = it.next();
+      it.remove();
+      if (key.startsWith(PROJECT_PREFIX)) {
+        final SProject project = myProjectManager.findProjectById(key.substring(PROJECT_PREFIX.length()));
+        if (project == null) continue; //removal is processed on the projectRemoved event
+        //parameters of the project affect the VCS root instances of all the build configurations in the subtree
+        for (SBuildType buildType : project.getBuildTypes()) {
+          if (!usages.update(BUILD_TYPE_PREFIX + buildType.getInternalId())) return false;
+        }
+        for (BuildTypeTemplate template : project.getBuildTypeTemplates()) {
+          if (!usages.update(TEMPLATE_PREFIX + template.getInternalId())) return false;
+        }
+        if (usages.myTemplatesCount != myProjectManager.getAllTemplates().size()) return false; //templates do not have dedicated registration events
+      } else if (!usages.update(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int getRebuildsCount() {
+    synchronized (myLock) {
+      return myRebuildsCount;
+    }
+  }
+
+  private void invalidate() {
+    myVersion.incrementAndGet();
+  }
+
+  @Override
+  public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+    invalidate();
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    invalidate();
+  }
+
+  @Override
+  public void buildTypePersisted(@NotNull final SBuildType buildType) {
+    myChanged.add(BUILD_TYPE_PREFIX + buildType.getInternalId());
+  }
+
+  @Override
+  public void buildTypeTemplatePersisted(@NotNull final BuildTypeTemplate buildTemplate) {
+    myChanged.add(TEMPLATE_PREFIX + buildTemplate.getInternalId());
+    for (SBuildType buildType : buildTemplate.getUsages()) {
+      myChanged.add(BUILD_TYPE_PREFIX + buildType.getInternalId());
+    }
+  }
+
+  @Override
+  public void projectCreated(@NotNull final String projectId, final SUser user) {
+    invalidate();
+  }
+
+  @Override
+  public void projectRemoved(@NotNull final String projectId) {
+    invalidate();
+  }
+
+  @Override
+  public void projectMoved(@NotNull final SProject project, @NotNull final SProject originalParentProject) {
+    invalidate();
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    myChanged.add(PROJECT_PREFIX + projectId);
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    invalidate();
+  }
+
+  @NotNull
+  private static String getKey(@NotNull final BuildTypeOrTemplate item) {
+    return (item.isBuildType() ? BUILD_TYPE_PREFIX : TEMPLATE_PREFIX) + item.getInternalId();
+  }
+
+  private static class Usages {
+    private final long myVersion;
+    private final int myTemplatesCount;
+    @NotNull private final List<BuildTypeOrTemplate> myItems;
+    @NotNull private final Map<String, Integer> myPositions;
+    @NotNull private final long[][] myRootIds; //by position
+    @NotNull private final long[][] myInstanceIds; //by position
+    @NotNull private final Map<Long, int[]> myByRoot;
+    @NotNull private final Map<Long, int[]> myByInstance;
+
+    Usages(@NotNull final List<BuildTypeOrTemplate> items, final long version) {
+      myVersion = version;
+      myItems = items;
+      myPositions = new HashMap<>(items.size());
+      myRootIds = new long[items.size()][];
+      myInstanceIds = new long[items.size()][];
+      int templatesCount = 0;
+      final Map<Long, List<Integer>> byRoot = new HashMap<>();
+      final Map<Long, List<Integer>> byInstance = new HashMap<>();
+      for (int i = 0; i < items.size(); i++) {
+        final BuildTypeOrTemplate item = items.get(i);
+        if (item.isTemplate()) templatesCount++;
+        myPositions.put(getKey(item), i);
+        readIds(i);
+        for (long rootId : myRootIds[i]) {
+          byRoot.computeIfAbsent(rootId, id -> new ArrayList<>()).add(i); //positions are added in increasing order
+        }
+        for (long instanceId : myInstanceIds[i]) {
+          byInstance.computeIfAbsent(instanceId, id -> new ArrayList<>()).add(i);
+        }
+      }
+      myTemplatesCount = templatesCount;
+      myByRoot = toArrays(byRoot);
+      myByInstance = toArrays(byInstance);
+    }
+
+    /**
+     * Recalculates the usages of the item
+     * @return false if the item is not known
+     */
+    boolean update(@NotNull final String key) {
+      final Integer position = myPositions.get(key);
+      if (position == null) return false;
+      for (long rootId : myRootIds[position]) {
+        remove(myByRoot, rootId, position);
+      }
+      for (long instanceId : myInstanceIds[position]) {
+        remove(myByInstance, instanceId, position);
+      }
+      readIds(position);
+      for (long rootId : myRootIds[position]) {
+        add(myByRoot, rootId, position);
+      }
+      for (long instanceId : myInstanceIds[position]) {
+        add(myByInstance, instanceId, position);
+      }
+      return true;
+    }
+
+    private void readIds(final int position) {
+      final BuildTypeOrTemplate item = myItems.get(position);
+      final Set<Long> rootIds = new LinkedHashSet<>();
+      final Set<Long> instanceIds = new LinkedHashSet<>();
+      for (VcsRootInstanceEntry entry : item.getVcsRootInstanceEntries()) {
+        rootIds.add(entry.getVcsRoot().getParent().getId());
+        if (item.isBuildType()) {
+          instanceIds.add(entry.getVcsRoot().getId());
+        }
+      }
+      myRootIds[position] = rootIds.stream().mapToLong(Long::longValue).toArray();
+      myInstanceIds[position] = instanceIds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static void add(@NotNull final Map<Long, int[]> map, final long id, final int position) {
+      final int[] positions = map.get(id);
+      if (positions == null) {
+        map.put(id, new int[]{position});
+        return;
+      }
+      int index = Arrays.binarySearch(positions, position);
+      if (index >= 0) return;
+      index = -index - 1;
+      final int[] result = new int[positions.length + 1];
+      System.arraycopy(positions, 0, result, 0, index);
+      result[index] = position;
+      System.arraycopy(positions, index, result, index + 1, positions.length - index);
+      map.put(id, result);
+    }
+
+    private static void remove(@NotNull final Map<Long, int[]> map, final long id, final int position) {
+      final int[] positions = map.get(id);
+      if (positions == null) return;
+      final int index = Arrays.binarySearch(positions, position);
+      if (index < 0) return;
+      if (positions.length == 1) {
+        map.remove(id);
+        return;
+      }
+      final int[] result = new int[positions.length - 1];
+      System.arraycopy(positions, 0, result, 0, index);
+      System.arraycopy(positions, index + 1, result, index, positions.length - index - 1);
+      map.put(id, result);
+    }
+
+    @NotNull
+    private static Map<Long, int[]> toArrays(@NotNull final Map<Long, List<Integer>> map) {
+      final Map<Long, int[]> result = new HashMap<>(map.size());
+      for (Map.Entry<Long, List<Integer>> entry : map.entrySet()) {
+        result.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+      }
+      return result;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.List;
 import jetbrains.buildServer.BuildProject;
 import jetbrains.buildServer.BuildType;
+import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.responsibility.*;
 import jetbrains.buildServer.server.rest.data.*;
 import jetbrains.buildServer.server.rest.data.problem.ProblemFinder;
@@ -67,6 +68,7 @@ public class InvestigationFinder extends AbstractFinder<InvestigationWrapper> {
   private final BuildTypeResponsibilityFacade myBuildTypeResponsibilityFacade;
   private final TestNameResponsibilityFacade myTestNameResponsibilityFacade;
   private final BuildProblemResponsibilityFacade myBuildProblemResponsibilityFacade;
+  @NotNull private final ServiceLocator myServiceLocator;
 
   public InvestigationFinder(final ProjectFinder projectFinder,
                              final BuildTypeFinder buildTypeFinder,
@@ -75,7 +77,8 @@ public class InvestigationFinder extends AbstractFinder<InvestigationWrapper> {
                              final UserFinder userFinder,
                              final BuildTypeResponsibilityFacade buildTypeResponsibilityFacade,
                              final TestNameResponsibilityFacade testNameResponsibilityFacade,
-                             final BuildProblemResponsibilityFacade buildProblemResponsibilityFacade) {
+                             final BuildProblemResponsibilityFacade buildProblemResponsibilityFacade,
+                             @NotNull final ServiceLocator serviceLocator) {
     super(new String[]{ASSIGNEE, REPORTER, TYPE, STATE, SINCE_DATE, ASSIGNMENT_PROJECT, AFFECTED_PROJECT, BUILD_TYPE, TEST_DIMENSION, PROBLEM_DIMENSION});
     myProjectFinder = projectFinder;
     myBuildTypeFinder = buildTypeFinder;
@@ -85,6 +88,7 @@ public class InvestigationFinder extends AbstractFinder<InvestigationWrapper> {
     myBuildTypeResponsibilityFacade = buildTypeResponsibilityFacade;
     myTestNameResponsibilityFacade = testNameResponsibilityFacade;
     myBuildProblemResponsibilityFacade = buildProblemResponsibilityFacade;
+    myServiceLocator = serviceLocator;
   }
 
   @NotNull
@@ -226,8 +230,8 @@ public class InvestigationFinder extends AbstractFinder<InvestigationWrapper> {
           final BuildProject assignmentProject = item.getAssignmentProject();
           final BuildType assignmentBuildType = item.getAssignmentBuildType();
           final BuildProject buildTypeProject = assignmentBuildType != null ? myProjectFinder.findProjectByInternalId(assignmentBuildType.getProjectId()) : null;
-          return (assignmentProject != null && ProjectFinder.isSameOrParent(project, assignmentProject)) ||
-                 (buildTypeProject != null && ProjectFinder.isSameOrParent(project, buildTypeProject));
+          return (assignmentProject != null && myProjectFinder.isSameOrParent(project, assignmentProject)) ||
+                 (buildTypeProject != null && myProjectFinder.isSameOrParent(project, buildTypeProject));
         }
       });
     }
@@ -282,16 +286,44 @@ public class InvestigationFinder extends AbstractFinder<InvestigationWrapper> {
     final String affectedProjectDimension = locator.getSingleDimensionValue(AFFECTED_PROJECT);
     if (affectedProjectDimension != null){
       @NotNull final SProject project = myProjectFinder.getItem(affectedProjectDimension);
+      final List<InvestigationWrapper> indexed = getIndexedInvestigations(user, locator, project);
+      if (indexed != null) return getItemHolder(indexed);
       return getItemHolder(getInvestigationWrappersForProjectWithSubprojects(project, user));
     }
 
     if (user != null){
+      final List<InvestigationWrapper> indexed = getIndexedInvestigations(user, locator, null);
+      if (indexed != null) return getItemHolder(indexed);
       return getItemHolder(getInvestigationWrappersForProjectWithSubprojects(myProjectFinder.getRootProject(), user));
     }
     locator.markUnused(ASSIGNEE);
+    final List<InvestigationWrapper> indexed = getIndexedInvestigations(null, locator, null);
+    if (indexed != null) return getItemHolder(indexed);
     return getItemHolder(getInvestigationWrappersForProjectWithSubprojects(myProjectFinder.getRootProject(), null));
   }
 
+  /**
+   * @param affectedProject null for all the projects
+   * @return investigations from the index narrowed by the assignee, type and affected project subtree; null if the index cannot be used
+   */
+  @Nullable
+  private List<InvestigationWrapper> getIndexedInvestigations(@Nullable final User user, @NotNull final Locator locator, @Nullable final SProject affectedProject) {
+    final InvestigationIndex index = getInvestigationIndex();
+    if (index == null) return null;
+
+    final String typeDimension = locator.getSingleDimensionValue(TYPE);
+    final boolean isKnownType = typeDimension != null && ProblemTarget.getKnownTypesForInvestigation().stream().anyMatch(s -> typeDimension.equalsIgnoreCase(s));
+    final boolean isRoot = affectedProject == null || myProjectFinder.getRootProject().getProjectId().equals(affectedProject.getProjectId());
+    //unknown type is reported by the filter; for the root project, investigations without a project are also included
+    return index.getInvestigations(user, isKnownType ? typeDimension : null, isRoot ? null : affectedProject);
+  }
+
+  @Nullable
+  private InvestigationIndex getInvestigationIndex() {
+    if (!InvestigationIndex.isEnabled()) return null;
+    return myServiceLocator.findSingletonService(InvestigationIndex.class);
+  }
+
   public List<InvestigationWrapper> getInvestigationWrappersForBuildType(final SBuildType buildType) {
     final ResponsibilityEntry responsibilityInfo = buildType.getResponsibilityInfo();
     final ResponsibilityEntry.State state = responsibilityInfo.getState();
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.data.investigations;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import jetbrains.buildServer.BuildProject;
+import jetbrains.buildServer.BuildType;
+import jetbrains.buildServer.responsibility.*;
+import jetbrains.buildServer.server.rest.data.ProjectTreeIndex;
+import jetbrains.buildServer.server.rest.model.buildType.ProblemTarget;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.problems.BuildProblemInfo;
+import jetbrains.buildServer.tests.TestName;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Snapshot of all the investigations grouped by assignee and type, used to find the investigations affecting a project subtree without
+ * querying the responsibilities of each subproject.
+ * Within a group the investigations are ordered by the depth-first position of their project (see {@link ProjectTreeIndex}),
+ * so the investigations affecting a subtree form a continuous range.
+ * The snapshot is built on first access and becomes stale after any investigation change, projects hierarchy change or after a timeout
+ * (as some changes, e.g. user removal, do not have a dedicated event).
+ * A stale snapshot is rebuilt by one thread at a time and not more often than the configured interval, so a series of changes does not cause a series of full reloads.
+ * While there is no actual snapshot, the index is not used and the callers query the investigations of the project subtree.
+ * Permissions are not considered here: the callers should filter the items.
+ */
+public class InvestigationIndex extends BuildServerAdapter {
+  static final String ENABLED_PROPERTY = "rest.investigationIndex.enabled";
+  static final String MAX_AGE_PROPERTY = "rest.investigationIndex.maxAgeSeconds";
+  static final String MIN_REBUILD_INTERVAL_PROPERTY = "rest.investigationIndex.minRebuildIntervalSeconds";
+
+  private static final String ANY = "";
+  private static final int NO_PROJECT_POSITION = -1;
+
+  @NotNull private final ProjectTreeIndex myProjectTreeIndex;
+  @NotNull private final BuildTypeResponsibilityFacade myBuildTypeResponsibilityFacade;
+  @NotNull private final TestNameResponsibilityFacade myTestNameResponsibilityFacade;
+  @NotNull private final BuildProblemResponsibilityFacade myBuildProblemResponsibilityFacade;
+  @NotNull private final AtomicLong myVersion = new AtomicLong();
+  @NotNull private final ReentrantLock myRebuildLock = new ReentrantLock();
+  @Nullable private volatile Snapshot mySnapshot;
+
+  public InvestigationIndex(@NotNull final SBuildServer server,
+                            @NotNull final ProjectTreeIndex projectTreeIndex,
+                            @NotNull final BuildTypeResponsibilityFacade buildTypeResponsibilityFacade,
+                            @NotNull final TestNameResponsibilityFacade testNameResponsibilityFacade,
+                            @NotNull final BuildProblemResponsibilityFacade buildProblemResponsibilityFacade) {
+    myProjectTreeIndex = projectTreeIndex;
+    myBuildTypeResponsibilityFacade = buildTypeResponsibilityFacade;
+    myTestNameResponsibilityFacade = testNameResponsibilityFacade;
+    myBuildProblemResponsibilityFacade = buildProblemResponsibilityFacade;
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY) && ProjectTreeIndex.isEnabled();
+  }
+
+  /**
+   * @param assignee        null to get the investigations assigned to any user
+   * @param type            investigation type as returned by {@link ProblemTarget#getType(InvestigationWrapper)}, null for any type
+   * @param affectedProject project whose subtree the investigations should affect, null for all the investigations
+   * @return investigations in the order of their projects in the hierarchy,
+   * null if the index cannot be used at the moment (the snapshot is stale and is not rebuilt yet) or the project is not known to the index (e.g. just created)
+   */
+  @Nullable
+  public List<InvestigationWrapper> getInvestigations(@Nullable final User assignee, @Nullable final String type, @Nullable final SProject affectedProject) {
+    final Snapshot snapshot = getSnapshot();
+    if (snapshot == null) return null;
+    final Group group = snapshot.myGroups.get(getKey(assignee == null ? ANY : String.valueOf(assignee.getId()), type == null ? ANY : type.toLowerCase()));
+    if (group == null) return Collections.emptyList();
+    if (affectedProject == null) return group.getAll();
+
+    final int[] interval = snapshot.myTree.getSubtreeInterval(affectedProject.getProjectId());
+    if (interval == null) return null;
+    return group.getRange(interval[0], interval[1]);
+  }
+
+  /**
+   * @return actual snapshot or null if it is stale and cannot be rebuilt now
+   */
+  @Nullable
+  private Snapshot getSnapshot() {
+    final Snapshot current = mySnapshot;
+    if (current != null) {
+      if (!isStale(current)) return current;
+      if (System.currentTimeMillis() - current.myTimestamp < TeamCityProperties.getInteger(MIN_REBUILD_INTERVAL_PROPERTY, 10) * 1000L) return null;
+    }
+    if (!myRebuildLock.tryLock()) return null; //is being rebuilt by another thread
+    try {
+      Snapshot result = mySnapshot;
+      if (result == null || isStale(result)) {
+        result = new Snapshot(myVersion.get(), myProjectTreeIndex.getTree(), getAllInvestigations());
+        mySnapshot = result;
+      }
+      return isStale(result) ? null : result; //changed while being rebuilt
+    } finally {
+      myRebuildLock.unlock();
+    }
+  }
+
+  private boolean isStale(@NotNull final Snapshot snapshot) {
+    return snapshot.myVersion != myVersion.get() || snapshot.myTree != myProjectTreeIndex.getTree() ||
+           System.currentTimeMillis() - snapshot.myTimestamp > TeamCityProperties.getInteger(MAX_AGE_PROPERTY, 300) * 1000L;
+  }
+
+  @NotNull
+  private List<InvestigationWrapper> getAllInvestigations() {
+    final List<InvestigationWrapper> result = new ArrayList<>();
+    for (BuildTypeResponsibilityEntry entry : myBuildTypeResponsibilityFacade.getUserBuildTypeResponsibilities(null, null)) {
+      result.add(new InvestigationWrapper(entry));
+    }
+    for (TestNameResponsibilityEntry entry : myTestNameResponsibilityFacade.getUserTestNameResponsibilities(null, null)) {
+      result.add(new InvestigationWrapper(entry));
+    }
+    for (BuildProblemResponsibilityEntry entry : myBuildProblemResponsibilityFacade.getUserBuildProblemResponsibilities(null, null)) {
+      result.add(new InvestigationWrapper(entry));
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String getKey(@NotNull final String assigneeKey, @NotNull final String typeKey) {
+    return assigneeKey + ":" + typeKey;
+  }
+
+  private void invalidate() {
+    myVersion.incrementAndGet();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SBuildType bt, @NotNull final ResponsibilityEntry oldValue, @NotNull final ResponsibilityEntry newValue) {
+    invalidate();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SProject project,
+                                 @Nullable final TestNameResponsibilityEntry oldValue,
+                                 @NotNull final TestNameResponsibilityEntry newValue,
+                                 final boolean isUserAction) {
+    invalidate();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SProject project,
+                                 @NotNull final Collection<TestName> testNames,
+                                 @NotNull final ResponsibilityEntry entry,
+                                 final boolean isUserAction) {
+    invalidate();
+  }
+
+  @Override
+  public void responsibleChanged(@NotNull final SProject project, @NotNull final Collection<BuildProblemInfo> buildProblems, @Nullable final ResponsibilityEntry entry) {
+    invalidate();
+  }
+
+  @Override
+  public void responsibleRemoved(@NotNull final SProject project, @NotNull final TestNameResponsibilityEntry entry) {
+    invalidate();
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    invalidate();
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    invalidate();
+  }
+
+  private static class Snapshot {
+    private final long myVersion;
+    private final long myTimestamp = System.currentTimeMillis();
+    @NotNull private final ProjectTreeIndex.Tree myTree;
+    @NotNull private final Map<String, Group> myGroups = new HashMap<>();
+
+    Snapshot(final long version, @NotNull final ProjectTreeIndex.Tree tree, @NotNull final List<InvestigationWrapper> investigations) {
+      myVersion = version;
+      myTree = tree;
+      for (InvestigationWrapper investigation : investigations) {
+        final int position = getPosition(investigation);
+        final String assigneeKey = String.valueOf(investigation.getResponsibleUser().getId());
+        final String typeKey = ProblemTarget.getType(investigation).toLowerCase();
+        for (String key : new String[]{getKey(ANY, ANY), getKey(ANY, typeKey), getKey(assigneeKey, ANY), getKey(assigneeKey, typeKey)}) {
+          myGroups.computeIfAbsent(key, k -> new Group()).add(investigation, position);
+        }
+      }
+      for (Group group : myGroups.values()) {
+        group.sort();
+      }
+    }
+
+    private int getPosition(@NotNull final InvestigationWrapper investigation) {
+      String projectId = null;
+      final BuildProject assignmentProject = investigation.getAssignmentProject();
+      if (assignmentProject != null) {
+        projectId = assignmentProject.getProjectId();
+      } else {
+        final BuildType assignmentBuildType = investigation.getAssignmentBuildType();
+        if (assignmentBuildType != null) projectId = assignmentBuildType.getProjectId();
+      }
+      final int[] interval = projectId == null ? null : myTree.getSubtreeInterval(projectId);
+      return interval == null ? NO_PROJECT_POSITION : interval[0];
+    }
+  }
+
+  /**
+   * Investigations in the original order and the same investigations ordered by the project position
+   */
+  private static class Group {
+    @NotNull private final List<InvestigationWrapper> myAll = new ArrayList<>();
+    @NotNull private final List<Integer> myPositions = new ArrayList<>();
+    private int[] mySortedPositions;
+    private InvestigationWrapper[] mySorted;
+
+    void add(@NotNull final InvestigationWrapper investigation, final int position) {
+      myAll.add(investigation);
+      myPositions.add(position);
+    }
+
+    void sort() {
+      final Integer[] order = new Integer[myAll.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparingInt(myPositions::get)); //stable: keeps the original order within a project
+      mySortedPositions = new int[order.length];
+      mySorted = new InvestigationWrapper[order.length];
+      for (int i = 0; i < order.length; i++) {
+        mySortedPositions[i] = myPositions.get(order[i]);
+        mySorted[i] = myAll.get(order[i]);
+      }
+    }
+
+    @NotNull
+    List<InvestigationWrapper> getAll() {
+      return Collections.unmodifiableList(myAll);
+    }
+
+    @NotNull
+    List<InvestigationWrapper> getRange(final int fromPosition, final int toPosition) {
+      int start = Arrays.binarySearch(mySortedPositions, fromPosition);
+      if (start < 0) {
+        start = -start - 1;
+      } else {
+        while (start > 0 && mySortedPositions[start - 1] == fromPosition) start--; //binary search can return any of the equal elements
+      }
+      int end = start;
+      while (end < mySortedPositions.length && mySortedPositions[end] <= toPosition) end++;
+      return Collections.unmodifiableList(Arrays.asList(mySorted).subList(start, end));
+    }
+  }
+}
@@ -125,7 +125,7 @@ public class MuteFinder extends DelegatingFinder<MuteInfo> {
       dimensionProjects(AFFECTED_PROJECT, myServiceLocator).description("project affected by the mutes")
                                                            .filter((projects, item) -> {
                                                              final SProject assignmentProject = item.getProject();
-                                                             return (assignmentProject != null && ProjectFinder.isSameOrParent(projects, assignmentProject));
+                                                             return (assignmentProject != null && myProjectFinder.isSameOrParent(projects, assignmentProject));
                                                            }).toItems(dimension -> dimension.stream().flatMap(p -> getMuteInfosForProject(p)).collect(Collectors.toList()));
 
       dimensionProjects(PROJECT, myServiceLocator).description("project in which mute is assigned").valueForDefaultFilter(muteInfo -> Collections.singleton(muteInfo.getProject())); //todo: add toItems?
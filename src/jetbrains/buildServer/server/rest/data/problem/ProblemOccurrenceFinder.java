@@ -244,7 +244,7 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
       @NotNull final SProject project = myProjectFinder.getItem(affectedProjectDimension);
       result.add(new FilterConditionChecker<BuildProblem>() {
         public boolean isIncluded(@NotNull final BuildProblem item) {
-          return ProjectFinder.isSameOrParent(project, myProjectFinder.getItem(item.getProjectId()));
+          return myProjectFinder.isSameOrParent(project, myProjectFinder.getItem(item.getProjectId()));
         }
       });
     }
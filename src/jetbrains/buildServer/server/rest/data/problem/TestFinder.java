@@ -248,7 +248,7 @@ public class TestFinder extends AbstractFinder<STest> {
             for (SBuildType buildType : buildTypes) {
               if (buildType == null) continue;
               if (mutedInBuildTypes.contains(buildType)) return true;
-              if (ProjectFinder.isSameOrParent(mutedInProjects, buildType.getProject())) return true;
+              if (myProjectFinder.isSameOrParent(mutedInProjects, buildType.getProject())) return true;
             }
             return false;
           }
@@ -262,7 +262,7 @@ public class TestFinder extends AbstractFinder<STest> {
             CurrentMuteInfo muteInfo = item.getCurrentMuteInfo();
             if (muteInfo == null) return false;
             Set<SProject> mutedInProjects = muteInfo.getProjectsMuteInfo().keySet();
-            return projects.stream().anyMatch(project -> ProjectFinder.isSameOrParent(mutedInProjects, project));
+            return projects.stream().anyMatch(project -> myProjectFinder.isSameOrParent(mutedInProjects, project));
           }
         });
       }
@@ -87,6 +87,12 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     return TestOccurrenceFinder.getTestRunLocator(sTestRun);
   }
 
+  @Nullable
+  @Override
+  public String getItemCursorKey(@NotNull final STestRun sTestRun) {
+    return sTestRun.getBuild().getBuildId() + "_" + sTestRun.getTestRunId();
+  }
+
   public static String getTestRunLocator(final @NotNull STestRun testRun) {
     return Locator.createEmptyLocator().setDimension(DIMENSION_ID, String.valueOf(testRun.getTestRunId())).
       setDimension(BUILD, BuildRequest.getBuildLocator(testRun.getBuild())).getStringRepresentation();
@@ -181,11 +187,13 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
 
       String testDimension = locator.getSingleDimensionValue(TEST);
       if (testDimension == null) {
+        final Boolean expandInvocations = locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS);
         AggregatingItemHolder<STestRun> result = new AggregatingItemHolder<>();
         for (BuildPromotion build : builds) {
           SBuild associatedBuild = build.getAssociatedBuild();
           if (associatedBuild != null) {
-            result.add(getPossibleExpandedTestsHolder(getBuildStatistics(associatedBuild).getAllTests(), locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS)));
+            //build statistics are retrieved lazily to allow processing in parallel and to stop on reaching count
+            result.add(processor -> getPossibleExpandedTestsHolder(getBuildStatistics(associatedBuild).getAllTests(), expandInvocations).process(processor));
           }
         }
         return result;
@@ -363,6 +371,15 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     return result;
   }
 
+  /**
+   * The checkers only read the data prepared when the filter is created and the test runs themselves.
+   * The invocations condition searches the invocations via the finder for each item, so it is not processed in parallel.
+   */
+  @Override
+  public boolean isFilterThreadSafe(@NotNull final Locator locator) {
+    return !locator.isAnyPresent(INVOCATIONS);
+  }
+
   @NotNull
   @Override
   public ItemFilter<STestRun> getFilter(@NotNull final Locator locator) {
@@ -519,7 +536,7 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     if (currentMuteInfo.getBuildTypeMuteInfo().keySet().contains(buildType)) return true;
 
     final Set<SProject> projects = currentMuteInfo.getProjectsMuteInfo().keySet();
-    return ProjectFinder.isSameOrParent(projects, buildType.getProject());
+    return myProjectFinder.isSameOrParent(projects, buildType.getProject());
   }
 
   public boolean isCurrentlyInvestigated(@NotNull final STestRun item) {  //todo: TeamCity API (MP): is there an API way to figure out there is an investigation for a STestRun ?
@@ -528,7 +545,7 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     for (TestNameResponsibilityEntry testResponsibility : testResponsibilities) {
       final SBuildType buildType = item.getBuild().getBuildType();
       if (buildType != null) {  //might need to log this
-        if (ProjectFinder.isSameOrParent(testResponsibility.getProject(), buildType.getProject())) {
+        if (myProjectFinder.isSameOrParent(testResponsibility.getProject(), buildType.getProject())) {
           return true;
         }
       }
@@ -613,6 +630,12 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
       return myDelegate.getItemLocator(item);
     }
 
+    @Nullable
+    @Override
+    public String getItemCursorKey(@NotNull final T item) {
+      return myDelegate.getItemCursorKey(item);
+    }
+
     @Nullable
     @Override
     public Set<T> createContainerSet() {
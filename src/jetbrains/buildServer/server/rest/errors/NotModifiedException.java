@@ -0,0 +1,36 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.errors;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown to reply with "304 Not Modified" when the entity matches the validator sent by the client
+ */
+public class NotModifiedException extends RuntimeException {
+  @NotNull private final String myETag;
+
+  public NotModifiedException(@NotNull final String eTag) {
+    super("Not modified, ETag: " + eTag);
+    myETag = eTag;
+  }
+
+  @NotNull
+  public String getETag() {
+    return myETag;
+  }
+}
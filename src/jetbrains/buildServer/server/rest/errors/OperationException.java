@@ -28,4 +28,8 @@ public class OperationException extends RuntimeException {
   public OperationException(final String message, final Exception cause) {
     super(message, cause);
   }
+
+  public OperationException(final String message, final Throwable cause) {
+    super(message, cause);
+  }
 }
@@ -17,16 +17,16 @@
 package jetbrains.buildServer.server.rest.model;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import jetbrains.buildServer.server.rest.data.Finder;
+import jetbrains.buildServer.server.rest.data.MultipleOperationJobs;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ConvertingList;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -43,6 +43,18 @@ public class MultipleOperationResult {
     @XmlAttribute
     public Integer errorCount;
 
+    /**
+     * Attributes of the operation run in background, see {@link jetbrains.buildServer.server.rest.data.MultipleOperationJobs}
+     */
+    @XmlAttribute
+    public String id;
+    @XmlAttribute
+    public Boolean finished;
+    @XmlAttribute
+    public Integer processedCount;
+    @XmlAttribute
+    public String href;
+
     @XmlElement(name = "operationResult")
     public List<OperationResult> operationResults;
 
@@ -53,14 +65,23 @@ public class MultipleOperationResult {
     public MultipleOperationResult(Data data, @NotNull final Fields fields, @NotNull final BeanContext beanContext) {
       operationResults = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("operationResult"), () -> {
         Fields nestedFields = fields.getNestedField("operationResult", Fields.LONG, Fields.LONG);
-        return data.myData.stream().map(d -> new OperationResult(d, nestedFields, beanContext)).collect(Collectors.toList());
+        return ConvertingList.create(data.myData, d -> new OperationResult(d, nestedFields, beanContext));
       });
       count = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("count"), data.myData.size());
       errorCount = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("errorCount"), data.myErrorCount);
     }
 
+    public MultipleOperationResult(@NotNull final MultipleOperationJobs.Job job, @NotNull final String href, @NotNull final Fields fields, @NotNull final BeanContext beanContext) {
+      this(job.getResultData(), fields, beanContext);
+      count = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("count"), job.getCount());
+      id = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("id"), job.getId());
+      finished = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("finished"), job.isFinished());
+      processedCount = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("processedCount"), job.getProcessedCount());
+      this.href = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("href"), beanContext.getApiUrlBuilder().transformRelativePath(href));
+    }
+
     public static class Data {
-      private final Collection<OperationResult.Data> myData;
+      private final List<OperationResult.Data> myData;
       private int myErrorCount;
 
       public Data(@NotNull List<OperationResult.Data> data, final int errorCount) {
@@ -68,6 +89,14 @@ public class MultipleOperationResult {
         myErrorCount = errorCount;
       }
 
+      public int getCount() {
+        return myData.size();
+      }
+
+      public int getErrorCount() {
+        return myErrorCount;
+      }
+
       @NotNull
       public static <T> Data process(@Nullable final String locator, @NotNull final Finder<T> finder, @NotNull Consumer<T> action) {
         if (locator == null){
@@ -64,5 +64,9 @@ public class OperationResult {
     public static Data createError(@NotNull String errorMessage, @NotNull final RelatedEntity.Entity related) {
       return new Data(errorMessage, related);
     }
+
+    public boolean isError() {
+      return message != null;
+    }
   }
 }
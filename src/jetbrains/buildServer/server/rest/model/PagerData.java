@@ -22,6 +22,8 @@ import javax.ws.rs.core.UriBuilder;
 import jetbrains.buildServer.server.rest.data.AbstractFinder;
 import jetbrains.buildServer.server.rest.data.Locator;
 import jetbrains.buildServer.server.rest.data.PagedSearchResult;
+import jetbrains.buildServer.server.rest.data.PagingCursor;
+import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
 import jetbrains.buildServer.server.rest.errors.OperationException;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.NotNull;
@@ -39,6 +41,8 @@ public class PagerData {
 
   public static final String START = "start";
   public static final String COUNT = "count";
+  public static final String CURSOR = "$cursor";
+  static final String CURSOR_ENABLED_PROPERTY = "rest.page.cursor.enabled";
   @NotNull
   private final String myHref;
   @Nullable
@@ -61,13 +65,14 @@ public class PagerData {
    * @param start                number of the starting item on the current page
    * @param count                count of the items on a page
    * @param currentPageRealCount number of items on the current page
-   * @param locatorText          if specified, 'locatorQueryParameterName' should also be specified, replaces/adds start/count in the locator query parameter instead of the URL query parameters
+   * @param originalLocatorText  if specified, 'locatorQueryParameterName' should also be specified, replaces/adds start/count in the locator query parameter instead of the URL query parameters
    * @param locatorQueryParameterName
    */
   public PagerData(@NotNull final UriBuilder uriBuilder,
                    @NotNull final String contextPath,
                    @NotNull final PagedSearchResult pagedResult,
-                   @Nullable final String locatorText, @Nullable final String locatorQueryParameterName) {
+                   @Nullable final String originalLocatorText, @Nullable final String locatorQueryParameterName) {
+    final String locatorText = removeDimension(originalLocatorText, CURSOR); //links are based on the start, the cursor is set for the next page only
     final Long start = pagedResult.myStart;
     final Long count = pagedResult.myCount == null ? null : Long.valueOf(pagedResult.myCount);
     long currentPageRealCount = pagedResult.myActualCount;
@@ -114,10 +119,32 @@ public class PagerData {
       final String newLocator = Locator.setDimension(nextHref.getCurrentLocatorText(), AbstractFinder.DIMENSION_LOOKUP_LIMIT, getNextLookUpLimit(pagedResult.myLookupLimit));
       nextHref = new UriModification(nextHref.getBuilder().replaceQueryParam(locatorQueryParameterName, Util.encodeUrlParamValue(newLocator)), newLocator);
     }
+    final PagingCursor nextPageCursor = pagedResult.getNextPageCursor();
+    if (nextHref != null && nextPageCursor != null && !StringUtil.isEmpty(locatorQueryParameterName) &&
+        TeamCityProperties.getBooleanOrTrue(CURSOR_ENABLED_PROPERTY)) {
+      //continue the scan from the last processed item instead of skipping "start" items; lookupLimit is not increased as the items before the cursor are not counted
+      final String locatorWithCursor = Locator.setDimension(removeDimension(locatorText, START), CURSOR, nextPageCursor.toString());
+      final String newLocator = count == null ? locatorWithCursor : Locator.setDimension(locatorWithCursor, COUNT, count);
+      nextHref = new UriModification(uriBuilder.clone().replaceQueryParam(START, null).replaceQueryParam(locatorQueryParameterName, Util.encodeUrlParamValue(newLocator)),
+                                     newLocator);
+    }
     myNextHref = nextHref == null ? null : getRelativePath(nextHref.getBuilder().build(), contextPath);
     myPrevHref = prevHref == null ? null : getRelativePath(prevHref.build(), contextPath);
   }
 
+  @Nullable
+  private static String removeDimension(@Nullable final String locatorText, @NotNull final String dimensionName) {
+    if (locatorText == null) return null;
+    try {
+      final Locator locator = new Locator(locatorText);
+      if (locator.isSingleValue() || !locator.removeDimension(dimensionName)) return locatorText;
+      final String result = locator.getStringRepresentation();
+      return StringUtil.isEmpty(result) ? null : result;
+    } catch (LocatorProcessException e) {
+      return locatorText;
+    }
+  }
+
   private long getNextLookUpLimit(final long currentLookupLimit) {
     final long exponentialNextStep = Math.round((double)currentLookupLimit * TeamCityProperties.getFloat("rest.page.nextLookupLimitMultiplier", 2.0f)) - currentLookupLimit;
     final long maxNextStep = TeamCityProperties.getLong("rest.page.nextLookupLimitMaxStep", 5000);
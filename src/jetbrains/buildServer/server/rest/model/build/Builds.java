@@ -19,7 +19,6 @@ package jetbrains.buildServer.server.rest.model.build;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -31,6 +30,7 @@ import jetbrains.buildServer.server.rest.model.ItemsProviders;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.model.Util;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ConvertingList;
 import jetbrains.buildServer.server.rest.util.DefaultValueAware;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import jetbrains.buildServer.serverSide.BuildPromotion;
@@ -71,9 +71,10 @@ public class Builds implements DefaultValueAware {
                 @NotNull final Fields fields, @NotNull final BeanContext beanContext) {
     ItemsProviders.ItemsRetriever<BuildPromotion> data = buildsData.get(fields.getLocator());
 
-    builds = ValueWithDefault.decideDefault(fields.isIncluded("build", false, true),
-                                            () -> Util.resolveNull(data.getItems(), (items) -> items.stream().map(
-                                              b -> new Build(b, fields.getNestedField("build"), beanContext)).collect(Collectors.toList())));
+    builds = ValueWithDefault.decideDefault(fields.isIncluded("build", false, true), () -> {
+      final Fields buildFields = fields.getNestedField("build");
+      return Util.resolveNull(data.getItems(), (items) -> ConvertingList.create(items, b -> new Build(b, buildFields, beanContext)));
+    });
 
     PagerData pagerData = data.getPagerData();
     if (pagerData != null) {
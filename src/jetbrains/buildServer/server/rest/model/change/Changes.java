@@ -18,7 +18,6 @@ package jetbrains.buildServer.server.rest.model.change;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -27,6 +26,7 @@ import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.util.BeanContext;
 import jetbrains.buildServer.server.rest.util.CachingValue;
+import jetbrains.buildServer.server.rest.util.ConvertingList;
 import jetbrains.buildServer.server.rest.util.DefaultValueAware;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import jetbrains.buildServer.vcs.SVcsModification;
@@ -71,8 +71,10 @@ public class Changes implements DefaultValueAware {
 
     if (myModifications != null) {
       myChanges = ValueWithDefault.decideDefault(myFields.isIncluded(CHANGE, myModifications.isCached(), false, null),
-                                                 () -> myModifications.get().stream().map(root -> new Change(root, myFields.getNestedField(CHANGE), myBeanContext))
-                                                                 .collect(Collectors.toList()));
+                                                 () -> {
+                                                   final Fields changeFields = myFields.getNestedField(CHANGE);
+                                                   return ConvertingList.create(myModifications.get(), root -> new Change(root, changeFields, myBeanContext));
+                                                 });
 
       //for performance reasons: include count only when changes are to be calculated
       myCount = ValueWithDefault.decideIncludeByDefault(myFields.isIncluded(COUNT, myModifications.isCached(), false, myChanges != null),
@@ -27,6 +27,7 @@ import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.model.build.OccurrencesSummary;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ConvertingList;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import jetbrains.buildServer.serverSide.STestRun;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
@@ -76,11 +77,8 @@ public class TestOccurrences extends OccurrencesSummary {
           if (TeamCityProperties.getBoolean("rest.beans.testOccurrences.sortByNameAndNew")){
             Collections.sort(sortedItems, STestRun.NEW_FIRST_NAME_COMPARATOR); //if we are to support customizable order, this should be done in the TestOccurrenceFinder
           }
-          final ArrayList<TestOccurrence> result = new ArrayList<TestOccurrence>(sortedItems.size());
-          for (STestRun item : sortedItems) {
-            result.add(new TestOccurrence(item, beanContext, fields.getNestedField("testOccurrence")));
-          }
-          return result;
+          final Fields testOccurrenceFields = fields.getNestedField("testOccurrence");
+          return ConvertingList.create(sortedItems, item -> new TestOccurrence(item, beanContext, testOccurrenceFields));
         }
       });
       this.count = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("count", true), itemsP.size());
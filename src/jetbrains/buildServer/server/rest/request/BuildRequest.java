@@ -22,6 +22,7 @@ import io.swagger.annotations.ApiOperation;
 import java.io.*;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.servlet.ServletContext;
@@ -51,6 +52,7 @@ import jetbrains.buildServer.server.rest.model.problem.ProblemOccurrences;
 import jetbrains.buildServer.server.rest.model.problem.TestOccurrences;
 import jetbrains.buildServer.server.rest.util.AggregatedBuildArtifactsElementBuilder;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.EntityTags;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.TriggeredBy;
 import jetbrains.buildServer.serverSide.auth.*;
@@ -96,6 +98,7 @@ public class BuildRequest {
 
   public static final String BUILDS_ROOT_REQUEST_PATH = "/builds";
   public static final String API_BUILDS_URL = Constants.API_URL + BUILDS_ROOT_REQUEST_PATH;
+  private static final String MULTIPLE_OPERATIONS = "operations";
 
   public static final String ARTIFACTS = "/artifacts";
   public static final String AGGREGATED = "/aggregated";
@@ -251,8 +254,10 @@ public class BuildRequest {
   @GET
   @Path("/{buildLocator}")
   @Produces({"application/xml", "application/json"})
-  public Build serveBuild(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+  public Build serveBuild(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields,
+                          @Context HttpServletRequest request, @Context HttpServletResponse response) {
     BuildPromotion build = myBuildFinder.getBuildPromotion(null, buildLocator);
+    EntityTags.checkNotModified(request, response, myBeanContext.getSingletonService(ServerDataVersions.class).getVersion(build, fields));
     return new Build(build,  new Fields(fields), myBeanContext);
   }
 
@@ -878,12 +883,17 @@ public class BuildRequest {
   @DELETE
   @Path("/multiple/{buildLocator}")
   @Produces({"application/xml", "application/json"})
-  public MultipleOperationResult deleteMultiple(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+  public MultipleOperationResult deleteMultiple(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields, @QueryParam("async") Boolean async,
+                                                @Context HttpServletRequest request) {
     if (buildLocator == null) {
       throw new BadRequestException("Empty locator specified.");
     }
     List<BuildPromotion> builds = myBuildPromotionFinder.getItems(buildLocator).myEntries;
-    return new MultipleOperationResult(getResultData(builds, deleteBuilds(builds, SessionUser.getUser(request), null)), new Fields(fields), myBeanContext);
+    final SUser user = SessionUser.getUser(request);
+    if (async != null && async) {
+      return submitMultiple(builds, build -> throwIfError(build, deleteBuilds(Collections.singletonList(build), user, null)), false, user, new Fields(fields));
+    }
+    return new MultipleOperationResult(getResultData(builds, deleteBuilds(builds, user, null)), new Fields(fields), myBeanContext);
   }
 
   /**
@@ -911,12 +921,13 @@ public class BuildRequest {
   @PUT
   @Path("/multiple/{buildLocator}/pinInfo/")
   @Consumes({"application/xml", "application/json"})
-  public MultipleOperationResult pinMultiple(@PathParam("buildLocator") String buildLocator, PinInfo pinStatus, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+  public MultipleOperationResult pinMultiple(@PathParam("buildLocator") String buildLocator, PinInfo pinStatus, @QueryParam("fields") String fields, @QueryParam("async") Boolean async,
+                                             @Context HttpServletRequest request) {
     Boolean newStatus = pinStatus.getStatusFromPosted();
     if (newStatus == null) throw new BadRequestException("Pin status should be specified in the payload");
     String commentText = pinStatus.getCommentTextFromPosted();
     SUser user = SessionUser.getUser(request);
-    return processMultiple(buildLocator, (build) -> pinBuild(build, user, commentText, newStatus), new Fields(fields));
+    return processMultiple(buildLocator, (build) -> pinBuild(build, user, commentText, newStatus), async, user, new Fields(fields));
   }
 
   /**
@@ -928,10 +939,11 @@ public class BuildRequest {
   @Path("/multiple/{buildLocator}/tags/")
   @Consumes({"application/xml", "application/json"})
   @Produces({"application/xml", "application/json"})
-  public MultipleOperationResult addTagsMultiple(@PathParam("buildLocator") String buildLocator, Tags tags, @QueryParam("fields") String fields) {
+  public MultipleOperationResult addTagsMultiple(@PathParam("buildLocator") String buildLocator, Tags tags, @QueryParam("fields") String fields, @QueryParam("async") Boolean async,
+                                                 @Context HttpServletRequest request) {
     final TagsManager tagsManager = myBeanContext.getSingletonService(TagsManager.class);
     final List<TagData> tagsPosted = tags.getFromPosted(myBeanContext.getSingletonService(UserFinder.class));
-    return processMultiple(buildLocator, (build) -> tagsManager.addTagDatas(build, tagsPosted), new Fields(fields));
+    return processMultiple(buildLocator, (build) -> tagsManager.addTagDatas(build, tagsPosted), async, SessionUser.getUser(request), new Fields(fields));
   }
 
   /**
@@ -943,10 +955,11 @@ public class BuildRequest {
   @Path("/multiple/{buildLocator}/tags/")
   @Consumes({"application/xml", "application/json"})
   @Produces({"application/xml", "application/json"})
-  public MultipleOperationResult removeTagsMultiple(@PathParam("buildLocator") String buildLocator, Tags tags, @QueryParam("fields") String fields) {
+  public MultipleOperationResult removeTagsMultiple(@PathParam("buildLocator") String buildLocator, Tags tags, @QueryParam("fields") String fields, @QueryParam("async") Boolean async,
+                                                    @Context HttpServletRequest request) {
     final TagsManager tagsManager = myBeanContext.getSingletonService(TagsManager.class);
     final List<TagData> tagsPosted = tags.getFromPosted(myBeanContext.getSingletonService(UserFinder.class));
-    return processMultiple(buildLocator, (build) -> tagsManager.removeTagDatas(build, tagsPosted), new Fields(fields));
+    return processMultiple(buildLocator, (build) -> tagsManager.removeTagDatas(build, tagsPosted), async, SessionUser.getUser(request), new Fields(fields));
   }
 
   /**
@@ -957,9 +970,10 @@ public class BuildRequest {
   @PUT
   @Path("/multiple/{buildLocator}/comment")
   @Consumes({"text/plain"})
-  public MultipleOperationResult replaceCommentMultiple(@PathParam("buildLocator") String buildLocator, String text, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+  public MultipleOperationResult replaceCommentMultiple(@PathParam("buildLocator") String buildLocator, String text, @QueryParam("fields") String fields, @QueryParam("async") Boolean async,
+                                                        @Context HttpServletRequest request) {
     final SUser user = SessionUser.getUser(request);
-    return processMultiple(buildLocator, (build) -> setBuildComment(build, text, user), new Fields(fields));
+    return processMultiple(buildLocator, (build) -> setBuildComment(build, text, user), async, user, new Fields(fields));
   }
 
   /**
@@ -969,9 +983,10 @@ public class BuildRequest {
    */
   @DELETE
   @Path("/multiple/{buildLocator}/comment")
-  public MultipleOperationResult deleteCommentMultiple(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+  public MultipleOperationResult deleteCommentMultiple(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields, @QueryParam("async") Boolean async,
+                                                       @Context HttpServletRequest request) {
     final SUser user = SessionUser.getUser(request);
-    return processMultiple(buildLocator, (build) -> setBuildComment(build, null, user), new Fields(fields));
+    return processMultiple(buildLocator, (build) -> setBuildComment(build, null, user), async, user, new Fields(fields));
   }
 
   /**
@@ -982,27 +997,73 @@ public class BuildRequest {
   @POST
   @Path("/multiple/{buildLocator}")
   @Consumes({"application/xml", "application/json"})
-  public MultipleOperationResult cancelMultiple(@PathParam("buildLocator") String buildLocator, BuildCancelRequest cancelRequest, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+  public MultipleOperationResult cancelMultiple(@PathParam("buildLocator") String buildLocator, BuildCancelRequest cancelRequest, @QueryParam("fields") String fields,
+                                                @QueryParam("async") Boolean async, @Context HttpServletRequest request) {
     if (buildLocator == null) {
       throw new BadRequestException("Empty locator specified.");
     }
     List<BuildPromotion> builds = myBuildPromotionFinder.getItems(buildLocator).myEntries;
-    return new MultipleOperationResult(getResultData(builds, cancelBuilds(builds, cancelRequest, SessionUser.getUser(request))), new Fields(fields), myBeanContext);
+    final SUser user = SessionUser.getUser(request);
+    if (async != null && async) {
+      return submitMultiple(builds, build -> throwIfError(build, cancelBuilds(Collections.singletonList(build), cancelRequest, user)), false, user, new Fields(fields));
+    }
+    return new MultipleOperationResult(getResultData(builds, cancelBuilds(builds, cancelRequest, user)), new Fields(fields), myBeanContext);
+  }
+
+  /**
+   * Experimental.
+   * Returns the progress and the results of the operation over multiple builds started with "async=true" parameter.
+   * The operation is available only to the user who started it and only for a limited time after it is finished.
+   */
+  @GET
+  @Path("/multiple/" + MULTIPLE_OPERATIONS + "/{operationId}")
+  @Produces({"application/xml", "application/json"})
+  public MultipleOperationResult getMultipleOperation(@PathParam("operationId") String operationId, @QueryParam("fields") String fields, @Context HttpServletRequest request) {
+    final MultipleOperationJobs.Job job = myBeanContext.getSingletonService(MultipleOperationJobs.class).getJob(operationId, SessionUser.getUser(request));
+    return new MultipleOperationResult(job, getMultipleOperationHref(job), new Fields(fields), myBeanContext);
   }
 
   @NotNull
-  private MultipleOperationResult processMultiple(@Nullable final String buildLocator, @NotNull Consumer<BuildPromotion> action, @NotNull final Fields fields) {
+  private MultipleOperationResult processMultiple(@Nullable final String buildLocator, @NotNull Consumer<BuildPromotion> action, @Nullable final Boolean async,
+                                                  @Nullable final SUser user, @NotNull final Fields fields) {
+    if (async != null && async) {
+      if (buildLocator == null) {
+        throw new BadRequestException("Empty locator specified.");
+      }
+      return submitMultiple(myBuildPromotionFinder.getItems(buildLocator).myEntries, action, true, user, fields);
+    }
     return new MultipleOperationResult(MultipleOperationResult.Data.process(buildLocator, myBuildPromotionFinder, action), fields, myBeanContext);
   }
 
+  /**
+   * Starts the operation in background
+   * @param idempotent true if the action can be retried for a build after an error
+   * @return state of the just started operation with the href to get the progress and the results
+   */
+  @NotNull
+  private MultipleOperationResult submitMultiple(@NotNull final List<BuildPromotion> builds, @NotNull Consumer<BuildPromotion> action, final boolean idempotent,
+                                                 @Nullable final SUser user, @NotNull final Fields fields) {
+    final MultipleOperationJobs.Job job = myBeanContext.getSingletonService(MultipleOperationJobs.class).submit(builds, action, idempotent, user);
+    return new MultipleOperationResult(job, getMultipleOperationHref(job), fields, myBeanContext);
+  }
+
+  @NotNull
+  private static String getMultipleOperationHref(@NotNull final MultipleOperationJobs.Job job) {
+    return API_BUILDS_URL + "/multiple/" + MULTIPLE_OPERATIONS + "/" + job.getId();
+  }
+
+  private static void throwIfError(@NotNull final BuildPromotion build, @NotNull final Map<Long, RuntimeException> errors) {
+    final RuntimeException error = errors.get(build.getId());
+    if (error != null) throw error;
+  }
+
   // Note: authentication for this request is disabled in APIController configuration
   @GET
   @Path("/{buildLocator}/" + STATUS_ICON_REQUEST_NAME + "{suffix:(.*)?}")
   public Response serveBuildStatusIcon(@PathParam("buildLocator") final String buildLocator, @PathParam("suffix") final String suffix, @Context HttpServletRequest request) {
-    //todo: may also use HTTP 304 for different resources in order to make it browser-cached
     //todo: return something appropriate when in maintenance
 
-    final BuildIconStatus stateName = getStatus(buildLocator);
+    final BuildIconStatus stateName = getCachedStatus("icon", buildLocator, () -> getStatus(buildLocator));
     return processIconRequest(stateName.getIconName(), suffix, request);
   }
 
@@ -1010,23 +1071,83 @@ public class BuildRequest {
   @GET
   @Path(AGGREGATED + "/{buildLocator}/" + STATUS_ICON_REQUEST_NAME + "{suffix:(.*)?}")
   public Response serveAggregatedBuildStatusIcon(@PathParam("buildLocator") String locator, @PathParam("suffix") final String suffix, @Context HttpServletRequest request) {
-    final BuildIconStatus stateName = getAggregatedStatus(locator);
+    final BuildIconStatus stateName = getCachedStatus("aggregatedIcon", locator, () -> getAggregatedStatus(locator));
     return processIconRequest(stateName.getIconName(), suffix, request);
   }
 
   @GET
   @Path(AGGREGATED + "/{buildLocator}/" + "status")
-  public String serveAggregatedBuildStatus(@PathParam("buildLocator") String locator) {
-    final PagedSearchResult<BuildPromotion> builds = myBuildPromotionFinder.getItems(locator);
-    Status resultingStatus = Status.UNKNOWN;
-    for (BuildPromotion buildPromotion : builds.myEntries) {
-      final SBuild build = buildPromotion.getAssociatedBuild();
-      if (build != null) {
-        final Status status = build.getStatusDescriptor().getStatus();
-        resultingStatus = Status.getWorstStatus(resultingStatus, status);
+  public String serveAggregatedBuildStatus(@PathParam("buildLocator") String locator,
+                                           @Context HttpServletRequest request, @Context HttpServletResponse response) {
+    EntityTags.setPerUserCaching(response);
+    EntityTags.checkNotModified(request, response, "aggregatedStatus:" + locator + ":" + getStatusDataVersion(locator) + ":" + getStatusPermissionsScope());
+    return getCachedStatus("aggregatedStatus", locator, () -> {
+      final PagedSearchResult<BuildPromotion> builds = myBuildPromotionFinder.getItems(locator);
+      Status resultingStatus = Status.UNKNOWN;
+      for (BuildPromotion buildPromotion : builds.myEntries) {
+        final SBuild build = buildPromotion.getAssociatedBuild();
+        if (build != null) {
+          final Status status = build.getStatusDescriptor().getStatus();
+          resultingStatus = Status.getWorstStatus(resultingStatus, status);
+        }
+      }
+      return resultingStatus.getText();
+    });
+  }
+
+  /**
+   * Reuses the status calculated for the same locator and permissions scope until the related builds or the configuration change, see {@link BuildStatusCache}.
+   */
+  @NotNull
+  private <T> T getCachedStatus(@NotNull final String kind, @Nullable final String locator, @NotNull final Supplier<T> calculator) {
+    return myBeanContext.getSingletonService(BuildStatusCache.class).getStatus(kind + ":" + getStatusPermissionsScope() + ":" + locator, getStatusDataVersion(locator), calculator);
+  }
+
+  /**
+   * @return the user id if the request has an associated user and the permissions of the authority holder otherwise
+   * (e.g. for the guest or the unauthenticated status widget requests), so that the requests with the same permissions share the cached status
+   */
+  @NotNull
+  private String getStatusPermissionsScope() {
+    final AuthorityHolder authorityHolder = myBeanContext.getSingletonService(SecurityContextEx.class).getAuthorityHolder();
+    final User user = authorityHolder.getAssociatedUser();
+    if (user != null) return "user" + user.getId();
+    final StringBuilder result = new StringBuilder("permissions");
+    authorityHolder.getGlobalPermissions().toList().stream().map(Enum::name).sorted().forEach(permission -> result.append(',').append(permission));
+    new TreeMap<>(authorityHolder.getProjectsPermissions()).forEach((projectId, permissions) -> {
+      result.append(';').append(projectId);
+      permissions.toList().stream().map(Enum::name).sorted().forEach(permission -> result.append(',').append(permission));
+    });
+    return result.toString();
+  }
+
+  /**
+   * @return version of the data the status of the builds matching the locator depends on:
+   * the builds of the build configurations from the "buildType" dimension if it is present and all the builds otherwise
+   */
+  @NotNull
+  private String getStatusDataVersion(@Nullable final String buildsLocator) {
+    final ServerDataVersions versions = myBeanContext.getSingletonService(ServerDataVersions.class);
+    //the set of the build configurations matched by the locator does not change while the configuration version is the same
+    return versions.getConfigurationVersion() + ":" + getBuildsVersion(buildsLocator, versions);
+  }
+
+  @NotNull
+  private String getBuildsVersion(@Nullable final String buildsLocator, @NotNull final ServerDataVersions versions) {
+    if (buildsLocator != null) {
+      try {
+        final String buildTypeLocator = new Locator(buildsLocator).getSingleDimensionValue("buildType");
+        if (buildTypeLocator != null) {
+          final List<SBuildType> buildTypes = myBuildTypeFinder.getBuildTypes(null, buildTypeLocator);
+          if (!buildTypes.isEmpty() && buildTypes.size() <= TeamCityProperties.getInteger("rest.buildRequest.status.maxVersionedBuildTypes", 10)) {
+            return buildTypes.stream().map(buildType -> versions.getBuildsVersion(buildType.getInternalId())).collect(Collectors.joining(","));
+          }
+        }
+      } catch (RuntimeException e) {
+        //the locator is not supported here, errors if any are reported by the status calculation
       }
     }
-    return resultingStatus.getText();
+    return versions.getBuildsVersion();
   }
 
   @Path(AGGREGATED + "/{buildLocator}" + ARTIFACTS)
@@ -1087,6 +1208,7 @@ public class BuildRequest {
       final BuildIconStatus stateName = BuildIconStatus.create(myBeanContext, buildPromotionRetriever);
       if (resultState.compareTo(stateName) < 0) {
         resultState = stateName;
+        if (resultState == BuildIconStatus.FAILED) break; //nothing can be worse, no need to check the rest of the builds
       }
     }
     return resultState;
@@ -1124,25 +1246,49 @@ public class BuildRequest {
     }
 
     final File resultIconFile = new File(resultIconFileName);
-    final StreamingOutput streamingOutput = new StreamingOutput() {
-      public void write(final OutputStream output) throws WebApplicationException {
-        InputStream inputStream = null;
-        try {
-          inputStream = new BufferedInputStream(new FileInputStream(resultIconFile));
-          TCStreamUtil.writeBinary(inputStream, output);
-        } catch (IOException e) {
-          //todo add better processing
-          throw new OperationException("Error while retrieving file '" + resultIconFile.getName() + "': " + e.getMessage(), e);
-        } finally {
-          FileUtil.close(inputStream);
-        }
+    final String eTag = "W/\"" + EncryptUtil.md5(String.valueOf(stateName)) + "\"";  //mark ETag as "weak"
+    final Response.ResponseBuilder response;
+    if (EntityTags.isNotModified(request, eTag)) {
+      response = Response.status(Response.Status.NOT_MODIFIED);
+    } else {
+      byte[] cachedContent;
+      try {
+        cachedContent = myBeanContext.getSingletonService(BuildStatusCache.class).getFileContent(resultIconFile);
+      } catch (IOException e) {
+        LOG.debug("Error while reading file '" + resultIconFile.getName() + "', will stream it: " + e.getMessage());
+        cachedContent = null;
       }
-    };
+      final byte[] content = cachedContent;
+      final StreamingOutput streamingOutput = new StreamingOutput() {
+        public void write(final OutputStream output) throws WebApplicationException {
+          if (content != null) {
+            try {
+              output.write(content);
+            } catch (IOException e) {
+              throw new OperationException("Error while writing file '" + resultIconFile.getName() + "': " + e.getMessage(), e);
+            }
+            return;
+          }
+          InputStream inputStream = null;
+          try {
+            inputStream = new BufferedInputStream(new FileInputStream(resultIconFile));
+            TCStreamUtil.writeBinary(inputStream, output);
+          } catch (IOException e) {
+            //todo add better processing
+            throw new OperationException("Error while retrieving file '" + resultIconFile.getName() + "': " + e.getMessage(), e);
+          } finally {
+            FileUtil.close(inputStream);
+          }
+        }
+      };
+      response = Response.ok(streamingOutput, WebUtil.getMimeType(request, resultIconFileName));
+    }
 
-    final String mediaType = WebUtil.getMimeType(request, resultIconFileName);
-    final Response.ResponseBuilder response = Response.ok(streamingOutput, mediaType).header("Cache-Control", "no-cache, private");
+    //the icon is to be revalidated on each request by default as the status changes, max age can be set to reduce the number of requests
+    final int maxAge = TeamCityProperties.getInteger("rest.buildRequest.statusIcon.maxAgeSeconds", 0);
+    response.header("Cache-Control", maxAge > 0 ? "private, max-age=" + maxAge : "no-cache, private");
     //see also setting no caching headers in jetbrains.buildServer.server.rest.request.FilesSubResource.getContentByStream()
-    response.header("ETag", "W/\"" + EncryptUtil.md5(String.valueOf(stateName)) + "\"");  //mark ETag as "weak"
+    response.header("ETag", eTag);
     // see jetbrains.buildServer.web.util.WebUtil.addCacheHeadersForIE and http://youtrack.jetbrains.com/issue/TW-9821 for details)
     if (WebUtil.isIE10OrLower(request)) {
       response.header("Cache-Control", "private,must-revalidate");
@@ -806,6 +806,36 @@ public class DebugRequest {
     return new Properties(Properties.createEntity(CollectionsUtil.asMap("idsSize", String.valueOf(size)), null), false, null, null, new Fields(fields), myBeanContext);
   }
 
+  @GET
+  @Path("/caches/locators/stats")
+  @Produces({"application/xml", "application/json"})
+  public Properties getCachedLocatorsStats(@QueryParam("fields") final String fields) {
+    myPermissionChecker.checkGlobalPermission(Permission.MANAGE_SERVER_INSTALLATION);
+    return new Properties(Properties.createEntity(LocatorParseCache.getStats(), null), false, null, null, new Fields(fields), myBeanContext);
+  }
+
+  @DELETE
+  @Path("/caches/locators")
+  public void resetCachedLocators() {
+    myPermissionChecker.checkGlobalPermission(Permission.MANAGE_SERVER_INSTALLATION);
+    LocatorParseCache.reset();
+  }
+
+  @GET
+  @Path("/diagnostics/finders/stats")
+  @Produces({"application/xml", "application/json"})
+  public Properties getFinderStats(@QueryParam("fields") final String fields) {
+    myPermissionChecker.checkGlobalPermission(Permission.MANAGE_SERVER_INSTALLATION);
+    return new Properties(Properties.createEntity(FinderMetrics.getStats(), null), false, null, null, new Fields(fields), myBeanContext);
+  }
+
+  @DELETE
+  @Path("/diagnostics/finders/stats")
+  public void resetFinderStats() {
+    myPermissionChecker.checkGlobalPermission(Permission.MANAGE_SERVER_INSTALLATION);
+    FinderMetrics.reset();
+  }
+
   @GET
   @Path("/caches/buildPromotions/content")
   @Produces({"application/xml", "application/json"})
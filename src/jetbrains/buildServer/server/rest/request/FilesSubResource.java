@@ -19,13 +19,24 @@ package jetbrains.buildServer.server.rest.request;
 import com.google.common.base.Stopwatch;
 import com.intellij.openapi.diagnostic.Logger;
 import io.swagger.annotations.Api;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
@@ -42,10 +53,12 @@ import jetbrains.buildServer.server.rest.model.Util;
 import jetbrains.buildServer.server.rest.model.files.FileApiUrlBuilder;
 import jetbrains.buildServer.server.rest.model.files.Files;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
 import jetbrains.buildServer.util.*;
 import jetbrains.buildServer.util.browser.Element;
+import jetbrains.buildServer.util.browser.FileSystemBrowser;
 import jetbrains.buildServer.web.artifacts.browser.ArtifactElement;
 import jetbrains.buildServer.web.artifacts.browser.ArtifactTreeElement;
 import jetbrains.buildServer.web.util.HttpByteRange;
@@ -66,6 +79,9 @@ public class FilesSubResource {
   public static final String CONTENT = "/content";
   public static final String CHILDREN = "/children";
 
+  private static final String FILE_CHANNEL_PROPERTY = "rest.files.content.fileChannel";
+  private static final String MAX_RANGES_PROPERTY = "rest.files.content.maxRanges";
+
   private final Provider myProvider;
   private final String myUrlPrefix;
   @NotNull private final BeanContext myBeanContext;
@@ -389,6 +405,10 @@ public class FilesSubResource {
       }
 
       public StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length) {
+        final File file = getLocalFile(element);
+        if (file != null) {
+          return FilesSubResource.getFileStreamingOutput(element, file, startOffset, length);
+        }
         return FilesSubResource.getStreamingOutput(element, startOffset, length);
       }
     });
@@ -414,6 +434,9 @@ public class FilesSubResource {
       //just do not set size in the case
     }
 
+    final String contentType = TeamCityProperties.getBooleanOrTrue("rest.build.artifacts.setMimeType") ? WebUtil.getMimeType(request, element.getName())
+                                                                                                        : MediaType.APPLICATION_OCTET_STREAM;
+    boolean multipart = false;
     Response.ResponseBuilder builder;
     if (StringUtil.isEmpty(rangeHeader)) {
       builder = Response.ok().entity(streamingOutputProvider.getStreamingOutput(null, null));
@@ -426,18 +449,38 @@ public class FilesSubResource {
       }
       try {
         HttpByteRange range = new HttpByteRange(rangeHeader, fullFileSize);
-        //todo: support requests with "Range: bytes=XX-" header and unknown content-length via multipart/byteranges Content-Type including Content-Range fields for each part
-        if (range.getRangesCount() > 1) {
-          builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("Multiple Range header ranges are not (yet) supported");
+        final int maxRanges = TeamCityProperties.getInteger(MAX_RANGES_PROPERTY, 100);
+        if (fullFileSize == null) {
+          //todo: support multiple ranges for the content of unknown size (e.g. "Range: bytes=XX-" header and unknown content-length)
+          if (range.getRangesCount() > 1) {
+            builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("Multiple Range header ranges are not supported for the content of unknown size");
+          } else {
+            final HttpByteRange.SimpleRange firstRange = range.getSimpleRangesIterator().next();
+            builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT);
+            builder.entity(streamingOutputProvider.getStreamingOutput(firstRange.getBeginIndex(), firstRange.getLength()));
+            builder.header("Content-Range", range.getContentRangeHeaderValue(firstRange));
+          }
+        } else if (range.getRangesCount() > maxRanges) {
+          builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("Too many ranges in the Range header, at most " + maxRanges + " are supported");
+          builder.header("Content-Range", HttpByteRange.getContentRangeHeaderValueFor416Response(fullFileSize));
         } else {
-          final HttpByteRange.SimpleRange firstRange = range.getSimpleRangesIterator().next();
-
-          builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT);
-          final long rangeLength = firstRange.getLength();
-          builder.entity(streamingOutputProvider.getStreamingOutput(firstRange.getBeginIndex(), rangeLength));
-          builder.header("Content-Range", range.getContentRangeHeaderValue(firstRange));
-          if (fullFileSize != null) {
-            builder.header(HttpHeaders.CONTENT_LENGTH, rangeLength);
+          final List<ByteRange> ranges = ByteRange.getSatisfiableRanges(range, fullFileSize);
+          if (ranges.isEmpty()) {
+            builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("None of the Range header ranges is within the content of " + fullFileSize + " bytes");
+            builder.header("Content-Range", HttpByteRange.getContentRangeHeaderValueFor416Response(fullFileSize));
+          } else if (ranges.size() == 1) {
+            final ByteRange singleRange = ranges.get(0);
+            builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT);
+            builder.entity(streamingOutputProvider.getStreamingOutput(singleRange.myStart, singleRange.getLength()));
+            builder.header("Content-Range", singleRange.getContentRangeHeaderValue(fullFileSize));
+            builder.header(HttpHeaders.CONTENT_LENGTH, singleRange.getLength());
+          } else {
+            builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT);
+            final MultipartByteRangesOutput output = new MultipartByteRangesOutput(ranges, fullFileSize, contentType, streamingOutputProvider);
+            builder.entity(output);
+            builder.type(output.getContentType());
+            builder.header(HttpHeaders.CONTENT_LENGTH, output.getContentLength());
+            multipart = true;
           }
         }
       } catch (ParseException e) {
@@ -450,10 +493,8 @@ public class FilesSubResource {
 
     builder.header("Accept-Ranges", HttpByteRange.RANGE_UNIT_BYTES);
 
-    if (TeamCityProperties.getBooleanOrTrue("rest.build.artifacts.setMimeType")) {
-      builder = builder.type(WebUtil.getMimeType(request, element.getName()));
-    } else {
-      builder = builder.type(MediaType.APPLICATION_OCTET_STREAM_TYPE);
+    if (!multipart) {
+      builder = builder.type(contentType);
     }
     if (TeamCityProperties.getBooleanOrTrue("rest.build.artifacts.forceContentDisposition.Attachment")) {
       // make sure the file is not displayed in the browser (TW-27206)
@@ -506,6 +547,176 @@ public class FilesSubResource {
     };
   }
 
+  /**
+   * @return the file on the local disk with the same content as the element or null if there is no such file (e.g. for archive entries and artifacts in external storages)
+   */
+  @Nullable
+  static File getLocalFile(@NotNull final Element element) {
+    if (!TeamCityProperties.getBooleanOrTrue(FILE_CHANNEL_PROPERTY)) return null;
+
+    File result = null;
+    if (element instanceof FileSystemBrowser.FileElement) {
+      result = ((FileSystemBrowser.FileElement)element).getFile();
+    } else if (element instanceof BuildArtifactsFinder.ArtifactTreeElementWrapper) {
+      result = ((BuildArtifactsFinder.ArtifactTreeElementWrapper)element).getFile();
+    } else if (element instanceof BuildArtifactsFinder.BuildHoldingElement) {
+      final BuildArtifactsFinder.BuildHoldingElement buildElement = (BuildArtifactsFinder.BuildHoldingElement)element;
+      final SBuild build = buildElement.getBuildPromotion().getAssociatedBuild();
+      if (build != null && !buildElement.isArchive() && !buildElement.isInsideArchive()) {
+        result = new File(build.getArtifactsDirectory(), buildElement.getBuildArtifact().getRelativePath());
+      }
+    }
+    //make sure the element is actually backed by the file
+    if (result == null || !result.isFile() || result.length() != element.getSize()) return null;
+    return result;
+  }
+
+  /**
+   * Streams the file content using positional reads from the file channel, so that the bytes before the range start are not read
+   */
+  private static StreamingOutput getFileStreamingOutput(@NotNull final Element element, @NotNull final File file,
+                                                        @Nullable final Long startOffset, @Nullable final Long length) {
+    return new StreamingOutput() {
+      public void write(final OutputStream output) throws WebApplicationException {
+        Stopwatch action = new Stopwatch().start();
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+          final FileChannel channel = inputStream.getChannel();
+          final long position = startOffset != null ? startOffset : 0;
+          final long count = length != null ? length : channel.size() - position;
+          final WritableByteChannel target = Channels.newChannel(output);
+          long transferred = 0;
+          while (transferred < count) {
+            final long result = channel.transferTo(position + transferred, count - transferred, target);
+            if (result <= 0) {
+              throw new IOException("Unexpected end of file at position " + (position + transferred) + ", expected " + count + " bytes starting from " + position);
+            }
+            transferred += result;
+          }
+        } catch (IOException e) {
+          throw new OperationException("Error while processing file '" + element.getFullName() + "': " + e.toString(), e);
+        } finally {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Finished processing download of file \"" + element.getFullName() + "\" (" + StringUtil.formatFileSize(length != null ? length : element.getSize()) + ")" +
+                      " in " + TimePrinter.createMillisecondsFormatter().formatTime(action.elapsedMillis()) + " for a REST request");
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Range of the content bytes, both ends inclusive
+   */
+  static class ByteRange {
+    final long myStart;
+    final long myEnd;
+
+    ByteRange(final long start, final long end) {
+      myStart = start;
+      myEnd = end;
+    }
+
+    long getLength() {
+      return myEnd - myStart + 1;
+    }
+
+    @NotNull
+    String getContentRangeHeaderValue(final long fullSize) {
+      return HttpByteRange.RANGE_UNIT_BYTES + " " + myStart + "-" + myEnd + "/" + fullSize;
+    }
+
+    /**
+     * Drops the ranges starting beyond the content end, trims the ranges ending beyond it and coalesces overlapping and adjacent ranges (see RFC 7233, section 4.1),
+     * so that the same bytes are not sent several times
+     * @return the ranges in the order of the content
+     */
+    @NotNull
+    static List<ByteRange> getSatisfiableRanges(@NotNull final HttpByteRange range, final long fullSize) {
+      final List<ByteRange> ranges = new ArrayList<>(range.getRangesCount());
+      final Iterator<HttpByteRange.SimpleRange> iterator = range.getSimpleRangesIterator();
+      while (iterator.hasNext()) {
+        final HttpByteRange.SimpleRange simpleRange = iterator.next();
+        final long start = simpleRange.getBeginIndex();
+        if (start < 0 || start >= fullSize || simpleRange.getLength() <= 0) continue;
+        ranges.add(new ByteRange(start, Math.min(start + simpleRange.getLength(), fullSize) - 1));
+      }
+      ranges.sort(Comparator.comparingLong(r -> r.myStart));
+
+      final List<ByteRange> result = new ArrayList<>(ranges.size());
+      for (ByteRange next : ranges) {
+        final ByteRange last = result.isEmpty() ? null : result.get(result.size() - 1);
+        if (last != null && next.myStart <= last.myEnd + 1) {
+          result.set(result.size() - 1, new ByteRange(last.myStart, Math.max(last.myEnd, next.myEnd)));
+        } else {
+          result.add(next);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * "multipart/byteranges" response body (see RFC 7233, section 4.1) for a request with several ranges
+   */
+  private static class MultipartByteRangesOutput implements StreamingOutput {
+    @NotNull private final String myBoundary = "TEAMCITY_BYTERANGES_" + Long.toHexString(new Random().nextLong());
+    @NotNull private final StreamingOutputProvider myStreamingOutputProvider;
+    @NotNull private final List<ByteRange> myRanges;
+    @NotNull private final List<byte[]> myPartHeaders = new ArrayList<>();
+    @NotNull private final byte[] myClosingBoundary;
+
+    MultipartByteRangesOutput(@NotNull final List<ByteRange> ranges, final long fullSize, @NotNull final String contentType,
+                              @NotNull final StreamingOutputProvider streamingOutputProvider) {
+      myStreamingOutputProvider = streamingOutputProvider;
+      myRanges = ranges;
+      for (ByteRange range : ranges) {
+        myPartHeaders.add(("\r\n--" + myBoundary + "\r\n" +
+                           "Content-Type: " + contentType + "\r\n" +
+                           "Content-Range: " + range.getContentRangeHeaderValue(fullSize) + "\r\n" +
+                           "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      }
+      myClosingBoundary = ("\r\n--" + myBoundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @NotNull
+    String getContentType() {
+      return "multipart/byteranges; boundary=" + myBoundary;
+    }
+
+    long getContentLength() {
+      long result = myClosingBoundary.length;
+      for (int i = 0; i < myRanges.size(); i++) {
+        result += myPartHeaders.get(i).length + myRanges.get(i).getLength();
+      }
+      return result;
+    }
+
+    public void write(final OutputStream output) throws IOException, WebApplicationException {
+      for (int i = 0; i < myRanges.size(); i++) {
+        final ByteRange range = myRanges.get(i);
+        output.write(myPartHeaders.get(i));
+        myStreamingOutputProvider.getStreamingOutput(range.myStart, range.getLength()).write(new NonClosingOutputStream(output));
+      }
+      output.write(myClosingBoundary);
+    }
+  }
+
+  private static class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(@NotNull final OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
   public interface StreamingOutputProvider {
     boolean isRangeSupported();
 
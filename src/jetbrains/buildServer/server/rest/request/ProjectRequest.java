@@ -22,6 +22,7 @@ import io.swagger.annotations.ApiOperation;
 import java.io.File;
 import java.util.*;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.UriInfo;
@@ -46,6 +47,7 @@ import jetbrains.buildServer.server.rest.model.buildType.BuildTypes;
 import jetbrains.buildServer.server.rest.model.buildType.NewBuildTypeDescription;
 import jetbrains.buildServer.server.rest.model.project.*;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.EntityTags;
 import jetbrains.buildServer.server.rest.util.BuildTypeOrTemplate;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.agentPools.AgentPoolManager;
@@ -202,8 +204,11 @@ public class ProjectRequest {
   @GET
   @Path("/{projectLocator}")
   @Produces({"application/xml", "application/json"})
-  public Project serveProject(@PathParam("projectLocator") String projectLocator, @QueryParam("fields") String fields) {
-    return new Project(myProjectFinder.getItem(projectLocator),  new Fields(fields), myBeanContext);
+  public Project serveProject(@PathParam("projectLocator") String projectLocator, @QueryParam("fields") String fields,
+                              @Context HttpServletRequest request, @Context HttpServletResponse response) {
+    final SProject project = myProjectFinder.getItem(projectLocator);
+    EntityTags.checkNotModified(request, response, myBeanContext.getSingletonService(ServerDataVersions.class).getVersion(project, fields));
+    return new Project(project,  new Fields(fields), myBeanContext);
   }
 
   @DELETE
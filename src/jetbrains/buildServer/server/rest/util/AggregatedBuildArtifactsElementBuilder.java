@@ -20,15 +20,22 @@ import com.intellij.openapi.diagnostic.Logger;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.server.rest.data.BuildArtifactsFinder;
+import jetbrains.buildServer.server.rest.data.RestContext;
 import jetbrains.buildServer.server.rest.errors.AuthorizationFailedException;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.errors.NotFoundException;
 import jetbrains.buildServer.server.rest.errors.OperationException;
 import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.impl.LogUtil;
 import jetbrains.buildServer.util.browser.Browser;
 import jetbrains.buildServer.util.browser.BrowserException;
@@ -42,34 +49,164 @@ import org.jetbrains.annotations.Nullable;
  */
 public class AggregatedBuildArtifactsElementBuilder {
   private static final Logger LOG = Logger.getInstance(AggregatedBuildArtifactsElementBuilder.class.getName());
+  static final String PARALLEL_PROPERTY = "rest.build.artifacts.aggregated.parallel";
+  static final String THREADS_PROPERTY = "rest.build.artifacts.aggregated.threads";
+  static final String QUEUE_SIZE_PROPERTY = "rest.build.artifacts.aggregated.queueSize";
+  static final String TIMEOUT_PROPERTY = "rest.build.artifacts.aggregated.timeoutSeconds";
+
+  private static volatile ExecutorService ourExecutor;
 
   //improve messages by adding "names" to elements
 
   @NotNull private final List<Element> myElements = new ArrayList<>();
+  @NotNull private final List<BuildPromotion> myBuilds = new ArrayList<>();
   @Nullable private String myElementName;
   @Nullable private String myFullElementName;
   private boolean myHasDirElements = false;
 
+  /**
+   * Artifact elements of the builds are looked up concurrently (when there is a request context to run the lookups under the current user),
+   * but are merged in the order of the builds, so the result is the same as with sequential lookup.
+   * If the artifacts of some builds are not retrieved within the timeout (common for all the builds), the request fails listing the builds.
+   */
   @NotNull
-  public static Element getBuildAggregatedArtifactElement(@NotNull final String path, @NotNull final List<BuildPromotion> builds, final @NotNull ServiceLocator serviceLocator) {
+  public static AggregatedElement getBuildAggregatedArtifactElement(@NotNull final String path, @NotNull final List<BuildPromotion> builds, final @NotNull ServiceLocator serviceLocator) {
+    return getBuildAggregatedArtifactElement(path, builds, buildPromotion -> BuildArtifactsFinder.getArtifactElement(buildPromotion, path, serviceLocator));
+  }
+
+  @NotNull
+  static AggregatedElement getBuildAggregatedArtifactElement(@NotNull final String path, @NotNull final List<BuildPromotion> builds,
+                                                   @NotNull final Function<BuildPromotion, Element> artifactElementRetriever) {
     final AggregatedBuildArtifactsElementBuilder result = new AggregatedBuildArtifactsElementBuilder();
-    int i = 0;
-    for (BuildPromotion buildPromotion : builds) {
-      try {
-        final Element artifactElement = BuildArtifactsFinder.getArtifactElement(buildPromotion, path, serviceLocator);
-        LOG.debug("Found artifact file with path '" + path + "' in " + i + "/" + builds.size() + " build: " + LogUtil.describe(buildPromotion));
-        result.add(artifactElement);
-      } catch (NotFoundException e) {
-        LOG.debug("Ignoring not found error in artifacts aggregation request: " + e.toString());
-      } catch (AuthorizationFailedException e) {
-        LOG.debug("Ignoring authentication error in artifacts aggregation request: " + e.toString());
-      }
-      i++;
+    final RestContext context = RestContext.getThreadLocal();
+    if (builds.size() <= 1 || context == null || !TeamCityProperties.getBooleanOrTrue(PARALLEL_PROPERTY)) {
+      int i = 0;
+      for (BuildPromotion buildPromotion : builds) {
+        try {
+          result.add(findArtifactElement(path, buildPromotion, i, builds.size(), artifactElementRetriever), buildPromotion);
+        } catch (NotFoundException e) {
+          LOG.debug("Ignoring not found error in artifacts aggregation request: " + e.toString());
+        } catch (AuthorizationFailedException e) {
+          LOG.debug("Ignoring authentication error in artifacts aggregation request: " + e.toString());
+        }
+        i++;
+      }
+      return result.get();
+    }
+
+    final long timeoutSeconds = TeamCityProperties.getInteger(TIMEOUT_PROPERTY, 30);
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+    final ExecutorService executor = getExecutor();
+    final List<Future<Element>> futures = new ArrayList<>(builds.size());
+    final List<BuildPromotion> timedOutBuilds = new ArrayList<>();
+    try {
+      int i = 0;
+      for (BuildPromotion buildPromotion : builds) {
+        final int buildIndex = i++;
+        final Callable<Element> lookup = () -> findArtifactElement(path, buildPromotion, buildIndex, builds.size(), artifactElementRetriever);
+        Future<Element> future;
+        try {
+          future = executor.submit(context.bindToCurrentContext(lookup));
+        } catch (RejectedExecutionException e) {
+          //the executor queue is full: look up in the request thread so that the queue does not grow with the concurrent requests
+          final FutureTask<Element> task = new FutureTask<>(lookup);
+          task.run();
+          future = task;
+        }
+        futures.add(future);
+      }
+      for (int j = 0; j < futures.size(); j++) {
+        final BuildPromotion buildPromotion = builds.get(j);
+        try {
+          result.add(futures.get(j).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS), buildPromotion);
+        } catch (TimeoutException e) {
+          timedOutBuilds.add(buildPromotion);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new OperationException("Interrupted while retrieving artifacts of the builds", e);
+        } catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof NotFoundException) {
+            LOG.debug("Ignoring not found error in artifacts aggregation request: " + cause.toString());
+          } else if (cause instanceof AuthorizationFailedException) {
+            LOG.debug("Ignoring authentication error in artifacts aggregation request: " + cause.toString());
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+          } else if (cause instanceof Error) {
+            throw (Error)cause;
+          } else {
+            throw new OperationException("Error while retrieving artifacts of build " + LogUtil.describe(buildPromotion) + ": " + cause, e);
+          }
+        }
+      }
+    } finally {
+      for (Future<Element> future : futures) {
+        future.cancel(true);
+      }
+    }
+    if (!timedOutBuilds.isEmpty()) {
+      final String buildsDescription = timedOutBuilds.stream().map(build -> LogUtil.describe(build)).collect(Collectors.joining(", "));
+      LOG.warn("Artifacts of " + timedOutBuilds.size() + " builds were not retrieved within " + timeoutSeconds + " seconds for aggregated path '" + path + "': " +
+               buildsDescription);
+      throw new OperationException("Artifacts of " + timedOutBuilds.size() + " of " + builds.size() + " builds were not retrieved within " + timeoutSeconds + " seconds: " +
+                                   buildsDescription + ". Consider requesting fewer builds.");
     }
     return result.get();
   }
 
+  @NotNull
+  private static Element findArtifactElement(@NotNull final String path, @NotNull final BuildPromotion buildPromotion, final int buildIndex, final int buildsCount,
+                                             @NotNull final Function<BuildPromotion, Element> artifactElementRetriever) {
+    final Element artifactElement = artifactElementRetriever.apply(buildPromotion);
+    LOG.debug("Found artifact file with path '" + path + "' in " + buildIndex + "/" + buildsCount + " build: " + LogUtil.describe(buildPromotion));
+    return artifactElement;
+  }
+
+  @NotNull
+  private static ExecutorService getExecutor() {
+    ExecutorService result = ourExecutor;
+    if (result == null) {
+      synchronized (AggregatedBuildArtifactsElementBuilder.class) {
+        result = ourExecutor;
+        if (result == null) {
+          final int threads = Math.max(1, TeamCityProperties.getInteger(THREADS_PROPERTY, 4));
+          final int queueSize = Math.max(1, TeamCityProperties.getInteger(QUEUE_SIZE_PROPERTY, 100));
+          final AtomicInteger threadNumber = new AtomicInteger();
+          final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            final Thread thread = new Thread(runnable, "REST API aggregated artifacts " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(AggregatedBuildArtifactsElementBuilder.class.getClassLoader());
+            return thread;
+          });
+          executor.allowCoreThreadTimeOut(true);
+          result = executor;
+          ourExecutor = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Used in tests to apply the changed executor settings
+   */
+  static void shutdownExecutor() {
+    synchronized (AggregatedBuildArtifactsElementBuilder.class) {
+      if (ourExecutor != null) {
+        ourExecutor.shutdownNow();
+        ourExecutor = null;
+      }
+    }
+  }
+
   public void add(@NotNull final Element element) {
+    add(element, null);
+  }
+
+  /**
+   * @param build the build the element belongs to, if known
+   */
+  public void add(@NotNull final Element element, @Nullable final BuildPromotion build) {
     if (element.isContentAvailable()) {
       if (!myElements.isEmpty()) {
         if (myHasDirElements) {
@@ -99,18 +236,35 @@ public class AggregatedBuildArtifactsElementBuilder {
     }
 
     myElements.add(element);
+    if (build != null) {
+      myBuilds.add(build);
+    }
     if (!element.isContentAvailable()) {
       myHasDirElements = true;
     }
   }
 
   @NotNull
-  public Element get() {
+  public AggregatedElement get() {
     if (myElements.isEmpty()) {
       throw new NotFoundException("No artifact found while constructing aggregated file element");
     }
+    if (LOG.isDebugEnabled()) {
+      final StringBuilder builds = new StringBuilder();
+      for (BuildPromotion build : myBuilds) {
+        if (builds.length() > 0) builds.append(", ");
+        builds.append(LogUtil.describe(build));
+      }
+      LOG.debug("Aggregated file element '" + myFullElementName + "' is constructed from " + myElements.size() + " elements of builds: " + builds);
+    }
+
+    return new AggregatedElement() {
+      @NotNull
+      @Override
+      public List<BuildPromotion> getContributingBuilds() {
+        return Collections.unmodifiableList(myBuilds);
+      }
 
-    return new Element() {
       @NotNull
       @Override
       public String getName() {
@@ -173,4 +327,12 @@ public class AggregatedBuildArtifactsElementBuilder {
       }
     };
   }
+
+  public interface AggregatedElement extends Element {
+    /**
+     * @return the builds which elements are merged into this element, in the order of the original builds list
+     */
+    @NotNull
+    List<BuildPromotion> getContributingBuilds();
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Read-only list which converts the source item on each access and does not retain the results.
+ * Used for the items of collection beans so that during serialization an item bean is created, written and becomes garbage right away
+ * and the item beans are not created at all for the responses which do not include the items.
+ * Before the first item is returned, all the items are converted once and the results are dropped, so that a conversion error
+ * is raised before the items are written and can still be reported with an error response (can be disabled via {@link #VALIDATE_PROPERTY}).
+ */
+public class ConvertingList<S, T> extends AbstractList<T> implements RandomAccess {
+  static final String LAZY_PROPERTY = "rest.beans.lazyItems";
+  static final String VALIDATE_PROPERTY = "rest.beans.lazyItems.validate";
+
+  @NotNull private final List<S> mySource;
+  @NotNull private final Function<S, T> myConverter;
+  private volatile boolean myValidated;
+
+  private ConvertingList(@NotNull final List<S> source, @NotNull final Function<S, T> converter) {
+    mySource = source;
+    myConverter = converter;
+    myValidated = !TeamCityProperties.getBooleanOrTrue(VALIDATE_PROPERTY);
+  }
+
+  /**
+   * @return list of the items converted on each access unless disabled via internal property, eagerly converted list otherwise
+   */
+  @NotNull
+  public static <S, T> List<T> create(@NotNull final List<S> source, @NotNull final Function<S, T> converter) {
+    if (TeamCityProperties.getBooleanOrTrue(LAZY_PROPERTY)) {
+      return new ConvertingList<>(source, converter);
+    }
+    return convert(source, converter);
+  }
+
+  @Override
+  public T get(final int index) {
+    validate();
+    return myConverter.apply(mySource.get(index));
+  }
+
+  @Override
+  public int size() {
+    return mySource.size();
+  }
+
+  /**
+   * @return true if all the items were already converted once to check that the conversion does not fail
+   */
+  public boolean isValidated() {
+    return myValidated;
+  }
+
+  private void validate() {
+    if (myValidated) return;
+    synchronized (this) {
+      if (myValidated) return;
+      for (S item : mySource) {
+        myConverter.apply(item); //the result is not retained
+      }
+      myValidated = true;
+    }
+  }
+
+  @NotNull
+  private static <S, T> List<T> convert(@NotNull final List<S> source, @NotNull final Function<S, T> converter) {
+    final ArrayList<T> result = new ArrayList<>(source.size());
+    for (S item : source) {
+      result.add(converter.apply(item));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.HttpHeaders;
+import jetbrains.buildServer.server.rest.errors.NotModifiedException;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Support for conditional GET requests ("If-None-Match" header) based on strong ETags
+ */
+public class EntityTags {
+  static final String ENABLED_PROPERTY = "rest.response.eTags.enabled";
+  public static final String VARY_HEADER_VALUE = "Accept, Authorization, Cookie"; //the response depends on the representation and on the user
+
+  /**
+   * Sets ETag calculated from the validator to the response and throws {@link NotModifiedException} if the request has "If-None-Match" header matching it.
+   * Should be called before the response bean is created so that the unchanged entity costs nothing to serve.
+   *
+   * @param validator text which changes whenever the response can change (e.g. see {@link jetbrains.buildServer.server.rest.data.ServerDataVersions}),
+   *                  null if the response cannot be validated cheaply
+   */
+  public static void checkNotModified(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response, @Nullable final String validator) {
+    if (validator == null || !TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY)) {
+      return;
+    }
+    final SUser user = SessionUser.getUser(request); //the response depends on the user permissions
+    final String eTag = "\"" + EncryptUtil.md5(validator + "|" + (user == null ? "" : user.getId()) + "|" + request.getHeader(HttpHeaders.ACCEPT)) + "\"";
+    response.setHeader(HttpHeaders.ETAG, eTag);
+    setPerUserCaching(response);
+
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && isMatched(ifNoneMatch, eTag)) {
+      throw new NotModifiedException(eTag);
+    }
+  }
+
+  /**
+   * @param eTag ETag of the response calculated by the caller
+   * @return true if the request has "If-None-Match" header matching the ETag, so that "304 Not Modified" can be replied
+   */
+  public static boolean isNotModified(@NotNull final HttpServletRequest request, @NotNull final String eTag) {
+    if (!TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY)) return false;
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    return ifNoneMatch != null && isMatched(ifNoneMatch, eTag.startsWith("W/") ? eTag.substring("W/".length()) : eTag);
+  }
+
+  /**
+   * Marks the response as depending on the requesting user so that shared caches neither store it nor reply with it to other users
+   */
+  public static void setPerUserCaching(@NotNull final HttpServletResponse response) {
+    response.setHeader(HttpHeaders.VARY, VARY_HEADER_VALUE);
+    response.setHeader(HttpHeaders.CACHE_CONTROL, "private");
+  }
+
+  private static boolean isMatched(@NotNull final String ifNoneMatchHeader, @NotNull final String eTag) {
+    for (String requestETag : ifNoneMatchHeader.split(",")) {
+      String value = requestETag.trim();
+      if ("*".equals(value)) return true;
+      if (value.startsWith("W/")) value = value.substring("W/".length()); //weak comparison is used for If-None-Match
+      if (eTag.equals(value)) return true;
+    }
+    return false;
+  }
+}
@@ -18,10 +18,11 @@ package jetbrains.buildServer.server.rest.util;
 
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @author Yegor.Yarko
@@ -30,40 +31,107 @@ import org.jetbrains.annotations.NotNull;
 public class StreamUtil {
 
   /**
-   * Combines the elements of the passed streams (already ordered by comparator), into resulting stream ordered by comparator
+   * Combines the elements of the passed streams (already ordered by comparator), into resulting stream ordered by comparator.
+   * The streams are not consumed until the first element is requested and then are consumed only as far as the resulting stream is.
+   * Equal elements are all retained: the element of the stream which comes first goes first.
    */
   public static <T> Stream<T> merge(@NotNull Stream<Stream<T>> streams, @NotNull Comparator<T> comparator) {
     return StreamSupport.stream(new MergingSpliterator<T>(streams, comparator), false);
   }
 
+  /**
+   * Creates lazy stream from a sequence which can only be retrieved from the start.
+   * The sequence prefix of the requested size is retrieved first, the prefix of twice the size is retrieved after the elements of the previous one are consumed, etc.
+   * Each prefix is sorted by the comparator and the elements already returned (as per equals) are skipped.
+   * <p/>
+   * The resulting stream is ordered by the comparator only if the sequence itself is ordered by it.
+   * If it is not (e.g. the source order differs or the sequence changes between the retrievals), no element is lost:
+   * an element which was not in the previous prefixes is returned once it is retrieved, even if it should have come before the already returned ones.
+   *
+   * @param prefixProvider provides first N elements of the sequence (less if the sequence is shorter)
+   * @param firstPrefixSize size of the first prefix to retrieve
+   */
+  public static <T> Stream<T> fromPrefixes(@NotNull IntFunction<List<T>> prefixProvider, int firstPrefixSize, @NotNull Comparator<T> comparator) {
+    return StreamSupport.stream(new PrefixesSpliterator<T>(prefixProvider, Math.max(firstPrefixSize, 1), comparator), false);
+  }
+
   private static class MergingSpliterator<T> extends Spliterators.AbstractSpliterator <T> {
-    @NotNull private final SortedMap<T, Iterator<T>> myElements;
+    @Nullable private Stream<Stream<T>> myStreams;
+    @NotNull private final PriorityQueue<Head<T>> myHeads;
 
     MergingSpliterator(@NotNull final Stream<Stream<T>> streams, @NotNull final Comparator<T> comparator) {
       super(Long.MAX_VALUE, 0);
-      Set<Iterator<T>> duplicating = new HashSet<>();
-      myElements = streams.map(stream -> stream.iterator()).filter(it -> it.hasNext())
-                          .collect(Collectors.toMap(it -> it.next(), it -> it, (o, o2) -> {duplicating.add(o2); return o;}, () -> new TreeMap<T, Iterator<T>>(comparator)));
-      duplicating.forEach(it -> add(myElements, it));
+      myStreams = streams;
+      myHeads = new PriorityQueue<>(Comparator.comparing((Head<T> head) -> head.myElement, comparator).thenComparingInt(head -> head.myIndex));
     }
 
     @Override
     public boolean tryAdvance(final Consumer<? super T> action) {
-      if (myElements.isEmpty()) return false;
-      T result = myElements.firstKey();
-      action.accept(result);
-      Iterator<T> it = myElements.remove(result);
-      add(myElements, it);
+      if (myStreams != null) {
+        final Stream<Stream<T>> streams = myStreams;
+        myStreams = null;
+        int index = 0;
+        for (Iterator<Stream<T>> it = streams.iterator(); it.hasNext(); index++) {
+          addNext(it.next().iterator(), index);
+        }
+      }
+      final Head<T> head = myHeads.poll();
+      if (head == null) return false;
+      action.accept(head.myElement);
+      addNext(head.myIterator, head.myIndex);
       return true;
     }
 
-    private void add(@NotNull final SortedMap<T, Iterator<T>> map, @NotNull final Iterator<T> it) {
-      while (it.hasNext()) {
-        T next = it.next();
-        if (map.get(next) == null) {
-          myElements.put(next, it);
-          return;
+    private void addNext(@NotNull final Iterator<T> it, final int index) {
+      if (it.hasNext()) {
+        myHeads.add(new Head<>(it.next(), it, index));
+      }
+    }
+  }
+
+  private static class Head<T> {
+    private final T myElement;
+    @NotNull private final Iterator<T> myIterator;
+    private final int myIndex;
+
+    Head(final T element, @NotNull final Iterator<T> iterator, final int index) {
+      myElement = element;
+      myIterator = iterator;
+      myIndex = index;
+    }
+  }
+
+  private static class PrefixesSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+    @NotNull private final IntFunction<List<T>> myPrefixProvider;
+    @NotNull private final Comparator<T> myComparator;
+    private int myNextPrefixSize;
+    @NotNull private Iterator<T> myCurrent = Collections.emptyIterator();
+    private boolean myCurrentIsLast = false;
+    @NotNull private final Set<T> myReturned = new HashSet<>();
+
+    PrefixesSpliterator(@NotNull final IntFunction<List<T>> prefixProvider, final int firstPrefixSize, @NotNull final Comparator<T> comparator) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED);
+      myPrefixProvider = prefixProvider;
+      myComparator = comparator;
+      myNextPrefixSize = firstPrefixSize;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+      while (true) {
+        while (myCurrent.hasNext()) {
+          final T next = myCurrent.next();
+          if (!myReturned.add(next)) continue;
+          action.accept(next);
+          return true;
         }
+        if (myCurrentIsLast) return false;
+        final int size = myNextPrefixSize;
+        final List<T> prefix = new ArrayList<>(myPrefixProvider.apply(size));
+        prefix.sort(myComparator);
+        myCurrentIsLast = prefix.size() < size;
+        myNextPrefixSize = size > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : size * 2;
+        myCurrent = prefix.iterator();
       }
     }
   }
@@ -17,7 +17,10 @@
 package jetbrains.buildServer.server.rest.data;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import jetbrains.buildServer.requirements.RequirementType;
+import jetbrains.buildServer.server.rest.model.agent.Compatibility;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.impl.MockBuildAgent;
 import jetbrains.buildServer.serverSide.impl.ProjectEx;
@@ -244,6 +247,82 @@ public class AgentFinderTest extends BaseFinderTest<SBuildAgent> {
     checkAgents("compatible:(buildType:(id:" + bt30.getExternalId() + ")),incompatible:(buildType:(id:" + bt10.getExternalId() + "))", myAgent1);
   }
 
+  @Test
+  public void testCompatibilityCache() throws Exception {
+    final AgentCompatibilityCache cache = new AgentCompatibilityCache(myServer);
+    final AtomicInteger calculations = new AtomicInteger();
+    final Supplier<Compatibility.AgentCompatibilityData> calculator = () -> {
+      calculations.incrementAndGet();
+      return new Compatibility.BasicAgentCompatibilityData(myAgent1, myBuildType, true, "test");
+    };
+
+    assertTrue(cache.get(myAgent1, myBuildType, calculator).isCompatible());
+    assertTrue(cache.get(myAgent1, myBuildType, calculator).isCompatible());
+    assertEquals(1, calculations.get());
+
+    cache.get(myAgent3, myBuildType, calculator);
+    assertEquals(2, calculations.get());
+    assertEquals(2, cache.getSize());
+
+    cache.agentDescriptionUpdated(myAgent1);
+    assertEquals(1, cache.getSize());
+    cache.get(myAgent1, myBuildType, calculator);
+    cache.get(myAgent3, myBuildType, calculator);
+    assertEquals(3, calculations.get());
+
+    cache.buildTypePersisted(myBuildType);
+    cache.get(myAgent1, myBuildType, calculator);
+    cache.get(myAgent3, myBuildType, calculator);
+    assertEquals(5, calculations.get());
+
+    setInternalProperty(AgentCompatibilityCache.MAX_AGE_PROPERTY, "0");
+    Thread.sleep(10);
+    cache.get(myAgent1, myBuildType, calculator);
+    assertEquals(6, calculations.get());
+
+    //the least recently used entry is dropped when the limit is exceeded
+    setInternalProperty(AgentCompatibilityCache.MAX_AGE_PROPERTY, "60");
+    setInternalProperty(AgentCompatibilityCache.MAX_ENTRIES_PROPERTY, "2");
+    cache.serverConfigurationReloaded();
+    cache.get(myAgent1, myBuildType, calculator);
+    cache.get(myAgent3, myBuildType, calculator);
+    assertEquals(2, cache.getSize());
+    assertEquals(8, calculations.get());
+    cache.get(myAgent1, myBuildType, calculator);
+    assertEquals(8, calculations.get());
+    cache.get(myAgent2, myBuildType, calculator);
+    assertEquals(2, cache.getSize());
+    assertEquals(9, calculations.get());
+    cache.get(myAgent1, myBuildType, calculator);
+    assertEquals(9, calculations.get());
+    cache.get(myAgent3, myBuildType, calculator);
+    assertEquals(10, calculations.get());
+  }
+
+  @Test
+  public void testCompatibilityCacheForQueuedBuild() throws Exception {
+    final AgentCompatibilityCache cache = new AgentCompatibilityCache(myServer);
+    final SQueuedBuild queuedBuild = build().in(myBuildType).addToQueue();
+    final AtomicInteger calculations = new AtomicInteger();
+    final Supplier<List<SBuildAgent>> calculator = () -> {
+      calculations.incrementAndGet();
+      return queuedBuild.getCanRunOnAgents();
+    };
+
+    final List<SBuildAgent> agents = cache.getCanRunOnAgents(queuedBuild, calculator);
+    assertEquals(queuedBuild.getCanRunOnAgents().size(), agents.size());
+    cache.getCanRunOnAgents(queuedBuild, calculator);
+    assertEquals(1, calculations.get());
+    assertEquals(1, cache.getQueuedBuildsSize());
+
+    cache.agentDescriptionUpdated(myAgent1);
+    cache.getCanRunOnAgents(queuedBuild, calculator);
+    assertEquals(2, calculations.get());
+
+    cache.buildRemovedFromQueue(queuedBuild, null, null);
+    assertEquals(0, cache.getQueuedBuildsSize());
+  }
+
   @Test
   public void testLocatorCompatibleForBuildWithoutPrefilter() throws Exception {
     setInternalProperty("rest.request.agents.compatibilityPrefilter", "false"); //non-default, pre-2017.1.2 value
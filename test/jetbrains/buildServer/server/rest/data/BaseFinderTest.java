@@ -166,7 +166,7 @@ public abstract class BaseFinderTest<T> extends BaseServerTestCase{
 
     final ResponsibilityFacadeEx responsibilityFacade = myFixture.getResponsibilityFacadeEx();
     myInvestigationFinder = new InvestigationFinder(myProjectFinder, myBuildTypeFinder, myProblemFinder, myTestFinder, myUserFinder,
-                                                    responsibilityFacade, responsibilityFacade, responsibilityFacade);
+                                                    responsibilityFacade, responsibilityFacade, responsibilityFacade, myFixture);
     myFixture.addService(myInvestigationFinder);
 
     myQueuedBuildFinder =
@@ -176,6 +176,9 @@ public abstract class BaseFinderTest<T> extends BaseServerTestCase{
     myChangeFinder = new ChangeFinder(myProjectFinder, myBuildFinder, myBuildPromotionFinder, myBuildTypeFinder, myVcsRootFinder, myVcsRootInstanceFinder, myUserFinder,
                                       myVcsManager, myFixture.getVcsHistory(), myBranchFinder, myFixture, myPermissionChecker);
     myFixture.addService(myChangeFinder);
+
+    myFixture.addService(new ServerDataVersions(myServer, getUserModelEx()));
+    myFixture.addService(new BuildStatusCache());
   }
 
   public void setFinder(@NotNull Finder<T> finder){
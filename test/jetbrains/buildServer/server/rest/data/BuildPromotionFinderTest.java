@@ -23,6 +23,8 @@ import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import jetbrains.buildServer.MockTimeService;
@@ -1121,6 +1123,84 @@ public class BuildPromotionFinderTest extends BaseFinderTest<BuildPromotion> {
                 getBuildPromotions(finishedBuild40, finishedBuild30, finishedBuild20, finishedBuild05));
   }
 
+  @Test
+  public void testResultingParametersCache() {
+    final BuildResultingParametersCache cache = new BuildResultingParametersCache();
+    myFixture.addService(cache);
+
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final SFinishedBuild finishedBuild10 = build().in(buildConf1).parameter("release.version", "1.0").parameter("b", "10").finish();
+    final SFinishedBuild finishedBuild20 = build().in(buildConf1).parameter("release.version", "2.0").finish();
+    final SFinishedBuild finishedBuild30 = build().in(buildConf1).parameter("b", "20").finish();
+
+    for (int i = 0; i < 2; i++) { //the second pass uses the projections
+      checkBuilds("property:(name:release.version,value:1.0)", getBuildPromotions(finishedBuild10));
+      checkBuilds("property:(name:release.version)", getBuildPromotions(finishedBuild20, finishedBuild10));
+      checkBuilds("property:(name:release.version,value:1,matchType:more-than)", getBuildPromotions(finishedBuild20));
+      checkBuilds("property:(name:release.version,matchType:not-exists)", getBuildPromotions(finishedBuild30));
+      checkBuilds("property:(name:release.version),property:(name:b,value:10)", getBuildPromotions(finishedBuild10));
+      checkBuilds("property:(name:(value:rel.*,matchType:matches),value:2.0)", getBuildPromotions(finishedBuild20));
+      checkBuilds("property:(value:20,matchType:equals)", getBuildPromotions(finishedBuild30));
+    }
+
+    assertEquals(3, cache.getProjectionsCount());
+
+    final SFinishedBuild finishedBuild40 = build().in(buildConf1).parameter("release.version", "1.0").finish(); //projection is stored on the first filtering
+    assertEquals(3, cache.getProjectionsCount());
+    checkBuilds("property:(name:release.version,value:1.0)", getBuildPromotions(finishedBuild40, finishedBuild10));
+    assertEquals(4, cache.getProjectionsCount());
+
+    setInternalProperty("rest.buildResultingParametersCache.enabled", "false");
+    checkBuilds("property:(name:release.version,value:1.0)", getBuildPromotions(finishedBuild40, finishedBuild10));
+  }
+
+  @Test
+  public void testResultingParametersCacheNames() {
+    final AtomicLong time = new AtomicLong(1000);
+    final BuildResultingParametersCache cache = new BuildResultingParametersCache(time::get);
+    myFixture.addService(cache);
+    setInternalProperty(BuildResultingParametersCache.MAX_NAMES_PROPERTY, "2");
+    setInternalProperty(BuildResultingParametersCache.NAME_EXPIRY_SECONDS_PROPERTY, "3600");
+
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final SFinishedBuild finishedBuild10 = build().in(buildConf1).parameter("a", "1").parameter("b", "2").parameter("c", "3").finish();
+
+    checkBuilds("property:(name:a,value:1)", getBuildPromotions(finishedBuild10));
+    time.addAndGet(TimeUnit.MINUTES.toMillis(10));
+    checkBuilds("property:(name:b,value:2)", getBuildPromotions(finishedBuild10));
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), cache.getLearnedNames());
+
+    time.addAndGet(TimeUnit.MINUTES.toMillis(10));
+    checkBuilds("property:(name:c,value:3)", getBuildPromotions(finishedBuild10));
+    assertEquals("Least recently used name should be forgotten", new HashSet<>(Arrays.asList("b", "c")), cache.getLearnedNames());
+
+    setInternalProperty(BuildResultingParametersCache.MAX_NAMES_PROPERTY, "10");
+    time.addAndGet(TimeUnit.MINUTES.toMillis(55));
+    checkBuilds("property:(name:c,value:3)", getBuildPromotions(finishedBuild10));
+    time.addAndGet(TimeUnit.MINUTES.toMillis(10));
+    checkBuilds("property:(name:a,value:1)", getBuildPromotions(finishedBuild10));
+    assertEquals("Not used name should expire", new HashSet<>(Arrays.asList("c", "a")), cache.getLearnedNames());
+  }
+
+  @Test
+  public void testResultingParametersCacheSize() {
+    final BuildResultingParametersCache cache = new BuildResultingParametersCache();
+    myFixture.addService(cache);
+    setInternalProperty(BuildResultingParametersCache.MAX_SIZE_KB_PROPERTY, "0");
+
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final SFinishedBuild finishedBuild10 = build().in(buildConf1).parameter("release.version", "1.0").finish();
+    final SFinishedBuild finishedBuild20 = build().in(buildConf1).parameter("release.version", "2.0").finish();
+
+    checkBuilds("property:(name:release.version,value:1.0)", getBuildPromotions(finishedBuild10));
+    assertEquals("Projections not fitting into the size limit should not be stored", 0, cache.getProjectionsCount());
+
+    setInternalProperty(BuildResultingParametersCache.MAX_SIZE_KB_PROPERTY, "1024");
+    checkBuilds("property:(name:release.version,value:1.0)", getBuildPromotions(finishedBuild10));
+    checkBuilds("property:(name:release.version,value:2.0)", getBuildPromotions(finishedBuild20));
+    assertEquals(2, cache.getProjectionsCount());
+  }
+
   @Test
   public void testBranchDimension() throws ExecutionException, InterruptedException {
     final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
@@ -1664,6 +1744,35 @@ public class BuildPromotionFinderTest extends BaseFinderTest<BuildPromotion> {
     check("pinned:true");
   }
 
+  @Test
+  public void testSeveralAgentsHistory() {
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
+    final MockBuildAgent agent1 = myFixture.createEnabledAgent("agent1", "smth");
+    registerAndEnableAgent(agent1);
+    final MockBuildAgent agent2 = myFixture.createEnabledAgent("agent2", "smth");
+    registerAndEnableAgent(agent2);
+
+    final BuildPromotion build10 = build().in(buildConf).on(agent1).finish().getBuildPromotion();
+    final BuildPromotion build20 = build().in(buildConf).on(agent2).finish().getBuildPromotion();
+    final BuildPromotion build30 = build().in(buildConf).on(agent2).failed().finish().getBuildPromotion();
+    final BuildPromotion build40 = build().in(buildConf).on(myBuildAgent).finish().getBuildPromotion();
+    final BuildPromotion build50 = build().in(buildConf).on(agent1).finish().getBuildPromotion();
+    final BuildPromotion build60 = build().in(buildConf).on(agent2).finish().getBuildPromotion();
+    final BuildPromotion build70 = build().in(buildConf).on(agent1).failed().finish().getBuildPromotion();
+
+    final String agentsLocator = "agent:(item:(id:" + agent1.getId() + "),item:(id:" + agent2.getId() + "))";
+    check(agentsLocator, build70, build60, build50, build30, build20, build10);
+    check(agentsLocator + ",count:3", build70, build60, build50);
+    check(agentsLocator + ",status:FAILURE", build70, build30);
+
+    setInternalProperty("rest.buildPromotionFinder.agentHistory.firstPortionSize", "1");
+    check(agentsLocator, build70, build60, build50, build30, build20, build10);
+    check(agentsLocator + ",start:2,count:3", build50, build30, build20);
+
+    setInternalProperty("rest.buildPromotionFinder.agentHistory.lazy", "false");
+    check(agentsLocator, build70, build60, build50, build30, build20, build10);
+  }
+
   @Test
   public void testAgentFilteringAfterNameChange() {
     final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
@@ -1838,6 +1947,62 @@ public class BuildPromotionFinderTest extends BaseFinderTest<BuildPromotion> {
     check("or(tag:tag2,tag:tag3)", build30, build20);
   }
 
+  @Test
+  public void testBuildNumberTagIndex() {
+    final SProject project = createProject("prj", "project");
+    final BuildTypeEx buildConf1 = (BuildTypeEx)project.createBuildType("buildConf1", "buildConf1");
+    final BuildTypeEx buildConf2 = (BuildTypeEx)project.createBuildType("buildConf2", "buildConf2");
+
+    final BuildPromotion build10 = build().in(buildConf1).number("10").tag("tag1").finish().getBuildPromotion();
+    final BuildPromotion build20 = build().in(buildConf2).number("10").finish().getBuildPromotion();
+
+    final BuildNumberTagIndex index = new BuildNumberTagIndex(myServer, myFixture.getSingletonService(BuildsManager.class), myFixture.getSingletonService(ServerPaths.class));
+    myFixture.addService(index);
+    assertNull(index.getPromotionIdsByNumber("10"));
+    check("number:10", build20, build10); //scanning while the index is not ready
+    index.bootstrap();
+
+    final BuildPromotion build30 = build().in(buildConf1).number("10").tag("tag1").tag("tag2").finish().getBuildPromotion();
+    final BuildPromotion build40 = build().in(buildConf2).number("20").tag("tag2").finish().getBuildPromotion();
+    final BuildPromotion build50 = build().in(buildConf2).number("10").run().getBuildPromotion();
+
+    assertEquals(3, index.getPromotionIdsByNumber("10").length);
+    check("number:10", build30, build20, build10);
+    check("number:10,running:any", build50, build30, build20, build10);
+    check("number:20", build40);
+    check("number:30");
+    check("tag:tag1", build30, build10);
+    check("tag:tag2", build40, build30);
+    check("tag:tag2,number:20", build40);
+
+    build30.setTags(Collections.singletonList("tag3"));
+    check("tag:tag2", build40);
+    check("tag:tag3", build30);
+
+    final SFinishedBuild build60 = build().in(buildConf1).number("10").tag("tag3").finish();
+    assertEquals(4, index.getPromotionIdsByNumber("10").length);
+    myFixture.getSingletonService(BuildHistory.class).removeEntry(build60);
+    assertEquals(3, index.getPromotionIdsByNumber("10").length);
+    assertEquals(1, index.getPromotionIdsByTag("tag3").length);
+    check("number:10", build30, build20, build10);
+
+    index.serverShutdown();
+    final BuildNumberTagIndex loadedIndex = new BuildNumberTagIndex(myServer, myFixture.getSingletonService(BuildsManager.class), myFixture.getSingletonService(ServerPaths.class));
+    assertTrue(loadedIndex.load());
+    assertFalse(loadedIndex.load()); //the file is removed after loading
+    loadedIndex.bootstrap();
+    assertEquals(index.getPromotionIdsByNumber("10"), loadedIndex.getPromotionIdsByNumber("10"));
+    assertEquals(index.getPromotionIdsByTag("tag3"), loadedIndex.getPromotionIdsByTag("tag3"));
+
+    //the keys are hashed: the builds with another tag of the same hash code are filtered out
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    final BuildPromotion build70 = build().in(buildConf1).number("70").tag("Aa").finish().getBuildPromotion();
+    final BuildPromotion build80 = build().in(buildConf1).number("80").tag("BB").finish().getBuildPromotion();
+    assertEquals(2, index.getPromotionIdsByTag("Aa").length);
+    check("tag:Aa", build70);
+    check("tag:BB", build80);
+  }
+
   @Test
   public void testCaseInTags() {
     final SProject project = createProject("prj", "project");
@@ -580,6 +580,59 @@ public class BuildTypeFinderTest extends BaseFinderTest<BuildTypeOrTemplate> {
     checkBuildTypes("vcsRootInstance:(vcsRoot:(type:svn)),project:(id:" + project10_10.getExternalId() + ")", buildConf50);
   }
 
+  @Test
+  public void testVcsRootUsageIndex() throws Exception {
+    final VcsRootUsageIndex index = new VcsRootUsageIndex(myServer, myProjectManager);
+    myFixture.addService(index);
+    myBuildType.remove();
+
+    final SProject project10 = createProject("p10");
+    myFixture.registerVcsSupport("svn");
+    final SVcsRoot vcsRoot10 = getRootProject().createVcsRoot("svn", "id10", "VCS root 10 name");
+    final SVcsRoot vcsRoot20 = project10.createVcsRoot("svn", "id20", "VCS root 20 name");
+
+    final BuildTypeTemplate template = project10.createBuildTypeTemplate("template");
+    template.addVcsRoot(vcsRoot10);
+    final SBuildType buildConf10 = project10.createBuildType("buildConf10");
+    buildConf10.attachToTemplate(template);
+    final SBuildType buildConf20 = project10.createBuildType("buildConf20");
+    buildConf20.addVcsRoot(vcsRoot20);
+    final SBuildType buildConf30 = project10.createBuildType("buildConf30");
+    buildConf30.addVcsRoot(vcsRoot10);
+    buildConf30.addVcsRoot(vcsRoot20);
+
+    checkBuildTypes("vcsRoot:(id:id10)", buildConf10, buildConf30, template);
+    checkBuildTypes("vcsRoot:(id:id20)", buildConf20, buildConf30);
+    checkBuildTypes("vcsRoot:(type:svn)", buildConf10, buildConf20, buildConf30, template);
+    checkBuildTypes("vcsRoot:(id:id10),templateFlag:false", buildConf10, buildConf30);
+
+    final VcsRootInstance vcsRootInstance20 = buildConf20.getVcsRootInstanceForParent(vcsRoot20);
+    assert vcsRootInstance20 != null;
+    checkBuildTypes("vcsRootInstance:(id:" + vcsRootInstance20.getId() + ")", buildConf20, buildConf30);
+
+    //persisting updates only the affected items
+    final int rebuildsCount = index.getRebuildsCount();
+    buildConf20.removeVcsRoot(vcsRoot20);
+    buildConf20.persist();
+    checkBuildTypes("vcsRoot:(id:id20)", buildConf30);
+    checkBuildTypes("vcsRootInstance:(id:" + vcsRootInstance20.getId() + ")", buildConf30);
+
+    template.removeVcsRoot(vcsRoot10);
+    template.persist();
+    checkBuildTypes("vcsRoot:(id:id10)", buildConf30);
+
+    buildConf20.addVcsRoot(vcsRoot10);
+    project10.persist();
+    checkBuildTypes("vcsRoot:(id:id10)", buildConf20, buildConf30);
+    assertEquals(rebuildsCount, index.getRebuildsCount());
+
+    //the set of the items changes
+    final SBuildType buildConf40 = project10.createBuildType("buildConf40");
+    buildConf40.addVcsRoot(vcsRoot20);
+    checkBuildTypes("vcsRoot:(id:id20)", buildConf30, buildConf40);
+    assertEquals(rebuildsCount + 1, index.getRebuildsCount());
+  }
+
   @Test
   public void testParameters() throws Exception {
     myBuildType.remove();
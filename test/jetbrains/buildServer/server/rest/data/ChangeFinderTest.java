@@ -16,7 +16,14 @@
 
 package jetbrains.buildServer.server.rest.data;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.change.Change;
@@ -483,6 +490,161 @@ public class ChangeFinderTest extends BaseFinderTest<SVcsModification> {
     checkCounts("version:50", 1, 6);
   }
 
+  @Test
+  public void testRangeScan() {
+    setInternalProperty(ChangesRangeScan.WINDOW_SIZE_PROPERTY, "2");
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project1");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project2");
+
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    SVcsRootEx parentRoot1 = myFixture.addVcsRoot(vcs.getName(), "", buildConf1);
+    SVcsRootEx parentRoot2 = myFixture.addVcsRoot(vcs.getName(), "", buildConf2);
+    VcsRootInstance root1 = buildConf1.getVcsRootInstanceForParent(parentRoot1);
+    VcsRootInstance root2 = buildConf2.getVcsRootInstanceForParent(parentRoot2);
+    assert root1 != null;
+    assert root2 != null;
+
+    SVcsModification m10 = myFixture.addModification(modification().in(root1).version("10"));
+    SVcsModification m20 = myFixture.addModification(modification().in(root2).version("20"));
+    SVcsModification m30 = myFixture.addModification(modification().in(root2).version("30"));
+    SVcsModification m40 = myFixture.addModification(modification().in(root2).version("40"));
+    SVcsModification m50 = myFixture.addModification(modification().in(root2).version("50"));
+    SVcsModification m60 = myFixture.addModification(modification().in(root1).version("60"));
+    SVcsModification m70 = myFixture.addModification(modification().in(root2).version("70"));
+
+    final String root1Locator = "vcsRootInstance:(id:" + root1.getId() + ")";
+    final String root2Locator = "vcsRootInstance:(id:" + root2.getId() + ")";
+    check(root1Locator, m60, m10);
+    check(root2Locator, m70, m50, m40, m30, m20);
+    check(root1Locator + ",sinceChange:" + m10.getId(), m60);
+    check(root2Locator + ",sinceChange:" + m30.getId(), m70, m50, m40);
+    final PagingCursor cursor = getFinder().getItems(root2Locator + ",count:2").getNextPageCursor();
+    assertNotNull(cursor);
+    check(root2Locator + ",count:2,$cursor:" + cursor, m40, m30);
+    check(root2Locator + ",sinceChange:" + m30.getId() + ",count:1,$cursor:" + getFinder().getItems(root2Locator + ",sinceChange:" + m30.getId() + ",count:1").getNextPageCursor(), m50);
+    check("sinceChange:" + m40.getId(), m70, m60, m50);
+    check("project:(id:" + buildConf1.getProject().getExternalId() + ")", m60, m10);
+    checkCounts(root2Locator + ",count:2", 2, 3);
+    checkCounts("sinceChange:" + m10.getId() + ",count:2", 2, 3);
+
+    setInternalProperty(ChangesRangeScan.ENABLED_PROPERTY, "false");
+    check(root2Locator, m70, m50, m40, m30, m20);
+    check(root2Locator + ",sinceChange:" + m30.getId(), m70, m50, m40);
+  }
+
+  @Test
+  public void testProjectChanges() {
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project1");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project1");
+    final BuildTypeImpl buildConfOther = registerBuildType("buildConfOther", "project2");
+
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    VcsRootInstance root1 = buildConf1.getVcsRootInstanceForParent(myFixture.addVcsRoot(vcs.getName(), "", buildConf1));
+    VcsRootInstance root2 = buildConf2.getVcsRootInstanceForParent(myFixture.addVcsRoot(vcs.getName(), "", buildConf2));
+    VcsRootInstance rootOther = buildConfOther.getVcsRootInstanceForParent(myFixture.addVcsRoot(vcs.getName(), "", buildConfOther));
+    assert root1 != null;
+    assert root2 != null;
+    assert rootOther != null;
+
+    SVcsModification m10 = myFixture.addModification(modification().in(root1).version("10"));
+    SVcsModification m20 = myFixture.addModification(modification().in(root2).version("20"));
+    myFixture.addModification(modification().in(rootOther).version("25"));
+    SVcsModification m30 = myFixture.addModification(modification().in(root2).version("30"));
+    SVcsModification m40 = myFixture.addModification(modification().in(root1).version("40"));
+    myFixture.addModification(modification().in(rootOther).version("45"));
+    SVcsModification m50 = myFixture.addModification(modification().in(root2).version("50"));
+
+    final String projectLocator = "project:(id:" + buildConf1.getProject().getExternalId() + ")";
+    for (String rangeScanEnabled : new String[]{"true", "false"}) {
+      setInternalProperty(ChangesRangeScan.ENABLED_PROPERTY, rangeScanEnabled);
+      setInternalProperty(ChangesRangeScan.WINDOW_SIZE_PROPERTY, "2");
+      check(projectLocator, m50, m40, m30, m20, m10);
+      check(projectLocator + ",sinceChange:" + m20.getId(), m50, m40, m30);
+      check(projectLocator + ",count:2", m50, m40);
+      checkCounts(projectLocator + ",count:2", 2, 3);
+      checkCounts(projectLocator + ",lookupLimit:3", 3, 3);
+
+      //the next page is scanned starting from the cursor change
+      final PagingCursor cursor = getFinder().getItems(projectLocator + ",count:2").getNextPageCursor();
+      assertNotNull(cursor);
+      check(projectLocator + ",count:2,$cursor:" + cursor, m30, m20);
+      check(projectLocator + ",$cursor:" + cursor, m30, m20, m10);
+    }
+  }
+
+  @Test
+  public void testRangeScanManyRoots() {
+    setInternalProperty(ChangesRangeScan.WINDOW_SIZE_PROPERTY, "10");
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project1");
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    final List<VcsRootInstance> roots = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      final VcsRootInstance root = buildConf.getVcsRootInstanceForParent(myFixture.addVcsRoot(vcs.getName(), "", buildConf));
+      assert root != null;
+      roots.add(root);
+    }
+    final List<Long> expected = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      for (VcsRootInstance root : roots) {
+        expected.add(myFixture.addModification(modification().in(root).version(root.getId() + "_" + i)).getId());
+      }
+    }
+    Collections.reverse(expected);
+
+    final VcsModificationHistory history = myFixture.getVcsHistory();
+    assertTrue(history instanceof VcsModificationHistoryEx);
+    final AtomicInteger rangeQueries = new AtomicInteger();
+    final AtomicInteger maxLoaded = new AtomicInteger();
+    final VcsModificationHistory countingHistory =
+      (VcsModificationHistory)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{VcsModificationHistoryEx.class}, (proxy, method, args) -> {
+        try {
+          final Object result = method.invoke(history, args);
+          if ("getModificationsInRange".equals(method.getName())) {
+            rangeQueries.incrementAndGet();
+            maxLoaded.accumulateAndGet(((List)result).size(), Math::max);
+          }
+          return result;
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      });
+
+    assertEquals(expected, ChangesRangeScan.getChanges(countingHistory, roots, 0).map(SVcsModification::getId).collect(Collectors.toList()));
+    assertTrue("One request per window is expected regardless of the roots number, but was " + rangeQueries.get(), rangeQueries.get() <= 90 / 10 + 1);
+
+    rangeQueries.set(0);
+    assertEquals(expected.subList(0, 5), ChangesRangeScan.getChanges(countingHistory, roots, 0).limit(5).map(SVcsModification::getId).collect(Collectors.toList()));
+    assertEquals(1, rangeQueries.get());
+
+    rangeQueries.set(0);
+    assertEquals(expected.subList(0, 20), ChangesRangeScan.getChanges(countingHistory, roots, expected.get(20)).map(SVcsModification::getId).collect(Collectors.toList()));
+    assertTrue("Only the windows after the since change are expected, but was " + rangeQueries.get(), rangeQueries.get() <= 3);
+
+    rangeQueries.set(0);
+    assertEquals(expected.subList(70, 90), ChangesRangeScan.getChanges(countingHistory, roots, 0, expected.get(70)).map(SVcsModification::getId).collect(Collectors.toList()));
+    assertTrue("Only the windows before the upper change are expected, but was " + rangeQueries.get(), rangeQueries.get() <= 3);
+
+    final List<VcsRootInstance> someRoots = roots.subList(0, 2);
+    final List<Long> someRootsExpected = expected.stream().filter(id -> {
+      final long rootId = history.findChangeById(id).getVcsRoot().getId();
+      return someRoots.stream().anyMatch(root -> root.getId() == rootId);
+    }).collect(Collectors.toList());
+    maxLoaded.set(0);
+    assertEquals(someRootsExpected, ChangesRangeScan.getChanges(countingHistory, someRoots, 0).map(SVcsModification::getId).collect(Collectors.toList()));
+    assertTrue("The window should not grow for the dense history of all the roots, but loaded " + maxLoaded.get(), maxLoaded.get() <= 10);
+
+    //the growing window of a sparse root is capped
+    setInternalProperty(ChangesRangeScan.MAX_WINDOW_SIZE_PROPERTY, "20");
+    final VcsRootInstance sparseRoot = roots.get(0);
+    rangeQueries.set(0);
+    assertEquals(someRootsExpected.stream().filter(id -> history.findChangeById(id).getVcsRoot().getId() == sparseRoot.getId()).collect(Collectors.toList()),
+                 ChangesRangeScan.getChanges(countingHistory, Collections.singletonList(sparseRoot), 0).map(SVcsModification::getId).collect(Collectors.toList()));
+    assertTrue("The window should not exceed the max size, but there were " + rangeQueries.get() + " requests", rangeQueries.get() >= (90 - 10) / 20 + 1);
+  }
+
   private void check(final FileChange fileChangeToCheck, final String type, final String typeComment, final Boolean isDirectory, final String filePath, final String relativePath) {
     assertEquals(type, fileChangeToCheck.changeType);
     assertEquals(typeComment, fileChangeToCheck.changeTypeComment);
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.buildTriggers.vcs.BuildBuilder;
+import jetbrains.buildServer.server.rest.util.BuildTypeOrTemplate;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.impl.BuildTypeImpl;
+import jetbrains.buildServer.serverSide.impl.DownloadedArtifactsLoggerImpl;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DependencyGraphIndexTest extends BaseFinderTest<BuildPromotion> {
+  private DependencyGraphIndex myIndex;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    myIndex = new DependencyGraphIndex(myServer, myProjectManager, myFixture.getBuildPromotionManager());
+    myFixture.addService(myIndex);
+    setFinder(myBuildPromotionFinder);
+  }
+
+  @Test
+  public void testSnapshotDependenciesBothDirections() throws Exception {
+    final BuildTypeImpl buildConf0 = registerBuildType("buildConf0", "project");
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    addDependency(buildConf2, buildConf1);
+    addDependency(buildConf1, buildConf0);
+    final BuildPromotion build2 = build().in(buildConf2).addToQueue().getBuildPromotion();
+    final BuildPromotion build1 = build2.getDependencies().iterator().next().getDependOn();
+    final BuildPromotion build0 = build1.getDependencies().iterator().next().getDependOn();
+    finishBuild(BuildBuilder.run(build0.getQueuedBuild(), myFixture), false);
+    finishBuild(BuildBuilder.run(build1.getQueuedBuild(), myFixture), false);
+
+    checkBuilds("snapshotDependency:(to:(id:" + build2.getId() + ")),state:any", build1, build0);
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + ")),state:any", build2, build1);
+    assertTrue(myIndex.isSnapshotDependentsStored(build0.getId()));
+    assertTrue(myIndex.isSnapshotDependentsStored(build1.getId()));
+
+    //the same results are returned from the stored lists
+    checkBuilds("snapshotDependency:(to:(id:" + build2.getId() + ")),state:any", build1, build0);
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + ")),state:any", build2, build1);
+    assertEquals(ids(build0), ids(myIndex.getSnapshotDependencies(build1)));
+    assertEquals(ids(build1), ids(myIndex.getSnapshotDependents(build0)));
+  }
+
+  @Test
+  public void testSnapshotDependentsInvalidation() throws Exception {
+    final BuildTypeImpl buildConf0 = registerBuildType("buildConf0", "project");
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final BuildTypeImpl buildConfOther = registerBuildType("buildConfOther", "project");
+    addDependency(buildConf1, buildConf0);
+    final SFinishedBuild build0 = build().in(buildConf0).finish();
+    final SFinishedBuild buildOther = build().in(buildConfOther).finish();
+
+    assertEquals(ids(), ids(myIndex.getSnapshotDependents(build0.getBuildPromotion())));
+    assertEquals(ids(), ids(myIndex.getSnapshotDependents(buildOther.getBuildPromotion())));
+
+    final BuildPromotion build1 = build().in(buildConf1).addToQueue().getBuildPromotion();
+    final BuildPromotion dependency1 = build1.getDependencies().iterator().next().getDependOn();
+    assertFalse("Dependents of the dependency of the queued build should be dropped", myIndex.isSnapshotDependentsStored(dependency1.getId()));
+    assertTrue("Not affected dependents should be kept", myIndex.isSnapshotDependentsStored(buildOther.getId()));
+    assertEquals(ids(build1), ids(myIndex.getSnapshotDependents(dependency1)));
+
+    addDependency(buildConf2, buildConf0);
+    final BuildPromotion build2 = build().in(buildConf2).addToQueue().getBuildPromotion();
+    final BuildPromotion dependency2 = build2.getDependencies().iterator().next().getDependOn();
+    assertTrue(ids(myIndex.getSnapshotDependents(dependency2)).contains(build2.getId()));
+
+    build2.getQueuedBuild().removeFromQueue(null, "");
+    assertFalse(ids(myIndex.getSnapshotDependents(dependency2)).contains(build2.getId()));
+    assertTrue(myIndex.isSnapshotDependentsStored(buildOther.getId()));
+  }
+
+  @Test
+  public void testArtifactDependenciesBothDirections() throws Exception {
+    final BuildTypeImpl buildConf0 = registerBuildType("buildConf0", "project");
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    addArtifactDependency(buildConf2, buildConf1);
+    addArtifactDependency(buildConf1, buildConf0);
+
+    final DownloadedArtifactsLoggerImpl artifactsLogger = myFixture.getSingletonService(DownloadedArtifactsLoggerImpl.class);
+    final SFinishedBuild build0 = build().in(buildConf0).finish();
+    final SFinishedBuild build1 = build().in(buildConf1).finish();
+    artifactsLogger.logArtifactDownload(build1.getBuildId(), build0.getBuildId(), ARTIFACT_DEP_FILE_NAME);
+    final SFinishedBuild build2 = build().in(buildConf2).finish();
+    artifactsLogger.logArtifactDownload(build2.getBuildId(), build1.getBuildId(), ARTIFACT_DEP_FILE_NAME);
+    artifactsLogger.waitForQueuePersisting();
+
+    checkBuilds("artifactDependency:(to:(id:" + build2.getBuildPromotion().getId() + "))", build1.getBuildPromotion(), build0.getBuildPromotion());
+    checkBuilds("artifactDependency:(from:(id:" + build0.getBuildPromotion().getId() + "))", build1.getBuildPromotion(), build2.getBuildPromotion());
+    //the same results are returned from the stored lists
+    checkBuilds("artifactDependency:(to:(id:" + build2.getBuildPromotion().getId() + "))", build1.getBuildPromotion(), build0.getBuildPromotion());
+    assertEquals(ids(build0.getBuildPromotion()), ids(myIndex.getArtifactDependencies(build1.getBuildPromotion())));
+
+    myFixture.getSingletonService(BuildHistory.class).removeEntry(build0);
+    assertEquals("Deleted build should not be returned", ids(), ids(myIndex.getArtifactDependencies(build1.getBuildPromotion())));
+    checkBuilds("artifactDependency:(to:(id:" + build2.getBuildPromotion().getId() + "))", build1.getBuildPromotion());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    setInternalProperty(DependencyGraphIndex.MAX_ENTRIES_PROPERTY, "2");
+    final BuildTypeImpl buildConf = registerBuildType("buildConf", "project");
+    final BuildPromotion build1 = build().in(buildConf).finish().getBuildPromotion();
+    final BuildPromotion build2 = build().in(buildConf).finish().getBuildPromotion();
+    final BuildPromotion build3 = build().in(buildConf).finish().getBuildPromotion();
+
+    myIndex.getSnapshotDependents(build1);
+    myIndex.getSnapshotDependents(build2);
+    myIndex.getSnapshotDependents(build1);
+    myIndex.getSnapshotDependents(build3);
+
+    assertTrue("Recently used entry should be kept", myIndex.isSnapshotDependentsStored(build1.getId()));
+    assertFalse("Least recently used entry should be evicted", myIndex.isSnapshotDependentsStored(build2.getId()));
+    assertTrue(myIndex.isSnapshotDependentsStored(build3.getId()));
+  }
+
+  @Test
+  public void testBuildTypeDependencies() throws Exception {
+    final BuildTypeImpl buildConf0 = registerBuildType("buildConf0", "project");
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final BuildTypeImpl buildConfOther = registerBuildType("buildConfOther", "project");
+    addDependency(buildConf1, buildConf0);
+    addDependency(buildConf2, buildConf0);
+    addArtifactDependency(buildConf2, buildConf1);
+
+    for (int i = 0; i < 2; i++) { //the same results are returned from the stored lists
+      assertEquals(internalIds(buildConf0), internalIds(myIndex.getBuildTypeSnapshotDependencies(new BuildTypeOrTemplate(buildConf1))));
+      assertEquals(new HashSet<>(internalIds(buildConf1, buildConf2)), new HashSet<>(internalIds(myIndex.getBuildTypeSnapshotDependents(buildConf0))));
+      assertEquals(internalIds(buildConf1), internalIds(myIndex.getBuildTypeArtifactDependencies(new BuildTypeOrTemplate(buildConf2))));
+      assertEquals(internalIds(buildConf2), internalIds(myIndex.getBuildTypeArtifactDependents(buildConf1)));
+      assertEquals(internalIds(), internalIds(myIndex.getBuildTypeSnapshotDependencies(new BuildTypeOrTemplate(buildConfOther))));
+      assertEquals(internalIds(), internalIds(myIndex.getBuildTypeSnapshotDependents(buildConfOther)));
+    }
+
+    //the stored lists are dropped on a configuration change
+    addDependency(buildConfOther, buildConf1);
+    myIndex.buildTypePersisted(buildConfOther);
+    assertEquals(internalIds(buildConf1), internalIds(myIndex.getBuildTypeSnapshotDependencies(new BuildTypeOrTemplate(buildConfOther))));
+    assertEquals(internalIds(buildConfOther), internalIds(myIndex.getBuildTypeSnapshotDependents(buildConf1)));
+  }
+
+  @NotNull
+  private static List<String> internalIds(@NotNull final SBuildType... buildTypes) {
+    return internalIds(Arrays.asList(buildTypes));
+  }
+
+  @NotNull
+  private static List<String> internalIds(@NotNull final List<? extends SBuildType> buildTypes) {
+    return buildTypes.stream().map(SBuildType::getInternalId).collect(Collectors.toList());
+  }
+
+  @NotNull
+  private static List<Long> ids(@NotNull final BuildPromotion... builds) {
+    return ids(Arrays.asList(builds));
+  }
+
+  @NotNull
+  private static List<Long> ids(@NotNull final List<BuildPromotion> builds) {
+    return builds.stream().map(BuildPromotion::getId).collect(Collectors.toList());
+  }
+}
@@ -16,9 +16,17 @@
 
 package jetbrains.buildServer.server.rest.data;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.testng.annotations.BeforeMethod;
@@ -50,14 +58,214 @@ public class FinderImplTest extends BaseFinderTest<String> {
     check("prefixed:(or:(firstChar:a,firstChar:b),count:4),count:10", "_a1", "_a2", "_a3", "_b1");
   }
 
+  @Test
+  public void testParallelProcessing() {
+    setFinder(new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3", "c1", "c2", "c3"));
+    for (String parallel : new String[]{"false", "true"}) {
+      check("item:(firstChar:a),item:(firstChar:c),secondChar:2,$parallel:" + parallel, "a2", "c2");
+      check("item:(firstChar:a,count:10),item:(firstChar:b,count:10),item:(firstChar:c,count:10),start:2,count:4,$parallel:" + parallel, "a3", "b1", "b2", "b3");
+      check("item:(firstChar:a,count:10),item:(firstChar:b,count:10),item:(firstChar:c,count:10),lookupLimit:5,count:10,$parallel:" + parallel, "a1", "a2", "a3", "b1", "b2");
+      check("item:(firstChar:c),item:(firstChar:a),item:(firstChar:c),count:10,$parallel:" + parallel, "c1", "c2", "a1", "a2");
+    }
+  }
+
+  @Test
+  public void testParallelProcessingNotThreadSafeFilter() {
+    final TestItemFinder finder = new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3", "c1", "c2", "c3");
+    setFinder(finder);
+    FinderMetrics.reset();
+    check("item:(firstChar:a),item:(firstChar:c),secondChar:2,$parallel:true", "a2", "c2");
+    assertTrue(FinderMetrics.getStats().keySet().stream().anyMatch(key -> key.endsWith(".branch." + FinderMetrics.BRANCH_PARALLEL_SCAN)));
+
+    finder.setFilterThreadSafe(false);
+    FinderMetrics.reset();
+    check("item:(firstChar:a),item:(firstChar:c),secondChar:2,$parallel:true", "a2", "c2");
+    assertFalse(FinderMetrics.getStats().keySet().stream().anyMatch(key -> key.endsWith(".branch." + FinderMetrics.BRANCH_PARALLEL_SCAN)));
+  }
+
+  @Test
+  public void testStreamItemHolderStopsEarly() {
+    final AtomicInteger retrieved = new AtomicInteger();
+    final List<Integer> result = new ArrayList<>();
+    FinderDataBinding.getItemHolder(Stream.iterate(0, i -> i + 1).peek(i -> retrieved.incrementAndGet())).process(item -> {
+      result.add(item);
+      return result.size() < 3;
+    });
+    assertEquals(Arrays.asList(0, 1, 2), result);
+    assertEquals(3, retrieved.get());
+  }
+
+  @Test
+  public void testParallelPrefilteringCleanup() {
+    final List<FinderDataBinding.ItemHolder<String>> holders = Arrays.asList(FinderDataBinding.getItemHolder(Arrays.asList("a1", "a2", "a3")),
+                                                                            FinderDataBinding.getItemHolder(Arrays.asList("b1", "b2")),
+                                                                            FinderDataBinding.getItemHolder(Arrays.asList("c1", "c2")));
+    final MultiCheckerFilter<String> filter = new MultiCheckerFilter<String>().add(item -> !item.endsWith("1"));
+    final ParallelItemsPrefiltering<String> prefiltering = new ParallelItemsPrefiltering<>(holders, filter, null);
+    final ItemFilter<String> prefilteringFilter = prefiltering.getFilter();
+
+    //processing stops early, the items of the holders evaluated in parallel are not passed to the filter
+    final List<String> result = new ArrayList<>();
+    prefiltering.getItemHolder().process(item -> {
+      if (prefilteringFilter.isIncluded(item)) result.add(item);
+      return result.size() < 1;
+    });
+    assertEquals(Arrays.asList("a2"), result);
+    assertEquals(0, prefiltering.getPrecomputedResultsCount());
+
+    //the items are not passed to the filter at all (e.g. dropped as duplicates)
+    result.clear();
+    prefiltering.getItemHolder().process(item -> {
+      result.add(item);
+      return true;
+    });
+    assertEquals(Arrays.asList("a1", "a2", "a3", "b1", "b2", "c1", "c2"), result);
+    assertEquals(0, prefiltering.getPrecomputedResultsCount());
+  }
+
+  @Test
+  public void testConcurrentFilterReordering() throws Exception {
+    final MultiCheckerFilter<Integer> filter = MultiCheckerFilter.withReordering();
+    for (int i = 2; i <= 6; i++) {
+      final int divisor = i;
+      filter.add(item -> item % divisor != 0, i % 2 == 0 ? MultiCheckerFilter.Cost.CHEAP : MultiCheckerFilter.Cost.EXPENSIVE);
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Integer>> results = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        results.add(executor.submit(() -> {
+          int included = 0;
+          for (int item = 0; item < 30000; item++) {
+            if (filter.isIncluded(item)) included++;
+          }
+          return included;
+        }));
+      }
+      for (Future<Integer> result : results) {
+        assertEquals(8000, result.get().intValue()); //items not divisible by 2, 3, 5 among 30000
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCursor() {
+    setFinder(new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3", "c1", "c2", "c3"));
+    PagedSearchResult<String> result = getFinder().getItems("secondChar:2,count:1");
+    assertEquals(Arrays.asList("a2"), result.myEntries);
+    PagingCursor cursor = result.getNextPageCursor();
+    assertNotNull(cursor);
+    check("secondChar:2,count:1,$cursor:" + cursor, "b2");
+    check("secondChar:2,count:5,$cursor:" + cursor, "b2", "c2");
+
+    result = getFinder().getItems("secondChar:2,count:1,lookupLimit:4");
+    assertEquals(Arrays.asList("a2"), result.myEntries);
+    cursor = result.getNextPageCursor();
+    assertNotNull(cursor);
+    check("secondChar:2,count:1,lookupLimit:4,$cursor:" + cursor, "b2");
+
+    //no longer existing item: falls back to start
+    check("secondChar:2,count:5,$cursor:" + new PagingCursor(PagingCursor.getLocatorHash(Locator.locator("secondChar:2")), 1, "x1"), "b2", "c2");
+    //the lookup limit is expanded by the offset when processing from the start
+    check("secondChar:2,count:5,lookupLimit:4,$cursor:" + new PagingCursor(PagingCursor.getLocatorHash(Locator.locator("secondChar:2")), 1, "x1"), "b2");
+
+    checkExceptionOnItemsSearch(BadRequestException.class, "secondChar:3,count:1,$cursor:" + cursor);
+    checkExceptionOnItemsSearch(BadRequestException.class, "secondChar:2,count:1,start:1,$cursor:" + cursor);
+  }
+
+  @Test
+  public void testCursorForDeletedItemInStream() {
+    final TestItemFinder finder = new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3", "c1", "c2", "c3");
+    setFinder(finder);
+    final PagedSearchResult<String> result = getFinder().getItems("secondChar:2,count:1,stream:true");
+    assertEquals(Arrays.asList("a2"), result.myEntries);
+    final PagingCursor cursor = result.getNextPageCursor();
+    assertNotNull(cursor);
+    check("secondChar:2,count:1,stream:true,$cursor:" + cursor, "b2");
+
+    finder.remove("a2"); //the stream can be processed only once, so the page should be retrieved by offset without re-processing it
+    check("secondChar:2,count:1,stream:true,$cursor:" + cursor, "c2");
+
+    setInternalProperty(FinderImpl.CURSOR_FALLBACK_BUFFER_PROPERTY, "1"); //too many items to keep: the items are retrieved anew
+    check("secondChar:2,count:1,stream:true,$cursor:" + cursor, "c2");
+    check("secondChar:2,count:5,stream:true,$cursor:" + cursor, "c2");
+  }
+
+  @Test
+  public void testMemoization() {
+    setFinder(new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3"));
+    assertNotSame(getFinder().getItems("firstChar:a"), getFinder().getItems("firstChar:a"));
+
+    new RestContext(name -> null, null, true).run(() -> {
+      final PagedSearchResult<String> result = getFinder().getItems("firstChar:a");
+      assertEquals(Arrays.asList("a1", "a2"), result.myEntries);
+      assertSame(result, getFinder().getItems("firstChar:a"));
+      assertNotSame(result, getFinder().getItems("firstChar:b"));
+      assertEquals(getFinder().getItem("firstChar:b"), getFinder().getItem("firstChar:b"));
+
+      //the shared result cannot be modified by one of the callers
+      try {
+        result.myEntries.clear();
+        fail("Memoized result should be unmodifiable");
+      } catch (UnsupportedOperationException e) {
+        //expected
+      }
+      assertEquals(Arrays.asList("a1", "a2"), getFinder().getItems("firstChar:a").myEntries);
+      return null;
+    });
+
+    new RestContext(name -> null, null, false).run(() -> {
+      final PagedSearchResult<String> result = getFinder().getItems("firstChar:a");
+      assertNotSame(result, getFinder().getItems("firstChar:a"));
+      result.myEntries.clear(); //not shared when not memoized
+      return null;
+    });
+  }
+
+  @Test
+  public void testMetrics() {
+    setFinder(new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3"));
+    FinderMetrics.reset();
+    getFinder().getItems("firstChar:a");
+    getFinder().getItems("firstChar:b,start:1");
+    getFinder().getItems("firstChar:a");
+
+    final Map<String, String> stats = FinderMetrics.getStats();
+    final String prefix = getFinder().getName() + " firstChar";
+    assertEquals("2", stats.get(prefix + ".requests"));
+    assertEquals("4", stats.get(prefix + ".itemsReturned"));
+    assertEquals("2", stats.get(prefix + ".branch." + FinderMetrics.BRANCH_SCAN));
+    assertEquals("1", stats.get(getFinder().getName() + " firstChar,start.requests"));
+    assertEquals("2", stats.get(getFinder().getName() + " firstChar,start.itemsReturned"));
+
+    FinderMetrics.reset();
+    assertTrue(FinderMetrics.getStats().isEmpty());
+  }
+
   private static class TestItemFinder extends AbstractFinder<String> {
     private final List<String> testItems;
     private final Long myDefaultCount;
+    private boolean myFilterThreadSafe = true;
 
     TestItemFinder(@Nullable final Long defaultCount, String... items) {
-      super("text", "start", "end", "firstChar", "secondChar", "prefixed");
+      super("text", "start", "end", "firstChar", "secondChar", "prefixed", "stream");
       myDefaultCount = defaultCount;
-      testItems = Arrays.asList(items);
+      testItems = new ArrayList<>(Arrays.asList(items));
+    }
+
+    void remove(@NotNull final String item) {
+      testItems.remove(item);
+    }
+
+    void setFilterThreadSafe(final boolean filterThreadSafe) {
+      myFilterThreadSafe = filterThreadSafe;
+    }
+
+    @Override
+    public boolean isFilterThreadSafe(@NotNull final Locator locator) {
+      return myFilterThreadSafe;
     }
 
     @Nullable
@@ -78,17 +286,20 @@ public class FinderImplTest extends BaseFinderTest<String> {
 
       final int start = locator.getSingleDimensionValueAsLong("start", 0L).intValue();
       final int end = locator.getSingleDimensionValueAsLong("end", (long)testItems.size()).intValue();
+      if (locator.getSingleDimensionValueAsStrictBoolean("stream", false)) {
+        return FinderDataBinding.getItemHolder(new ArrayList<>(testItems.subList(start, end)).stream());
+      }
       return getItemHolder(testItems.subList(start, end));
     }
 
     @NotNull
     @Override
     public ItemFilter<String> getFilter(@NotNull final Locator locator) {
-      final MultiCheckerFilter<String> result = new MultiCheckerFilter<>();
+      final MultiCheckerFilter<String> result = MultiCheckerFilter.withReordering();
 
       final String test = locator.getSingleDimensionValue("text");
       if (test != null) {
-        result.add(item -> item.equals(test));
+        result.add(item -> item.equals(test), MultiCheckerFilter.Cost.CHEAP);
       }
       final String firstChar = locator.getSingleDimensionValue("firstChar");
       if (firstChar != null) {
@@ -96,7 +307,7 @@ public class FinderImplTest extends BaseFinderTest<String> {
       }
       final String secondChar = locator.getSingleDimensionValue("secondChar");
       if (secondChar != null) {
-        result.add(item -> item.length() > 1 && item.charAt(1) == secondChar.charAt(0));
+        result.add(item -> item.length() > 1 && item.charAt(1) == secondChar.charAt(0), MultiCheckerFilter.Cost.CHEAP);
       }
       return result;
     }
@@ -106,5 +317,11 @@ public class FinderImplTest extends BaseFinderTest<String> {
     public String getItemLocator(@NotNull final String s) {
       return Locator.getStringLocator("text", s);
     }
+
+    @Nullable
+    @Override
+    public String getItemCursorKey(@NotNull final String s) {
+      return s;
+    }
   }
 }
\ No newline at end of file
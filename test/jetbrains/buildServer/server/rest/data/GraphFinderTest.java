@@ -0,0 +1,136 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class GraphFinderTest extends BaseFinderTest<String> {
+  private final Map<String, List<String>> myChildren = new LinkedHashMap<>();
+  private final AtomicInteger myLinkRetrievals = new AtomicInteger();
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    myChildren.clear();
+    myChildren.put("a", Arrays.asList("b", "c"));
+    myChildren.put("b", Arrays.asList("d"));
+    myChildren.put("c", Arrays.asList("d", "e"));
+    myChildren.put("d", Arrays.asList("f"));
+    myChildren.put("e", Arrays.asList("a"));
+    myChildren.put("f", Collections.emptyList());
+    setFinder(new GraphFinder<>(new NodeFinder(), new TestTraverser()));
+  }
+
+  @Test
+  public void testStreamingTraversal() {
+    check("to:(text:a)", "b", "c", "d", "e", "f", "a");
+    check("to:(text:a),includeInitial:true", "a", "b", "c", "d", "e", "f");
+    check("to:(text:a),recursive:false", "b", "c");
+    check("to:(text:a),stop:(text:c)", "b", "c", "d", "f");
+    check("from:(text:f),stop:(text:e)", "d", "b", "c", "a", "e");
+    check("to:(text:a),$parallel:true", "b", "c", "d", "e", "f", "a");
+
+    myLinkRetrievals.set(0);
+    check("to:(text:a),count:2", "b", "c");
+    assertTrue("Traversal should stop when enough items are found, links retrieved: " + myLinkRetrievals.get(), myLinkRetrievals.get() <= 2);
+
+    myLinkRetrievals.set(0);
+    check("to:(text:a),lookupLimit:3", "b", "c", "d");
+    assertTrue("Traversal should stop on lookupLimit, links retrieved: " + myLinkRetrievals.get(), myLinkRetrievals.get() <= 3);
+  }
+
+  @Test
+  public void testParallelTraversalWithStop() {
+    //the links are retrieved in the pool only within the request context
+    new RestContext(name -> null, null).run(() -> {
+      check("to:(text:a),stop:(text:c),$parallel:true", "b", "c", "d", "f");
+      check("to:(text:a),stop:(text:b),stop:(text:c),$parallel:true", "b", "c");
+      check("from:(text:f),stop:(text:e),$parallel:true", "d", "b", "c", "a", "e");
+      check("to:(text:a),$parallel:true", "b", "c", "d", "e", "f", "a");
+      return null;
+    });
+  }
+
+  @Test
+  public void testSameAsEagerTraversal() {
+    for (String streaming : new String[]{"true", "false"}) {
+      setInternalProperty(GraphFinder.STREAMING_PROPERTY, streaming);
+      check("to:(text:a),stop:(text:e)", "b", "c", "d", "e", "f");
+      check("to:(text:a),stop:(text:e),includeInitial:true", "a", "b", "c", "d", "e", "f");
+      check("from:(text:f),stop:(text:e)", "d", "b", "c", "a", "e");
+      check("from:(text:d),to:(text:a),stop:(text:e)", "b", "c");
+    }
+  }
+
+  private class TestTraverser implements GraphFinder.Traverser<String> {
+    @NotNull
+    @Override
+    public GraphFinder.LinkRetriever<String> getChildren() {
+      return item -> {
+        myLinkRetrievals.incrementAndGet();
+        return myChildren.get(item);
+      };
+    }
+
+    @NotNull
+    @Override
+    public GraphFinder.LinkRetriever<String> getParents() {
+      return item -> {
+        myLinkRetrievals.incrementAndGet();
+        final List<String> result = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : myChildren.entrySet()) {
+          if (entry.getValue().contains(item)) result.add(entry.getKey());
+        }
+        return result;
+      };
+    }
+  }
+
+  private class NodeFinder extends AbstractFinder<String> {
+    NodeFinder() {
+      super("text");
+    }
+
+    @NotNull
+    @Override
+    public ItemHolder<String> getPrefilteredItems(@NotNull final Locator locator) {
+      return getItemHolder(myChildren.keySet());
+    }
+
+    @NotNull
+    @Override
+    public ItemFilter<String> getFilter(@NotNull final Locator locator) {
+      final MultiCheckerFilter<String> result = new MultiCheckerFilter<>();
+      final String text = locator.getSingleDimensionValue("text");
+      if (text != null) {
+        result.add(item -> item.equals(text));
+      }
+      return result;
+    }
+
+    @NotNull
+    @Override
+    public String getItemLocator(@NotNull final String s) {
+      return Locator.getStringLocator("text", s);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import jetbrains.buildServer.responsibility.BuildProblemResponsibilityEntry;
 import jetbrains.buildServer.responsibility.BuildTypeResponsibilityEntry;
 import jetbrains.buildServer.responsibility.ResponsibilityEntry;
 import jetbrains.buildServer.responsibility.ResponsibilityEntryEx;
+import jetbrains.buildServer.server.rest.data.investigations.InvestigationIndex;
 import jetbrains.buildServer.server.rest.data.investigations.InvestigationWrapper;
 import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
 import jetbrains.buildServer.server.rest.model.Fields;
@@ -35,6 +36,7 @@ import jetbrains.buildServer.serverSide.impl.ProjectEx;
 import jetbrains.buildServer.serverSide.impl.problems.BuildProblemInfoImpl;
 import jetbrains.buildServer.tests.TestName;
 import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -169,6 +171,66 @@ public class InvestigationFinderTest extends BaseFinderTest<InvestigationWrapper
     assertEquals(myProject.getExternalId(), investigation.scope.project.id);
   }
 
+  @Test
+  public void testInvestigationIndex() throws Exception {
+    final ProjectTreeIndex projectTreeIndex = new ProjectTreeIndex(myServer, myProjectManager);
+    myFixture.addService(projectTreeIndex);
+    final InvestigationIndex index = new InvestigationIndex(myServer, projectTreeIndex, myFixture.getResponsibilityFacadeEx(), myFixture.getResponsibilityFacadeEx(),
+                                                            myFixture.getResponsibilityFacadeEx());
+    myFixture.addService(index);
+    setInternalProperty("rest.investigationIndex.minRebuildIntervalSeconds", "0");
+    createFailingBuild();
+    final SUser user2 = createUser("user2");
+    final ProjectEx project1 = myProjectManager.findProjectByExternalId("project1");
+    assert project1 != null;
+
+    final ResponsibilityEntryEx buildTypeEntry = createRespEntry(ResponsibilityEntry.State.TAKEN, myUser);
+    myFixture.getResponsibilityFacadeEx().setBuildTypeResponsibility(myBuildType, buildTypeEntry);
+    myFixture.getResponsibilityFacadeEx().setTestNameResponsibility(new TestName(FAIL_TEST2_NAME), myProject.getProjectId(),
+                                                                    createRespEntry(ResponsibilityEntry.State.TAKEN, user2));
+
+    assertEquals(2, myInvestigationFinder.getItems((String)null).myEntries.size());
+    assertEquals(2, myInvestigationFinder.getItems("affectedProject:(id:_Root)").myEntries.size());
+    checkInvestigation(myInvestigationFinder.getItems("affectedProject:(id:" + project1.getExternalId() + ")"), true);
+    checkInvestigation(myInvestigationFinder.getItems("affectedProject:(id:" + myProject.getExternalId() + ")"), false);
+    checkInvestigation(myInvestigationFinder.getItems("assignee:(id:" + myUser.getId() + ")"), true);
+    checkInvestigation(myInvestigationFinder.getItems("assignee:(id:" + user2.getId() + "),affectedProject:(id:_Root)"), false);
+    checkInvestigation(myInvestigationFinder.getItems("type:test"), false);
+    assertEquals(0, myInvestigationFinder.getItems("assignee:(id:" + myUser.getId() + "),type:test").myEntries.size());
+    assertEquals(0, myInvestigationFinder.getItems("assignee:(id:" + user2.getId() + "),affectedProject:(id:" + project1.getExternalId() + ")").myEntries.size());
+
+    assertNotNull(index.getInvestigations(null, null, null));
+
+    //investigation change event makes the index stale, the subtree is queried until it is rebuilt
+    setInternalProperty("rest.investigationIndex.minRebuildIntervalSeconds", "1000");
+    myFixture.getResponsibilityFacadeEx().setBuildTypeResponsibility(myBuildType, createRespEntry(ResponsibilityEntry.State.TAKEN, user2));
+    assertNull(index.getInvestigations(null, null, null));
+    assertEquals(0, myInvestigationFinder.getItems("assignee:(id:" + myUser.getId() + ")").myEntries.size());
+    assertEquals(2, myInvestigationFinder.getItems("assignee:(id:" + user2.getId() + ")").myEntries.size());
+
+    setInternalProperty("rest.investigationIndex.minRebuildIntervalSeconds", "0");
+    assertEquals(0, myInvestigationFinder.getItems("assignee:(id:" + myUser.getId() + ")").myEntries.size());
+    assertEquals(2, myInvestigationFinder.getItems("assignee:(id:" + user2.getId() + ")").myEntries.size());
+    assertNotNull(index.getInvestigations(null, null, null));
+
+    //the same for the projects hierarchy changes
+    setInternalProperty("rest.investigationIndex.minRebuildIntervalSeconds", "1000");
+    final ProjectEx project2 = project1.createProject("project2", "Project 2");
+    myProject.moveToProject(project2);
+    assertNull(index.getInvestigations(null, null, null));
+    assertEquals(2, myInvestigationFinder.getItems("affectedProject:(id:" + project1.getExternalId() + ")").myEntries.size());
+
+    setInternalProperty("rest.investigationIndex.minRebuildIntervalSeconds", "0");
+    assertEquals(2, myInvestigationFinder.getItems("affectedProject:(id:" + project1.getExternalId() + ")").myEntries.size());
+    assertNotNull(index.getInvestigations(null, null, null));
+  }
+
+  private static void checkInvestigation(@NotNull final PagedSearchResult<InvestigationWrapper> result, final boolean isBuildType) {
+    assertEquals(1, result.myEntries.size());
+    assertEquals(isBuildType, result.myEntries.get(0).isBuildType());
+    assertEquals(!isBuildType, result.myEntries.get(0).isTest());
+  }
+
   @Override
   protected ResponsibilityEntryEx createRespEntry(ResponsibilityEntry.State state, SUser user) {
     return new ResponsibilityEntryEx(state, user, user, new Date(), "The comment", ResponsibilityEntry.RemoveMethod.WHEN_FIXED);
@@ -20,6 +20,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import jetbrains.buildServer.TestInternalProperties;
 import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
@@ -587,6 +588,30 @@ public class LocatorTest {
     assertEquals("a:($base64:" + base64("x)y(z") + ")", Locator.getStringLocator("a", "x)y(z"));
   }
 
+  @Test
+  public void testParsedLocatorsAreNotShared() {
+    Locator locator1 = new Locator("a:b,c:(d:e)", "a", "c", "x");
+    Locator locator2 = new Locator("a:b,c:(d:e)", "a", "c", "x");
+
+    assertEquals("b", locator1.getSingleDimensionValue("a"));
+    assertEquals(new HashSet<>(Arrays.asList("c")), locator1.getUnusedDimensions());
+    assertEquals(new HashSet<>(Arrays.asList("a", "c")), locator2.getUnusedDimensions());
+
+    locator1.setDimension("a", "x");
+    locator1.setDimension("x", "y");
+    locator1.removeDimension("c");
+    assertEquals("a:x,x:y", locator1.getStringRepresentation());
+    assertEquals("a:b,c:(d:e)", locator2.getStringRepresentation());
+    assertEquals("b", locator2.getSingleDimensionValue("a"));
+    assertEquals(null, locator2.getSingleDimensionValue("x"));
+
+    Locator locator3 = new Locator(locator2);
+    locator3.setDimension("c", "z");
+    assertEquals("d:e", locator2.getSingleDimensionValue("c"));
+    assertEquals("z", locator3.getSingleDimensionValue("c"));
+    assertEquals("d:e", new Locator("a:b,c:(d:e)", "a", "c", "x").getSingleDimensionValue("c"));
+  }
+
   String base64(String text) {
     return new String(Base64.getEncoder().encode(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
   }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import jetbrains.buildServer.server.rest.errors.BadRequestException;
+import jetbrains.buildServer.server.rest.errors.InvalidStateException;
+import jetbrains.buildServer.server.rest.errors.NotFoundException;
+import jetbrains.buildServer.server.rest.model.MultipleOperationResult;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MultipleOperationJobsTest extends BaseFinderTest<String> {
+  private MultipleOperationJobs myJobs;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    myJobs = new MultipleOperationJobs();
+  }
+
+  @AfterMethod
+  public void disposeJobs() {
+    myJobs.dispose();
+  }
+
+  @Test
+  public void testSubmitAndPoll() throws Exception {
+    final SUser user = createUser("user1");
+    final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    final MultipleOperationJobs.Job job = submit(getItems(20), processed::add, true, user);
+
+    waitForFinish(job);
+    assertEquals(20, job.getCount());
+    assertEquals(20, job.getProcessedCount());
+    assertEquals(getItems(20), processed.stream().sorted().collect(Collectors.toList()));
+    final MultipleOperationResult.Data resultData = job.getResultData();
+    assertEquals(20, resultData.getCount());
+    assertEquals(0, resultData.getErrorCount());
+
+    assertSame(job, myJobs.getJob(job.getId(), user));
+    try {
+      myJobs.getJob(job.getId(), createUser("user2"));
+      fail("The job should not be available to another user");
+    } catch (NotFoundException e) {
+      //expected
+    }
+    try {
+      myJobs.getJob(job.getId(), null);
+      fail("The job should not be available without user");
+    } catch (NotFoundException e) {
+      //expected
+    }
+
+    final MultipleOperationJobs.Job emptyJob = submit(Collections.emptyList(), item -> {}, true, user);
+    assertTrue(emptyJob.isFinished());
+    assertEquals(0, emptyJob.getResultData().getCount());
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    setInternalProperty(MultipleOperationJobs.THREADS_PROPERTY, "1");
+    final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    final Consumer<Integer> action = item -> {
+      attempts.computeIfAbsent(item, i -> new AtomicInteger()).incrementAndGet();
+      if (item == 2) throw new BadRequestException("Not retried");
+      if (item == 3) throw new IllegalStateException("Retried");
+    };
+    final MultipleOperationJobs.Job job = submit(getItems(4), action, true, null);
+    waitForFinish(job);
+    assertEquals(2, job.getResultData().getErrorCount());
+    assertEquals(1, attempts.get(2).get());
+    assertEquals(3, attempts.get(3).get());
+
+    //not idempotent operations are not retried
+    attempts.clear();
+    final MultipleOperationJobs.Job notIdempotentJob = submit(getItems(4), action, false, null);
+    waitForFinish(notIdempotentJob);
+    assertEquals(2, notIdempotentJob.getResultData().getErrorCount());
+    assertEquals(1, attempts.get(3).get());
+
+    //the job finishes even if the worker fails with an Error: the item and the rest of the items get error results
+    final MultipleOperationJobs.Job errorJob = submit(getItems(6), item -> {
+      if (item == 4) throw new AssertionError("Unexpected");
+    }, true, null);
+    waitForFinish(errorJob);
+    assertEquals(6, errorJob.getResultData().getCount());
+    assertEquals(3, errorJob.getResultData().getErrorCount());
+  }
+
+  @Test
+  public void testRunningJobsLimit() throws Exception {
+    setInternalProperty(MultipleOperationJobs.MAX_RUNNING_JOBS_PROPERTY, "1");
+    final CountDownLatch release = new CountDownLatch(1);
+    final MultipleOperationJobs.Job job = submit(getItems(3), item -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }, true, null);
+
+    try {
+      submit(getItems(1), item -> {}, true, null);
+      fail("The limit of running jobs should be reached");
+    } catch (InvalidStateException e) {
+      //expected
+    }
+    assertTrue(submit(Collections.emptyList(), item -> {}, true, null).isFinished()); //empty job does not run
+
+    release.countDown();
+    waitForFinish(job);
+    final MultipleOperationJobs.Job nextJob = submit(getItems(1), item -> {}, true, null);
+    waitForFinish(nextJob);
+    assertEquals(0, nextJob.getResultData().getErrorCount());
+
+    myJobs.dispose();
+    try {
+      submit(getItems(1), item -> {}, true, null);
+      fail("Jobs should not start after dispose");
+    } catch (InvalidStateException e) {
+      //expected
+    }
+  }
+
+  @NotNull
+  private MultipleOperationJobs.Job submit(@NotNull final List<Integer> items, @NotNull final Consumer<Integer> action, final boolean idempotent, @Nullable final SUser user) {
+    return new RestContext(name -> null, null).run(() -> myJobs.submit(items, action, idempotent, user));
+  }
+
+  @NotNull
+  private static List<Integer> getItems(final int count) {
+    return IntStream.rangeClosed(1, count).boxed().collect(Collectors.toList());
+  }
+
+  private static void waitForFinish(@NotNull final MultipleOperationJobs.Job job) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (!job.isFinished()) {
+      if (System.currentTimeMillis() > deadline) fail("The job is not finished in time, processed " + job.getProcessedCount() + " of " + job.getCount());
+      Thread.sleep(10);
+    }
+  }
+}
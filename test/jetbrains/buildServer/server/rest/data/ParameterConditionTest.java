@@ -16,6 +16,10 @@
 
 package jetbrains.buildServer.server.rest.data;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import jetbrains.buildServer.parameters.ParametersProvider;
 import jetbrains.buildServer.parameters.impl.MapParametersProviderImpl;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
@@ -250,6 +254,56 @@ public class ParameterConditionTest extends BaseServerTestCase { //need to exten
     matchesSingleTrue("matchType:does-not-match,value:\\W,ignoreCase:true", "a");
   }
 
+  @Test
+  public void testCompiledConditions() {
+    final String[] conditions = {"value:aaa", "value:aaa,ignoreCase:true", "value:aaa,matchType:does-not-equal", "value:aA,matchType:contains,ignoreCase:true",
+      "value:aa,matchType:does-not-contain", "value:aa,matchType:starts-with", "value:aa,matchType:ends-with,ignoreCase:true",
+      "value:aaa,matchType:matches", "value:aaa,matchType:matches,ignoreCase:true", "value:a.a,matchType:matches", "value:[A],matchType:does-not-match,ignoreCase:true",
+      "value:[,matchType:matches", "value:[,matchType:does-not-match",
+      "value:1.5,matchType:more-than", "value:-5,matchType:no-more-than", "value:10,matchType:less-than", "value:10,matchType:no-less-than", "value:abc,matchType:more-than"};
+    final String[] values = {null, "", "aaa", "AAA", "aAa", "aaaa", "baa", "a.a", "abc", "[", "1.5", "1.5005", "-5", "-15", "10", "10.0", "9e1", "x10"};
+
+    for (String condition : conditions) {
+      for (String value : values) {
+        setInternalProperty(ValueCondition.COMPILE_PROPERTY, "false");
+        final boolean expected = ParameterCondition.createValueCondition(condition).matches(value);
+        setInternalProperty(ValueCondition.COMPILE_PROPERTY, "true");
+        final ValueCondition compiled = ParameterCondition.createValueCondition(condition);
+        assertEquals("Condition \"" + condition + "\", value \"" + value + "\"", expected, compiled.matches(value));
+        assertEquals("Condition \"" + condition + "\", value \"" + value + "\" (repeated)", expected, compiled.matches(value));
+      }
+    }
+  }
+
+  @Test
+  public void testNumberValues() {
+    final Map<String, BigDecimal> values = new HashMap<>();
+    values.put("buildDuration", new BigDecimal("1500"));
+    values.put("ArtifactsSize", new BigDecimal("2.50"));
+    values.put("TestCount", new BigDecimal("0"));
+    values.put("Empty", null);
+
+    final String[] conditions = {"name:buildDuration,value:1000,matchType:more-than", "name:buildDuration,value:1500,matchType:more-than",
+      "name:buildDuration,value:1500,matchType:no-less-than", "name:buildDuration,value:1500", "name:buildDuration,value:1500.0",
+      "name:ArtifactsSize,value:2.5", "name:ArtifactsSize,value:2.50", "name:ArtifactsSize,value:2.5,matchType:no-more-than", "name:ArtifactsSize,value:2.,matchType:starts-with",
+      "name:(value:.*Size,matchType:matches),value:3,matchType:less-than", "name:(value:.*t.*,matchType:matches),value:1,matchType:more-than,matchScope:all",
+      "name:(value:.*t.*,matchType:matches),value:1,matchType:less-than", "name:TestCount,value:abc,matchType:more-than",
+      "name:Empty", "name:Missing,matchType:not-exists", "name:Empty,matchType:not-exists", "name:buildDuration"};
+
+    final Map<String, String> stringValues = new HashMap<>();
+    values.forEach((key, value) -> {
+      if (value != null) stringValues.put(key, value.stripTrailingZeros().toPlainString());
+    });
+    for (String condition : conditions) {
+      final ParameterCondition parameterCondition = ParameterCondition.create(condition);
+      assertEquals("Condition \"" + condition + "\"", parameterCondition.matches(new MapParametersProviderImpl(stringValues)), parameterCondition.matches(values));
+    }
+
+    assertTrue(ParameterCondition.createForNumbers(Arrays.asList("name:buildDuration,value:1000,matchType:more-than", "name:buildDuration,value:2000,matchType:less-than")).matches(values));
+    assertFalse(ParameterCondition.createForNumbers(Arrays.asList("name:buildDuration,value:1000,matchType:more-than", "name:buildDuration,value:1200,matchType:less-than")).matches(values));
+    assertTrue(ParameterCondition.createForNumbers(null).matches(values));
+  }
+
   @Test
   public void testSingleValueMatching() {
     matchesSingleTrue("aaa", "aaa");
@@ -88,6 +88,36 @@ public class ProjectFinderTest extends BaseFinderTest<SProject> {
     check("No_match");
   }
 
+  @Test
+  public void testProjectTreeIndex() throws Exception {
+    final ProjectTreeIndex index = new ProjectTreeIndex(myServer, myProjectManager);
+    myFixture.addService(index);
+
+    final SProject project10 = createProject("p1");
+    final SProject project20 = createProject("p2");
+    final SProject project10_10 = project10.createProject("p10_10", "p1_child1");
+    final SProject project10_20 = project10.createProject("p10_20", "xxx");
+    final SProject project10_10_10 = project10_10.createProject("p10_10_10", "xxx");
+    index.projectCreated(project10_10_10.getProjectId(), null);
+
+    assertEquals(Boolean.TRUE, index.isSameOrParent(project10, project10_10_10));
+    assertEquals(Boolean.TRUE, index.isSameOrParent(project10_10_10, project10_10_10));
+    assertEquals(Boolean.TRUE, index.isSameOrParent(myProjectManager.getRootProject(), project20));
+    assertEquals(Boolean.FALSE, index.isSameOrParent(project10_20, project10_10_10));
+    assertEquals(Boolean.FALSE, index.isSameOrParent(project10_10_10, project10));
+    assertEquals(Boolean.FALSE, index.isSameOrParent(project20, project10_10));
+
+    check("name:(xxx)", project10_10_10, project10_20);
+    check("name:(xxx),affectedProject:(id:" + project10_10.getExternalId() + ")", project10_10_10);
+    check("name:(xxx),project:(id:" + project10.getExternalId() + ")", project10_20);
+    check("affectedProject:(id:" + project10.getExternalId() + ")", project10_10, project10_10_10, project10_20);
+
+    final SProject project20_10 = project20.createProject("p20_10", "xxx");
+    index.projectCreated(project20_10.getProjectId(), null);
+    check("name:(xxx)", project10_10_10, project10_20, project20_10);
+    assertEquals(Boolean.TRUE, index.isSameOrParent(project20, project20_10));
+  }
+
   @Test
   public void testProjectDimensions() throws Exception {
     final SProject project10 = createProject("p1");
@@ -218,6 +218,13 @@ public class TestOccurrenceFinderTest extends BaseFinderTest<STestRun> {
           t("ddd", Status.NORMAL, 8, build10.getBuildId()),
           t("xxx", Status.NORMAL, 1, build20.getBuildId()),
           t("aaa", Status.NORMAL, 2, build20.getBuildId()));
+
+    //the builds are processed in parallel
+    FinderMetrics.reset();
+    check("build:(item:(id:" + build10.getBuildId() + "),item:(id:" + build20.getBuildId() + ")),status:FAILURE,$parallel:true", TEST_WITH_BUILD_MATCHER,
+          t("aaa", Status.FAILURE, 1, build10.getBuildId()),
+          t("ccc", Status.FAILURE, 4, build10.getBuildId()));
+    assertTrue(FinderMetrics.getStats().keySet().stream().anyMatch(key -> key.endsWith(".branch." + FinderMetrics.BRANCH_PARALLEL_SCAN)));
   }
 
   @Test
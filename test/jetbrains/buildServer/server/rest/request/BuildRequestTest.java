@@ -0,0 +1,226 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.request;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletRequest;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletResponse;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.server.rest.data.BaseFinderTest;
+import jetbrains.buildServer.server.rest.data.BuildStatusCache;
+import jetbrains.buildServer.server.rest.errors.NotModifiedException;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.auth.RoleScope;
+import jetbrains.buildServer.serverSide.impl.BuildTypeImpl;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BuildRequestTest extends BaseFinderTest<BuildPromotion> {
+  private BuildRequest myRequest;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    myRequest = new BuildRequest();
+    myRequest.initForTests(BaseFinderTest.getBeanContext(myFixture));
+  }
+
+  @Test
+  public void testBuildNotModified() {
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final SUser user = createUser("user1");
+    final SFinishedBuild build10 = build().in(buildConf1).by(user).finish();
+    final String locator = "id:" + build10.getBuildId();
+
+    final String eTag = serveBuild(locator, null);
+    assertNotNull(eTag);
+    assertNull(serveBuild(locator, eTag)); //304
+
+    //changes of other builds do not affect the build
+    build().in(buildConf1).finish();
+    build().in(buildConf2).run();
+    assertNull(serveBuild(locator, eTag));
+
+    //build change
+    build10.setPinned(true, null, "pinned");
+    final String eTag2 = serveBuild(locator, eTag);
+    assertNotNull(eTag2); //200
+    assertFalse(eTag.equals(eTag2));
+    assertNull(serveBuild(locator, eTag2));
+
+    //related data change
+    user.updateUserAccount("user1", "User Name", null);
+    final String eTag3 = serveBuild(locator, eTag2);
+    assertNotNull(eTag3);
+    assertFalse(eTag2.equals(eTag3));
+
+    //custom fields can include other builds
+    final String eTag4 = serveBuild(locator, "id,buildType(builds)", null);
+    assertNotNull(eTag4);
+    build().in(buildConf2).finish();
+    assertNotNull(serveBuild(locator, "id,buildType(builds)", eTag4));
+  }
+
+  @Test
+  public void testBuildNotModifiedDisabled() {
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
+    final SFinishedBuild build10 = build().in(buildConf).finish();
+    final String locator = "id:" + build10.getBuildId();
+    final String eTag = serveBuild(locator, null);
+    assertNotNull(eTag);
+
+    setInternalProperty("rest.response.eTags.enabled", "false");
+    final FakeHttpServletResponse response = new FakeHttpServletResponse();
+    assertNotNull(myRequest.serveBuild(locator, null, withIfNoneMatch(eTag), response));
+    assertNull(response.getHeader("ETag"));
+  }
+
+  @Test
+  public void testRunningBuildHasNoETag() {
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
+    build().in(buildConf).run();
+    final FakeHttpServletResponse response = new FakeHttpServletResponse();
+    assertNotNull(myRequest.serveBuild("running:true", null, new FakeHttpServletRequest(), response));
+    assertNull(response.getHeader("ETag"));
+  }
+
+  @Test
+  public void testAggregatedStatus() throws Throwable {
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final SUser user1 = createUser("user1");
+    user1.addRole(RoleScope.globalScope(), getProjectAdminRole());
+    final SUser user2 = createUser("user2");
+    user2.addRole(RoleScope.globalScope(), getProjectAdminRole());
+    build().in(buildConf1).finish();
+    final String locator = "buildType:(id:" + buildConf1.getExternalId() + ")";
+
+    final String[] eTag = new String[1];
+    myFixture.getSecurityContext().runAs(user1, new SecurityContextEx.RunAsAction() {
+      @Override
+      public void run() throws Throwable {
+        final FakeHttpServletResponse response = new FakeHttpServletResponse();
+        assertEquals(Status.NORMAL.getText(), myRequest.serveAggregatedBuildStatus(locator, new FakeHttpServletRequest(), response));
+        assertEquals("private", response.getHeader("Cache-Control"));
+        eTag[0] = response.getHeader("ETag");
+        assertNotNull(eTag[0]);
+        assertNotModified(locator, eTag[0]);
+
+        //builds of other build configurations do not affect the status
+        build().in(buildConf2).failed().finish();
+        assertNotModified(locator, eTag[0]);
+
+        build().in(buildConf1).failed().finish();
+        final FakeHttpServletResponse response2 = new FakeHttpServletResponse();
+        assertEquals(Status.FAILURE.getText(), myRequest.serveAggregatedBuildStatus(locator, withIfNoneMatch(eTag[0]), response2));
+        eTag[0] = response2.getHeader("ETag");
+        assertNotModified(locator, eTag[0]);
+      }
+    });
+
+    //the response of one user is not reused for another one
+    myFixture.getSecurityContext().runAs(user2, new SecurityContextEx.RunAsAction() {
+      @Override
+      public void run() throws Throwable {
+        final FakeHttpServletResponse response = new FakeHttpServletResponse();
+        assertEquals(Status.FAILURE.getText(), myRequest.serveAggregatedBuildStatus(locator, withIfNoneMatch(eTag[0]), response));
+        assertFalse(eTag[0].equals(response.getHeader("ETag")));
+      }
+    });
+  }
+
+  @Test
+  public void testBuildStatusCache() {
+    final BuildStatusCache cache = new BuildStatusCache();
+    final AtomicInteger calculations = new AtomicInteger();
+
+    assertEquals("1", cache.getStatus("status:buildConf1", "v1", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("1", cache.getStatus("status:buildConf1", "v1", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("2", cache.getStatus("status:other", "v1", () -> String.valueOf(calculations.incrementAndGet())));
+
+    assertEquals("3", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("3", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("2", cache.getStatus("status:other", "v1", () -> String.valueOf(calculations.incrementAndGet())));
+
+    setInternalProperty("rest.buildStatusCache.maxAgeSeconds", "-1");
+    assertEquals("4", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+
+    setInternalProperty("rest.buildStatusCache.maxAgeSeconds", "30");
+    setInternalProperty("rest.buildStatusCache.enabled", "false");
+    assertEquals("5", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+
+    //the entries are dropped when a new key does not fit, recalculating an existing key does not count
+    setInternalProperty("rest.buildStatusCache.enabled", "true");
+    setInternalProperty("rest.buildStatusCache.maxEntries", "2");
+    assertEquals("4", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("6", cache.getStatus("status:other", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("7", cache.getStatus("status:third", "v1", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("8", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+    assertEquals("8", cache.getStatus("status:buildConf1", "v2", () -> String.valueOf(calculations.incrementAndGet())));
+  }
+
+  private void assertNotModified(@NotNull final String aggregatedLocator, @NotNull final String eTag) {
+    try {
+      myRequest.serveAggregatedBuildStatus(aggregatedLocator, withIfNoneMatch(eTag), new FakeHttpServletResponse());
+      fail("Not modified response is expected");
+    } catch (NotModifiedException e) {
+      assertEquals(eTag, e.getETag());
+    }
+  }
+
+  /**
+   * @return ETag of the served build or null if "304 Not Modified" is replied
+   */
+  @Nullable
+  private String serveBuild(@NotNull final String locator, @Nullable final String ifNoneMatch) {
+    return serveBuild(locator, null, ifNoneMatch);
+  }
+
+  @Nullable
+  private String serveBuild(@NotNull final String locator, @Nullable final String fields, @Nullable final String ifNoneMatch) {
+    final FakeHttpServletResponse response = new FakeHttpServletResponse();
+    try {
+      assertNotNull(myRequest.serveBuild(locator, fields, withIfNoneMatch(ifNoneMatch), response));
+    } catch (NotModifiedException e) {
+      assertEquals(ifNoneMatch, e.getETag());
+      return null;
+    }
+    assertEquals("private", response.getHeader("Cache-Control"));
+    assertNotNull(response.getHeader("Vary"));
+    return response.getHeader("ETag");
+  }
+
+  @NotNull
+  static HttpServletRequest withIfNoneMatch(@Nullable final String eTag) {
+    return new HttpServletRequestWrapper(new FakeHttpServletRequest()) {
+      @Override
+      public String getHeader(final String name) {
+        return "If-None-Match".equalsIgnoreCase(name) ? eTag : super.getHeader(name);
+      }
+    };
+  }
+}
@@ -22,6 +22,8 @@ import java.util.HashMap;
 import java.util.List;
 import jetbrains.buildServer.artifacts.RevisionRules;
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletRequest;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletResponse;
 import jetbrains.buildServer.requirements.Requirement;
 import jetbrains.buildServer.requirements.RequirementType;
 import jetbrains.buildServer.server.rest.data.BaseFinderTest;
@@ -1203,7 +1205,7 @@ public class BuildTypeRequestTest extends  BaseFinderTest<BuildTypeOrTemplate> {
 
 
     {
-      BuildType buildType = myBuildTypeRequest.serveBuildTypeXML("id:" + bt10.getExternalId(), "$long");
+      BuildType buildType = myBuildTypeRequest.serveBuildTypeXML("id:" + bt10.getExternalId(), "$long", new FakeHttpServletRequest(), new FakeHttpServletResponse());
       buildType.initializeSubmittedFromUsual();
       buildType.setId("bt20");
       buildType.setName("bt20");
@@ -1219,7 +1221,7 @@ public class BuildTypeRequestTest extends  BaseFinderTest<BuildTypeOrTemplate> {
 
     bt10.setTemplates(Arrays.asList(t10, t20), false);
     {
-      BuildType buildType = myBuildTypeRequest.serveBuildTypeXML("id:" + bt10.getExternalId(), "$long");
+      BuildType buildType = myBuildTypeRequest.serveBuildTypeXML("id:" + bt10.getExternalId(), "$long", new FakeHttpServletRequest(), new FakeHttpServletResponse());
       buildType.initializeSubmittedFromUsual();
       buildType.setId("bt30");
       buildType.setName("bt30");
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.request;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletRequest;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.browser.Browser;
+import jetbrains.buildServer.util.browser.Element;
+import jetbrains.buildServer.util.browser.FileSystemBrowser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FilesSubResourceTest extends BaseTestCase {
+  private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789abcdefghijklmnopqrstuvwxyzAB";
+  private static final String CONTENT_TYPE = "application/octet-stream";
+
+  private List<Element> myElements;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty("rest.build.artifacts.setMimeType", "false");
+    assertEquals(100, CONTENT.length());
+
+    final File dir = createTempDir();
+    FileUtil.writeFileAndReportErrors(new File(dir, "file.txt"), CONTENT);
+    final Element fileElement = new FileSystemBrowser(dir).getElement("file.txt");
+    assertNotNull(fileElement);
+    assertNotNull(FilesSubResource.getLocalFile(fileElement)); //read via the file channel
+    myElements = Arrays.asList(fileElement, new StreamElement("stream.txt", CONTENT.getBytes(StandardCharsets.ISO_8859_1)));
+  }
+
+  @Test
+  public void testNoRange() throws Exception {
+    for (Element element : myElements) {
+      final Response response = getContent(element, null);
+      assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+      assertEquals("100", getHeader(response, "Content-Length"));
+      assertEquals(CONTENT, getBody(response));
+    }
+  }
+
+  @Test
+  public void testSingleRange() throws Exception {
+    for (Element element : myElements) {
+      checkSingleRange(element, "bytes=10-19", 10, 19);
+      checkSingleRange(element, "bytes=0-0", 0, 0);
+      checkSingleRange(element, "bytes=95-", 95, 99);
+      checkSingleRange(element, "bytes=-5", 95, 99);
+      checkSingleRange(element, "bytes=95-200", 95, 99); //trimmed to the content end
+    }
+  }
+
+  @Test
+  public void testMultipleRanges() throws Exception {
+    for (Element element : myElements) {
+      checkMultipleRanges(element, "bytes=0-4,10-14", new long[]{0, 4}, new long[]{10, 14});
+      checkMultipleRanges(element, "bytes=0-0,50-59,-3", new long[]{0, 0}, new long[]{50, 59}, new long[]{97, 99});
+      checkMultipleRanges(element, "bytes=50-59,0-4", new long[]{0, 4}, new long[]{50, 59}); //in the order of the content
+    }
+  }
+
+  @Test
+  public void testOverlappingRanges() throws Exception {
+    for (Element element : myElements) {
+      checkSingleRange(element, "bytes=0-9,5-14", 0, 14);
+      checkSingleRange(element, "bytes=0-9,2-3", 0, 9);
+      checkSingleRange(element, "bytes=0-4,5-9", 0, 9); //adjacent
+      checkSingleRange(element, "bytes=10-19,10-19,10-19", 10, 19);
+      checkSingleRange(element, "bytes=90-,-5", 90, 99);
+      checkMultipleRanges(element, "bytes=20-29,0-4,3-6", new long[]{0, 6}, new long[]{20, 29});
+      checkMultipleRanges(element, "bytes=0-4,40-49,2-8,45-", new long[]{0, 8}, new long[]{40, 99});
+    }
+  }
+
+  @Test
+  public void testUnsatisfiableRanges() throws Exception {
+    for (Element element : myElements) {
+      checkNotSatisfiable(element, "bytes=100-200");
+      checkNotSatisfiable(element, "bytes=100-");
+      checkNotSatisfiable(element, "bytes=200-300,300-400");
+      checkNotSatisfiable(element, "bytes=abc");
+
+      checkSingleRange(element, "bytes=50-59,200-300", 50, 59); //only the satisfiable ranges are served
+      checkMultipleRanges(element, "bytes=100-200,0-1,50-51", new long[]{0, 1}, new long[]{50, 51});
+    }
+  }
+
+  @Test
+  public void testTooManyRanges() throws Exception {
+    setInternalProperty("rest.files.content.maxRanges", "2");
+    for (Element element : myElements) {
+      checkMultipleRanges(element, "bytes=0-1,3-4", new long[]{0, 1}, new long[]{3, 4});
+      checkNotSatisfiable(element, "bytes=0-1,3-4,6-7");
+    }
+  }
+
+  private static void checkSingleRange(@NotNull final Element element, @NotNull final String rangeHeader, final long start, final long end) throws IOException {
+    final Response response = getContent(element, rangeHeader);
+    assertEquals(rangeHeader, HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+    assertEquals(rangeHeader, "bytes " + start + "-" + end + "/100", getHeader(response, "Content-Range"));
+    assertEquals(rangeHeader, String.valueOf(end - start + 1), getHeader(response, "Content-Length"));
+    assertEquals(rangeHeader, CONTENT_TYPE, getHeader(response, "Content-Type"));
+    assertEquals(rangeHeader, CONTENT.substring((int)start, (int)end + 1), getBody(response));
+  }
+
+  private static void checkMultipleRanges(@NotNull final Element element, @NotNull final String rangeHeader, @NotNull final long[]... ranges) throws IOException {
+    final Response response = getContent(element, rangeHeader);
+    assertEquals(rangeHeader, HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+    assertNull(rangeHeader, getHeader(response, "Content-Range"));
+
+    final String contentType = getHeader(response, "Content-Type");
+    assertNotNull(contentType);
+    assertTrue(contentType, contentType.startsWith("multipart/byteranges"));
+    final String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length()).trim();
+    assertFalse(contentType, boundary.isEmpty());
+
+    final StringBuilder expected = new StringBuilder();
+    for (long[] range : ranges) {
+      expected.append("\r\n--").append(boundary).append("\r\n")
+              .append("Content-Type: ").append(CONTENT_TYPE).append("\r\n")
+              .append("Content-Range: bytes ").append(range[0]).append("-").append(range[1]).append("/100\r\n")
+              .append("\r\n")
+              .append(CONTENT, (int)range[0], (int)range[1] + 1);
+    }
+    expected.append("\r\n--").append(boundary).append("--\r\n");
+    final String body = getBody(response);
+    assertEquals(rangeHeader, expected.toString(), body);
+    assertEquals(rangeHeader, String.valueOf(body.length()), getHeader(response, "Content-Length"));
+  }
+
+  private static void checkNotSatisfiable(@NotNull final Element element, @NotNull final String rangeHeader) {
+    final Response response = getContent(element, rangeHeader);
+    assertEquals(rangeHeader, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+    assertEquals(rangeHeader, "bytes */100", getHeader(response, "Content-Range"));
+  }
+
+  @NotNull
+  private static Response getContent(@NotNull final Element element, @Nullable final String rangeHeader) {
+    final HttpServletRequest request = new HttpServletRequestWrapper(new FakeHttpServletRequest()) {
+      @Override
+      public String getHeader(final String name) {
+        return "Range".equalsIgnoreCase(name) ? rangeHeader : super.getHeader(name);
+      }
+    };
+    return FilesSubResource.getContent(element, request).build();
+  }
+
+  @Nullable
+  private static String getHeader(@NotNull final Response response, @NotNull final String name) {
+    final Object value = response.getMetadata().getFirst(name);
+    return value == null ? null : String.valueOf(value);
+  }
+
+  @NotNull
+  private static String getBody(@NotNull final Response response) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ((StreamingOutput)response.getEntity()).write(output);
+    return new String(output.toByteArray(), StandardCharsets.ISO_8859_1);
+  }
+
+  private static class StreamElement implements Element {
+    @NotNull private final String myName;
+    @NotNull private final byte[] myContent;
+
+    StreamElement(@NotNull final String name, @NotNull final byte[] content) {
+      myName = name;
+      myContent = content;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+      return myName;
+    }
+
+    @NotNull
+    @Override
+    public String getFullName() {
+      return myName;
+    }
+
+    @Override
+    public boolean isLeaf() {
+      return true;
+    }
+
+    @Nullable
+    @Override
+    public Iterable<Element> getChildren() {
+      return null;
+    }
+
+    @Override
+    public boolean isContentAvailable() {
+      return true;
+    }
+
+    @NotNull
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(myContent);
+    }
+
+    @Override
+    public long getSize() {
+      return myContent.length;
+    }
+
+    @NotNull
+    @Override
+    public Browser getBrowser() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
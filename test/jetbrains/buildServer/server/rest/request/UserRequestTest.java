@@ -25,6 +25,7 @@ import java.util.stream.Collectors;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import jetbrains.buildServer.controllers.fakes.FakeHttpServletRequest;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletResponse;
 import jetbrains.buildServer.groups.SUserGroup;
 import jetbrains.buildServer.groups.UserGroup;
 import jetbrains.buildServer.server.rest.data.BaseFinderTest;
@@ -220,7 +221,7 @@ public class UserRequestTest extends BaseFinderTest<UserGroup> {
 
     final String fields = "triggered(user($long,hasPassword))";
     {
-      Build build = buildRequest.serveBuild("id:" + build10.getBuildId(), fields, new FakeHttpServletRequest());
+      Build build = buildRequest.serveBuild("id:" + build10.getBuildId(), fields, new FakeHttpServletRequest(), new FakeHttpServletResponse());
       // check that all is present
       User user = build.getTriggered().user;
       assertNotNull(user.getUsername());
@@ -239,7 +240,7 @@ public class UserRequestTest extends BaseFinderTest<UserGroup> {
     }
 
     {
-      Build build = buildRequest.serveBuild("id:" + build20.getBuildId(), fields, new FakeHttpServletRequest());
+      Build build = buildRequest.serveBuild("id:" + build20.getBuildId(), fields, new FakeHttpServletRequest(), new FakeHttpServletResponse());
       // check that all is present
       User user = build.getTriggered().user;
       assertNotNull(user.getUsername());
@@ -260,7 +261,7 @@ public class UserRequestTest extends BaseFinderTest<UserGroup> {
     securityContext.runAs(user1, new SecurityContextEx.RunAsAction() {
       @Override
       public void run() throws Throwable {
-        Build build = buildRequest.serveBuild("id:" + build10.getBuildId(), fields, new FakeHttpServletRequest());
+        Build build = buildRequest.serveBuild("id:" + build10.getBuildId(), fields, new FakeHttpServletRequest(), new FakeHttpServletResponse());
         // check that all is present
         User user = build.getTriggered().user;
         assertNotNull(user.getUsername());
@@ -280,7 +281,7 @@ public class UserRequestTest extends BaseFinderTest<UserGroup> {
     securityContext.runAs(user2, new SecurityContextEx.RunAsAction() {
       @Override
       public void run() throws Throwable {
-        Build build = buildRequest.serveBuild("id:" + build10.getBuildId(), fields, new FakeHttpServletRequest());
+        Build build = buildRequest.serveBuild("id:" + build10.getBuildId(), fields, new FakeHttpServletRequest(), new FakeHttpServletResponse());
         // check that all is present
         User user = build.getTriggered().user;
         assertNotNull(user.getUsername());
@@ -300,7 +301,7 @@ public class UserRequestTest extends BaseFinderTest<UserGroup> {
     securityContext.runAs(user1, new SecurityContextEx.RunAsAction() {
       @Override
       public void run() throws Throwable {
-        Build build = buildRequest.serveBuild("id:" + build20.getBuildId(), fields, new FakeHttpServletRequest());
+        Build build = buildRequest.serveBuild("id:" + build20.getBuildId(), fields, new FakeHttpServletRequest(), new FakeHttpServletResponse());
         // check that all is present
         User user = build.getTriggered().user;
         assertNotNull(user.getUsername());
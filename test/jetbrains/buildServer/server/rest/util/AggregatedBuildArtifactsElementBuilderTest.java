@@ -0,0 +1,215 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import jetbrains.buildServer.server.rest.data.BaseFinderTest;
+import jetbrains.buildServer.server.rest.data.RestContext;
+import jetbrains.buildServer.server.rest.errors.NotFoundException;
+import jetbrains.buildServer.server.rest.errors.OperationException;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.impl.BuildTypeImpl;
+import jetbrains.buildServer.util.FuncThrow;
+import jetbrains.buildServer.util.browser.Browser;
+import jetbrains.buildServer.util.browser.BrowserException;
+import jetbrains.buildServer.util.browser.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class AggregatedBuildArtifactsElementBuilderTest extends BaseFinderTest<String> {
+  @AfterMethod
+  public void shutdownExecutor() {
+    AggregatedBuildArtifactsElementBuilder.shutdownExecutor();
+  }
+
+  @Test
+  public void testParallelLookupSameAsSequential() throws Exception {
+    final List<BuildPromotion> builds = createBuilds(6);
+    final Function<BuildPromotion, Element> retriever = build -> {
+      if (build == builds.get(3)) throw new NotFoundException("no artifacts");
+      return new DirElement("dir", new DirElement("child" + build.getId()));
+    };
+
+    final List<String> expected = new ArrayList<>();
+    final List<BuildPromotion> expectedBuilds = new ArrayList<>();
+    for (BuildPromotion build : builds) {
+      if (build != builds.get(3)) {
+        expected.add("child" + build.getId());
+        expectedBuilds.add(build);
+      }
+    }
+    final AggregatedBuildArtifactsElementBuilder.AggregatedElement sequential = AggregatedBuildArtifactsElementBuilder.getBuildAggregatedArtifactElement("dir", builds, retriever);
+    assertEquals(expected, getChildrenNames(sequential));
+    assertEquals(expectedBuilds, sequential.getContributingBuilds());
+    final AggregatedBuildArtifactsElementBuilder.AggregatedElement parallel =
+      inContext(() -> AggregatedBuildArtifactsElementBuilder.getBuildAggregatedArtifactElement("dir", builds, retriever));
+    assertEquals(expected, getChildrenNames(parallel));
+    assertEquals(expectedBuilds, parallel.getContributingBuilds());
+  }
+
+  @Test
+  public void testTimedOutBuildsReported() throws Exception {
+    setInternalProperty(AggregatedBuildArtifactsElementBuilder.TIMEOUT_PROPERTY, "1");
+    final List<BuildPromotion> builds = createBuilds(4);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Function<BuildPromotion, Element> retriever = build -> {
+      if (build == builds.get(1) || build == builds.get(2)) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          //cancelled
+        }
+      }
+      return new DirElement("dir", new DirElement("child" + build.getId()));
+    };
+
+    final long start = System.currentTimeMillis();
+    try {
+      inContext(() -> AggregatedBuildArtifactsElementBuilder.getBuildAggregatedArtifactElement("dir", builds, retriever));
+      fail("Timed out builds should be reported");
+    } catch (OperationException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("2 of 4 builds"));
+      assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(builds.get(1).getId())));
+    } finally {
+      release.countDown();
+    }
+    final long duration = System.currentTimeMillis() - start;
+    assertTrue("The timeout should be common for all the builds, but the request took " + duration + " ms", duration < 1800);
+  }
+
+  @Test
+  public void testBoundedQueue() throws Exception {
+    setInternalProperty(AggregatedBuildArtifactsElementBuilder.THREADS_PROPERTY, "1");
+    setInternalProperty(AggregatedBuildArtifactsElementBuilder.QUEUE_SIZE_PROPERTY, "1");
+    final List<BuildPromotion> builds = createBuilds(5);
+    final Thread requestThread = Thread.currentThread();
+    final CountDownLatch requestThreadLookup = new CountDownLatch(1);
+    final AtomicInteger requestThreadLookups = new AtomicInteger();
+    final Function<BuildPromotion, Element> retriever = build -> {
+      if (Thread.currentThread() == requestThread) {
+        requestThreadLookups.incrementAndGet();
+        requestThreadLookup.countDown();
+      } else {
+        try {
+          requestThreadLookup.await(5, TimeUnit.SECONDS); //keep the only worker busy until the queue overflows
+        } catch (InterruptedException e) {
+          //cancelled
+        }
+      }
+      return new DirElement("dir", new DirElement("child" + build.getId()));
+    };
+
+    final List<String> expected = new ArrayList<>();
+    for (BuildPromotion build : builds) {
+      expected.add("child" + build.getId());
+    }
+    assertEquals(expected, getChildrenNames(inContext(() -> AggregatedBuildArtifactsElementBuilder.getBuildAggregatedArtifactElement("dir", builds, retriever))));
+    assertTrue("Lookups not fitting into the queue should run in the request thread", requestThreadLookups.get() > 0);
+  }
+
+  @NotNull
+  private List<BuildPromotion> createBuilds(final int count) {
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
+    final List<BuildPromotion> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      result.add(build().in(buildConf).finish().getBuildPromotion());
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Element inContext(@NotNull final FuncThrow<Element, RuntimeException> action) {
+    return new RestContext(name -> null, null).run(action);
+  }
+
+  @NotNull
+  private static List<String> getChildrenNames(@NotNull final Element element) throws BrowserException {
+    final List<String> result = new ArrayList<>();
+    final Iterable<Element> children = element.getChildren();
+    assertNotNull(children);
+    for (Element child : children) {
+      result.add(child.getName());
+    }
+    return result;
+  }
+
+  private static class DirElement implements Element {
+    @NotNull private final String myName;
+    @NotNull private final List<Element> myChildren;
+
+    DirElement(@NotNull final String name, @NotNull final Element... children) {
+      myName = name;
+      myChildren = new ArrayList<>();
+      Collections.addAll(myChildren, children);
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+      return myName;
+    }
+
+    @NotNull
+    @Override
+    public String getFullName() {
+      return myName;
+    }
+
+    @Override
+    public boolean isLeaf() {
+      return false;
+    }
+
+    @Nullable
+    @Override
+    public Iterable<Element> getChildren() {
+      return myChildren;
+    }
+
+    @Override
+    public boolean isContentAvailable() {
+      return false;
+    }
+
+    @NotNull
+    @Override
+    public InputStream getInputStream() {
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public long getSize() {
+      return -1;
+    }
+
+    @NotNull
+    @Override
+    public Browser getBrowser() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
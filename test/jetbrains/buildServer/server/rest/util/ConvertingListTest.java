@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.*;
+
+public class ConvertingListTest {
+  @Test
+  public void testConvertedOnEachAccess() {
+    final AtomicInteger conversions = new AtomicInteger();
+    final List<String> list = ConvertingList.create(Arrays.asList(1, 2, 3), item -> {
+      conversions.incrementAndGet();
+      return "item" + item;
+    });
+
+    assertEquals(3, list.size());
+    assertEquals("Items should not be converted until accessed", 0, conversions.get());
+
+    assertEquals("item2", list.get(1));
+    assertEquals("All the items should be converted once for validation and then the accessed one", 4, conversions.get());
+    assertTrue(((ConvertingList)list).isValidated());
+
+    assertEquals(Arrays.asList("item1", "item2", "item3"), new ArrayList<>(list));
+    assertEquals(7, conversions.get());
+    assertNotSame("Converted items should not be retained", list.get(1), list.get(1));
+    assertEquals(9, conversions.get());
+  }
+
+  @Test
+  public void testConversionErrorBeforeFirstItem() {
+    final List<String> written = new ArrayList<>();
+    final List<String> list = ConvertingList.create(Arrays.asList(1, 2, 3), item -> {
+      if (item == 3) throw new IllegalStateException("conversion failed");
+      return "item" + item;
+    });
+
+    final Iterator<String> iterator = list.iterator();
+    try {
+      while (iterator.hasNext()) {
+        written.add(iterator.next());
+      }
+      fail("Exception is expected");
+    } catch (IllegalStateException e) {
+      assertEquals("conversion failed", e.getMessage());
+    }
+    assertTrue("The error should be raised before any item is returned, so that the response is not started", written.isEmpty());
+    assertFalse(((ConvertingList)list).isValidated());
+  }
+}
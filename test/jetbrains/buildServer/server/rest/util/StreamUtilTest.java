@@ -0,0 +1,69 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamUtilTest {
+  @Test
+  public void testFromPrefixes() {
+    final List<Integer> source = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+    final List<Integer> requestedSizes = new ArrayList<>();
+    final Stream<Integer> stream = StreamUtil.fromPrefixes(count -> {
+      requestedSizes.add(count);
+      return source.subList(0, Math.min(count, source.size()));
+    }, 2, Comparator.naturalOrder());
+
+    assertEquals(Arrays.asList(1, 2, 3), stream.limit(3).collect(Collectors.toList()));
+    assertEquals(Arrays.asList(2, 4), requestedSizes);
+
+    assertEquals(source, StreamUtil.fromPrefixes(count -> source.subList(0, Math.min(count, source.size())), 1, Comparator.naturalOrder())
+                                   .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testFromPrefixesSourceOrderDiffers() {
+    //the source order is not the comparator order: the elements should not be lost
+    final List<Integer> source = Arrays.asList(5, 1, 4, 2, 9, 3, 8, 0, 7, 6);
+    for (int firstPrefixSize = 1; firstPrefixSize <= source.size(); firstPrefixSize++) {
+      final List<Integer> result = StreamUtil.fromPrefixes(count -> source.subList(0, Math.min(count, source.size())), firstPrefixSize, Comparator.naturalOrder())
+                                             .collect(Collectors.toList());
+      assertEquals("First prefix size: " + firstPrefixSize, source.size(), result.size());
+      assertEquals("First prefix size: " + firstPrefixSize, Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), result.stream().sorted().collect(Collectors.toList()));
+    }
+
+    //the whole sequence in a single prefix is returned sorted
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                 StreamUtil.fromPrefixes(count -> source.subList(0, Math.min(count, source.size())), 20, Comparator.naturalOrder()).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testMerge() {
+    assertEquals(Arrays.asList(1, 1, 2, 3, 4, 5, 6),
+                 StreamUtil.merge(Stream.of(Stream.of(1, 4, 6), Stream.of(1, 2, 3), Stream.empty(), Stream.of(5)), Comparator.<Integer>naturalOrder())
+                           .collect(Collectors.toList()));
+  }
+}